@@ -0,0 +1,1072 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Registro de eventos de actividad de solo anexado, dividido en segmentos.
+ *
+ * Cada {@link ActivityRecord} se escribe una única vez como una línea
+ * separada por tabuladores:
+ * identificador, índice en el historial del equipo, fecha, nombre del estado y
+ * descripción (con \t, \n y \\ escapados). El índice permite saber qué
+ * registros de cada equipo ya fueron escritos, de modo que solo se
+ * agregan los nuevos.
+ *
+ * El canal del segmento activo permanece abierto; las líneas se acumulan
+ * en memoria y se escriben en lote de forma periódica, al superar el
+ * tamaño del búfer o al cerrar. Cada lote actualiza también el
+ * {@link HistoryIndex}, cuyos desplazamientos son lógicos: la posición
+ * del evento en la concatenación de todos los segmentos.
+ *
+ * El segmento activo se sella al superar el tamaño configurado o cuando
+ * llegan eventos de un día posterior. Los segmentos sellados se comprimen
+ * con GZIP en segundo plano. El manifiesto registra por segmento su rango
+ * de desplazamientos, de eventos, de fechas y de identificadores, de modo
+ * que las consultas abren solo los segmentos relevantes. Al sellar se
+ * guarda además un punto de control de los cursores por equipo, y al
+ * abrir solo se recorre el segmento activo.
+ */
+public class ActivityEventLog implements Closeable {
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final int INDEX_SCAN_BLOCK = 4096;
+    private static final String MANIFEST_FILE = "segments.manifest";
+    private static final String MANIFEST_HEADER = "WMEVENTS 1";
+    private static final String INDEX_FILE = "events.idx";
+    private static final String CHECKPOINT_FILE = "cursors.checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x574D4350; // "WMCP"
+
+    /**
+     * Posición de un equipo en el registro
+     */
+    private static final class DeviceCursor {
+        // Cantidad de registros del equipo ya escritos
+        int logged;
+        // Última entrada del índice que corresponde al equipo
+        long lastEntry = HistoryIndex.NO_ENTRY;
+
+        DeviceCursor copy() {
+            DeviceCursor copy = new DeviceCursor();
+            copy.logged = logged;
+            copy.lastEntry = lastEntry;
+            return copy;
+        }
+    }
+
+    /**
+     * Evento pendiente de escritura; el desplazamiento de su entrada es
+     * relativo al lote
+     */
+    private static final class PendingEvent {
+        final String key;
+        final int recordIndex;
+        final long entryNumber;
+        final HistoryIndex.Entry entry;
+
+        PendingEvent(String key, int recordIndex, long entryNumber, HistoryIndex.Entry entry) {
+            this.key = key;
+            this.recordIndex = recordIndex;
+            this.entryNumber = entryNumber;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Metadatos de un segmento del registro
+     */
+    private static final class Segment {
+        final int number;
+        final long startOffset;
+        final long firstEvent;
+        long endOffset;
+        long eventCount;
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        String minIdentifier;
+        String maxIdentifier;
+        boolean sealed;
+        boolean compressed;
+
+        Segment(int number, long startOffset, long firstEvent) {
+            this.number = number;
+            this.startOffset = startOffset;
+            this.firstEvent = firstEvent;
+            this.endOffset = startOffset;
+        }
+
+        void include(int epochDay, String key, long lineEnd) {
+            eventCount++;
+            endOffset = lineEnd;
+            if (epochDay != HistoryIndex.NO_DATE) {
+                minDay = Math.min(minDay, epochDay);
+                maxDay = Math.max(maxDay, epochDay);
+            }
+            if (minIdentifier == null || key.compareTo(minIdentifier) < 0) {
+                minIdentifier = key;
+            }
+            if (maxIdentifier == null || key.compareTo(maxIdentifier) > 0) {
+                maxIdentifier = key;
+            }
+        }
+
+        void resetStatistics() {
+            eventCount = 0;
+            endOffset = startOffset;
+            minDay = Integer.MAX_VALUE;
+            maxDay = Integer.MIN_VALUE;
+            minIdentifier = null;
+            maxIdentifier = null;
+        }
+
+        boolean overlapsDays(long fromDay, long toDay) {
+            return eventCount > 0 && maxDay >= fromDay && minDay <= toDay;
+        }
+
+        boolean mayContain(String key) {
+            return eventCount > 0 && key.compareTo(minIdentifier) >= 0 && key.compareTo(maxIdentifier) <= 0;
+        }
+
+        String toManifestLine() {
+            return "segment\t" + number + '\t' + (compressed ? "compressed" : sealed ? "sealed" : "active")
+                + '\t' + startOffset + '\t' + endOffset + '\t' + firstEvent + '\t' + eventCount
+                + '\t' + minDay + '\t' + maxDay
+                + '\t' + escape(minIdentifier) + '\t' + escape(maxIdentifier);
+        }
+
+        static Segment parse(String line) throws StreamCorruptedException {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 11 || !fields[0].equals("segment")) {
+                throw new StreamCorruptedException("Línea de manifiesto inválida: " + line);
+            }
+            Segment segment = new Segment(Integer.parseInt(fields[1]), Long.parseLong(fields[3]),
+                Long.parseLong(fields[5]));
+            segment.sealed = !fields[2].equals("active");
+            segment.compressed = fields[2].equals("compressed");
+            segment.endOffset = Long.parseLong(fields[4]);
+            segment.eventCount = Long.parseLong(fields[6]);
+            segment.minDay = Integer.parseInt(fields[7]);
+            segment.maxDay = Integer.parseInt(fields[8]);
+            segment.minIdentifier = fields[9].isEmpty() ? null : unescape(fields[9]);
+            segment.maxIdentifier = fields[10].isEmpty() ? null : unescape(fields[10]);
+            return segment;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final HistoryIndex index;
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compressor;
+
+    // Estado de escritura: segmentos, canal activo y cursores durables
+    private final Object writeLock = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private FileChannel channel;
+    private final Map<String, DeviceCursor> durableCursors = new HashMap<>();
+
+    // Estado de anexado (protegido por this): incluye eventos aún no escritos
+    private final Map<String, DeviceCursor> cursors = new HashMap<>();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private List<PendingEvent> pendingEvents = new ArrayList<>();
+    private long nextEntry;
+
+    /**
+     * Abre (o crea) el registro en el directorio indicado. Restaura los
+     * cursores desde el último punto de control y recorre solo el segmento
+     * activo para completarlos y sincronizar el índice.
+     *
+     * @param directory Directorio de segmentos
+     * @param flushIntervalMillis Intervalo máximo entre escrituras en lote
+     * @param segmentBytes Tamaño a partir del cual se sella el segmento activo
+     */
+    public ActivityEventLog(Path directory, long flushIntervalMillis, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        readManifest();
+        this.index = new HistoryIndex(directory.resolve(INDEX_FILE));
+
+        this.channel = openActiveChannel();
+        if (readCheckpoint(active.firstEvent)) {
+            synchronizeIndex(Collections.singletonList(active));
+        } else {
+            durableCursors.clear();
+            synchronizeIndex(segments);
+        }
+        writeManifest();
+        for (Map.Entry<String, DeviceCursor> cursor : durableCursors.entrySet()) {
+            cursors.put(cursor.getKey(), cursor.getValue().copy());
+        }
+
+        this.compressor = Executors.newSingleThreadExecutor(task -> {
+            Thread worker = new Thread(task, "compresion-historial");
+            worker.setDaemon(true);
+            return worker;
+        });
+        for (Segment segment : segments) {
+            if (segment.sealed && !segment.compressed) {
+                compressor.execute(() -> compressSegment(segment));
+            } else if (segment.compressed) {
+                Files.deleteIfExists(plainPath(segment));
+            }
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread worker = new Thread(task, "registro-actividad");
+            worker.setDaemon(true);
+            return worker;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evento leído del registro
+     */
+    public static final class Event {
+        private final String identifier;
+        private final int index;
+        private final String date;
+        private final String state;
+        private final String description;
+
+        Event(String identifier, int index, String date, String state, String description) {
+            this.identifier = identifier;
+            this.index = index;
+            this.date = date;
+            this.state = state;
+            this.description = description;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getDate() {
+            return date;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return Línea del evento en el formato del registro
+         */
+        public String toLine() {
+            return formatLine(identifier, index, date, state, description);
+        }
+
+        @Override
+        public String toString() {
+            String stateName;
+            try {
+                stateName = DeviceState.valueOf(state).toString();
+            } catch (IllegalArgumentException e) {
+                stateName = state;
+            }
+            return "🏷️ " + identifier + " ↳ 📅 " + date + " - [" + stateName + "] " + description;
+        }
+    }
+
+    /**
+     * Agrega los registros de actividad del equipo que aún no fueron escritos
+     *
+     * @return Cantidad de registros nuevos agregados
+     */
+    public int append(Device device) {
+        List<ActivityRecord> records = device.getActivityLog();
+        String key = normalize(device.getIdentifier());
+        boolean flushNow;
+        int added;
+        synchronized (this) {
+            DeviceCursor cursor = cursors.computeIfAbsent(key, k -> new DeviceCursor());
+            if (records.size() < cursor.logged) {
+                // Número de serie registrado de nuevo (por ejemplo, un reingreso por garantía)
+                cursor.logged = 0;
+            }
+            added = records.size() - cursor.logged;
+            for (int i = cursor.logged; i < records.size(); i++) {
+                ActivityRecord record = records.get(i);
+                String line = formatLine(device.getIdentifier(), i, String.valueOf(record.getTimestamp()),
+                    record.getDeviceState().name(), record.getDescription());
+                byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+                pendingEvents.add(new PendingEvent(key, i, nextEntry, new HistoryIndex.Entry(pending.size(),
+                    encoded.length, (int) record.getTimestamp().toEpochDay(), cursor.lastEntry)));
+                pending.writeBytes(encoded);
+                cursor.lastEntry = nextEntry++;
+            }
+            cursor.logged = records.size();
+            flushNow = pending.size() >= FLUSH_THRESHOLD;
+        }
+        if (flushNow) {
+            flushQuietly();
+        }
+        return added;
+    }
+
+    /**
+     * El equipo salió del flujo: si su número de serie vuelve a ingresar,
+     * sus registros se escriben desde el primero, a continuación del
+     * historial anterior del mismo número de serie
+     */
+    public synchronized void restartDevice(String identifier) {
+        DeviceCursor cursor = cursors.get(normalize(identifier));
+        if (cursor != null) {
+            cursor.logged = 0;
+        }
+    }
+
+    /**
+     * Escribe en el segmento activo todas las líneas acumuladas y después
+     * sus entradas del índice; antes sella el segmento si corresponde.
+     * Si la escritura falla, el lote vuelve a quedar pendiente.
+     */
+    public void flush() throws IOException {
+        // El bloqueo de escritura se toma primero para que los lotes se escriban en orden
+        synchronized (writeLock) {
+            byte[] batch;
+            List<PendingEvent> events;
+            synchronized (this) {
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                events = pendingEvents;
+                pending = new ByteArrayOutputStream();
+                pendingEvents = new ArrayList<>();
+            }
+
+            if (active.eventCount > 0 && (channel.size() >= segmentBytes
+                    || events.get(0).entry.epochDay > active.maxDay)) {
+                seal();
+            }
+
+            long batchStart = channel.position();
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                requeue(batch, events, batchStart);
+                throw e;
+            }
+
+            List<HistoryIndex.Entry> located = new ArrayList<>(events.size());
+            for (PendingEvent event : events) {
+                HistoryIndex.Entry entry = event.entry;
+                long offset = active.startOffset + batchStart + entry.offset;
+                located.add(new HistoryIndex.Entry(offset, entry.length, entry.epochDay, entry.previous));
+                active.include(entry.epochDay, event.key, offset + entry.length);
+                DeviceCursor cursor = durableCursors.computeIfAbsent(event.key, k -> new DeviceCursor());
+                // Los eventos de cada equipo llegan en orden; un reingreso vuelve a empezar desde 0
+                cursor.logged = event.recordIndex + 1;
+                cursor.lastEntry = event.entryNumber;
+            }
+            index.append(located);
+        }
+    }
+
+    /**
+     * Devuelve al inicio de lo pendiente un lote que no se pudo escribir
+     * y descarta lo que alcanzó a escribirse de él; los cursores de
+     * anexado ya lo cuentan como registrado
+     */
+    private void requeue(byte[] batch, List<PendingEvent> events, long batchStart) {
+        try {
+            channel.truncate(batchStart);
+            channel.position(batchStart);
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo descartar un lote incompleto del historial: " + e.getMessage());
+        }
+        synchronized (this) {
+            ByteArrayOutputStream restored = new ByteArrayOutputStream(batch.length + pending.size());
+            restored.writeBytes(batch);
+            restored.writeBytes(pending.toByteArray());
+            List<PendingEvent> restoredEvents = new ArrayList<>(events);
+            for (PendingEvent event : pendingEvents) {
+                HistoryIndex.Entry entry = event.entry;
+                restoredEvents.add(new PendingEvent(event.key, event.recordIndex, event.entryNumber,
+                    new HistoryIndex.Entry(entry.offset + batch.length, entry.length, entry.epochDay,
+                        entry.previous)));
+            }
+            pending = restored;
+            pendingEvents = restoredEvents;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("❌ Error al registrar actividad del dispositivo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Cantidad total de eventos registrados
+     */
+    public long eventCount() throws IOException {
+        flush();
+        return index.size();
+    }
+
+    /**
+     * Lee una página de eventos en orden de registro
+     *
+     * @param firstEvent Número del primer evento (desde 0)
+     * @param count Cantidad máxima de eventos
+     */
+    public List<Event> readPage(long firstEvent, int count) throws IOException {
+        flush();
+        List<HistoryIndex.Entry> entries = new ArrayList<>(count);
+        index.readRange(firstEvent, count, entries);
+        return readEvents(entries);
+    }
+
+    /**
+     * Historial completo de un equipo en orden cronológico; recorre solo
+     * las entradas del índice que le corresponden y abre únicamente los
+     * segmentos donde se encuentran
+     */
+    public List<Event> readDeviceHistory(String identifier) throws IOException {
+        flush();
+        long entryNumber;
+        synchronized (writeLock) {
+            DeviceCursor cursor = durableCursors.get(normalize(identifier));
+            entryNumber = cursor == null ? HistoryIndex.NO_ENTRY : cursor.lastEntry;
+        }
+        List<HistoryIndex.Entry> entries = new ArrayList<>();
+        while (entryNumber != HistoryIndex.NO_ENTRY) {
+            HistoryIndex.Entry entry = index.read(entryNumber);
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+            entryNumber = entry.previous;
+        }
+        Collections.reverse(entries);
+        return readEvents(entries);
+    }
+
+    /**
+     * Eventos con fecha dentro del rango indicado (ambos inclusive),
+     * paginados. Solo se recorren las entradas del índice de los segmentos
+     * cuyo rango de fechas se superpone con el solicitado.
+     *
+     * @param skip Cantidad de eventos coincidentes a omitir
+     * @param count Cantidad máxima de eventos a devolver
+     */
+    public List<Event> readByDate(LocalDate from, LocalDate to, long skip, int count) throws IOException {
+        flush();
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        List<HistoryIndex.Entry> selected = new ArrayList<>(count);
+        List<HistoryIndex.Entry> block = new ArrayList<>(INDEX_SCAN_BLOCK);
+        for (Segment segment : segmentsSnapshot()) {
+            if (!segment.overlapsDays(fromDay, toDay)) {
+                continue;
+            }
+            long end = segment.firstEvent + segment.eventCount;
+            for (long first = segment.firstEvent; first < end && selected.size() < count;
+                    first += INDEX_SCAN_BLOCK) {
+                block.clear();
+                index.readRange(first, (int) Math.min(INDEX_SCAN_BLOCK, end - first), block);
+                for (HistoryIndex.Entry entry : block) {
+                    if (entry.epochDay < fromDay || entry.epochDay > toDay) {
+                        continue;
+                    }
+                    if (skip > 0) {
+                        skip--;
+                    } else if (selected.size() < count) {
+                        selected.add(entry);
+                    }
+                }
+            }
+            if (selected.size() >= count) {
+                break;
+            }
+        }
+        return readEvents(selected);
+    }
+
+    /**
+     * Recorre en orden todos los eventos de todos los segmentos
+     */
+    public void forEachEvent(Consumer<Event> action) throws IOException {
+        forEachEvent(null, null, action);
+    }
+
+    /**
+     * Recorre en orden los eventos con fecha dentro del rango indicado
+     * (ambos inclusive); los segmentos fuera del rango no se abren
+     *
+     * @param from Fecha inicial, o null sin límite
+     * @param to Fecha final, o null sin límite
+     */
+    public void forEachEvent(LocalDate from, LocalDate to, Consumer<Event> action) throws IOException {
+        flush();
+        boolean filtered = from != null || to != null;
+        long fromDay = from == null ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = to == null ? Long.MAX_VALUE : to.toEpochDay();
+        for (Segment segment : segmentsSnapshot()) {
+            if (filtered && !segment.overlapsDays(fromDay, toDay)) {
+                continue;
+            }
+            try (InputStream input = openSegment(segment)) {
+                scanLines(input, 0, (event, offset, length) -> {
+                    int epochDay = epochDayOf(event.getDate());
+                    if (!filtered || (epochDay >= fromDay && epochDay <= toDay)) {
+                        action.accept(event);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Copia el contenido en bruto de todos los segmentos, una línea por
+     * evento. Los segmentos sin comprimir se copian con
+     * {@link FileChannel#transferTo}, sin pasar por la memoria de la
+     * aplicación; los comprimidos se descomprimen en flujo.
+     *
+     * @return Bytes copiados
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        flush();
+        long copied = 0;
+        for (Segment segment : segmentsSnapshot()) {
+            synchronized (writeLock) {
+                if (segment == active) {
+                    // Solo las líneas completas ya escritas del segmento activo
+                    copied += transferFully(channel, active.endOffset - active.startOffset, target);
+                    continue;
+                }
+            }
+            FileChannel source = null;
+            if (!segment.compressed) {
+                try {
+                    source = FileChannel.open(plainPath(segment), StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // Comprimido mientras tanto
+                }
+            }
+            if (source != null) {
+                try (FileChannel plain = source) {
+                    copied += transferFully(plain, plain.size(), target);
+                }
+            } else {
+                try (InputStream input = openSegment(segment)) {
+                    // El flujo envuelve el canal de destino y no se cierra para no cerrarlo
+                    copied += input.transferTo(Channels.newOutputStream(target));
+                }
+            }
+        }
+        return copied;
+    }
+
+    private static long transferFully(FileChannel source, long count, WritableByteChannel target)
+            throws IOException {
+        long position = 0;
+        while (position < count) {
+            long transferred = source.transferTo(position, count - position, target);
+            if (transferred <= 0) {
+                throw new EOFException("Segmento de actividad truncado");
+            }
+            position += transferred;
+        }
+        return count;
+    }
+
+    /**
+     * Segmentos que pueden contener eventos del equipo según su rango de
+     * identificadores
+     *
+     * @return Cantidad de segmentos candidatos
+     */
+    public int countSegmentsFor(String identifier) {
+        String key = normalize(identifier);
+        int candidates = 0;
+        for (Segment segment : segmentsSnapshot()) {
+            if (segment.mayContain(key)) {
+                candidates++;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Lee las líneas de las entradas indicadas agrupándolas por segmento:
+     * el activo se lee por posición y cada segmento sellado se recorre una
+     * sola vez en orden de desplazamiento
+     */
+    private List<Event> readEvents(List<HistoryIndex.Entry> entries) throws IOException {
+        Event[] events = new Event[entries.size()];
+        List<Segment> available = segmentsSnapshot();
+        Map<Segment, List<Integer>> bySegment = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            bySegment.computeIfAbsent(segmentFor(available, entries.get(i).offset), s -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<Segment, List<Integer>> group : bySegment.entrySet()) {
+            Segment segment = group.getKey();
+            List<Integer> positions = group.getValue();
+            positions.sort((a, b) -> Long.compare(entries.get(a).offset, entries.get(b).offset));
+            synchronized (writeLock) {
+                if (segment == active) {
+                    for (int position : positions) {
+                        HistoryIndex.Entry entry = entries.get(position);
+                        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, entry.offset - segment.startOffset + buffer.position()) < 0) {
+                                throw new EOFException("Registro de actividad truncado");
+                            }
+                        }
+                        events[position] = parseLine(buffer.array(), entry.length);
+                    }
+                    continue;
+                }
+            }
+            try (InputStream input = new BufferedInputStream(openSegment(segment))) {
+                long current = segment.startOffset;
+                for (int position : positions) {
+                    HistoryIndex.Entry entry = entries.get(position);
+                    input.skipNBytes(entry.offset - current);
+                    byte[] line = input.readNBytes(entry.length);
+                    if (line.length < entry.length) {
+                        throw new EOFException("Segmento de actividad truncado");
+                    }
+                    events[position] = parseLine(line, entry.length);
+                    current = entry.offset + entry.length;
+                }
+            }
+        }
+
+        List<Event> result = new ArrayList<>(events.length);
+        for (Event event : events) {
+            if (event != null) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * La longitud de la línea incluye el salto de línea final
+     */
+    private static Event parseLine(byte[] line, int length) {
+        return parse(new String(line, 0, length - 1, StandardCharsets.UTF_8));
+    }
+
+    private static Segment segmentFor(List<Segment> available, long offset) {
+        int low = 0;
+        int high = available.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (available.get(middle).startOffset <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return available.get(low);
+    }
+
+    private List<Segment> segmentsSnapshot() {
+        synchronized (writeLock) {
+            return new ArrayList<>(segments);
+        }
+    }
+
+    /**
+     * Cierra el segmento activo, guarda el punto de control de los
+     * cursores y abre el siguiente; la compresión ocurre en segundo plano
+     */
+    private void seal() throws IOException {
+        channel.force(false);
+        channel.close();
+        active.sealed = true;
+        writeCheckpoint(active.firstEvent + active.eventCount);
+
+        Segment sealedSegment = active;
+        active = new Segment(sealedSegment.number + 1, sealedSegment.endOffset,
+            sealedSegment.firstEvent + sealedSegment.eventCount);
+        segments.add(active);
+        writeManifest();
+        channel = openActiveChannel();
+        compressor.execute(() -> compressSegment(sealedSegment));
+    }
+
+    private void compressSegment(Segment segment) {
+        Path plain = plainPath(segment);
+        Path compressed = compressedPath(segment);
+        Path temporary = compressed.resolveSibling(compressed.getFileName() + ".tmp");
+        try {
+            try (InputStream input = Files.newInputStream(plain);
+                 FileOutputStream fileStream = new FileOutputStream(temporary.toFile())) {
+                GZIPOutputStream output = new GZIPOutputStream(fileStream, 64 * 1024);
+                input.transferTo(output);
+                output.finish();
+                fileStream.getFD().sync();
+            }
+            Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            synchronized (writeLock) {
+                segment.compressed = true;
+                writeManifest();
+            }
+            Files.delete(plain);
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo comprimir el segmento de historial "
+                + segment.number + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre el contenido de un segmento; si la versión sin comprimir ya fue
+     * reemplazada se usa la comprimida
+     */
+    private InputStream openSegment(Segment segment) throws IOException {
+        if (!segment.compressed) {
+            try {
+                return Files.newInputStream(plainPath(segment));
+            } catch (NoSuchFileException e) {
+                // Comprimido mientras tanto
+            }
+        }
+        return new GZIPInputStream(Files.newInputStream(compressedPath(segment)), 64 * 1024);
+    }
+
+    private FileChannel openActiveChannel() throws IOException {
+        FileChannel activeChannel = FileChannel.open(plainPath(active), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Una línea incompleta de una escritura interrumpida se cierra para no mezclarla con la siguiente
+        long size = activeChannel.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        if (size > 0 && activeChannel.read(last, size - 1) == 1 && last.get(0) != '\n') {
+            activeChannel.write(ByteBuffer.wrap(new byte[] {'\n'}), size);
+        }
+        activeChannel.position(activeChannel.size());
+        return activeChannel;
+    }
+
+    private Path plainPath(Segment segment) {
+        return directory.resolve("events_" + segment.number + ".log");
+    }
+
+    private Path compressedPath(Segment segment) {
+        return directory.resolve("events_" + segment.number + ".log.gz");
+    }
+
+    /**
+     * Recorre los segmentos indicados y compara cada evento con su entrada
+     * del índice; desde la primera diferencia el índice se reconstruye.
+     * Actualiza los cursores durables y las estadísticas del segmento activo.
+     */
+    private void synchronizeIndex(List<Segment> toScan) throws IOException {
+        long indexed = index.size();
+        long[] entryNumber = {toScan.get(0).firstEvent};
+        boolean[] diverged = {false};
+        List<HistoryIndex.Entry> rebuilt = new ArrayList<>();
+        List<HistoryIndex.Entry> existing = new ArrayList<>(INDEX_SCAN_BLOCK);
+        long[] existingStart = {entryNumber[0]};
+
+        for (Segment segment : toScan) {
+            if (segment == active) {
+                active.resetStatistics();
+            }
+            IOException[] failure = new IOException[1];
+            try (InputStream input = openSegment(segment)) {
+                scanLines(input, segment.startOffset, (event, offset, length) -> {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    String key = normalize(event.getIdentifier());
+                    DeviceCursor cursor = durableCursors.computeIfAbsent(key, k -> new DeviceCursor());
+                    int epochDay = epochDayOf(event.getDate());
+                    HistoryIndex.Entry entry = new HistoryIndex.Entry(offset, length, epochDay, cursor.lastEntry);
+                    try {
+                        if (!diverged[0]) {
+                            if (entryNumber[0] >= existingStart[0] + existing.size()) {
+                                existingStart[0] = entryNumber[0];
+                                existing.clear();
+                                index.readRange(entryNumber[0], INDEX_SCAN_BLOCK, existing);
+                            }
+                            int position = (int) (entryNumber[0] - existingStart[0]);
+                            if (position >= existing.size() || !entry.sameAs(existing.get(position))) {
+                                index.truncate(entryNumber[0]);
+                                diverged[0] = true;
+                            }
+                        }
+                        if (diverged[0]) {
+                            rebuilt.add(entry);
+                            if (rebuilt.size() == INDEX_SCAN_BLOCK) {
+                                index.append(rebuilt);
+                                rebuilt.clear();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                        return;
+                    }
+                    cursor.logged = event.getIndex() + 1;
+                    cursor.lastEntry = entryNumber[0]++;
+                    if (segment == active) {
+                        active.include(epochDay, key, offset + length);
+                    }
+                });
+            }
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        index.append(rebuilt);
+        if (!diverged[0] && indexed > entryNumber[0]) {
+            index.truncate(entryNumber[0]);
+        }
+        nextEntry = entryNumber[0];
+    }
+
+    @FunctionalInterface
+    private interface LineVisitor {
+        void visit(Event event, long offset, int length);
+    }
+
+    /**
+     * Recorre las líneas completas de un flujo informando su desplazamiento
+     * lógico y longitud; las líneas que no son eventos válidos se omiten
+     */
+    private static void scanLines(InputStream stream, long baseOffset, LineVisitor visitor) throws IOException {
+        InputStream input = stream instanceof BufferedInputStream ? stream : new BufferedInputStream(stream);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long offset = baseOffset;
+        long lineStart = baseOffset;
+        int value;
+        while ((value = input.read()) != -1) {
+            offset++;
+            if (value != '\n') {
+                line.write(value);
+                continue;
+            }
+            Event event = parse(line.toString(StandardCharsets.UTF_8));
+            line.reset();
+            if (event != null) {
+                visitor.visit(event, lineStart, (int) (offset - lineStart));
+            }
+            lineStart = offset;
+        }
+    }
+
+    private void readManifest() throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        if (Files.exists(manifestPath)) {
+            List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !MANIFEST_HEADER.equals(lines.get(0))) {
+                throw new StreamCorruptedException("Manifiesto del historial no reconocido");
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                segments.add(Segment.parse(line));
+            }
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).sealed) {
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            segments.add(last == null ? new Segment(1, 0, 0)
+                : new Segment(last.number + 1, last.endOffset, last.firstEvent + last.eventCount));
+        }
+        active = segments.get(segments.size() - 1);
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+        for (Segment segment : segments) {
+            manifest.append(segment.toManifestLine()).append('\n');
+        }
+        writeDurably(directory.resolve(MANIFEST_FILE), manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param coveredEvents Cantidad de eventos incluidos en los cursores
+     */
+    private void writeCheckpoint(long coveredEvents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(CHECKPOINT_MAGIC);
+            output.writeLong(coveredEvents);
+            output.writeInt(durableCursors.size());
+            for (Map.Entry<String, DeviceCursor> cursor : durableCursors.entrySet()) {
+                output.writeUTF(cursor.getKey());
+                output.writeInt(cursor.getValue().logged);
+                output.writeLong(cursor.getValue().lastEntry);
+            }
+        }
+        writeDurably(directory.resolve(CHECKPOINT_FILE), bytes.toByteArray());
+    }
+
+    /**
+     * @return true si el punto de control corresponde al inicio del segmento activo
+     */
+    private boolean readCheckpoint(long expectedEvents) throws IOException {
+        Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointPath)) {
+            return expectedEvents == 0;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(checkpointPath)))) {
+            if (input.readInt() != CHECKPOINT_MAGIC || input.readLong() != expectedEvents) {
+                return false;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                DeviceCursor cursor = new DeviceCursor();
+                String key = input.readUTF();
+                cursor.logged = input.readInt();
+                cursor.lastEntry = input.readLong();
+                durableCursors.put(key, cursor);
+            }
+            return true;
+        } catch (EOFException e) {
+            durableCursors.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Escribe en un archivo temporal, fuerza a disco y lo reemplaza de forma atómica
+     */
+    private static void writeDurably(Path target, byte[] content) throws IOException {
+        Path temporaryPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temporaryPath.toFile())) {
+            fileStream.write(content);
+            fileStream.getFD().sync();
+        }
+        Files.move(temporaryPath, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Línea de un evento: identificador, índice, fecha, estado y descripción
+     * separados por tabuladores y terminada en salto de línea
+     */
+    static String formatLine(String identifier, int index, String date, String state, String description) {
+        return escape(identifier) + '\t' + index + '\t' + date + '\t' + state + '\t' + escape(description) + '\n';
+    }
+
+    /**
+     * @return Evento de la línea, o null si está incompleta (escritura interrumpida)
+     */
+    static Event parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new Event(unescape(fields[0]), Integer.parseInt(fields[1]), fields[2], fields[3],
+                unescape(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Escribe lo pendiente, fuerza a disco y cierra el canal
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        flush();
+        synchronized (writeLock) {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+                writeManifest();
+                index.force();
+                index.close();
+            }
+        }
+    }
+
+    private static int epochDayOf(String date) {
+        try {
+            return (int) LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return HistoryIndex.NO_DATE;
+        }
+    }
+
+    private static String normalize(String identifier) {
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder plain = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                plain.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                plain.append(c);
+            }
+        }
+        return plain.toString();
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de carga de la API HTTP (java ApiLoadTest [clientes] [solicitudes por cliente]).
+ *
+ * Levanta el servidor en un puerto libre sobre colas en memoria (sin
+ * diario) y lanza clientes concurrentes que ingresan, consultan y hacen
+ * avanzar equipos. Muestra el rendimiento y los percentiles de latencia
+ * por solicitud. No toca los datos del sistema.
+ */
+public final class ApiLoadTest {
+    private static final int DEFAULT_CLIENTS = 500;
+    private static final int DEFAULT_REQUESTS = 40;
+
+    private ApiLoadTest() {
+    }
+
+    /**
+     * Punto de entrada de la herramienta, independiente de la aplicación
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients;
+        int requestsPerClient;
+        try {
+            clients = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+            requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: java ApiLoadTest [clientes] [solicitudes por cliente]");
+            System.exit(2);
+            return;
+        }
+        run(clients, requestsPerClient);
+    }
+
+    /**
+     * @param clients Clientes simultáneos (0 usa el valor por defecto)
+     * @param requestsPerClient Solicitudes por cliente (0 usa el valor por defecto)
+     */
+    public static void run(int clients, int requestsPerClient) throws IOException, InterruptedException {
+        int clientCount = clients > 0 ? clients : DEFAULT_CLIENTS;
+        int requestCount = requestsPerClient > 0 ? requestsPerClient : DEFAULT_REQUESTS;
+
+        Map<DeviceState, DeviceQueue> queues = new EnumMap<>(DeviceState.class);
+        for (DeviceState state : DeviceState.values()) {
+            queues.put(state, new DeviceQueue(state));
+        }
+        DeviceIndex deviceIndex = DeviceIndex.build(queues);
+        ApiServer apiServer = new ApiServer(queues, deviceIndex, new WorkflowEngine(queues, deviceIndex, false), 0);
+        apiServer.start();
+
+        ExecutorService clientExecutor = ApiServer.newVirtualThreadExecutor();
+        if (clientExecutor == null) {
+            clientExecutor = ApiServer.newDaemonPool(clientCount, "cliente-");
+        }
+        ExecutorService clientIo = ApiServer.newDaemonPool(Runtime.getRuntime().availableProcessors() * 2,
+            "cliente-io-");
+        HttpClient client = HttpClient.newBuilder()
+            .executor(clientIo)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+        String base = "http://localhost:" + apiServer.getPort() + "/api/";
+        System.out.println("🧪 Prueba de carga: " + clientCount + " clientes x " + requestCount
+            + " solicitudes, hilos " + (apiServer.usesVirtualThreads() ? "virtuales" : "de plataforma (JDK sin hilos virtuales)"));
+
+        long[][] latencies = new long[clientCount][];
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(clientCount);
+        long start = System.nanoTime();
+        for (int c = 0; c < clientCount; c++) {
+            int clientNumber = c;
+            clientExecutor.execute(() -> {
+                try {
+                    latencies[clientNumber] = runClient(client, base, clientNumber, requestCount, failures);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clientExecutor.shutdown();
+        clientIo.shutdown();
+        apiServer.stop();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("   %,d solicitudes en %.2f s: %,.0f solicitudes/s, %d fallidas%n",
+            all.length, seconds, all.length / seconds, failures.get());
+        System.out.printf("   Latencia (ms): p50 %.2f | p90 %.2f | p99 %.2f | p99.9 %.2f | máx %.2f%n",
+            percentile(all, 50), percentile(all, 90), percentile(all, 99), percentile(all, 99.9),
+            all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+    }
+
+    /**
+     * Un cliente de la prueba: ingresa equipos y alterna consultas con
+     * operaciones de cada etapa del flujo
+     *
+     * @return Latencia de cada solicitud en nanosegundos
+     */
+    private static long[] runClient(HttpClient client, String base, int clientNumber, int requestCount,
+            AtomicLong failures) {
+        long[] latencies = new long[requestCount];
+        for (int r = 0; r < requestCount; r++) {
+            String identifier = "API-" + clientNumber + "-" + r;
+            HttpRequest request;
+            switch (r % 6) {
+                case 0:
+                    request = post(base + "equipos", "{\"identifier\":\"" + identifier
+                        + "\",\"issueDescription\":\"No enciende\",\"owner\":\"Cliente " + clientNumber
+                        + "\",\"ownerEmail\":\"c" + clientNumber + "@correo.com\",\"ownerPhone\":\"88888888\"}");
+                    break;
+                case 1:
+                    request = HttpRequest.newBuilder(URI.create(base + "equipos/API-" + clientNumber + "-"
+                        + (r - 1))).GET().build();
+                    break;
+                case 2:
+                    request = post(base + "evaluacion", "{\"technicalAnalysis\":\"Fuente\",\"requiresRepair\":true}");
+                    break;
+                case 3:
+                    request = post(base + "reparacion", "{\"repairWork\":\"Cambio\",\"technicianId\":\"T"
+                        + clientNumber + "\"}");
+                    break;
+                case 4:
+                    request = post(base + "calidad", "{\"approved\":true}");
+                    break;
+                default:
+                    request = HttpRequest.newBuilder(URI.create(base + "colas?limite=5")).GET().build();
+            }
+            long started = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                // 404 es válido: otra etapa pudo vaciar la cola antes que este cliente
+                if (response.statusCode() >= 500) {
+                    failures.incrementAndGet();
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Arrays.copyOf(latencies, r);
+            }
+            latencies[r] = System.nanoTime() - started;
+        }
+        return latencies;
+    }
+
+    private static HttpRequest post(String uri, String json) {
+        return HttpRequest.newBuilder(URI.create(uri))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(json))
+            .build();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int position = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, position))] / 1e6;
+    }
+}
@@ -0,0 +1,609 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor HTTP con API JSON para operar el flujo de trabajo sin consola
+ * (kioscos de recepción, tabletas de técnicos y tableros).
+ *
+ * Usa el servidor HTTP incluido en el JDK. Cada solicitud se atiende en
+ * un hilo virtual cuando el JDK los ofrece (21 o posterior); en JDK
+ * anteriores se usa un pool acotado de hilos de plataforma. Las
+ * operaciones del flujo pasan por {@link WorkflowEngine}, por lo que
+ * muchas solicitudes simultáneas no pierden ni duplican equipos.
+ *
+ * Rutas:
+ * - GET  /api/colas                     resumen de las colas (?limite=n equipos por cola)
+ * - GET  /api/equipos/{serie}           detalle de un equipo
+ * - GET  /api/equipos/{serie}/historial eventos del equipo
+ * - GET  /api/equipos?propietario=|correo=|telefono=|tecnico=|desde=&hasta=
+ * - POST /api/equipos                   ingreso de un equipo
+ * - PUT  /api/equipos/{serie}/prioridad cambio de prioridad ("version" opcional:
+ *                                       409 si el equipo cambió desde esa versión)
+ * - POST /api/evaluacion, /api/reparacion, /api/calidad, /api/entrega
+ *                                       atienden el siguiente equipo de cada etapa
+ * - GET  /api/historial?q=              búsqueda en el historial
+ * - GET  /api/replicacion               estado y retraso de la replicación
+ *
+ * En un nodo seguidor ({@link ReplicationFollower}) solo se admiten consultas.
+ */
+public class ApiServer {
+    private static final int BACKLOG = 4096;
+    private static final int PLATFORM_THREADS = Math.max(64, Runtime.getRuntime().availableProcessors() * 16);
+    static final int DEFAULT_QUEUE_LIMIT = 100;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    // Tamaño máximo del cuerpo de una solicitud
+    static final int MAX_BODY_BYTES = Integer.getInteger("warranty.maxBodyBytes", 1 << 20);
+
+    /**
+     * Error con el código HTTP que se devuelve al cliente
+     */
+    private static final class ApiException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final Map<DeviceState, DeviceQueue> workflows;
+    private final DeviceIndex index;
+    private final WorkflowEngine engine;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final boolean virtualThreads;
+    private final ReplicationFollower follower;
+
+    /**
+     * @param workflows Colas del flujo de trabajo
+     * @param index Índice asociado a las colas
+     * @param engine Motor del flujo sobre esas colas
+     * @param port Puerto de escucha (0 elige uno libre)
+     */
+    public ApiServer(Map<DeviceState, DeviceQueue> workflows, DeviceIndex index, WorkflowEngine engine,
+            int port) throws IOException {
+        this(workflows, index, engine, port, null);
+    }
+
+    /**
+     * @param follower Seguidor que mantiene las colas, o null si este nodo admite modificaciones
+     */
+    public ApiServer(Map<DeviceState, DeviceQueue> workflows, DeviceIndex index, WorkflowEngine engine,
+            int port, ReplicationFollower follower) throws IOException {
+        this.workflows = workflows;
+        this.index = index;
+        this.engine = engine;
+        this.follower = follower;
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.requestExecutor = virtual != null ? virtual : newPlatformExecutor();
+        server.setExecutor(requestExecutor);
+        server.createContext("/api/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Deja de aceptar conexiones y espera hasta un segundo a las solicitudes en curso
+     */
+    public void stop() {
+        server.stop(1);
+        requestExecutor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Ejecutor con un hilo virtual por tarea, obtenido por reflexión para
+     * compilar y ejecutar también en JDK sin hilos virtuales
+     *
+     * @return Ejecutor, o null si el JDK no ofrece hilos virtuales
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor() {
+        return newDaemonPool(PLATFORM_THREADS, "api-");
+    }
+
+    static ExecutorService newDaemonPool(int threads, String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, task -> {
+            Thread worker = new Thread(task, namePrefix + counter.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = route(exchange);
+            if (body == null) {
+                status = 204;
+            } else if ("POST".equals(exchange.getRequestMethod())
+                    && exchange.getRequestURI().getPath().replaceAll("/+$", "").equals("/api/equipos")) {
+                status = 201;
+            }
+        } catch (ApiException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (ConcurrentModificationException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            status = 500;
+            body = error("Error interno: " + e.getMessage());
+        }
+        send(exchange, status, body);
+    }
+
+    private String route(HttpExchange exchange) throws ApiException, IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = Arrays.stream(exchange.getRequestURI().getPath().split("/"))
+            .filter(segment -> !segment.isEmpty())
+            .toArray(String[]::new);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        if (follower != null && !"GET".equals(method)) {
+            throw new ApiException(403, "Nodo seguidor de solo lectura: envíe las modificaciones al principal "
+                + follower.getPrimaryAddress());
+        }
+
+        // path[0] es "api"
+        String resource = path.length > 1 ? path[1] : "";
+        switch (resource) {
+            case "colas":
+                requireMethod(method, "GET");
+                return queues(query);
+            case "equipos":
+                if (path.length == 2) {
+                    if ("POST".equals(method)) {
+                        return intake(readBody(exchange));
+                    }
+                    requireMethod(method, "GET");
+                    return lookup(query);
+                }
+                Device device = index.find(path[2]);
+                if (device == null) {
+                    throw new ApiException(404, "No existe un equipo con ese número de serie");
+                }
+                if (path.length == 3) {
+                    requireMethod(method, "GET");
+                    return deviceJson(device, true);
+                }
+                if (path.length == 4 && path[3].equals("historial")) {
+                    requireMethod(method, "GET");
+                    return history(DataManager.readDeviceHistory(device.getIdentifier()));
+                }
+                if (path.length == 4 && path[3].equals("prioridad")) {
+                    requireMethod(method, "PUT");
+                    Map<String, Object> request = readBody(exchange);
+                    ServicePriority priority = parsePriority(requireString(request, "priority"));
+                    if (!engine.changePriority(device, priority, optionalVersion(request))) {
+                        throw new ApiException(409, "El equipo ya no está en el flujo de trabajo");
+                    }
+                    return deviceJson(device, false);
+                }
+                break;
+            case "evaluacion":
+                requireMethod(method, "POST");
+                return examine(readBody(exchange));
+            case "reparacion":
+                requireMethod(method, "POST");
+                return repair(readBody(exchange));
+            case "calidad":
+                requireMethod(method, "POST");
+                return qualityCheck(readBody(exchange));
+            case "entrega":
+                requireMethod(method, "POST");
+                return deliver(readBody(exchange));
+            case "historial":
+                requireMethod(method, "GET");
+                return search(query);
+            case "replicacion":
+                requireMethod(method, "GET");
+                return replication();
+            default:
+                break;
+        }
+        throw new ApiException(404, "Ruta no encontrada");
+    }
+
+    private String queues(Map<String, String> query) throws ApiException {
+        int limit = query.containsKey("limite") ? parseInt(query.get("limite")) : DEFAULT_QUEUE_LIMIT;
+        Map<DeviceState, DeviceQueue> view = DataManager.snapshotWorkflows(workflows);
+        StringBuilder json = new StringBuilder("{");
+        for (DeviceState state : DeviceState.values()) {
+            DeviceQueue queue = view.get(state);
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(HistoryExporter.json(state.name())).append(":{\"size\":").append(queue.size())
+                .append(",\"devices\":[");
+            List<Device> devices = queue.getQueueList();
+            for (int i = 0; i < Math.min(limit, devices.size()); i++) {
+                Device device = devices.get(i);
+                if (i > 0) {
+                    json.append(',');
+                }
+                // Solo la cabecera, para no cargar el detalle de cada equipo
+                json.append("{\"identifier\":").append(string(device.getIdentifier()))
+                    .append(",\"owner\":").append(string(device.getOwner())).append('}');
+            }
+            json.append("]}");
+        }
+        return json.append('}').toString();
+    }
+
+    private String lookup(Map<String, String> query) throws ApiException {
+        List<Device> devices;
+        if (query.containsKey("propietario")) {
+            devices = index.findByOwner(query.get("propietario"));
+        } else if (query.containsKey("correo")) {
+            devices = index.findByEmail(query.get("correo"));
+        } else if (query.containsKey("telefono")) {
+            devices = index.findByPhone(query.get("telefono"));
+        } else if (query.containsKey("tecnico")) {
+            devices = index.findByTechnician(query.get("tecnico"));
+        } else if (query.containsKey("desde") || query.containsKey("hasta")) {
+            devices = index.findByEntryDate(parseDate(query.getOrDefault("desde", "0001-01-01")),
+                parseDate(query.getOrDefault("hasta", "9999-12-31")));
+        } else {
+            throw new ApiException(400, "Indique propietario, correo, telefono, tecnico o desde/hasta");
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (Device device : devices) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(deviceJson(device, false));
+        }
+        return json.append(']').toString();
+    }
+
+    private String intake(Map<String, Object> request) throws ApiException {
+        String identifier = requireString(request, "identifier");
+        String ownerEmail = requireString(request, "ownerEmail");
+        String ownerPhone = requireString(request, "ownerPhone");
+        if (!App.EMAIL_PATTERN.matcher(ownerEmail).matches()) {
+            throw new ApiException(400, "Correo electrónico inválido");
+        }
+        if (!App.PHONE_PATTERN.matcher(ownerPhone).matches()) {
+            throw new ApiException(400, "El teléfono debe tener exactamente 8 dígitos numéricos");
+        }
+        LocalDate entryDate = request.get("entryDate") == null
+            ? LocalDate.now() : parseDate(requireString(request, "entryDate"));
+
+        Device device = new Device(identifier, requireString(request, "issueDescription"), entryDate,
+            requireString(request, "owner"), ownerEmail, ownerPhone);
+        if (request.get("priority") != null) {
+            device.setServicePriority(parsePriority(requireString(request, "priority")));
+        }
+        if (!engine.intake(device)) {
+            throw new ApiException(409, "Ya existe un equipo con ese número de serie");
+        }
+        return deviceJson(device, false);
+    }
+
+    private String examine(Map<String, Object> request) throws ApiException {
+        String analysis = requireString(request, "technicalAnalysis");
+        boolean requiresRepair = requireBoolean(request, "requiresRepair");
+        Device device = engine.claimNext(DeviceState.RECEIVED);
+        if (device == null) {
+            throw new ApiException(404, "No hay equipos pendientes de evaluación");
+        }
+        engine.finishExamination(device, analysis, requiresRepair);
+        return deviceJson(device, false);
+    }
+
+    private String repair(Map<String, Object> request) throws ApiException {
+        String repairWork = requireString(request, "repairWork");
+        String technicianId = requireString(request, "technicianId");
+        Device device = engine.claimNext(DeviceState.IN_REPAIR);
+        if (device == null) {
+            throw new ApiException(404, "No hay equipos en reparación");
+        }
+        engine.finishRepair(device, repairWork, technicianId);
+        return deviceJson(device, false);
+    }
+
+    private String qualityCheck(Map<String, Object> request) throws ApiException {
+        boolean approved = requireBoolean(request, "approved");
+        Device device = engine.claimNext(DeviceState.QUALITY_CHECK);
+        if (device == null) {
+            throw new ApiException(404, "No hay equipos en control de calidad");
+        }
+        engine.finishQualityCheck(device, approved);
+        return deviceJson(device, false);
+    }
+
+    private String deliver(Map<String, Object> request) throws ApiException {
+        boolean confirmed = request.get("confirmed") == null || requireBoolean(request, "confirmed");
+        Device device = engine.claimNext(DeviceState.READY_DELIVERY);
+        if (device == null) {
+            throw new ApiException(404, "No hay equipos listos para entrega");
+        }
+        CompletableFuture<Long> durability = engine.finishDelivery(device, confirmed);
+        // La entrega se confirma al cliente solo cuando es durable, igual que en la consola
+        if (confirmed && durability != null && !DataManager.awaitDurable(durability)) {
+            throw new ApiException(500, "La entrega no pudo confirmarse en disco");
+        }
+        return deviceJson(device, false);
+    }
+
+    private String replication() {
+        if (follower != null) {
+            return "{\"role\":\"seguidor\",\"primary\":" + string(follower.getPrimaryAddress())
+                + ",\"connected\":" + follower.isConnected()
+                + ",\"appliedSequence\":" + follower.getAppliedSequence()
+                + ",\"primarySequence\":" + follower.getPrimarySequence()
+                + ",\"lagEntries\":" + follower.getLagEntries()
+                + ",\"lastDelayMillis\":" + follower.getLastDelayMillis()
+                + ",\"maxDelayMillis\":" + follower.getMaxDelayMillis() + "}";
+        }
+        ReplicationPrimary primary = DataManager.getReplicationPrimary();
+        if (primary == null) {
+            return "{\"role\":\"independiente\"}";
+        }
+        StringBuilder json = new StringBuilder("{\"role\":\"principal\",\"lastSequence\":")
+            .append(primary.getLastSequence())
+            .append(",\"durableSequence\":").append(primary.getDurableSequence())
+            .append(",\"followers\":[");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : primary.getFollowerSequences().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"address\":").append(string(entry.getKey()))
+                .append(",\"sentSequence\":").append(entry.getValue())
+                .append(",\"lagEntries\":").append(Math.max(0, primary.getDurableSequence() - entry.getValue()))
+                .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String search(Map<String, String> query) throws ApiException {
+        String text = query.get("q");
+        if (text == null || text.isBlank()) {
+            throw new ApiException(400, "Indique el texto a buscar en q");
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (SearchIndex.Hit hit : DataManager.searchHistory(text, SEARCH_RESULT_LIMIT)) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"identifier\":").append(string(hit.getIdentifier()))
+                .append(",\"field\":").append(string(hit.getField().name()))
+                .append(",\"date\":").append(string(hit.getDate()))
+                .append(",\"text\":").append(string(hit.getText())).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static String history(List<ActivityEventLog.Event> events) {
+        StringBuilder json = new StringBuilder("[");
+        for (ActivityEventLog.Event event : events) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"index\":").append(event.getIndex())
+                .append(",\"date\":").append(string(event.getDate()))
+                .append(",\"state\":").append(string(event.getState()))
+                .append(",\"description\":").append(string(event.getDescription())).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static String deviceJson(Device device, boolean withActivity) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"identifier\":").append(string(device.getIdentifier()))
+            .append(",\"owner\":").append(string(device.getOwner()))
+            .append(",\"ownerEmail\":").append(string(device.getOwnerEmail()))
+            .append(",\"ownerPhone\":").append(string(device.getOwnerPhone()))
+            .append(",\"entryDate\":").append(string(String.valueOf(device.getEntryDate())))
+            .append(",\"issueDescription\":").append(string(device.getIssueDescription()))
+            .append(",\"state\":").append(string(device.getCurrentState().name()))
+            .append(",\"priority\":").append(string(device.getServicePriority().name()))
+            .append(",\"technicalAnalysis\":").append(string(device.getTechnicalAnalysis()))
+            .append(",\"repairWork\":").append(string(device.getRepairWork()))
+            .append(",\"technicianId\":").append(string(device.getTechnicianId()))
+            .append(",\"version\":").append(device.getVersion());
+        if (withActivity) {
+            json.append(",\"activity\":[");
+            boolean first = true;
+            for (ActivityRecord record : device.getActivityLog()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append("{\"date\":").append(string(String.valueOf(record.getTimestamp())))
+                    .append(",\"state\":").append(string(record.getDeviceState().name()))
+                    .append(",\"description\":").append(string(record.getDescription())).append('}');
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    static String string(String value) {
+        return value == null ? "null" : HistoryExporter.json(value);
+    }
+
+    static String error(String message) {
+        return "{\"error\":" + string(message) + "}";
+    }
+
+    static void send(HttpExchange exchange, int status, String body) throws IOException {
+        try (exchange) {
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        }
+    }
+
+    private static void requireMethod(String method, String expected) throws ApiException {
+        if (!expected.equals(method)) {
+            throw new ApiException(405, "Método no permitido: " + method);
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws ApiException, IOException {
+        byte[] content = readLimitedBody(exchange);
+        if (content == null) {
+            throw new ApiException(413, "El cuerpo de la solicitud supera " + MAX_BODY_BYTES + " bytes");
+        }
+        String body = new String(content, StandardCharsets.UTF_8);
+        try {
+            return body.isBlank() ? new HashMap<>() : new JsonReader(body).readObject();
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, e.getMessage());
+        }
+    }
+
+    /**
+     * Lee el cuerpo de la solicitud sin pasar del tamaño máximo
+     *
+     * @return Contenido del cuerpo, o null si supera el máximo
+     */
+    static byte[] readLimitedBody(HttpExchange exchange) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] content = input.readNBytes(MAX_BODY_BYTES + 1);
+            return content.length > MAX_BODY_BYTES ? null : content;
+        }
+    }
+
+    private static String requireString(Map<String, Object> request, String field) throws ApiException {
+        Object value = request.get(field);
+        if (!(value instanceof String) || ((String) value).isBlank()) {
+            throw new ApiException(400, "El campo " + field + " es obligatorio");
+        }
+        return ((String) value).trim();
+    }
+
+    private static boolean requireBoolean(Map<String, Object> request, String field) throws ApiException {
+        Object value = request.get(field);
+        if (!(value instanceof Boolean)) {
+            throw new ApiException(400, "El campo " + field + " debe ser true o false");
+        }
+        return (Boolean) value;
+    }
+
+    /**
+     * @return Versión enviada por el cliente, o -1 si no la incluyó
+     */
+    private static long optionalVersion(Map<String, Object> request) throws ApiException {
+        Object value = request.get("version");
+        if (value == null) {
+            return -1;
+        }
+        if (!(value instanceof Double) || (Double) value < 0 || (Double) value != Math.rint((Double) value)) {
+            throw new ApiException(400, "El campo version debe ser un entero no negativo");
+        }
+        return ((Double) value).longValue();
+    }
+
+    private static ServicePriority parsePriority(String name) throws ApiException {
+        try {
+            return ServicePriority.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Prioridad desconocida: " + name);
+        }
+    }
+
+    private static LocalDate parseDate(String value) throws ApiException {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "Fecha inválida (use YYYY-MM-DD): " + value);
+        }
+    }
+
+    private static int parseInt(String value) throws ApiException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "Número inválido: " + value);
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /**
+     * Modo servidor: carga el sistema, atiende la API hasta que el proceso
+     * termina y deja el historial escrito al cerrar. Las transiciones ya
+     * quedan en el diario, que se aplica en el siguiente inicio.
+     */
+    public static void serve(int port) throws IOException {
+        Map<DeviceState, DeviceQueue> workflows = DataManager.loadSystemData();
+        DataManager.startScheduledBackups();
+        DeviceIndex deviceIndex = DataManager.getDeviceIndex();
+        ApiServer apiServer = new ApiServer(workflows, deviceIndex,
+            new WorkflowEngine(workflows, deviceIndex, true), port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            apiServer.stop();
+            DataManager.flushActivityLog();
+        }, "cierre-api"));
+        apiServer.start();
+        System.out.println("🌐 API disponible en http://localhost:" + apiServer.getPort() + "/api/ (hilos "
+            + (apiServer.usesVirtualThreads() ? "virtuales" : "de plataforma") + ")");
+    }
+}
@@ -1,19 +1,37 @@
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 public class App {
     private Map<DeviceState, DeviceQueue> workflows;
+    private WorkflowEngine engine;
+    private TechnicianScheduler scheduler;
     private Scanner input;
-    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@(.+)$");
-    private static final Pattern PHONE_PATTERN = Pattern.compile("^\\d{8}$");
+    private long startupMillis;
+    static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@(.+)$");
+    static final Pattern PHONE_PATTERN = Pattern.compile("^\\d{8}$");
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    private static final int DEFAULT_API_PORT = 8080;
 
     public App() {
+        long startTime = System.nanoTime();
         this.workflows = DataManager.loadSystemData();
+        this.engine = new WorkflowEngine(workflows, DataManager.getDeviceIndex(), true);
+        this.scheduler = TechnicianScheduler.fromConfiguration(engine);
+        this.startupMillis = (System.nanoTime() - startTime) / 1_000_000;
+        DataManager.startScheduledBackups();
         this.input = new Scanner(System.in);
     }
 
@@ -52,9 +70,17 @@ public class App {
                     case 8:
                         removeDeviceRecord();
                         break;
+                    case 9:
+                        queryDevices();
+                        break;
+                    case 10:
+                        importDeviceFile();
+                        break;
                     case 0:
                         active = false;
                         DataManager.saveSystemData(workflows);
+                        DataManager.createBackup();
+                        reportStartupTime();
                         System.out.println("╔════════════════════════════════════════╗");
                         System.out.println("║     Sistema cerrado exitosamente      ║");
                         System.out.println("╚════════════════════════════════════════╝");
@@ -83,6 +109,8 @@ public class App {
         System.out.println("║  6️⃣  ► Control de calidad                       ║");
         System.out.println("║  7️⃣  ► Gestionar entrega                        ║");
         System.out.println("║  8️⃣  ► Eliminar registro                        ║");
+        System.out.println("║  9️⃣  ► Consultar equipos por cliente            ║");
+        System.out.println("║  🔟  ► Importar equipos desde archivo           ║");
         System.out.println("║  0️⃣  ► Cerrar sistema                           ║");
         System.out.println("╚══════════════════════════════════════════════════╝");
     }
@@ -111,14 +139,18 @@ public class App {
                 String ownerEmail = getValidEmail("Correo electrónico: ");
                 String ownerPhone = getValidPhone("Número telefónico (8 dígitos): ");
 
+                ServicePriority priority = getServicePriority();
+
                 Device newDevice = new Device(identifier, issueDescription, entryDate,
                         ownerName, ownerEmail, ownerPhone);
+                newDevice.setServicePriority(priority);
 
-                workflows.get(DeviceState.RECEIVED).addDevice(newDevice);
-                newDevice.recordActivity("Equipo ingresado al sistema");
-
-                DataManager.logDeviceHistory(newDevice);
-                DataManager.saveSystemData(workflows);
+                // Otro técnico pudo registrar el mismo número de serie mientras se capturaban los datos
+                if (!engine.intake(newDevice)) {
+                    System.out.println("⚠️  Error: Ya existe un equipo con ese número de serie.");
+                    pauseExecution();
+                    return;
+                }
 
                 System.out.println("✅ Equipo registrado correctamente.");
                 pauseExecution();
@@ -134,6 +166,14 @@ public class App {
         }
     }
 
+    private void importDeviceFile() {
+        clearConsole();
+        System.out.println("│    IMPORTACIÓN DE EQUIPOS (CSV o JSON Lines)    │");
+        String file = getValidStringInput("Ruta del archivo: ");
+        importDevices(engine, Paths.get(file));
+        pauseExecution();
+    }
+
     private void handleDeviceExamination() {
         clearConsole();
         System.out.println("┌─────────────────────────────────────┐");
@@ -142,23 +182,21 @@ public class App {
 
         boolean validProcess = false;
         while (!validProcess) {
+            Device currentDevice = null;
             try {
-                DeviceQueue receivedQueue = workflows.get(DeviceState.RECEIVED);
+                currentDevice = engine.claimNext(DeviceState.RECEIVED);
 
-                if (receivedQueue.isEmpty()) {
+                if (currentDevice == null) {
                     System.out.println("ℹ️  No hay equipos pendientes de evaluación.");
                     pauseExecution();
                     return;
                 }
 
-                Device currentDevice = receivedQueue.removeDevice();
                 System.out.println("🔧 Evaluando: " + currentDevice.getIdentifier());
                 System.out.println("\n📋 Información del equipo:");
                 System.out.println(currentDevice);
 
                 String technicalAnalysis = getValidStringInput("\nIngrese el análisis técnico: ");
-                currentDevice.setTechnicalAnalysis(technicalAnalysis);
-                currentDevice.recordActivity("Evaluación técnica realizada: " + technicalAnalysis);
 
                 System.out.print("¿El equipo requiere reparación? (S/N): ");
                 String needsRepair = input.nextLine().trim().toUpperCase();
@@ -168,23 +206,21 @@ public class App {
                     needsRepair = input.nextLine().trim().toUpperCase();
                 }
 
+                engine.finishExamination(currentDevice, technicalAnalysis, needsRepair.equals("S"));
                 if (needsRepair.equals("S")) {
-                    workflows.get(DeviceState.IN_REPAIR).addDevice(currentDevice);
-                    currentDevice.recordActivity("Enviado a reparación");
                     System.out.println("📤 Equipo enviado a cola de reparación.");
                 } else {
-                    workflows.get(DeviceState.READY_DELIVERY).addDevice(currentDevice);
-                    currentDevice.recordActivity("No requiere reparación. Listo para entrega");
                     System.out.println("📤 Equipo enviado directamente a entrega.");
                 }
 
-                DataManager.logDeviceHistory(currentDevice);
-                DataManager.saveSystemData(workflows);
-
                 pauseExecution();
                 validProcess = true;
 
             } catch (Exception e) {
+                if (currentDevice != null) {
+                    // El equipo vuelve a su posición si no se terminó de atender
+                    engine.release(currentDevice, DeviceState.RECEIVED);
+                }
                 System.out.println("❌ Error inesperado: " + e.getMessage());
                 System.out.print("¿Desea intentar nuevamente? (S/N): ");
                 if (!input.nextLine().trim().toUpperCase().equals("S")) {
@@ -200,18 +236,23 @@ public class App {
         System.out.println("│    🛠️  PROCESO DE REPARACIÓN        │");
         System.out.println("└─────────────────────────────────────┘");
 
+        if (scheduler != null) {
+            handleScheduledRepair();
+            return;
+        }
+
         boolean validProcess = false;
         while (!validProcess) {
+            Device currentDevice = null;
             try {
-                DeviceQueue repairQueue = workflows.get(DeviceState.IN_REPAIR);
+                currentDevice = engine.claimNext(DeviceState.IN_REPAIR);
 
-                if (repairQueue.isEmpty()) {
+                if (currentDevice == null) {
                     System.out.println("ℹ️  No hay equipos en reparación.");
                     pauseExecution();
                     return;
                 }
 
-                Device currentDevice = repairQueue.removeDevice();
                 System.out.println("🔧 Reparando: " + currentDevice.getIdentifier());
                 System.out.println("\n📋 Información del equipo:");
                 System.out.println(currentDevice);
@@ -220,20 +261,17 @@ public class App {
                 String repairWork = getValidStringInput("\nDetalles del trabajo realizado: ");
                 String technicianId = getValidStringInput("Identificación del técnico: ");
 
-                currentDevice.setRepairWork(repairWork);
-                currentDevice.setTechnicianId(technicianId);
-                currentDevice.recordActivity("Reparación completada por " + technicianId + ": " + repairWork);
-
-                workflows.get(DeviceState.QUALITY_CHECK).addDevice(currentDevice);
-
-                DataManager.logDeviceHistory(currentDevice);
-                DataManager.saveSystemData(workflows);
+                engine.finishRepair(currentDevice, repairWork, technicianId);
 
                 System.out.println("✅ Equipo enviado a control de calidad.");
                 pauseExecution();
                 validProcess = true;
 
             } catch (Exception e) {
+                if (currentDevice != null) {
+                    // El equipo vuelve a su posición si no se terminó de atender
+                    engine.release(currentDevice, DeviceState.IN_REPAIR);
+                }
                 System.out.println("❌ Error inesperado: " + e.getMessage());
                 System.out.print("¿Desea intentar nuevamente? (S/N): ");
                 if (!input.nextLine().trim().toUpperCase().equals("S")) {
@@ -243,6 +281,49 @@ public class App {
         }
     }
 
+    /**
+     * Reparación con técnicos configurados: el planificador elige el
+     * equipo según la especialidad y la carga de cada técnico
+     */
+    private void handleScheduledRepair() {
+        String technicianId = scheduler.technicianId(getValidStringInput("Identificación del técnico: "));
+        if (technicianId == null) {
+            System.out.println("❌ Técnico no registrado. Técnicos disponibles: "
+                    + String.join(", ", scheduler.workload().keySet()));
+            pauseExecution();
+            return;
+        }
+
+        Device currentDevice = scheduler.nextRepair(technicianId);
+        if (currentDevice == null) {
+            System.out.println("ℹ️  No hay equipos en reparación para su especialidad.");
+            pauseExecution();
+            return;
+        }
+
+        try {
+            System.out.println("🔧 Reparando: " + currentDevice.getIdentifier());
+            System.out.println("\n📋 Información del equipo:");
+            System.out.println(currentDevice);
+            System.out.println("🔍 Análisis: " + currentDevice.getTechnicalAnalysis());
+            System.out.println("📥 Reparaciones asignadas en espera: " + scheduler.pendingFor(technicianId));
+
+            String repairWork = getValidStringInput("\nDetalles del trabajo realizado: ");
+            scheduler.finishRepair(technicianId, currentDevice, repairWork);
+            currentDevice = null;
+
+            System.out.println("✅ Equipo enviado a control de calidad.");
+        } catch (Exception e) {
+            System.out.println("❌ Error inesperado: " + e.getMessage());
+        } finally {
+            if (currentDevice != null) {
+                // El equipo vuelve a la cola de reparación y se reasigna
+                scheduler.release(technicianId, currentDevice);
+            }
+        }
+        pauseExecution();
+    }
+
     private void handleQualityVerification() {
         clearConsole();
         System.out.println("┌─────────────────────────────────────┐");
@@ -251,16 +332,16 @@ public class App {
 
         boolean validProcess = false;
         while (!validProcess) {
+            Device currentDevice = null;
             try {
-                DeviceQueue qualityQueue = workflows.get(DeviceState.QUALITY_CHECK);
+                currentDevice = engine.claimNext(DeviceState.QUALITY_CHECK);
 
-                if (qualityQueue.isEmpty()) {
+                if (currentDevice == null) {
                     System.out.println("ℹ️  No hay equipos en control de calidad.");
                     pauseExecution();
                     return;
                 }
 
-                Device currentDevice = qualityQueue.removeDevice();
                 System.out.println("🔍 Verificando: " + currentDevice.getIdentifier());
                 System.out.println("\n📋 Información completa:");
                 System.out.println(currentDevice);
@@ -276,23 +357,21 @@ public class App {
                     qualityApproved = input.nextLine().trim().toUpperCase();
                 }
 
+                engine.finishQualityCheck(currentDevice, qualityApproved.equals("S"));
                 if (qualityApproved.equals("S")) {
-                    workflows.get(DeviceState.READY_DELIVERY).addDevice(currentDevice);
-                    currentDevice.recordActivity("Aprobado en control de calidad. Listo para entrega");
                     System.out.println("✅ Equipo aprobado y enviado a entrega.");
                 } else {
-                    workflows.get(DeviceState.IN_REPAIR).addDevice(currentDevice);
-                    currentDevice.recordActivity("Rechazado en control de calidad. Regresado a reparación");
                     System.out.println("❌ Equipo regresado a reparación.");
                 }
 
-                DataManager.logDeviceHistory(currentDevice);
-                DataManager.saveSystemData(workflows);
-
                 pauseExecution();
                 validProcess = true;
 
             } catch (Exception e) {
+                if (currentDevice != null) {
+                    // El equipo vuelve a su posición si no se terminó de atender
+                    engine.release(currentDevice, DeviceState.QUALITY_CHECK);
+                }
                 System.out.println("❌ Error inesperado: " + e.getMessage());
                 System.out.print("¿Desea intentar nuevamente? (S/N): ");
                 if (!input.nextLine().trim().toUpperCase().equals("S")) {
@@ -310,16 +389,16 @@ public class App {
 
         boolean validProcess = false;
         while (!validProcess) {
+            Device currentDevice = null;
             try {
-                DeviceQueue deliveryQueue = workflows.get(DeviceState.READY_DELIVERY);
+                currentDevice = engine.claimNext(DeviceState.READY_DELIVERY);
 
-                if (deliveryQueue.isEmpty()) {
+                if (currentDevice == null) {
                     System.out.println("ℹ️  No hay equipos listos para entrega.");
                     pauseExecution();
                     return;
                 }
 
-                Device currentDevice = deliveryQueue.removeDevice();
                 System.out.println("📦 Procesando entrega: " + currentDevice.getIdentifier());
                 System.out.println("\n📋 Información completa del servicio:");
                 System.out.println(currentDevice.getCompleteDetails());
@@ -333,19 +412,24 @@ public class App {
                 }
 
                 if (confirmDelivery.equals("S")) {
-                    currentDevice.recordActivity("Equipo entregado al cliente");
+                    CompletableFuture<Long> durability = engine.finishDelivery(currentDevice, true);
                     System.out.println("✅ Entrega confirmada para: " + currentDevice.getIdentifier());
-                    DataManager.logDeviceHistory(currentDevice);
+                    if (durability != null) {
+                        DataManager.awaitDurable(durability);
+                    }
                 } else {
-                    deliveryQueue.addDevice(currentDevice);
+                    engine.finishDelivery(currentDevice, false);
                     System.out.println("❌ Entrega cancelada. Equipo regresado a cola de entrega.");
                 }
 
-                DataManager.saveSystemData(workflows);
                 pauseExecution();
                 validProcess = true;
 
             } catch (Exception e) {
+                if (currentDevice != null) {
+                    // El equipo vuelve a su posición si no se terminó de atender
+                    engine.release(currentDevice, DeviceState.READY_DELIVERY);
+                }
                 System.out.println("❌ Error inesperado: " + e.getMessage());
                 System.out.print("¿Desea intentar nuevamente? (S/N): ");
                 if (!input.nextLine().trim().toUpperCase().equals("S")) {
@@ -378,6 +462,7 @@ public class App {
 
                 System.out.println("\n📋 Información del equipo a eliminar:");
                 System.out.println(deviceToDelete);
+                long version = deviceToDelete.getVersion();
 
                 System.out.print("\n¿Confirmar eliminación? (S/N): ");
                 String confirmDelete = input.nextLine().trim().toUpperCase();
@@ -388,9 +473,17 @@ public class App {
                 }
 
                 if (confirmDelete.equals("S")) {
-                    removeDeviceFromWorkflows(deviceToDelete);
-                    System.out.println("✅ Equipo eliminado exitosamente.");
-                    DataManager.saveSystemData(workflows);
+                    try {
+                        CompletableFuture<Long> durability = engine.remove(deviceToDelete, version);
+                        if (durability == null) {
+                            System.out.println("❌ El equipo ya no está en el flujo de trabajo.");
+                        } else {
+                            System.out.println("✅ Equipo eliminado exitosamente.");
+                            DataManager.awaitDurable(durability);
+                        }
+                    } catch (ConcurrentModificationException e) {
+                        System.out.println("⚠️ " + e.getMessage());
+                    }
                     validProcess = true;
                 } else {
                     System.out.println("❌ Operación cancelada.");
@@ -409,14 +502,61 @@ public class App {
         }
     }
 
+    private void queryDevices() {
+        clearConsole();
+        System.out.println("┌─────────────────────────────────────┐");
+        System.out.println("│    🔍 CONSULTA DE EQUIPOS           │");
+        System.out.println("└─────────────────────────────────────┘");
+        System.out.println("1. Por propietario");
+        System.out.println("2. Por correo electrónico");
+        System.out.println("3. Por teléfono");
+        System.out.println("4. Por técnico");
+        System.out.println("5. Por fecha de ingreso");
+
+        List<Device> devices;
+        switch (getIntegerInput("Seleccione el criterio: ")) {
+            case 1:
+                devices = DataManager.findDevicesByOwner(getValidStringInput("Nombre del propietario: "));
+                break;
+            case 2:
+                devices = DataManager.findDevicesByEmail(getValidStringInput("Correo electrónico: "));
+                break;
+            case 3:
+                devices = DataManager.findDevicesByPhone(getValidStringInput("Número telefónico: "));
+                break;
+            case 4:
+                devices = DataManager.findDevicesByTechnician(getValidStringInput("ID del técnico: "));
+                break;
+            case 5:
+                LocalDate from = getValidDate("Desde (YYYY-MM-DD): ");
+                LocalDate to = getValidDate("Hasta (YYYY-MM-DD): ");
+                devices = DataManager.findDevicesByEntryDate(from, to);
+                break;
+            default:
+                System.out.println("❌ Selección inválida.");
+                pauseExecution();
+                return;
+        }
+
+        if (devices.isEmpty()) {
+            System.out.println("ℹ️  No se encontraron equipos.");
+        }
+        for (Device device : devices) {
+            System.out.println("   • " + device.getIdentifier() + " - " + device.getOwner()
+                + " [" + device.getCurrentState() + "] ingreso " + device.getEntryDate());
+        }
+        pauseExecution();
+    }
+
     private void viewSystemQueues() {
         clearConsole();
         System.out.println("┌─────────────────────────────────────┐");
         System.out.println("│    📊 ESTADO DE COLAS               │");
         System.out.println("└─────────────────────────────────────┘");
 
+        Map<DeviceState, DeviceQueue> queuesView = DataManager.snapshotWorkflows(workflows);
         for (DeviceState state : DeviceState.values()) {
-            DeviceQueue queue = workflows.get(state);
+            DeviceQueue queue = queuesView.get(state);
             System.out.println("\n🔸 " + state + " (" + queue.size() + " equipos):");
 
             if (queue.isEmpty()) {
@@ -424,27 +564,188 @@ public class App {
             } else {
                 int counter = 1;
                 for (Device device : queue.getQueueList()) {
-                    System.out.println("   " + counter + ". " + device.getIdentifier() + " - " + device.getOwner());
+                    // En modo prioridad el detalle ya está cargado; en orden de llegada no se fuerza su carga
+                    String priority = queue.isPriorityOrder() ? " [" + device.getServicePriority() + "]" : "";
+                    System.out.println("   " + counter + ". " + device.getIdentifier() + " - " + device.getOwner()
+                        + priority);
                     counter++;
                 }
             }
         }
 
+        System.out.print("\nNúmero de serie para cambiar su prioridad (Enter para volver): ");
+        String identifier = input.nextLine().trim();
+        if (identifier.isEmpty()) {
+            return;
+        }
+        Device device = findDeviceByIdentifier(identifier);
+        if (device == null) {
+            System.out.println("❌ No existe un equipo con ese número de serie.");
+        } else {
+            System.out.println("Prioridad actual: " + device.getServicePriority());
+            long version = device.getVersion();
+            try {
+                if (engine.changePriority(device, getServicePriority(), version)) {
+                    System.out.println("✅ Prioridad actualizada.");
+                } else {
+                    System.out.println("❌ El equipo ya no está en el flujo de trabajo.");
+                }
+            } catch (ConcurrentModificationException e) {
+                System.out.println("⚠️ " + e.getMessage());
+            }
+        }
         pauseExecution();
     }
 
+    private ServicePriority getServicePriority() {
+        ServicePriority[] priorities = ServicePriority.values();
+        while (true) {
+            System.out.println("Prioridad del servicio:");
+            for (int i = 0; i < priorities.length; i++) {
+                System.out.println("   " + (i + 1) + ". " + priorities[i]
+                    + " (" + priorities[i].getServiceDays() + " días)");
+            }
+            int choice = getIntegerInput("Seleccione la prioridad: ");
+            if (choice >= 1 && choice <= priorities.length) {
+                return priorities[choice - 1];
+            }
+            System.out.println("❌ Selección inválida.");
+        }
+    }
+
     private void viewCompleteHistory() {
+        long totalEvents = DataManager.countHistoryEvents();
+        int totalPages = (int) Math.max(1, (totalEvents + HISTORY_PAGE_SIZE - 1) / HISTORY_PAGE_SIZE);
+        int page = 0;
+
+        while (true) {
+            clearConsole();
+            System.out.println("┌─────────────────────────────────────┐");
+            System.out.println("│    📜 REGISTRO HISTÓRICO            │");
+            System.out.println("└─────────────────────────────────────┘");
+
+            if (totalEvents == 0) {
+                System.out.println("📝 El historial está vacío.");
+                System.out.println("💡 Los registros aparecerán aquí cuando se procesen dispositivos.");
+            } else {
+                for (ActivityEventLog.Event event : DataManager.readHistoryPage(
+                        (long) page * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE)) {
+                    System.out.println(event);
+                }
+                System.out.println("\n📄 Página " + (page + 1) + " de " + totalPages
+                    + " (" + totalEvents + " eventos)");
+            }
+            if (DataManager.hasLegacyHistory()) {
+                System.out.println("ℹ️  El historial anterior se conserva en service_records/legacy_service_records.log.gz");
+            }
+
+            System.out.print("\n[S] Siguiente  [A] Anterior  [E] Por equipo  [F] Por fecha  [B] Buscar  [G] Exportar  [X] Salir: ");
+            String option = input.nextLine().trim().toUpperCase();
+            if (option.equals("S") && page + 1 < totalPages) {
+                page++;
+            } else if (option.equals("A") && page > 0) {
+                page--;
+            } else if (option.equals("E")) {
+                viewDeviceHistory(getValidStringInput("Número de serie del equipo: "));
+            } else if (option.equals("F")) {
+                LocalDate from = getValidDate("Desde (YYYY-MM-DD): ");
+                LocalDate to = getValidDate("Hasta (YYYY-MM-DD): ");
+                viewHistoryByDate(from, to);
+            } else if (option.equals("B")) {
+                searchHistory(getValidStringInput("Buscar (use comillas para frases exactas): "));
+            } else if (option.equals("G")) {
+                exportHistory();
+            } else if (option.equals("X")) {
+                return;
+            }
+        }
+    }
+
+    private void viewDeviceHistory(String identifier) {
         clearConsole();
-        System.out.println("┌─────────────────────────────────────┐");
-        System.out.println("│    📜 REGISTRO HISTÓRICO            │");
-        System.out.println("└─────────────────────────────────────┘");
+        System.out.println("📜 Historial del equipo " + identifier);
+        List<ActivityEventLog.Event> events = DataManager.readDeviceHistory(identifier);
+        if (events.isEmpty()) {
+            System.out.println("ℹ️  No hay registros para ese equipo.");
+        }
+        for (ActivityEventLog.Event event : events) {
+            System.out.println(event);
+        }
+        pauseExecution();
+    }
+
+    private void exportHistory() {
+        String path = getValidStringInput("Archivo de destino: ");
+        HistoryExporter.Format format;
+        do {
+            format = HistoryExporter.Format.fromName(getValidStringInput("Formato (texto/crudo/csv/jsonl): "));
+            if (format == null) {
+                System.out.println("❌ Formato no reconocido.");
+            }
+        } while (format == null);
+
+        LocalDate from = getOptionalDate("Desde (YYYY-MM-DD, Enter para omitir): ");
+        LocalDate to = getOptionalDate("Hasta (YYYY-MM-DD, Enter para omitir): ");
+        DeviceState state = null;
+        DeviceState[] states = DeviceState.values();
+        for (int i = 0; i < states.length; i++) {
+            System.out.println("  " + (i + 1) + ". " + states[i]);
+        }
+        int stateChoice = getIntegerInput("Estado a exportar (0 = todos): ");
+        if (stateChoice > 0 && stateChoice <= states.length) {
+            state = states[stateChoice - 1];
+        }
 
-        String historyData = DataManager.readCompleteHistory();
-        System.out.println(historyData);
+        DataManager.exportHistory(Paths.get(path), format, from, to, state);
+        pauseExecution();
+    }
 
+    private void searchHistory(String query) {
+        clearConsole();
+        System.out.println("🔎 Resultados para: " + query);
+        long startTime = System.nanoTime();
+        List<SearchIndex.Hit> hits = DataManager.searchHistory(query, SEARCH_RESULT_LIMIT);
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        if (hits.isEmpty()) {
+            System.out.println("ℹ️  No se encontraron coincidencias.");
+        }
+        for (SearchIndex.Hit hit : hits) {
+            System.out.println(hit);
+        }
+        System.out.println("\n📄 " + hits.size() + (hits.size() == SEARCH_RESULT_LIMIT ? "+" : "")
+            + " coincidencias en " + elapsedMillis + " ms");
         pauseExecution();
     }
 
+    private void viewHistoryByDate(LocalDate from, LocalDate to) {
+        int page = 0;
+        while (true) {
+            clearConsole();
+            System.out.println("📜 Historial del " + from + " al " + to);
+            // Se pide un evento extra para saber si existe una página siguiente
+            List<ActivityEventLog.Event> events = DataManager.readHistoryByDate(from, to,
+                (long) page * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE + 1);
+            if (events.isEmpty()) {
+                System.out.println("ℹ️  No hay registros en ese rango.");
+            }
+            for (ActivityEventLog.Event event : events.subList(0, Math.min(events.size(), HISTORY_PAGE_SIZE))) {
+                System.out.println(event);
+            }
+            boolean hasNext = events.size() > HISTORY_PAGE_SIZE;
+            System.out.println("\n📄 Página " + (page + 1) + (hasNext ? " (hay más)" : ""));
+
+            System.out.print("\n[S] Siguiente  [A] Anterior  [X] Volver: ");
+            String option = input.nextLine().trim().toUpperCase();
+            if (option.equals("S") && hasNext) {
+                page++;
+            } else if (option.equals("A") && page > 0) {
+                page--;
+            } else if (option.equals("X")) {
+                return;
+            }
+        }
+    }
+
     // Métodos de validación y utilidad
     private String getValidStringInput(String prompt) {
         String input;
@@ -481,6 +782,18 @@ public class App {
         }
     }
 
+    private LocalDate getOptionalDate(String prompt) {
+        while (true) {
+            try {
+                System.out.print(prompt);
+                String dateInput = input.nextLine().trim();
+                return dateInput.isEmpty() ? null : LocalDate.parse(dateInput, DateTimeFormatter.ISO_LOCAL_DATE);
+            } catch (DateTimeParseException e) {
+                System.out.println("❌ Formato de fecha incorrecto. Use YYYY-MM-DD.");
+            }
+        }
+    }
+
     private String getValidEmail(String prompt) {
         while (true) {
             System.out.print(prompt);
@@ -503,21 +816,57 @@ public class App {
         }
     }
 
+    /**
+     * Importa equipos desde un archivo y muestra el resumen; el reporte
+     * completo de errores queda junto al archivo con extensión .errores.csv
+     */
+    private static void importDevices(WorkflowEngine engine, Path file) {
+        if (!Files.isRegularFile(file)) {
+            System.out.println("❌ No se encontró el archivo: " + file);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            BulkImporter.Result result = new BulkImporter(engine).importFile(file);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("✅ Equipos ingresados: " + result.getAccepted() + " en " + elapsedMillis + " ms");
+            List<BulkImporter.RowError> errors = result.getErrors();
+            if (errors.isEmpty()) {
+                return;
+            }
+            System.out.println("⚠️  Filas rechazadas: " + errors.size());
+            for (BulkImporter.RowError error : errors.subList(0, Math.min(errors.size(), SEARCH_RESULT_LIMIT))) {
+                System.out.println("   " + error);
+            }
+            Path report = file.resolveSibling(file.getFileName() + ".errores.csv");
+            BulkImporter.writeErrorReport(errors, report);
+            System.out.println("📄 Reporte completo de errores: " + report);
+        } catch (IOException e) {
+            System.out.println("❌ Error al importar el archivo: " + e.getMessage());
+        }
+    }
+
     private Device findDeviceByIdentifier(String identifier) {
+        return DataManager.findDevice(identifier);
+    }
+
+    private void reportStartupTime() {
+        int totalDevices = 0;
+        int loadedDevices = 0;
         for (DeviceQueue queue : workflows.values()) {
             for (Device device : queue.getQueueList()) {
-                if (device.getIdentifier().equalsIgnoreCase(identifier)) {
-                    return device;
+                totalDevices++;
+                if (device.isDetailsLoaded()) {
+                    loadedDevices++;
                 }
             }
         }
-        return null;
-    }
-
-    private void removeDeviceFromWorkflows(Device deviceToRemove) {
-        for (DeviceQueue queue : workflows.values()) {
-            queue.getQueueList()
-                    .removeIf(device -> device.getIdentifier().equalsIgnoreCase(deviceToRemove.getIdentifier()));
+        System.out.println("⏱️  Tiempo de arranque: " + startupMillis + " ms (" + totalDevices
+                + " equipos, " + loadedDevices + " con detalle cargado en la sesión)");
+        StringDictionary dictionary = StringDictionary.getShared();
+        if (dictionary.isEnabled()) {
+            System.out.println("🔤 Diccionario de cadenas: " + dictionary.size() + " valores compartidos, "
+                + dictionary.getReused() + " copias reemplazadas");
         }
     }
 
@@ -541,8 +890,78 @@ public class App {
         input.nextLine();
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--servidor")) {
+            // Uso: --servidor [puerto]
+            int port = args.length > 1 ? parsePort(args[1]) : DEFAULT_API_PORT;
+            if (port < 0) {
+                exitWithUsage("--servidor [puerto]");
+            }
+            ApiServer.serve(port);
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--seguidor")) {
+            // Uso: --seguidor <host:puerto del principal> [puerto de la API]
+            int port = args.length > 2 ? parsePort(args[2]) : DEFAULT_API_PORT;
+            if (port < 0) {
+                exitWithUsage("--seguidor <host:puerto del principal> [puerto de la API]");
+            }
+            ReplicationFollower.serve(args[1], port);
+            return;
+        }
+
+        if (args.length > 2 && args[0].equals("--enrutador")) {
+            // Uso: --enrutador <puerto> <nombre=host:puerto,nombre=host:puerto,...>
+            int port = parsePort(args[1]);
+            if (port < 0) {
+                exitWithUsage("--enrutador <puerto> <nombre=host:puerto,nombre=host:puerto,...>");
+            }
+            PartitionRouter.serve(port, args[2]);
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--importar")) {
+            // Uso: --importar <archivo.csv|archivo.jsonl>
+            Map<DeviceState, DeviceQueue> workflows = DataManager.loadSystemData();
+            importDevices(new WorkflowEngine(workflows, DataManager.getDeviceIndex(), true), Paths.get(args[1]));
+            DataManager.saveSystemData(workflows);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--restaurar-respaldo")) {
+            // Uso: --restaurar-respaldo [yyyy-MM-ddTHH:mm:ss]
+            LocalDateTime pointInTime = null;
+            if (args.length > 1) {
+                try {
+                    pointInTime = LocalDateTime.parse(args[1]);
+                } catch (DateTimeParseException e) {
+                    exitWithUsage("--restaurar-respaldo [yyyy-MM-ddTHH:mm:ss]");
+                }
+            }
+            if (!DataManager.restoreBackup(pointInTime)) {
+                return;
+            }
+        }
+
         App system = new App();
         system.execute();
     }
+
+    /**
+     * @return Puerto indicado, o -1 si no es un número de puerto válido
+     */
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            return port >= 0 && port <= 65535 ? port : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void exitWithUsage(String usage) {
+        System.err.println("Uso: java App " + usage);
+        System.exit(2);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lista de solo anexado con instantáneas en O(1).
+ *
+ * Los elementos ya publicados nunca se modifican, así que una instantánea
+ * solo necesita recordar el arreglo y la cantidad de elementos visibles
+ * en ese momento. Las nuevas inserciones no la alteran, aun cuando el
+ * arreglo interno se reemplace al crecer. Las lecturas no requieren
+ * bloqueo; las inserciones se serializan entre sí.
+ *
+ * @param <T> Tipo de los elementos
+ */
+public final class AppendOnlyList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Ambos campos son volátiles: el escritor asigna el arreglo antes que el
+    // tamaño y los lectores leen el tamaño antes que el arreglo, así cualquier
+    // arreglo observado contiene al menos los elementos que indica el tamaño
+    private volatile Object[] elements;
+    private volatile int size;
+
+    public AppendOnlyList() {
+        this.elements = new Object[8];
+    }
+
+    public AppendOnlyList(Collection<? extends T> initial) {
+        this.elements = initial.toArray(new Object[Math.max(8, initial.size())]);
+        this.size = initial.size();
+    }
+
+    @Override
+    public synchronized boolean add(T element) {
+        int count = size;
+        Object[] current = elements;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+            current[count] = element;
+            elements = current;
+        } else {
+            current[count] = element;
+        }
+        size = count + 1;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        int count = size;
+        Object[] current = elements;
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (T) current[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Vista inmutable del contenido actual; comparte el arreglo interno
+     */
+    public List<T> snapshot() {
+        int count = size;
+        Object[] current = elements;
+        return new AbstractList<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get(int index) {
+                if (index < 0 || index >= count) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return (T) current[index];
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Se serializa como ArrayList para mantener compatibles los flujos
+     * con versiones que no conocen esta clase
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new ArrayList<>(snapshot());
+    }
+}
@@ -0,0 +1,403 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Respaldos incrementales con deduplicación por contenido.
+ *
+ * Cada archivo respaldado se divide en fragmentos de tamaño variable cuyos
+ * límites dependen del contenido (hash rodante tipo gear), de modo que un
+ * cambio local solo altera los fragmentos cercanos. Cada fragmento se
+ * guarda una sola vez en chunks/ bajo su SHA-256 y cada respaldo es un
+ * manifiesto de texto en manifests/ que enumera los fragmentos de cada
+ * archivo. Un respaldo nuevo solo escribe los fragmentos que cambiaron.
+ *
+ * Los archivos se abren antes de respaldarlos ({@link PinnedFile}), de
+ * modo que la aplicación solo se coordina con el respaldo mientras los
+ * abre; la fragmentación y el cálculo de hashes ocurren después.
+ */
+public class BackupManager {
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String MANIFEST_PREFIX = "backup_";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String MANIFEST_HEADER = "WMBACKUP 1";
+    // Marca de tiempo al inicio del nombre, seguida de un número para respaldos del mismo segundo
+    private static final int TIMESTAMP_LENGTH = 15;
+
+    // Límites de fragmentación: mínimo 2 KiB, promedio ~8 KiB, máximo 64 KiB
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    // Bits altos del hash: dependen de los últimos 64 bytes leídos
+    private static final long BOUNDARY_MASK = ((1L << 13) - 1) << 51;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_BAC_0FL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path chunkDirectory;
+    private final Path manifestDirectory;
+
+    public BackupManager(Path backupDirectory) throws IOException {
+        this.chunkDirectory = backupDirectory.resolve("chunks");
+        this.manifestDirectory = backupDirectory.resolve("manifests");
+        Files.createDirectories(chunkDirectory);
+        Files.createDirectories(manifestDirectory);
+    }
+
+    /**
+     * Archivo abierto para respaldar sus primeros bytes. El contenido se
+     * sigue leyendo aunque después el archivo crezca, se renombre o se
+     * elimine (en Windows la eliminación espera a que se cierre).
+     */
+    public static final class PinnedFile implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final long length;
+
+        private PinnedFile(Path path, FileChannel channel, long length) {
+            this.path = path;
+            this.channel = channel;
+            this.length = length;
+        }
+
+        /**
+         * Abre el archivo y fija su longitud actual
+         *
+         * @param path Archivo relativo al directorio de datos; se registra con ese nombre
+         */
+        public static PinnedFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                return new PinnedFile(path, channel, channel.size());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Resultado de un respaldo: bytes totales y bytes nuevos escritos
+     */
+    public static final class BackupResult {
+        private final Path manifest;
+        private final long totalBytes;
+        private final long storedBytes;
+
+        BackupResult(Path manifest, long totalBytes, long storedBytes) {
+            this.manifest = manifest;
+            this.totalBytes = totalBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        public Path getManifest() {
+            return manifest;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+    }
+
+    /**
+     * Respalda los archivos abiertos, hasta la longitud fijada al abrirlos.
+     * No cierra los archivos.
+     *
+     * @param files Archivos abiertos con {@link PinnedFile#open}
+     * @return Resumen del respaldo creado
+     */
+    public synchronized BackupResult createBackup(List<PinnedFile> files) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        String timestamp = now.format(NAME_FORMAT);
+        Path temporaryPath = Files.createTempFile(manifestDirectory, MANIFEST_PREFIX, ".tmp");
+
+        long totalBytes = 0;
+        long storedBytes = 0;
+        try (PrintWriter manifest = new PrintWriter(Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8))) {
+            manifest.println(MANIFEST_HEADER);
+            manifest.println("created " + now);
+            for (PinnedFile file : files) {
+                List<String> chunkLines = new ArrayList<>();
+                long fileBytes = 0;
+                // El flujo lee desde el inicio del canal; lo agregado después de abrirlo se ignora
+                InputStream input = new BufferedInputStream(Channels.newInputStream(file.channel.position(0)));
+                byte[] chunk;
+                while ((chunk = nextChunk(input, file.length - fileBytes)) != null) {
+                    String hash = sha256(chunk);
+                    if (storeChunk(hash, chunk)) {
+                        storedBytes += chunk.length;
+                    }
+                    chunkLines.add("chunk " + hash + " " + chunk.length);
+                    fileBytes += chunk.length;
+                }
+                manifest.println("file " + file.path.toString().replace(File.separatorChar, '/') + " " + fileBytes);
+                chunkLines.forEach(manifest::println);
+                totalBytes += fileBytes;
+            }
+            manifest.println("end");
+        }
+        return new BackupResult(publishManifest(temporaryPath, timestamp), totalBytes, storedBytes);
+    }
+
+    /**
+     * Da al manifiesto un nombre libre: los respaldos del mismo segundo
+     * (uno programado y el de cierre, por ejemplo) se numeran en orden
+     */
+    private Path publishManifest(Path temporaryPath, String timestamp) throws IOException {
+        for (int number = 1; ; number++) {
+            Path manifestPath = manifestDirectory.resolve(
+                MANIFEST_PREFIX + timestamp + String.format("_%03d", number) + MANIFEST_SUFFIX);
+            if (Files.exists(manifestPath)) {
+                continue;
+            }
+            try {
+                Files.move(temporaryPath, manifestPath);
+                return manifestPath;
+            } catch (FileAlreadyExistsException e) {
+                // Otro proceso tomó el nombre: se prueba el siguiente
+            }
+        }
+    }
+
+    /**
+     * Cierra los archivos abiertos para un respaldo
+     */
+    public static void closeAll(List<PinnedFile> files) {
+        for (PinnedFile file : files) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Canal de solo lectura: no hay datos que perder
+            }
+        }
+    }
+
+    /**
+     * Restaura el último respaldo creado en o antes del instante indicado.
+     * Los archivos administrados que no existían en ese momento se eliminan.
+     *
+     * @param pointInTime Instante a restaurar (null = respaldo más reciente)
+     * @param targetDirectory Directorio donde viven los archivos de datos
+     * @param managedFiles Nombres de los archivos que controla el respaldo
+     * @return Manifiesto restaurado
+     */
+    public synchronized Path restore(LocalDateTime pointInTime, Path targetDirectory,
+            List<String> managedFiles) throws IOException {
+        Path manifestPath = findManifest(pointInTime);
+        if (manifestPath == null) {
+            throw new FileNotFoundException("No existe un respaldo para el instante solicitado");
+        }
+
+        Set<String> restored = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            if (!MANIFEST_HEADER.equals(reader.readLine())) {
+                throw new StreamCorruptedException("Manifiesto no reconocido: " + manifestPath);
+            }
+            String line;
+            OutputStream output = null;
+            Path target = null;
+            Path temporary = null;
+            long expectedBytes = 0;
+            long writtenBytes = 0;
+            try {
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ");
+                    if (parts[0].equals("file") || parts[0].equals("end")) {
+                        if (output != null) {
+                            output.close();
+                            output = null;
+                            finishRestoredFile(temporary, target, expectedBytes, writtenBytes);
+                        }
+                        if (parts[0].equals("end")) {
+                            break;
+                        }
+                        target = targetDirectory.resolve(parts[1]);
+                        temporary = target.resolveSibling(target.getFileName() + ".restore.tmp");
+                        Files.createDirectories(target.getParent());
+                        expectedBytes = Long.parseLong(parts[2]);
+                        writtenBytes = 0;
+                        output = new BufferedOutputStream(Files.newOutputStream(temporary));
+                        restored.add(parts[1]);
+                    } else if (parts[0].equals("chunk") && output != null) {
+                        byte[] chunk = Files.readAllBytes(chunkPath(parts[1]));
+                        if (!sha256(chunk).equals(parts[1])) {
+                            throw new StreamCorruptedException("Fragmento dañado: " + parts[1]);
+                        }
+                        output.write(chunk);
+                        writtenBytes += chunk.length;
+                    }
+                }
+            } finally {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+
+        for (String name : managedFiles) {
+            if (!restored.contains(name)) {
+                Files.deleteIfExists(targetDirectory.resolve(name));
+            }
+        }
+        return manifestPath;
+    }
+
+    /**
+     * Manifiestos disponibles, del más antiguo al más reciente
+     */
+    public List<Path> listBackups() throws IOException {
+        try (Stream<Path> manifests = Files.list(manifestDirectory)) {
+            return manifests
+                .filter(path -> path.getFileName().toString().endsWith(MANIFEST_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Conserva los respaldos más recientes y elimina los fragmentos que
+     * ya no referencia ningún manifiesto
+     *
+     * @param keep Cantidad de respaldos a conservar
+     * @return Cantidad de fragmentos eliminados
+     */
+    public synchronized int prune(int keep) throws IOException {
+        List<Path> manifests = listBackups();
+        for (int i = 0; i < manifests.size() - keep; i++) {
+            Files.delete(manifests.get(i));
+        }
+
+        Set<String> referenced = new HashSet<>();
+        for (Path manifest : listBackups()) {
+            try (Stream<String> lines = Files.lines(manifest, StandardCharsets.UTF_8)) {
+                lines.filter(line -> line.startsWith("chunk "))
+                    .forEach(line -> referenced.add(line.split(" ")[1]));
+            }
+        }
+
+        int removed = 0;
+        try (Stream<Path> chunks = Files.walk(chunkDirectory)) {
+            for (Path chunk : (Iterable<Path>) chunks.filter(Files::isRegularFile)::iterator) {
+                if (!referenced.contains(chunk.getFileName().toString())) {
+                    Files.delete(chunk);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    private Path findManifest(LocalDateTime pointInTime) throws IOException {
+        List<Path> manifests = listBackups();
+        if (pointInTime == null) {
+            return manifests.isEmpty() ? null : manifests.get(manifests.size() - 1);
+        }
+        String limit = pointInTime.format(NAME_FORMAT);
+        Path selected = null;
+        for (Path manifest : manifests) {
+            if (timestampOf(manifest).compareTo(limit) <= 0) {
+                selected = manifest;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Marca de tiempo del nombre de un manifiesto, con o sin número de orden
+     */
+    private static String timestampOf(Path manifest) {
+        String name = manifest.getFileName().toString();
+        return name.substring(MANIFEST_PREFIX.length(), MANIFEST_PREFIX.length() + TIMESTAMP_LENGTH);
+    }
+
+    private static void finishRestoredFile(Path temporary, Path target, long expectedBytes,
+            long writtenBytes) throws IOException {
+        if (expectedBytes != writtenBytes) {
+            Files.deleteIfExists(temporary);
+            throw new StreamCorruptedException("Tamaño restaurado incorrecto para " + target.getFileName());
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lee el siguiente fragmento definido por contenido, o null al final
+     *
+     * @param remaining Bytes que quedan por respaldar del archivo
+     */
+    private static byte[] nextChunk(InputStream input, long remaining) throws IOException {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(MIN_CHUNK * 4);
+        long hash = 0;
+        int value;
+        while (chunk.size() < remaining && (value = input.read()) != -1) {
+            chunk.write(value);
+            hash = (hash << 1) + GEAR[value];
+            int size = chunk.size();
+            if ((size >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || size >= MAX_CHUNK) {
+                break;
+            }
+        }
+        return chunk.size() == 0 ? null : chunk.toByteArray();
+    }
+
+    /**
+     * @return true si el fragmento no existía y fue escrito
+     */
+    private boolean storeChunk(String hash, byte[] chunk) throws IOException {
+        Path path = chunkPath(hash);
+        if (Files.exists(path)) {
+            return false;
+        }
+        Files.createDirectories(path.getParent());
+        Path temporary = path.resolveSibling(hash + ".tmp");
+        Files.write(temporary, chunk);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private Path chunkPath(String hash) {
+        return chunkDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ingreso masivo de equipos desde un archivo CSV o JSON Lines.
+ *
+ * El archivo se lee en flujo por lotes de filas. Cada lote se valida en
+ * paralelo con las mismas reglas del ingreso por consola, los números de
+ * serie repetidos (en el archivo o en el sistema) se rechazan, y los
+ * equipos aceptados entran a recepción en una sola operación del motor
+ * de flujo: sus entradas del diario se confirman juntas y el historial se
+ * escribe una vez al terminar. Cada fila rechazada queda en el reporte
+ * con su número de línea y el motivo.
+ *
+ * Columnas (o claves en JSON Lines): identifier, issueDescription,
+ * entryDate (YYYY-MM-DD, opcional), owner, ownerEmail, ownerPhone y
+ * priority (EXPRESS, STANDARD o LOW, opcional).
+ */
+public class BulkImporter {
+    private static final int BATCH_SIZE = 1000;
+    private static final String[] REQUIRED_COLUMNS = {
+        "identifier", "issueDescription", "owner", "ownerEmail", "ownerPhone"
+    };
+
+    /**
+     * Fila rechazada y el motivo
+     */
+    public static final class RowError {
+        private final long line;
+        private final String identifier;
+        private final String message;
+
+        RowError(long line, String identifier, String message) {
+            this.line = line;
+            this.identifier = identifier;
+            this.message = message;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Línea " + line + (identifier == null ? "" : " (" + identifier + ")") + ": " + message;
+        }
+    }
+
+    /**
+     * Resultado de una importación
+     */
+    public static final class Result {
+        private int accepted;
+        private final List<RowError> errors = new ArrayList<>();
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public List<RowError> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Fila leída del archivo, con su número de línea
+     */
+    private static final class Row {
+        final long line;
+        final Map<String, String> fields;
+        final String parseError;
+
+        Row(long line, Map<String, String> fields, String parseError) {
+            this.line = line;
+            this.fields = fields;
+            this.parseError = parseError;
+        }
+    }
+
+    /**
+     * Resultado de validar una fila: el equipo o el error
+     */
+    private static final class Validated {
+        final Row row;
+        final Device device;
+        final String error;
+
+        Validated(Row row, Device device, String error) {
+            this.row = row;
+            this.device = device;
+            this.error = error;
+        }
+    }
+
+    private final WorkflowEngine engine;
+
+    public BulkImporter(WorkflowEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Importa los equipos del archivo; el formato se elige por la
+     * extensión (.jsonl o .ndjson para JSON Lines, cualquier otra es CSV)
+     */
+    public Result importFile(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean jsonLines = name.endsWith(".jsonl") || name.endsWith(".ndjson");
+        Result result = new Result();
+        Set<String> seenIdentifiers = new HashSet<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RowReader rows = jsonLines ? new JsonLinesReader(reader) : new CsvReader(reader);
+            List<Row> batch = new ArrayList<>(BATCH_SIZE);
+            Row row;
+            while ((row = rows.next()) != null) {
+                batch.add(row);
+                if (batch.size() == BATCH_SIZE) {
+                    importBatch(batch, seenIdentifiers, result);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                importBatch(batch, seenIdentifiers, result);
+            }
+        } catch (IllegalArgumentException e) {
+            // Encabezado CSV inválido: no se puede interpretar ninguna fila
+            result.errors.add(new RowError(1, null, e.getMessage()));
+        }
+        DataManager.flushActivityLog();
+        return result;
+    }
+
+    /**
+     * Escribe el reporte de errores como CSV (línea, número de serie, motivo)
+     */
+    public static void writeErrorReport(List<RowError> errors, Path target) throws IOException {
+        List<String> lines = new ArrayList<>(errors.size() + 1);
+        lines.add("line,identifier,error");
+        for (RowError error : errors) {
+            lines.add(error.getLine() + "," + csv(error.getIdentifier() == null ? "" : error.getIdentifier())
+                + "," + csv(error.getMessage()));
+        }
+        Files.write(target, lines, StandardCharsets.UTF_8);
+    }
+
+    private void importBatch(List<Row> batch, Set<String> seenIdentifiers, Result result) throws IOException {
+        List<Validated> validated = batch.parallelStream().map(BulkImporter::validate).toList();
+
+        // Los repetidos dentro del archivo se resuelven en orden: se conserva la primera aparición
+        List<Device> devices = new ArrayList<>(validated.size());
+        Map<Device, Row> origins = new HashMap<>();
+        for (Validated entry : validated) {
+            if (entry.error != null) {
+                result.errors.add(new RowError(entry.row.line, entry.row.fields.get("identifier"), entry.error));
+            } else if (!seenIdentifiers.add(DeviceIndex.normalize(entry.device.getIdentifier()))) {
+                result.errors.add(new RowError(entry.row.line, entry.device.getIdentifier(),
+                    "Número de serie repetido en el archivo"));
+            } else {
+                devices.add(entry.device);
+                origins.put(entry.device, entry.row);
+            }
+        }
+        if (devices.isEmpty()) {
+            return;
+        }
+
+        List<Device> rejected = new ArrayList<>();
+        CompletableFuture<Long> durability = engine.intakeBatch(devices, rejected);
+        for (Device device : rejected) {
+            result.errors.add(new RowError(origins.get(device).line, device.getIdentifier(),
+                "Ya existe un equipo con ese número de serie"));
+        }
+        result.accepted += devices.size() - rejected.size();
+        if (durability != null && !DataManager.awaitDurable(durability)) {
+            throw new IOException("El lote no pudo confirmarse en disco");
+        }
+        result.errors.sort((first, second) -> Long.compare(first.line, second.line));
+    }
+
+    private static Validated validate(Row row) {
+        if (row.parseError != null) {
+            return new Validated(row, null, row.parseError);
+        }
+        Map<String, String> fields = row.fields;
+        for (String column : REQUIRED_COLUMNS) {
+            String value = fields.get(column);
+            if (value == null || value.isBlank()) {
+                return new Validated(row, null, "El campo " + column + " es obligatorio");
+            }
+        }
+        String ownerEmail = fields.get("ownerEmail").trim();
+        if (!App.EMAIL_PATTERN.matcher(ownerEmail).matches()) {
+            return new Validated(row, null, "Correo electrónico inválido");
+        }
+        String ownerPhone = fields.get("ownerPhone").trim();
+        if (!App.PHONE_PATTERN.matcher(ownerPhone).matches()) {
+            return new Validated(row, null, "El teléfono debe tener exactamente 8 dígitos numéricos");
+        }
+
+        LocalDate entryDate = LocalDate.now();
+        String date = fields.get("entryDate");
+        if (date != null && !date.isBlank()) {
+            try {
+                entryDate = LocalDate.parse(date.trim());
+            } catch (DateTimeParseException e) {
+                return new Validated(row, null, "Fecha inválida (use YYYY-MM-DD): " + date);
+            }
+        }
+        ServicePriority priority = ServicePriority.STANDARD;
+        String priorityName = fields.get("priority");
+        if (priorityName != null && !priorityName.isBlank()) {
+            try {
+                priority = ServicePriority.valueOf(priorityName.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return new Validated(row, null, "Prioridad desconocida: " + priorityName);
+            }
+        }
+
+        Device device = new Device(fields.get("identifier").trim(), fields.get("issueDescription").trim(),
+            entryDate, fields.get("owner").trim(), ownerEmail, ownerPhone);
+        device.setServicePriority(priority);
+        return new Validated(row, device, null);
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Fuente de filas en flujo
+     */
+    private interface RowReader {
+        /**
+         * @return Siguiente fila, o null al terminar el archivo
+         */
+        Row next() throws IOException;
+    }
+
+    /**
+     * CSV con encabezado; admite campos entre comillas con comas, comillas
+     * dobles y saltos de línea
+     */
+    private static final class CsvReader implements RowReader {
+        private final BufferedReader reader;
+        private final String[] columns;
+        private long line;
+
+        CsvReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            List<String> header = readRecord();
+            if (header == null) {
+                this.columns = new String[0];
+                return;
+            }
+            this.columns = header.stream().map(String::trim).toArray(String[]::new);
+            List<String> present = Arrays.asList(columns);
+            for (String required : REQUIRED_COLUMNS) {
+                if (!present.contains(required)) {
+                    throw new IllegalArgumentException("Falta la columna " + required + " en el encabezado");
+                }
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            while (true) {
+                long start = line + 1;
+                List<String> values = readRecord();
+                if (values == null) {
+                    return null;
+                }
+                if (values.size() == 1 && values.get(0).isBlank()) {
+                    continue;
+                }
+                if (values.size() != columns.length) {
+                    return new Row(start, new HashMap<>(), "Se esperaban " + columns.length
+                        + " columnas y hay " + values.size());
+                }
+                Map<String, String> fields = new HashMap<>();
+                for (int i = 0; i < columns.length; i++) {
+                    fields.put(columns[i], values.get(i));
+                }
+                return new Row(start, fields, null);
+            }
+        }
+
+        private List<String> readRecord() throws IOException {
+            String text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line++;
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == text.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // Campo entre comillas que continúa en la línea siguiente
+                    text = reader.readLine();
+                    if (text == null) {
+                        break;
+                    }
+                    line++;
+                    value.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = text.charAt(i++);
+                if (quoted) {
+                    if (c != '"') {
+                        value.append(c);
+                    } else if (i < text.length() && text.charAt(i) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            values.add(value.toString());
+            return values;
+        }
+    }
+
+    /**
+     * Un objeto JSON por línea
+     */
+    private static final class JsonLinesReader implements RowReader {
+        private final BufferedReader reader;
+        private long line;
+
+        JsonLinesReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    Map<String, String> fields = new HashMap<>();
+                    for (Map.Entry<String, Object> entry : new JsonReader(text).readObject().entrySet()) {
+                        if (entry.getValue() instanceof Map || entry.getValue() instanceof List) {
+                            return new Row(line, new HashMap<>(), "El campo " + entry.getKey() + " debe ser un valor simple");
+                        }
+                        fields.put(entry.getKey(), asText(entry.getValue()));
+                    }
+                    return new Row(line, fields, null);
+                } catch (IllegalArgumentException e) {
+                    return new Row(line, new HashMap<>(), e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        private static String asText(Object value) {
+            if (value instanceof Double) {
+                double number = (Double) value;
+                // Teléfonos escritos como número
+                if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                    return Long.toString((long) number);
+                }
+            }
+            return value == null ? null : value.toString();
+        }
+    }
+}
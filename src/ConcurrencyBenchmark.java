@@ -0,0 +1,210 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de concurrencia del motor de flujo (java ConcurrencyBenchmark [equipos]).
+ *
+ * Procesa la misma cantidad de equipos con 1, 2, 4... hilos hasta la
+ * cantidad de procesadores, sobre colas en memoria y sin diario, muestra
+ * el rendimiento de cada corrida y verifica que ningún equipo se pierda
+ * ni se entregue dos veces. No toca los datos del sistema.
+ */
+public final class ConcurrencyBenchmark {
+    private static final int DEFAULT_DEVICES = 20_000;
+    // Iteraciones de cálculo que simulan el trabajo de un técnico
+    private static final int SIMULATED_WORK = 2_000;
+
+    private ConcurrencyBenchmark() {
+    }
+
+    /**
+     * Punto de entrada de la herramienta, independiente de la aplicación
+     */
+    public static void main(String[] args) {
+        int deviceCount;
+        try {
+            deviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: java ConcurrencyBenchmark [equipos]");
+            System.exit(2);
+            return;
+        }
+        if (!run(deviceCount)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param deviceCount Equipos por corrida (0 usa el valor por defecto)
+     * @return true si todas las corridas conservaron los equipos
+     */
+    public static boolean run(int deviceCount) {
+        int devices = deviceCount > 0 ? deviceCount : DEFAULT_DEVICES;
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.println("🧪 Prueba de concurrencia: " + devices + " equipos, "
+            + processors + " procesadores disponibles");
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+
+        boolean consistent = true;
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            StressRun run = new StressRun(devices);
+            double seconds = run.execute(threads);
+            double throughput = run.operations.get() / seconds;
+            if (baseline == 0) {
+                baseline = throughput;
+            }
+            String problem = run.verify();
+            consistent &= problem == null;
+            System.out.printf("   %2d hilos: %,10.0f operaciones/s (x%.2f) %s%n",
+                threads, throughput, throughput / baseline, problem == null ? "✅" : "❌ " + problem);
+        }
+        return consistent;
+    }
+
+    /**
+     * Una corrida de la prueba: colas en memoria (sin diario) y técnicos
+     * que atienden cualquier etapa con trabajo pendiente
+     */
+    private static final class StressRun {
+        private final int deviceCount;
+        private final Map<DeviceState, DeviceQueue> queues = new EnumMap<>(DeviceState.class);
+        private final DeviceIndex index;
+        private final WorkflowEngine engine;
+        private final AtomicInteger nextIntake = new AtomicInteger();
+        private final AtomicInteger rejectedIntakes = new AtomicInteger();
+        private final AtomicLong operations = new AtomicLong();
+        private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicLong checksum = new AtomicLong();
+
+        StressRun(int deviceCount) {
+            this.deviceCount = deviceCount;
+            for (DeviceState state : DeviceState.values()) {
+                queues.put(state, new DeviceQueue(state));
+            }
+            this.index = DeviceIndex.build(queues);
+            this.engine = new WorkflowEngine(queues, index, false);
+        }
+
+        double execute(int threadCount) {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                String technician = "TEC-" + (i + 1);
+                workers.add(new Thread(() -> work(technician), "tecnico-" + (i + 1)));
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return (System.nanoTime() - start) / 1e9;
+        }
+
+        private void work(String technician) {
+            long completed = 0;
+            long checksum = 0;
+            while (delivered.size() + duplicates.get() < deviceCount) {
+                long before = completed;
+
+                Device device = engine.claimNext(DeviceState.READY_DELIVERY);
+                if (device != null) {
+                    checksum += simulateWork(device);
+                    engine.finishDelivery(device, true);
+                    if (!delivered.add(device.getIdentifier())) {
+                        duplicates.incrementAndGet();
+                    }
+                    completed++;
+                }
+                device = engine.claimNext(DeviceState.QUALITY_CHECK);
+                if (device != null) {
+                    int result = simulateWork(device);
+                    checksum += result;
+                    engine.finishQualityCheck(device, result % 10 != 0);
+                    completed++;
+                }
+                device = engine.claimNext(DeviceState.IN_REPAIR);
+                if (device != null) {
+                    checksum += simulateWork(device);
+                    engine.finishRepair(device, "Cambio de componente", technician);
+                    completed++;
+                }
+                device = engine.claimNext(DeviceState.RECEIVED);
+                if (device != null) {
+                    int result = simulateWork(device);
+                    checksum += result;
+                    engine.finishExamination(device, "Diagnóstico", result % 5 != 0);
+                    completed++;
+                }
+                int next = nextIntake.getAndIncrement();
+                if (next < deviceCount) {
+                    Device incoming = new Device("SN-" + next, "Prueba de carga", LocalDate.now(),
+                        "Cliente " + next, "cliente" + next + "@correo.com", "88888888");
+                    if (!engine.intake(incoming)) {
+                        rejectedIntakes.incrementAndGet();
+                    }
+                    completed++;
+                }
+
+                if (completed == before) {
+                    Thread.onSpinWait();
+                }
+            }
+            operations.addAndGet(completed);
+            // Evita que el compilador descarte el trabajo simulado
+            this.checksum.addAndGet(checksum);
+        }
+
+        /**
+         * Cálculo sin bloqueos que representa el trabajo del técnico
+         */
+        private static int simulateWork(Device device) {
+            long value = device.getIdentifier().hashCode();
+            for (int i = 0; i < SIMULATED_WORK; i++) {
+                value = value * 6364136223846793005L + 1442695040888963407L;
+            }
+            return (int) (value >>> 33);
+        }
+
+        /**
+         * @return Descripción del problema encontrado, o null si la corrida es consistente
+         */
+        String verify() {
+            if (duplicates.get() > 0) {
+                return duplicates.get() + " equipos entregados dos veces";
+            }
+            if (rejectedIntakes.get() > 0) {
+                return rejectedIntakes.get() + " ingresos rechazados";
+            }
+            if (delivered.size() != deviceCount) {
+                return (deviceCount - delivered.size()) + " equipos perdidos";
+            }
+            for (DeviceQueue queue : queues.values()) {
+                if (!queue.isEmpty() || queue.claimedCount() > 0) {
+                    return "la cola " + queue.getWorkflowState() + " no quedó vacía";
+                }
+            }
+            if (index.size() != 0) {
+                return index.size() + " equipos siguen en el índice";
+            }
+            return null;
+        }
+    }
+}
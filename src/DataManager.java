@@ -2,6 +2,22 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.HashMap;
 import java.util.Map;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Gestor centralizado para el manejo de persistencia de datos
@@ -9,9 +25,90 @@ import java.util.Map;
  */
 public class DataManager {
     // Configuración de archivos del sistema
-    private static final String SYSTEM_DATA_FILE = "technical_support_data.ser";
+    private static final String SEGMENT_DIRECTORY = "technical_support_segments";
+    private static final String LEGACY_DATA_FILE = "technical_support_data.ser";
     private static final String ACTIVITY_LOG_FILE = "service_records.log";
+    private static final String ACTIVITY_EVENT_FILE = "service_records.events";
+    private static final String ACTIVITY_EVENT_DIRECTORY = "service_records";
+    private static final String LEGACY_LOG_ARCHIVE = "legacy_service_records.log.gz";
+    private static final String SEARCH_INDEX_DIRECTORY = "service_search";
     private static final String BACKUP_DIRECTORY = "system_backups";
+    private static final String JOURNAL_FILE = "technical_support_data.journal";
+    private static final String MAPPED_STORE_DIRECTORY = "device_store";
+    private static final String SHARED_LOCK_FILE = "technical_support_data.lock";
+
+    // Motor de almacenamiento: instantánea + diario (por defecto), archivos mapeados en memoria
+    // o instantánea + diario compartidos por varios procesos
+    private static final boolean MAPPED_STORAGE =
+        "mapped".equalsIgnoreCase(System.getProperty("warranty.storage", "snapshot"));
+    private static final boolean SHARED_STORAGE =
+        "shared".equalsIgnoreCase(System.getProperty("warranty.storage", "snapshot"));
+
+    // Carga diferida: al iniciar solo se leen las cabeceras de cada equipo. En modo
+    // compartido otro proceso puede reemplazar los segmentos, por lo que se carga todo
+    private static final boolean LAZY_LOADING = !SHARED_STORAGE
+        && !"eager".equalsIgnoreCase(System.getProperty("warranty.loading", "lazy"));
+
+    // Intervalo de revisión de cambios hechos por otros procesos en modo compartido (milisegundos)
+    private static final long SHARED_POLL_MILLIS = Long.getLong("warranty.sharedPollMs", 500);
+
+    // Puerto en el que este nodo envía su diario a los seguidores (0 = sin replicación)
+    private static final int REPLICATION_PORT = Integer.getInteger("warranty.replicationPort", 0);
+    // Entradas recientes retenidas para los seguidores que se reconectan
+    private static final int REPLICATION_BACKLOG = Integer.getInteger("warranty.replicationBacklog", 100_000);
+
+    // Orden de atención de las colas: llegada (por defecto) o prioridad con fecha límite de servicio
+    private static final boolean PRIORITY_ORDER =
+        "priority".equalsIgnoreCase(System.getProperty("warranty.queueOrder", "fifo"));
+
+    // Cantidad de transiciones en el diario que dispara una compactación
+    private static final int COMPACTION_THRESHOLD = 100;
+
+    // Intervalo máximo entre llamadas a fsync del diario (milisegundos)
+    private static final long FSYNC_INTERVAL_MILLIS = Long.getLong("warranty.fsyncIntervalMs", 100);
+
+    // Intervalo máximo entre escrituras en lote del log de actividad (milisegundos)
+    private static final long ACTIVITY_FLUSH_MILLIS = Long.getLong("warranty.activityFlushMs", 500);
+
+    // Tamaño a partir del cual se sella y comprime un segmento del historial (bytes)
+    private static final long ACTIVITY_SEGMENT_BYTES = Long.getLong("warranty.activitySegmentBytes", 4L * 1024 * 1024);
+
+    // Respaldos incrementales: intervalo entre respaldos y cantidad a conservar
+    private static final long BACKUP_INTERVAL_MINUTES = Long.getLong("warranty.backupIntervalMinutes", 30);
+    private static final int BACKUPS_TO_KEEP = 20;
+
+    private static volatile TransitionJournal journal;
+    private static SegmentedSnapshotStore segmentStore;
+    // Estados cuyas colas cambiaron desde el último guardado de segmentos
+    private static final Set<DeviceState> dirtySegments =
+        Collections.synchronizedSet(EnumSet.noneOf(DeviceState.class));
+    private static volatile PersistenceWriter persistenceWriter;
+    private static MappedDeviceStore mappedStore;
+    private static SharedStore sharedStore;
+    private static ReplicationPrimary replicationPrimary;
+    private static BackupManager backupManager;
+    private static ActivityEventLog activityEventLog;
+    private static SearchIndex searchIndex;
+    private static DeviceIndex deviceIndex;
+    private static ScheduledExecutorService backupScheduler;
+    private static int entriesSinceCompaction;
+    private static volatile CompletableFuture<Void> pendingCompaction;
+    // Orden de bloqueo: compactionLock, colas (por estado), journalLock
+    private static final Object compactionLock = new Object();
+    private static final Object journalLock = new Object();
+    private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread worker = new Thread(task, "compactacion-diario");
+        worker.setDaemon(true);
+        return worker;
+    });
+    // Forzado del almacén mapeado aún sin empezar; las operaciones que llegan mientras tanto se confirman juntas
+    private static CompletableFuture<Long> pendingMappedForce;
+    private static final Object mappedForceLock = new Object();
+    private static final ExecutorService mappedForceExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread worker = new Thread(task, "forzado-almacen-mapeado");
+        worker.setDaemon(true);
+        return worker;
+    });
     
     // Singleton para gestión de instancia única
     private static DataManager instance;
@@ -42,61 +139,649 @@ public class DataManager {
     }
 
     /**
-     * Persiste el estado completo del sistema de colas
+     * Persiste el estado completo del sistema de colas como instantánea
+     * y descarta el diario de transiciones, que queda incluido en ella
      * 
      * @param workflowQueues Mapa de estados y sus respectivas colas de dispositivos
      */
     public static void saveSystemData(Map<DeviceState, DeviceQueue> workflowQueues) {
+        if (MAPPED_STORAGE) {
+            syncMappedStore();
+            return;
+        }
+        if (sharedStore != null) {
+            try {
+                compactShared(workflowQueues);
+                System.out.println("💾 Estado del sistema guardado exitosamente (almacenamiento compartido).");
+            } catch (IOException e) {
+                System.err.println("❌ Error crítico al persistir datos: " + e.getMessage());
+            }
+            return;
+        }
+
         try {
+            awaitPendingCompaction();
+            TransitionJournal currentJournal = getJournal();
             
-            // Serializar datos principales
-            try (FileOutputStream fileStream = new FileOutputStream(SYSTEM_DATA_FILE);
-                 BufferedOutputStream bufferedStream = new BufferedOutputStream(fileStream);
-                 ObjectOutputStream objectStream = new ObjectOutputStream(bufferedStream)) {
-                
-                objectStream.writeObject(workflowQueues);
-                objectStream.flush();
-                
-                System.out.println("💾 Estado del sistema guardado exitosamente.");
-                
+            // Solo se reescriben los segmentos modificados; la escritura ocurre en orden tras las entradas pendientes
+            int[] rewritten = new int[1];
+            List<Set<DeviceState>> taken = new ArrayList<>(1);
+            try {
+                captureWorkflows(workflowQueues, currentJournal, (captured, capturedSequence) -> {
+                    Set<DeviceState> dirty = takeDirtySegments();
+                    taken.add(dirty);
+                    return getPersistenceWriter().submitTask(() -> {
+                        rewritten[0] = getSegmentStore().save(captured, dirty, capturedSequence);
+                        currentJournal.reset();
+                    });
+                }).join();
+            } catch (CompletionException e) {
+                taken.forEach(dirtySegments::addAll);
+                throw e;
             }
-        } catch (IOException e) {
-            System.err.println("❌ Error crítico al persistir datos: " + e.getMessage());
+            synchronized (journalLock) {
+                entriesSinceCompaction = 0;
+            }
+                
+            System.out.println("💾 Estado del sistema guardado exitosamente ("
+                + rewritten[0] + " segmentos reescritos).");
+        } catch (CompletionException e) {
+            System.err.println("❌ Error crítico al persistir datos: " + e.getCause().getMessage());
             e.printStackTrace();
         }
     }
 
     /**
-     * Recupera el estado completo del sistema desde el almacenamiento
+     * Registra el ingreso de un nuevo dispositivo en el diario de transiciones
+     * 
+     * @param workflowQueues Colas del sistema (usadas para compactar)
+     * @param device Dispositivo ingresado
+     * @return Futuro que se completa cuando la entrada es durable en disco
+     */
+    public static CompletableFuture<Long> recordIntake(Map<DeviceState, DeviceQueue> workflowQueues,
+            Device device) {
+        return recordOperation(workflowQueues, TransitionJournal.Operation.INTAKE,
+            device, null, device.getCurrentState());
+    }
+
+    /**
+     * Registra el movimiento de un dispositivo entre colas, junto con
+     * los campos actualizados durante la transición
+     * 
+     * @param workflowQueues Colas del sistema (usadas para compactar)
+     * @param device Dispositivo ya ubicado en su cola de destino
+     * @param fromState Estado que tenía antes de la transición
+     * @return Futuro que se completa cuando la entrada es durable en disco
+     */
+    public static CompletableFuture<Long> recordTransition(Map<DeviceState, DeviceQueue> workflowQueues,
+            Device device, DeviceState fromState) {
+        TransitionJournal.Operation operation = fromState == device.getCurrentState()
+            ? TransitionJournal.Operation.UPDATE
+            : TransitionJournal.Operation.TRANSITION;
+        return recordOperation(workflowQueues, operation, device, fromState, device.getCurrentState());
+    }
+
+    /**
+     * Registra la salida definitiva de un dispositivo del sistema
+     * (entrega al cliente o eliminación del registro)
+     * 
+     * @param workflowQueues Colas del sistema (usadas para compactar)
+     * @param device Dispositivo retirado
+     * @return Futuro que se completa cuando la entrada es durable en disco
+     */
+    public static CompletableFuture<Long> recordRemoval(Map<DeviceState, DeviceQueue> workflowQueues,
+            Device device) {
+        return recordOperation(workflowQueues, TransitionJournal.Operation.REMOVAL,
+            device, device.getCurrentState(), null);
+    }
+
+    /**
+     * Espera a que una transición registrada quede durable en disco.
+     * Solo debe usarse cuando el operador requiere confirmación explícita.
+     * 
+     * @param durability Futuro devuelto por los métodos record*
+     * @return true si la transición quedó persistida
+     */
+    public static boolean awaitDurable(CompletableFuture<Long> durability) {
+        try {
+            durability.join();
+            return true;
+        } catch (CompletionException e) {
+            System.err.println("❌ La transición no pudo confirmarse en disco: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    private static CompletableFuture<Long> recordOperation(Map<DeviceState, DeviceQueue> workflowQueues,
+            TransitionJournal.Operation operation, Device device,
+            DeviceState fromState, DeviceState toState) {
+        CompletableFuture<Long> durability = appendOperation(operation, device, fromState, toState);
+        compactIfNeeded(workflowQueues);
+        return durability;
+    }
+
+    /**
+     * Agrega la entrada al diario sin compactar. Numerar y encolar la
+     * entrada es atómico, de modo que el diario queda en el orden de sus
+     * números de secuencia aunque varios hilos registren a la vez; el
+     * motor de flujo lo llama con las colas involucradas bloqueadas para
+     * que el orden coincida con el de los movimientos.
+     */
+    static CompletableFuture<Long> appendOperation(TransitionJournal.Operation operation, Device device,
+            DeviceState fromState, DeviceState toState) {
+        if (operation != TransitionJournal.Operation.REMOVAL) {
+            device.incrementVersion();
+        } else {
+            restartDeviceActivity(device.getIdentifier());
+        }
+        if (MAPPED_STORAGE) {
+            if (operation == TransitionJournal.Operation.REMOVAL) {
+                mappedStore.remove(device.getIdentifier());
+            } else {
+                mappedStore.put(device);
+            }
+            return forceMappedStore();
+        }
+
+        if (sharedStore != null) {
+            synchronized (journalLock) {
+                return sharedStore.append(getJournal().encode(operation, device, fromState, toState));
+            }
+        }
+
+        if (fromState != null) {
+            dirtySegments.add(fromState);
+        }
+        if (toState != null) {
+            dirtySegments.add(toState);
+        }
+
+        CompletableFuture<Long> durability;
+        synchronized (journalLock) {
+            ByteBuffer entry = getJournal().encode(operation, device, fromState, toState);
+            if (replicationPrimary != null) {
+                replicationPrimary.publish(entry);
+            }
+            durability = getPersistenceWriter().submit(entry);
+            entriesSinceCompaction++;
+        }
+        if (replicationPrimary != null) {
+            // Los seguidores solo reciben entradas ya persistidas en este nodo
+            durability.thenAccept(replicationPrimary::markDurable);
+        }
+        durability.whenComplete((sequence, error) -> {
+            if (error != null) {
+                System.err.println("⚠️ No se pudo escribir en el diario: " + error.getMessage());
+                System.err.println("🔄 El estado completo se guardará al cerrar el sistema.");
+            }
+        });
+        return durability;
+    }
+
+    /**
+     * Programa la compactación si se alcanzó el umbral de entradas.
+     * No debe llamarse con colas bloqueadas.
+     */
+    static void compactIfNeeded(Map<DeviceState, DeviceQueue> workflowQueues) {
+        if (MAPPED_STORAGE) {
+            return;
+        }
+        if (sharedStore != null) {
+            if (sharedStore.needsCompaction(COMPACTION_THRESHOLD)) {
+                try {
+                    compactShared(workflowQueues);
+                } catch (IOException e) {
+                    System.err.println("⚠️ Error al compactar el diario: " + e.getMessage());
+                }
+            }
+            return;
+        }
+        synchronized (compactionLock) {
+            synchronized (journalLock) {
+                if (entriesSinceCompaction < COMPACTION_THRESHOLD) {
+                    return;
+                }
+            }
+            scheduleCompaction(workflowQueues);
+        }
+    }
+
+    /**
+     * Compactación en modo compartido: con el diario bloqueado para los
+     * demás procesos se reescriben todos los segmentos (el manifiesto en
+     * disco pudo cambiar por otro proceso) y el diario pasa a una nueva generación
+     */
+    private static void compactShared(Map<DeviceState, DeviceQueue> workflowQueues) throws IOException {
+        sharedStore.compact(sequence -> {
+            try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(Paths.get(SEGMENT_DIRECTORY))) {
+                store.save(snapshotWorkflows(workflowQueues), EnumSet.allOf(DeviceState.class), sequence);
+            }
+        });
+    }
+
+    /**
+     * Copia inmutable de todas las colas en O(1) por cola. Sirve para
+     * persistir en segundo plano y para reportes de solo lectura mientras
+     * las transiciones continúan sobre las colas originales. Las colas se
+     * bloquean juntas, así que un equipo en movimiento entre dos colas
+     * aparece en una sola.
+     * 
+     * @param workflowQueues Colas vivas del sistema
+     * @return Instantánea de las colas
+     */
+    public static Map<DeviceState, DeviceQueue> snapshotWorkflows(Map<DeviceState, DeviceQueue> workflowQueues) {
+        return WorkflowEngine.withAllLocked(workflowQueues.values(), () -> snapshotQueues(workflowQueues));
+    }
+
+    /**
+     * Tarea del diario que se encola junto con la instantánea que persiste
+     */
+    @FunctionalInterface
+    private interface CaptureTask<T> {
+        T submit(Map<DeviceState, DeviceQueue> captured, long capturedSequence);
+    }
+
+    /**
+     * Toma la instantánea de las colas y el último número de secuencia del
+     * diario con las colas bloqueadas (la tarea toma ahí también los
+     * segmentos modificados), y encola ahí mismo la tarea que
+     * rota o reinicia el diario: ninguna entrada posterior a la
+     * instantánea puede quedar antes del corte y perderse con el diario
+     * descartado
+     */
+    private static <T> T captureWorkflows(Map<DeviceState, DeviceQueue> workflowQueues,
+            TransitionJournal currentJournal, CaptureTask<T> task) {
+        return WorkflowEngine.withAllLocked(workflowQueues.values(), () -> {
+            synchronized (journalLock) {
+                return task.submit(snapshotQueues(workflowQueues), currentJournal.getLastSequence());
+            }
+        });
+    }
+
+    private static Map<DeviceState, DeviceQueue> snapshotQueues(Map<DeviceState, DeviceQueue> workflowQueues) {
+        Map<DeviceState, DeviceQueue> snapshot = new HashMap<>();
+        for (Map.Entry<DeviceState, DeviceQueue> entry : workflowQueues.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Captura la instantánea de las colas en el hilo actual (O(1) y
+     * consistente con el diario). El hilo de persistencia rota el diario
+     * después de escribir las entradas previas y la codificación y escritura
+     * de la instantánea ocurren en segundo plano.
+     */
+    private static void scheduleCompaction(Map<DeviceState, DeviceQueue> workflowQueues) {
+        if (pendingCompaction != null && !pendingCompaction.isDone()) {
+            return;
+        }
+        synchronized (journalLock) {
+            entriesSinceCompaction = 0;
+        }
+
+        TransitionJournal currentJournal = getJournal();
+        pendingCompaction = captureWorkflows(workflowQueues, currentJournal, (captured, capturedSequence) -> {
+            // Con las colas bloqueadas: un cambio posterior vuelve a marcar su segmento
+            Set<DeviceState> dirty = takeDirtySegments();
+            return getPersistenceWriter()
+                .submitTask(currentJournal::rotate)
+                .thenAcceptAsync(sequence -> {
+                    try {
+                        getSegmentStore().save(captured, dirty, capturedSequence);
+                        currentJournal.discardRotated();
+                    } catch (IOException e) {
+                        dirtySegments.addAll(dirty);
+                        System.err.println("⚠️ Error al compactar el diario: " + e.getMessage());
+                    }
+                }, compactionExecutor);
+        });
+    }
+
+    /**
+     * Toma y limpia el conjunto de segmentos modificados
+     */
+    private static Set<DeviceState> takeDirtySegments() {
+        synchronized (dirtySegments) {
+            Set<DeviceState> dirty = EnumSet.noneOf(DeviceState.class);
+            dirty.addAll(dirtySegments);
+            dirtySegments.clear();
+            return dirty;
+        }
+    }
+
+    private static void awaitPendingCompaction() {
+        if (pendingCompaction == null) {
+            return;
+        }
+        try {
+            pendingCompaction.join();
+        } catch (CompletionException e) {
+            System.err.println("⚠️ Error en la compactación pendiente: " + e.getCause().getMessage());
+        }
+    }
+
+    private static PersistenceWriter getPersistenceWriter() {
+        synchronized (journalLock) {
+            if (persistenceWriter == null) {
+                persistenceWriter = new PersistenceWriter(getJournal(), FSYNC_INTERVAL_MILLIS);
+                // Al terminar la JVM se escribe y fuerza lo que aún esté encolado
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(persistenceWriter::close, "cierre-persistencia"));
+            }
+            return persistenceWriter;
+        }
+    }
+
+    private static TransitionJournal getJournal() {
+        synchronized (journalLock) {
+            if (journal == null) {
+                journal = new TransitionJournal(Paths.get(JOURNAL_FILE), 0);
+            }
+            return journal;
+        }
+    }
+
+    private static synchronized SegmentedSnapshotStore getSegmentStore() throws IOException {
+        if (segmentStore == null) {
+            segmentStore = new SegmentedSnapshotStore(Paths.get(SEGMENT_DIRECTORY));
+        }
+        return segmentStore;
+    }
+
+    /**
+     * Recupera el estado completo del sistema desde la última instantánea
+     * y reaplica las transiciones registradas en el diario
      * 
      * @return Mapa de estados con sus colas correspondientes
      */
-    @SuppressWarnings("unchecked")
     public static Map<DeviceState, DeviceQueue> loadSystemData() {
-        File dataFile = new File(SYSTEM_DATA_FILE);
+        SharedStore store = SHARED_STORAGE ? openSharedStore() : null;
+        Map<DeviceState, DeviceQueue> workflowQueues = MAPPED_STORAGE ? loadMappedStore()
+            : store != null ? store.load(DataManager::loadSnapshotData) : loadSnapshotData();
+        if (PRIORITY_ORDER) {
+            // La fecha límite de los equipos sin cargar viene en la cabecera de la instantánea
+            for (DeviceQueue queue : workflowQueues.values()) {
+                queue.enablePriorityOrder();
+            }
+        }
+        deviceIndex = DeviceIndex.build(workflowQueues);
+        if (store != null) {
+            store.start(workflowQueues, deviceIndex, getJournal());
+            sharedStore = store;
+            System.out.println("🔗 Almacenamiento compartido con otras estaciones activo.");
+        }
+        if (REPLICATION_PORT > 0 && replicationPrimary == null) {
+            startReplication(workflowQueues);
+        }
+        return workflowQueues;
+    }
+
+    /**
+     * Comienza a enviar el diario a los nodos seguidores; solo con el
+     * almacenamiento por instantánea y diario
+     */
+    private static void startReplication(Map<DeviceState, DeviceQueue> workflowQueues) {
+        if (MAPPED_STORAGE || SHARED_STORAGE) {
+            System.err.println("⚠️ La replicación requiere el almacenamiento por instantánea y diario; no se inicia.");
+            return;
+        }
+        try {
+            replicationPrimary = new ReplicationPrimary(REPLICATION_PORT, REPLICATION_BACKLOG,
+                getJournal().getLastSequence(),
+                () -> captureWorkflows(workflowQueues, getJournal(), DeviceCodec.Snapshot::new));
+            System.out.println("🔁 Replicación activa: seguidores en el puerto " + replicationPrimary.getPort());
+        } catch (IOException e) {
+            System.err.println("❌ No se pudo iniciar la replicación: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Nodo principal de replicación, o null si este nodo no replica
+     */
+    static ReplicationPrimary getReplicationPrimary() {
+        return replicationPrimary;
+    }
+
+    /**
+     * @return true si las colas se ordenan por fecha límite de servicio
+     */
+    static boolean isPriorityOrder() {
+        return PRIORITY_ORDER;
+    }
+
+    private static SharedStore openSharedStore() {
+        try {
+            SharedStore store = new SharedStore(Paths.get(SHARED_LOCK_FILE), Paths.get(JOURNAL_FILE),
+                Paths.get(SEGMENT_DIRECTORY), SHARED_POLL_MILLIS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.err.println("⚠️ Error al cerrar el almacenamiento compartido: " + e.getMessage());
+                }
+            }, "cierre-compartido"));
+            return store;
+        } catch (IOException e) {
+            System.err.println("❌ Error al abrir el almacenamiento compartido: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Almacenamiento compartido, o null si el sistema no usa el modo compartido
+     */
+    static SharedStore getSharedStore() {
+        return sharedStore;
+    }
+
+    /**
+     * Busca un equipo en las colas cargadas por número de serie, sin
+     * distinguir mayúsculas
+     * 
+     * @param identifier Número de serie
+     * @return Equipo encontrado, o null si no existe
+     */
+    public static Device findDevice(String identifier) {
+        return deviceIndex == null ? null : deviceIndex.find(identifier);
+    }
+
+    /**
+     * @param identifier Número de serie
+     * @return Cola donde se encuentra el equipo, o null si no existe
+     */
+    public static DeviceQueue findDeviceQueue(String identifier) {
+        return deviceIndex == null ? null : deviceIndex.queueOf(identifier);
+    }
+
+    /**
+     * @return Índice de las colas cargadas por {@link #loadSystemData()}
+     */
+    static DeviceIndex getDeviceIndex() {
+        return deviceIndex;
+    }
+
+    /**
+     * @return Equipos del propietario indicado
+     */
+    public static List<Device> findDevicesByOwner(String owner) {
+        return deviceIndex == null ? Collections.emptyList() : deviceIndex.findByOwner(owner);
+    }
+
+    /**
+     * @return Equipos con ese correo electrónico de contacto
+     */
+    public static List<Device> findDevicesByEmail(String email) {
+        return deviceIndex == null ? Collections.emptyList() : deviceIndex.findByEmail(email);
+    }
+
+    /**
+     * @return Equipos con ese teléfono de contacto
+     */
+    public static List<Device> findDevicesByPhone(String phone) {
+        return deviceIndex == null ? Collections.emptyList() : deviceIndex.findByPhone(phone);
+    }
+
+    /**
+     * @return Equipos reparados por el técnico indicado
+     */
+    public static List<Device> findDevicesByTechnician(String technicianId) {
+        return deviceIndex == null ? Collections.emptyList() : deviceIndex.findByTechnician(technicianId);
+    }
+
+    /**
+     * @return Equipos ingresados entre las dos fechas (inclusive), por fecha de ingreso
+     */
+    public static List<Device> findDevicesByEntryDate(LocalDate from, LocalDate to) {
+        return deviceIndex == null ? Collections.emptyList() : deviceIndex.findByEntryDate(from, to);
+    }
+
+    private static Map<DeviceState, DeviceQueue> loadSnapshotData() {
+        Map<DeviceState, DeviceQueue> loadedData = null;
+        long snapshotSequence = 0;
+        File legacyFile = new File(LEGACY_DATA_FILE);
+        String migrateFrom = null;
         
-        if (!dataFile.exists() || dataFile.length() == 0) {
+        try {
+            if (getSegmentStore().exists()) {
+                DeviceCodec.Snapshot snapshot = getSegmentStore().load(LAZY_LOADING);
+                loadedData = snapshot.getWorkflowQueues();
+                snapshotSequence = snapshot.getSequence();
+                
+                System.out.println("📂 Configuración del sistema cargada correctamente.");
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Error al recuperar datos del sistema: " + e.getMessage());
+            System.out.println("🔄 Restaurando configuración por defecto...");
+        }
+
+        if (loadedData == null && legacyFile.exists() && legacyFile.length() > 0) {
+            try (FileInputStream fileStream = new FileInputStream(legacyFile);
+                 BufferedInputStream bufferedStream = new BufferedInputStream(fileStream);
+                 ObjectInputStream objectStream = new ObjectInputStream(bufferedStream)) {
+                
+                loadedData = readWorkflowMap(objectStream);
+                migrateFrom = LEGACY_DATA_FILE;
+                
+                System.out.println("📂 Datos en formato anterior cargados, se convertirán al nuevo formato.");
+                
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("⚠️ Error al recuperar datos del sistema: " + e.getMessage());
+                System.out.println("🔄 Restaurando configuración por defecto...");
+            }
+        }
+
+        if (loadedData == null) {
             System.out.println("📂 Inicializando sistema con configuración por defecto...");
-            return buildDefaultWorkflowStructure();
+            loadedData = buildDefaultWorkflowStructure();
         }
 
-        try (FileInputStream fileStream = new FileInputStream(dataFile);
-             BufferedInputStream bufferedStream = new BufferedInputStream(fileStream);
-             ObjectInputStream objectStream = new ObjectInputStream(bufferedStream)) {
-            
-            Map<DeviceState, DeviceQueue> loadedData = 
-                (Map<DeviceState, DeviceQueue>) objectStream.readObject();
-            
-            System.out.println("📂 Configuración del sistema cargada correctamente.");
+        journal = new TransitionJournal(Paths.get(JOURNAL_FILE), snapshotSequence);
+        Map<DeviceState, DeviceQueue> beforeReplay = snapshotWorkflows(loadedData);
+        journal.replay(loadedData, snapshotSequence);
+        // Las colas alteradas por el diario deben reescribirse en el próximo guardado
+        for (DeviceState state : DeviceState.values()) {
+            if (!beforeReplay.get(state).getQueueList().equals(loadedData.get(state).getQueueList())) {
+                dirtySegments.add(state);
+            }
+        }
+
+        if (migrateFrom != null) {
+            migrateLegacyDataFile(loadedData, migrateFrom);
+        }
+        return loadedData;
+    }
+
+    /**
+     * Conversión única del archivo serializado con Java de versiones
+     * anteriores a segmentos por estado; el archivo original se conserva
+     * en el directorio de respaldos
+     */
+    private static void migrateLegacyDataFile(Map<DeviceState, DeviceQueue> workflowQueues,
+            String legacyFileName) {
+        saveSystemData(workflowQueues);
+        try {
+            Path backupPath = Paths.get(BACKUP_DIRECTORY);
+            Files.createDirectories(backupPath);
+            Files.move(Paths.get(legacyFileName), backupPath.resolve("legacy_" + legacyFileName),
+                StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("🔄 Datos convertidos al formato segmentado.");
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo archivar el archivo anterior: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre el almacén mapeado en memoria; la primera vez importa el
+     * contenido de la instantánea existente respetando el orden de las colas
+     */
+    private static Map<DeviceState, DeviceQueue> loadMappedStore() {
+        try {
+            mappedStore = MappedDeviceStore.open(Paths.get(MAPPED_STORE_DIRECTORY));
+
+            if (mappedStore.size() == 0) {
+                Map<DeviceState, DeviceQueue> imported = loadSnapshotData();
+                for (DeviceState state : DeviceState.values()) {
+                    for (Device device : imported.get(state).getQueueList()) {
+                        mappedStore.put(device);
+                    }
+                }
+                mappedStore.sync();
+                // Las colas se rearman desde el almacén para no conservar el detalle importado en el heap
+            }
+
+            Map<DeviceState, DeviceQueue> loadedData = mappedStore.loadWorkflows();
+            System.out.println("📂 Almacén mapeado abierto (" + mappedStore.size() + " equipos).");
             return loadedData;
-            
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("⚠️ Error al recuperar datos del sistema: " + e.getMessage());
-            System.out.println("🔄 Restaurando configuración por defecto...");
-            return buildDefaultWorkflowStructure();
+        } catch (IOException e) {
+            System.err.println("❌ Error al abrir el almacén mapeado: " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Programa el forzado a disco de las páginas del almacén mapeado. El
+     * futuro se completa cuando los cambios hechos antes de la llamada son
+     * durables; las llamadas que llegan antes de que empiece el forzado
+     * comparten el mismo.
+     */
+    private static CompletableFuture<Long> forceMappedStore() {
+        synchronized (mappedForceLock) {
+            if (pendingMappedForce == null) {
+                CompletableFuture<Long> force = new CompletableFuture<>();
+                pendingMappedForce = force;
+                mappedForceExecutor.execute(() -> {
+                    synchronized (mappedForceLock) {
+                        pendingMappedForce = null;
+                    }
+                    try {
+                        mappedStore.force();
+                        force.complete(0L);
+                    } catch (IOException e) {
+                        force.completeExceptionally(e);
+                    }
+                });
+            }
+            return pendingMappedForce;
         }
     }
 
+    private static void syncMappedStore() {
+        try {
+            mappedStore.sync();
+            System.out.println("💾 Estado del sistema guardado exitosamente.");
+        } catch (IOException e) {
+            System.err.println("❌ Error crítico al persistir datos: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<DeviceState, DeviceQueue> readWorkflowMap(ObjectInputStream objectStream)
+            throws IOException, ClassNotFoundException {
+        return (Map<DeviceState, DeviceQueue>) objectStream.readObject();
+    }
+
     /**
      * Construye la estructura inicial de colas del sistema
      * 
@@ -115,44 +800,39 @@ public class DataManager {
     }
 
     /**
-     * Registra la actividad de un dispositivo en el log histórico
+     * Registra en el log de eventos las actividades del dispositivo que
+     * aún no fueron escritas; cada registro se escribe una sola vez
      * 
      * @param device Dispositivo cuya actividad se va a registrar
      */
     public static void logDeviceActivity(Device device) {
-        try (FileWriter fileWriter = new FileWriter(ACTIVITY_LOG_FILE, true);
-             BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-             PrintWriter logWriter = new PrintWriter(bufferedWriter)) {
-            
-            // Separador visual para cada entrada
-            logWriter.println("═══════════════════════════════════════════════");
-            logWriter.println("🏷️ Identificador: " + device.getIdentifier());
-            logWriter.println("📊 Estado Actual: " + device.getCurrentState());
-            logWriter.println("👤 Propietario: " + device.getOwner());
-            logWriter.println("📅 Fecha de Registro: " + java.time.LocalDateTime.now());
-            
-            // Análisis técnico si existe
-            if (device.getTechnicalAnalysis() != null && !device.getTechnicalAnalysis().isEmpty()) {
-                logWriter.println("🔍 Diagnóstico: " + device.getTechnicalAnalysis());
-            }
-            
-            // Trabajo de reparación si existe
-            if (device.getRepairWork() != null && !device.getRepairWork().isEmpty()) {
-                logWriter.println("🛠️ Intervención: " + device.getRepairWork());
-                logWriter.println("👨‍🔧 Especialista: " + device.getTechnicianId());
-            }
-            
-            logWriter.println("📝 Registro de Actividades:");
-            for (ActivityRecord record : device.getActivityLog()) {
-                logWriter.println("    ↳ " + record.toString());
-            }
-            
-            logWriter.println("═══════════════════════════════════════════════");
-            logWriter.println(); // Línea en blanco para separación
-            
+        try {
+            getActivityEventLog().append(device);
+        } catch (IOException e) {
+            System.err.println("❌ Error al registrar actividad del dispositivo: " + e.getMessage());
+        }
+        try {
+            getSearchIndex().index(device);
+        } catch (IOException e) {
+            System.err.println("❌ Error al actualizar el índice de búsqueda: " + e.getMessage());
+        }
+    }
+
+    /**
+     * El equipo salió del flujo; si su número de serie vuelve a ingresar,
+     * su actividad se registra e indexa desde el primer registro
+     */
+    static void restartDeviceActivity(String identifier) {
+        try {
+            getActivityEventLog().restartDevice(identifier);
         } catch (IOException e) {
             System.err.println("❌ Error al registrar actividad del dispositivo: " + e.getMessage());
         }
+        try {
+            getSearchIndex().restartDevice(identifier);
+        } catch (IOException e) {
+            System.err.println("❌ Error al actualizar el índice de búsqueda: " + e.getMessage());
+        }
     }
 
     /**
@@ -163,107 +843,324 @@ public class DataManager {
     }
 
     /**
-     * Recupera todo el historial de actividades registradas
+     * Lee una página del historial de actividades directamente desde disco
      * 
-     * @return Contenido completo del log histórico
+     * @param firstEvent Número del primer evento (desde 0)
+     * @param count Cantidad máxima de eventos
+     * @return Eventos de la página en orden de registro
      */
-    public static String readCompleteHistory() {
-        File logFile = new File(ACTIVITY_LOG_FILE);
-        
-        if (!logFile.exists()) {
-            return "📝 No se encontraron registros históricos en el sistema.\n" +
-                   "💡 Los registros aparecerán aquí cuando se procesen dispositivos.";
+    public static List<ActivityEventLog.Event> readHistoryPage(long firstEvent, int count) {
+        try {
+            return getActivityEventLog().readPage(firstEvent, count);
+        } catch (IOException e) {
+            System.err.println("❌ Error al acceder al historial: " + e.getMessage());
+            return Collections.emptyList();
         }
+    }
 
-        StringBuilder historyContent = new StringBuilder();
-        historyContent.append("📚 HISTORIAL COMPLETO DEL SISTEMA\n");
-        historyContent.append("═".repeat(50)).append("\n\n");
+    /**
+     * Historial completo de un equipo, obtenido mediante el índice
+     * 
+     * @param identifier Número de serie del equipo
+     * @return Eventos del equipo en orden cronológico
+     */
+    public static List<ActivityEventLog.Event> readDeviceHistory(String identifier) {
+        try {
+            return getActivityEventLog().readDeviceHistory(identifier);
+        } catch (IOException e) {
+            System.err.println("❌ Error al acceder al historial: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
 
-        try (FileReader fileReader = new FileReader(logFile);
-             BufferedReader bufferedReader = new BufferedReader(fileReader)) {
-            
-            String currentLine;
-            while ((currentLine = bufferedReader.readLine()) != null) {
-                historyContent.append(currentLine).append("\n");
-            }
-            
+    /**
+     * Eventos registrados entre dos fechas (inclusive), paginados
+     * 
+     * @param skip Cantidad de eventos coincidentes a omitir
+     * @param count Cantidad máxima de eventos
+     * @return Eventos del rango en orden de registro
+     */
+    public static List<ActivityEventLog.Event> readHistoryByDate(LocalDate from, LocalDate to,
+            long skip, int count) {
+        try {
+            return getActivityEventLog().readByDate(from, to, skip, count);
         } catch (IOException e) {
             System.err.println("❌ Error al acceder al historial: " + e.getMessage());
-            return "⚠️ Error al recuperar el historial del sistema.\n" +
-                   "🔧 Verifique los permisos de archivo y el espacio disponible.";
+            return Collections.emptyList();
         }
+    }
 
-        if (historyContent.length() <= 100) { // Solo contiene el encabezado
-            return "📝 El historial está vacío.\n" +
-                   "💡 Los registros aparecerán aquí cuando se procesen dispositivos.";
+    /**
+     * Búsqueda de texto completo en el historial de servicio: fallas,
+     * diagnósticos, reparaciones, técnicos y actividades
+     * 
+     * @param query Términos a buscar; las frases van entre comillas
+     * @param limit Cantidad máxima de resultados
+     * @return Coincidencias, de la más reciente a la más antigua
+     */
+    public static List<SearchIndex.Hit> searchHistory(String query, int limit) {
+        try {
+            return getSearchIndex().search(query, limit);
+        } catch (IOException e) {
+            System.err.println("❌ Error al buscar en el historial: " + e.getMessage());
+            return Collections.emptyList();
         }
+    }
 
-        return historyContent.toString();
+    /**
+     * @return Cantidad total de eventos del historial
+     */
+    public static long countHistoryEvents() {
+        try {
+            return getActivityEventLog().eventCount();
+        } catch (IOException e) {
+            System.err.println("❌ Error al acceder al historial: " + e.getMessage());
+            return 0;
+        }
     }
 
     /**
-     * Crea un respaldo del archivo de datos actual antes de sobrescribirlo
+     * @return true si existe el log histórico del formato anterior (original o archivado)
      */
-    private static void createBackupIfExists() {
-        File currentDataFile = new File(SYSTEM_DATA_FILE);
-        
-        if (currentDataFile.exists()) {
+    public static boolean hasLegacyHistory() {
+        return new File(ACTIVITY_LOG_FILE).exists()
+            || Files.exists(Paths.get(ACTIVITY_EVENT_DIRECTORY, LEGACY_LOG_ARCHIVE));
+    }
+
+    /**
+     * Comprime en segundo plano el log del formato anterior dentro del
+     * directorio del historial y elimina el original
+     */
+    private static void archiveLegacyHistory() {
+        Path legacyLog = Paths.get(ACTIVITY_LOG_FILE);
+        if (!Files.exists(legacyLog)) {
+            return;
+        }
+        Thread archiver = new Thread(() -> {
+            Path archive = Paths.get(ACTIVITY_EVENT_DIRECTORY, LEGACY_LOG_ARCHIVE);
+            Path temporary = archive.resolveSibling(LEGACY_LOG_ARCHIVE + ".tmp");
             try {
-                String timestamp = java.time.LocalDateTime.now()
-                    .format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                
-                Path backupPath = Paths.get(BACKUP_DIRECTORY, 
-                    "backup_" + timestamp + ".ser");
-                
-                Files.copy(currentDataFile.toPath(), backupPath, 
-                    StandardCopyOption.REPLACE_EXISTING);
-                
+                try (InputStream input = Files.newInputStream(legacyLog);
+                     GZIPOutputStream output = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+                    input.transferTo(output);
+                }
+                Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(legacyLog);
             } catch (IOException e) {
-                System.err.println("⚠️ No se pudo crear respaldo: " + e.getMessage());
+                System.err.println("⚠️ No se pudo archivar el historial anterior: " + e.getMessage());
             }
+        }, "archivo-historial");
+        archiver.setDaemon(true);
+        archiver.start();
+    }
+
+    /**
+     * Escribe en disco los eventos de actividad pendientes
+     */
+    public static void flushActivityLog() {
+        if (activityEventLog == null) {
+            return;
         }
+        try {
+            activityEventLog.flush();
+        } catch (IOException e) {
+            System.err.println("❌ Error al registrar actividad del dispositivo: " + e.getMessage());
+        }
+    }
+
+    private static synchronized ActivityEventLog getActivityEventLog() throws IOException {
+        if (activityEventLog == null) {
+            Path eventDirectory = Paths.get(ACTIVITY_EVENT_DIRECTORY);
+            migrateActivityEventFile(eventDirectory);
+            ActivityEventLog eventLog = new ActivityEventLog(eventDirectory, ACTIVITY_FLUSH_MILLIS,
+                ACTIVITY_SEGMENT_BYTES);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    eventLog.close();
+                } catch (IOException e) {
+                    System.err.println("❌ Error al cerrar el registro de actividad: " + e.getMessage());
+                }
+            }, "cierre-registro-actividad"));
+            activityEventLog = eventLog;
+            archiveLegacyHistory();
+        }
+        return activityEventLog;
     }
 
     /**
-     * Limpia archivos de respaldo antiguos (mantiene solo los últimos 5)
+     * Abre el índice de búsqueda; si está vacío se construye a partir del
+     * registro de eventos existente
      */
-    public static void cleanupOldBackups() {
+    private static synchronized SearchIndex getSearchIndex() throws IOException {
+        if (searchIndex == null) {
+            SearchIndex index = new SearchIndex(Paths.get(SEARCH_INDEX_DIRECTORY), ACTIVITY_FLUSH_MILLIS);
+            if (index.isEmpty()) {
+                long[] indexed = {0};
+                getActivityEventLog().forEachEvent(event -> {
+                    index.indexEvent(event);
+                    indexed[0]++;
+                });
+                if (indexed[0] > 0) {
+                    index.flush();
+                    System.out.println("🔎 Índice de búsqueda construido con " + indexed[0] + " registros");
+                }
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    index.close();
+                } catch (IOException e) {
+                    System.err.println("❌ Error al cerrar el índice de búsqueda: " + e.getMessage());
+                }
+            }, "cierre-indice-busqueda"));
+            searchIndex = index;
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Convierte el registro de eventos de archivo único en el primer
+     * segmento del directorio del historial, junto con su índice
+     */
+    private static void migrateActivityEventFile(Path eventDirectory) throws IOException {
+        Path eventFile = Paths.get(ACTIVITY_EVENT_FILE);
+        if (!Files.exists(eventFile) || Files.exists(eventDirectory.resolve("segments.manifest"))) {
+            return;
+        }
+        Files.createDirectories(eventDirectory);
+        Files.move(eventFile, eventDirectory.resolve("events_1.log"), StandardCopyOption.REPLACE_EXISTING);
+        Path indexFile = Paths.get(ACTIVITY_EVENT_FILE + ".idx");
+        if (Files.exists(indexFile)) {
+            Files.move(indexFile, eventDirectory.resolve("events.idx"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        System.out.println("🔄 Historial de eventos migrado al directorio segmentado " + ACTIVITY_EVENT_DIRECTORY);
+    }
+
+    /**
+     * Crea un respaldo incremental de la instantánea y del diario; solo se
+     * almacenan los fragmentos que cambiaron desde respaldos anteriores.
+     * Coordinado con el diario solo se abren los archivos; la copia y el
+     * cálculo de hashes ocurren en el hilo que llama, sin detener las transiciones.
+     */
+    public static void createBackup() {
+        if (MAPPED_STORAGE) {
+            // El almacén mapeado se modifica en el lugar: no hay archivos inmutables que copiar
+            System.out.println("ℹ️ Los respaldos no están disponibles con el almacenamiento mapeado.");
+            return;
+        }
+        List<BackupManager.PinnedFile> files = new ArrayList<>();
         try {
-            Path backupDir = Paths.get(BACKUP_DIRECTORY);
-            if (!Files.exists(backupDir)) return;
-            
-            Files.list(backupDir)
-                .filter(path -> path.toString().endsWith(".ser"))
-                .sorted((p1, p2) -> {
-                    try {
-                        return Files.getLastModifiedTime(p2)
-                            .compareTo(Files.getLastModifiedTime(p1));
-                    } catch (IOException e) {
-                        return 0;
-                    }
-                })
-                .skip(5) // Mantener los 5 más recientes
-                .forEach(path -> {
-                    try {
-                        Files.delete(path);
+            if (sharedStore != null) {
+                // Con el diario común bloqueado ningún proceso agrega entradas ni compacta mientras se abren
+                sharedStore.write(() -> {
+                    try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(Paths.get(SEGMENT_DIRECTORY))) {
+                        pinBackupFiles(store, files);
                     } catch (IOException e) {
-                        System.err.println("⚠️ No se pudo eliminar respaldo: " + path);
+                        throw new UncheckedIOException(e.getMessage(), e);
                     }
+                    return null;
                 });
-                
+            } else {
+                // Desde el hilo de persistencia: la longitud fijada del diario incluye todas las entradas previas
+                getPersistenceWriter().submitTask(() -> pinBackupFiles(getSegmentStore(), files)).join();
+            }
+            BackupManager.BackupResult result = getBackupManager().createBackup(files);
+            System.out.println("🗄️ Respaldo creado: " + result.getManifest().getFileName()
+                + " (" + result.getStoredBytes() + " de " + result.getTotalBytes() + " bytes nuevos)");
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo crear respaldo: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            System.err.println("⚠️ No se pudo crear respaldo: " + e.getCause().getMessage());
+        } catch (CompletionException e) {
+            System.err.println("⚠️ No se pudo crear respaldo: " + e.getCause().getMessage());
+        } finally {
+            BackupManager.closeAll(files);
+        }
+    }
+
+    /**
+     * Abre los diarios que haya y después los segmentos del manifiesto
+     * (deben existir todos). En ese orden, una compactación que termina
+     * entre ambos pasos deja a lo sumo entradas de más, que la
+     * restauración omite por su número de secuencia.
+     */
+    private static void pinBackupFiles(SegmentedSnapshotStore store, List<BackupManager.PinnedFile> files)
+            throws IOException {
+        for (String journalFile : Arrays.asList(JOURNAL_FILE, JOURNAL_FILE + ".old")) {
+            try {
+                files.add(BackupManager.PinnedFile.open(Paths.get(journalFile)));
+            } catch (NoSuchFileException e) {
+                // Diario vacío o sin rotar
+            }
+        }
+        files.addAll(0, store.pinFiles());
+    }
+
+    /**
+     * Programa respaldos periódicos en un hilo de fondo
+     */
+    public static synchronized void startScheduledBackups() {
+        if (MAPPED_STORAGE || backupScheduler != null) {
+            return;
+        }
+        backupScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread worker = new Thread(task, "respaldos-programados");
+            worker.setDaemon(true);
+            return worker;
+        });
+        backupScheduler.scheduleWithFixedDelay(() -> {
+            createBackup();
+            cleanupOldBackups();
+        }, BACKUP_INTERVAL_MINUTES, BACKUP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Restaura el estado del sistema al último respaldo tomado en o antes
+     * del instante indicado. Debe invocarse antes de cargar los datos.
+     * 
+     * @param pointInTime Instante a restaurar (null = respaldo más reciente)
+     * @return true si la restauración fue exitosa
+     */
+    public static boolean restoreBackup(LocalDateTime pointInTime) {
+        try {
+            Path manifest = getBackupManager().restore(pointInTime, Paths.get("").toAbsolutePath(),
+                Arrays.asList(SEGMENT_DIRECTORY + "/segments.manifest",
+                    JOURNAL_FILE, JOURNAL_FILE + ".old"));
+            System.out.println("♻️ Sistema restaurado desde " + manifest.getFileName());
+            return true;
+        } catch (IOException e) {
+            System.err.println("❌ Error al restaurar respaldo: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Limpia respaldos antiguos (mantiene los más recientes) y elimina los
+     * fragmentos que ya no son referenciados
+     */
+    public static void cleanupOldBackups() {
+        try {
+            getBackupManager().prune(BACKUPS_TO_KEEP);
         } catch (IOException e) {
             System.err.println("⚠️ Error al limpiar respaldos: " + e.getMessage());
         }
     }
 
+    private static synchronized BackupManager getBackupManager() throws IOException {
+        if (backupManager == null) {
+            backupManager = new BackupManager(Paths.get(BACKUP_DIRECTORY));
+        }
+        return backupManager;
+    }
+
     /**
      * Verifica la integridad de los archivos del sistema
      * 
      * @return true si los archivos están en buen estado
      */
     public static boolean verifySystemIntegrity() {
-        File dataFile = new File(SYSTEM_DATA_FILE);
-        File logFile = new File(ACTIVITY_LOG_FILE);
+        File dataFile = new File(SEGMENT_DIRECTORY);
+        File logFile = new File(ACTIVITY_EVENT_DIRECTORY);
         
         boolean dataFileValid = !dataFile.exists() || 
             (dataFile.canRead() && dataFile.canWrite());
@@ -289,13 +1186,31 @@ public class DataManager {
      * @return true si la exportación fue exitosa
      */
     public static boolean exportHistoryToFile(String exportPath) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(exportPath))) {
-            writer.print(readCompleteHistory());
-            System.out.println("📤 Historial exportado a: " + exportPath);
+        return exportHistory(Paths.get(exportPath), HistoryExporter.Format.TEXT, null, null, null);
+    }
+
+    /**
+     * Exporta el historial en flujo, sin cargarlo en memoria
+     * 
+     * @param target Archivo de destino
+     * @param format Formato de exportación
+     * @param from Fecha inicial (inclusive), o null sin límite
+     * @param to Fecha final (inclusive), o null sin límite
+     * @param state Estado de los eventos a exportar, o null para todos
+     * @return true si la exportación fue exitosa
+     */
+    public static boolean exportHistory(Path target, HistoryExporter.Format format, LocalDate from,
+            LocalDate to, DeviceState state) {
+        try {
+            HistoryExporter exporter = new HistoryExporter(getActivityEventLog(), Paths.get(ACTIVITY_LOG_FILE),
+                Paths.get(ACTIVITY_EVENT_DIRECTORY, LEGACY_LOG_ARCHIVE));
+            long writtenBytes = exporter.export(target, format, from, to, state);
+            System.out.println("📤 Historial exportado a: " + target + " (" + writtenBytes + " bytes, "
+                + format.getLabel() + ")");
             return true;
         } catch (IOException e) {
             System.err.println("❌ Error al exportar historial: " + e.getMessage());
             return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,14 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
 
 public class Device implements Serializable {
+    // Valor calculado de la versión original para seguir leyendo archivos .ser existentes
+    private static final long serialVersionUID = 3494289113345088562L;
+
     private String identifier;
     private String issueDescription;
     private LocalDate entryDate;
@@ -15,22 +20,128 @@ public class Device implements Serializable {
     private String technicalAnalysis;
     private String repairWork;
     private String technicianId;
+    private ServicePriority servicePriority;
+    // Cambios registrados del equipo; permite detectar modificaciones hechas por otro proceso
+    private long version;
+
+    // Detalle pendiente de cargar desde la instantánea (carga diferida)
+    private transient volatile DeviceCodec.DetailsReference pendingDetails;
+    // Fecha límite de servicio mientras el detalle sigue sin cargar
+    private transient volatile LocalDate pendingDeadline;
 
     public Device(String identifier, String issueDescription, LocalDate entryDate,
             String owner, String ownerEmail, String ownerPhone) {
         this.identifier = identifier;
-        this.issueDescription = issueDescription;
+        this.issueDescription = StringDictionary.intern(issueDescription);
         this.entryDate = entryDate;
-        this.owner = owner;
-        this.ownerEmail = ownerEmail;
-        this.ownerPhone = ownerPhone;
-        this.activityLog = new ArrayList<>();
+        this.owner = StringDictionary.intern(owner);
+        this.ownerEmail = StringDictionary.intern(ownerEmail);
+        this.ownerPhone = StringDictionary.intern(ownerPhone);
+        this.activityLog = new AppendOnlyList<>();
         this.currentState = DeviceState.RECEIVED;
+        this.servicePriority = ServicePriority.STANDARD;
         recordActivity("Equipo recibido en el sistema: " + issueDescription);
     }
 
+    /**
+     * Crea un dispositivo con solo su cabecera; el resto de los campos se
+     * carga desde la instantánea la primera vez que se consultan
+     */
+    Device(String identifier, String owner, DeviceState currentState, LocalDate serviceDeadline,
+            DeviceCodec.DetailsReference pendingDetails) {
+        this.identifier = identifier;
+        this.owner = StringDictionary.intern(owner);
+        this.currentState = currentState;
+        this.pendingDeadline = serviceDeadline;
+        this.pendingDetails = pendingDetails;
+    }
+
+    /**
+     * Reconstruye un dispositivo persistido sin registrar nuevas actividades
+     */
+    Device(String identifier, String issueDescription, LocalDate entryDate,
+            String owner, String ownerEmail, String ownerPhone,
+            DeviceState currentState, List<ActivityRecord> activityLog) {
+        this.identifier = identifier;
+        this.issueDescription = StringDictionary.intern(issueDescription);
+        this.entryDate = entryDate;
+        this.owner = StringDictionary.intern(owner);
+        this.ownerEmail = StringDictionary.intern(ownerEmail);
+        this.ownerPhone = StringDictionary.intern(ownerPhone);
+        this.currentState = currentState;
+        this.activityLog = new AppendOnlyList<>(activityLog);
+    }
+
+    /**
+     * Completa los campos de un dispositivo de carga diferida
+     */
+    private void ensureDetailsLoaded() {
+        if (pendingDetails != null) {
+            loadPendingDetails();
+        }
+    }
+
+    private synchronized void loadPendingDetails() {
+        if (pendingDetails == null) {
+            return;
+        }
+        Device loaded;
+        try {
+            loaded = pendingDetails.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo cargar el detalle del equipo " + identifier, e);
+        }
+        pendingDetails = null;
+        this.issueDescription = loaded.issueDescription;
+        this.entryDate = loaded.entryDate;
+        this.ownerEmail = loaded.ownerEmail;
+        this.ownerPhone = loaded.ownerPhone;
+        this.activityLog = loaded.activityLog;
+        this.technicalAnalysis = loaded.technicalAnalysis;
+        this.repairWork = loaded.repairWork;
+        this.technicianId = loaded.technicianId;
+        this.servicePriority = loaded.servicePriority;
+        this.version = loaded.version;
+    }
+
+    /**
+     * Reemplaza los datos del equipo por los de otra copia más reciente
+     * (cambio registrado por otro proceso); el estado lo asigna la cola
+     */
+    synchronized void refreshFrom(Device newer) {
+        pendingDetails = null;
+        this.issueDescription = newer.issueDescription;
+        this.entryDate = newer.entryDate;
+        this.owner = newer.owner;
+        this.ownerEmail = newer.ownerEmail;
+        this.ownerPhone = newer.ownerPhone;
+        this.activityLog = newer.activityLog;
+        this.technicalAnalysis = newer.technicalAnalysis;
+        this.repairWork = newer.repairWork;
+        this.technicianId = newer.technicianId;
+        this.servicePriority = newer.servicePriority;
+        this.version = newer.version;
+    }
+
+    boolean isDetailsLoaded() {
+        return pendingDetails == null;
+    }
+
+    DeviceCodec.DetailsReference getPendingDetails() {
+        return pendingDetails;
+    }
+
     public void recordActivity(String description) {
-        activityLog.add(new ActivityRecord(LocalDate.now(), description, currentState));
+        recordActivity(description, currentState);
+    }
+
+    /**
+     * Registra una actividad con el estado al que pasa el equipo; el motor
+     * de flujo la registra antes de mover el equipo a la cola de destino
+     */
+    public void recordActivity(String description, DeviceState state) {
+        ensureDetailsLoaded();
+        activityLog.add(new ActivityRecord(LocalDate.now(), description, state));
     }
 
     public String getIdentifier() {
@@ -41,6 +152,26 @@ public class Device implements Serializable {
         return owner;
     }
 
+    public String getIssueDescription() {
+        ensureDetailsLoaded();
+        return issueDescription;
+    }
+
+    public LocalDate getEntryDate() {
+        ensureDetailsLoaded();
+        return entryDate;
+    }
+
+    public String getOwnerEmail() {
+        ensureDetailsLoaded();
+        return ownerEmail;
+    }
+
+    public String getOwnerPhone() {
+        ensureDetailsLoaded();
+        return ownerPhone;
+    }
+
     public DeviceState getCurrentState() {
         return currentState;
     }
@@ -50,38 +181,115 @@ public class Device implements Serializable {
     }
 
     public String getTechnicalAnalysis() {
+        ensureDetailsLoaded();
         return technicalAnalysis;
     }
 
     public void setTechnicalAnalysis(String technicalAnalysis) {
-        this.technicalAnalysis = technicalAnalysis;
+        ensureDetailsLoaded();
+        this.technicalAnalysis = StringDictionary.intern(technicalAnalysis);
     }
 
     public String getRepairWork() {
+        ensureDetailsLoaded();
         return repairWork;
     }
 
     public void setRepairWork(String repairWork) {
-        this.repairWork = repairWork;
+        ensureDetailsLoaded();
+        this.repairWork = StringDictionary.intern(repairWork);
     }
 
     public String getTechnicianId() {
+        ensureDetailsLoaded();
         return technicianId;
     }
 
     public void setTechnicianId(String technicianId) {
-        this.technicianId = technicianId;
+        ensureDetailsLoaded();
+        this.technicianId = StringDictionary.intern(technicianId);
+    }
+
+    /**
+     * @return Prioridad del servicio (estándar en registros anteriores a las prioridades)
+     */
+    public ServicePriority getServicePriority() {
+        ensureDetailsLoaded();
+        return servicePriority == null ? ServicePriority.STANDARD : servicePriority;
+    }
+
+    public void setServicePriority(ServicePriority servicePriority) {
+        ensureDetailsLoaded();
+        this.servicePriority = servicePriority;
+    }
+
+    /**
+     * Fecha límite de servicio según la prioridad. En un equipo sin cargar
+     * se toma de la cabecera de la instantánea, así ordenar una cola por
+     * prioridad no carga el detalle de cada equipo.
+     */
+    LocalDate getServiceDeadline() {
+        if (pendingDetails != null) {
+            return pendingDeadline;
+        }
+        LocalDate date = getEntryDate() != null ? getEntryDate() : LocalDate.now();
+        return getServicePriority().deadline(date);
+    }
+
+    /**
+     * @return Cantidad de cambios registrados del equipo
+     */
+    public long getVersion() {
+        ensureDetailsLoaded();
+        return version;
+    }
+
+    void setVersion(long version) {
+        ensureDetailsLoaded();
+        this.version = version;
+    }
+
+    /**
+     * Avanza la versión antes de registrar un cambio en el diario
+     */
+    void incrementVersion() {
+        ensureDetailsLoaded();
+        version++;
     }
 
+    /**
+     * Instantánea inmutable del registro de actividades (O(1))
+     */
     public List<ActivityRecord> getActivityLog() {
-        return activityLog;
+        ensureDetailsLoaded();
+        return ((AppendOnlyList<ActivityRecord>) activityLog).snapshot();
+    }
+
+    /**
+     * Los archivos .ser anteriores contienen el registro como ArrayList;
+     * los valores repetidos se reemplazan por los del diccionario
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        issueDescription = StringDictionary.intern(issueDescription);
+        owner = StringDictionary.intern(owner);
+        ownerEmail = StringDictionary.intern(ownerEmail);
+        ownerPhone = StringDictionary.intern(ownerPhone);
+        technicalAnalysis = StringDictionary.intern(technicalAnalysis);
+        repairWork = StringDictionary.intern(repairWork);
+        technicianId = StringDictionary.intern(technicianId);
+        if (!(activityLog instanceof AppendOnlyList)) {
+            activityLog = new AppendOnlyList<>(activityLog);
+        }
     }
 
     @Override
     public String toString() {
+        ensureDetailsLoaded();
         return "🔢 Número de serie: " + identifier +
                 "\n👤 Propietario: " + owner +
                 "\n📊 Estado actual: " + currentState +
+                "\n⏱️ Prioridad: " + getServicePriority() +
                 "\n📅 Fecha de ingreso: " + entryDate +
                 "\n🔧 Descripción del problema: " + issueDescription +
                 "\n📞 Contacto: " + ownerEmail + " / " + ownerPhone;
@@ -101,7 +309,7 @@ public class Device implements Serializable {
         }
 
         details.append("\n📜 Registro de actividades:\n");
-        for (ActivityRecord record : activityLog) {
+        for (ActivityRecord record : getActivityLog()) {
             details.append("   ").append(record).append("\n");
         }
 
@@ -128,17 +336,72 @@ enum DeviceState {
     }
 }
 
+/**
+ * Prioridad del servicio. Cada clase define los días de atención
+ * comprometidos desde el ingreso; la fecha límite resultante ordena las
+ * colas en modo prioridad, por lo que un equipo de baja prioridad termina
+ * adelantando a los exprés más recientes y nunca espera indefinidamente.
+ */
+enum ServicePriority {
+    EXPRESS("⚡ Exprés", 1),
+    STANDARD("📋 Estándar", 5),
+    LOW("🐢 Baja", 10);
+
+    private String priorityDescription;
+    private int serviceDays;
+
+    ServicePriority(String priorityDescription, int serviceDays) {
+        this.priorityDescription = priorityDescription;
+        this.serviceDays = serviceDays;
+    }
+
+    public int getServiceDays() {
+        return serviceDays;
+    }
+
+    /**
+     * @return Fecha límite de atención para un equipo ingresado en esa fecha
+     */
+    public LocalDate deadline(LocalDate entryDate) {
+        return entryDate.plusDays(serviceDays);
+    }
+
+    @Override
+    public String toString() {
+        return priorityDescription;
+    }
+}
+
 class ActivityRecord implements Serializable{
+    private static final long serialVersionUID = -6458882699848102214L;
+
     private LocalDate timestamp;
     private String description;
     private DeviceState deviceState;
 
     public ActivityRecord(LocalDate timestamp, String description, DeviceState deviceState) {
         this.timestamp = timestamp;
-        this.description = description;
+        this.description = StringDictionary.intern(description);
         this.deviceState = deviceState;
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        description = StringDictionary.intern(description);
+    }
+
+    public LocalDate getTimestamp() {
+        return timestamp;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public DeviceState getDeviceState() {
+        return deviceState;
+    }
+
     @Override
     public String toString() {
         return "📅 " + timestamp + " - [" + deviceState + "] " + description;
@@ -0,0 +1,723 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codificador binario compacto y versionado para dispositivos,
+ * registros de actividad y colas de trabajo.
+ *
+ * Formato general:
+ * [int magic][byte versión][tabla de cadenas][cuerpo]
+ *
+ * - Longitudes, índices y contadores como varint (LEB128)
+ * - Fechas como día de época en varint zigzag
+ * - Estados como un byte con el ordinal de DeviceState
+ * - Cada cadena distinta se escribe una sola vez en la tabla y el
+ *   cuerpo la referencia: 0 es null, un número par 2i es la cadena i
+ *   de la tabla propia (desde 1) y uno impar 2c+1 es el código c del
+ *   diccionario de la instantánea que contiene el registro
+ *
+ * Las instantáneas separan las cabeceras de los detalles:
+ * [int magic][byte versión][int longitud cabeceras][bloque de cabeceras][registros]
+ * El bloque de cabeceras contiene la secuencia, el diccionario con los
+ * valores que se repiten entre equipos (frases del registro de
+ * actividades, propietarios, técnicos...), la pertenencia a colas y por
+ * cada dispositivo su identificador, propietario, fecha límite de
+ * servicio y la longitud de su registro completo, que se encuentra en la
+ * sección de registros. Esto permite cargar y ordenar las colas sin
+ * decodificar el detalle de cada equipo.
+ */
+public final class DeviceCodec {
+    private static final int SNAPSHOT_MAGIC = 0x574D5353; // "WMSS"
+    private static final int DEVICE_MAGIC = 0x574D4456;   // "WMDV"
+    private static final int HEADERS_MAGIC = 0x574D4844;  // "WMHD"
+    private static final byte FORMAT_VERSION = 1;
+    private static final int SNAPSHOT_PREAMBLE = 9;
+
+    private DeviceCodec() {
+    }
+
+    /**
+     * Resultado de decodificar una instantánea completa
+     */
+    public static final class Snapshot {
+        private final Map<DeviceState, DeviceQueue> workflowQueues;
+        private final long sequence;
+
+        Snapshot(Map<DeviceState, DeviceQueue> workflowQueues, long sequence) {
+            this.workflowQueues = workflowQueues;
+            this.sequence = sequence;
+        }
+
+        public Map<DeviceState, DeviceQueue> getWorkflowQueues() {
+            return workflowQueues;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * Referencia al registro completo de un dispositivo dentro de una
+     * instantánea en disco (o de otro origen, como el almacén mapeado);
+     * se decodifica solo cuando se necesita
+     */
+    public static final class DetailsReference {
+        private final FileChannel source;
+        private final long offset;
+        private final int length;
+        private final String[] dictionary;
+        private final RecordSource recordSource;
+
+        DetailsReference(FileChannel source, long offset, int length, String[] dictionary) {
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.recordSource = null;
+        }
+
+        /**
+         * Referencia a un registro independiente que se obtiene del origen
+         * indicado cada vez que se lee
+         */
+        DetailsReference(RecordSource recordSource) {
+            this.source = null;
+            this.offset = 0;
+            this.length = 0;
+            this.dictionary = null;
+            this.recordSource = recordSource;
+        }
+
+        /**
+         * @return Diccionario de la instantánea que referencia el registro, o null si es independiente
+         */
+        String[] getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * @return Canal de la instantánea de la que se lee el registro, o
+         *         null si el registro proviene de otro origen
+         */
+        FileChannel getSource() {
+            return source;
+        }
+
+        /**
+         * Lee los bytes del registro sin decodificarlos
+         */
+        byte[] readRaw() throws IOException {
+            if (recordSource != null) {
+                return recordSource.read();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Registro truncado en la instantánea");
+                }
+            }
+            return buffer.array();
+        }
+
+        Device load() throws IOException {
+            return decodeDevice(readRaw(), dictionary);
+        }
+    }
+
+    /**
+     * Origen de un registro codificado con {@link #encodeDevice} que no
+     * forma parte de una instantánea
+     */
+    @FunctionalInterface
+    interface RecordSource {
+        byte[] read() throws IOException;
+    }
+
+    /**
+     * Codifica el estado completo de las colas junto con la última
+     * secuencia del diario incluida en él. Los dispositivos cuyo detalle
+     * aún no fue cargado se copian directamente desde su registro original
+     * mientras siga siendo válido en la nueva instantánea.
+     */
+    public static byte[] encodeSnapshot(Map<DeviceState, DeviceQueue> workflowQueues, long sequence)
+            throws IOException {
+        return encodeSnapshot(workflowQueues, sequence, true);
+    }
+
+    /**
+     * @param useDictionary false para escribir un diccionario vacío y cada
+     *        registro con sus propias cadenas (la medición de memoria la usa como referencia)
+     */
+    static byte[] encodeSnapshot(Map<DeviceState, DeviceQueue> workflowQueues, long sequence,
+            boolean useDictionary) throws IOException {
+        // Sin base, los registros sin cargar que usan un diccionario se vuelven a codificar
+        SnapshotDictionary dictionary = useDictionary ? SnapshotDictionary.build(workflowQueues)
+            : new SnapshotDictionary(null);
+        Encoder headers = new Encoder();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        headers.writeVarLong(sequence);
+        headers.writeVarInt(dictionary.values.size());
+        for (String value : dictionary.values) {
+            headers.writeString(value);
+        }
+        headers.writeVarInt(workflowQueues.size());
+        for (DeviceState state : DeviceState.values()) {
+            DeviceQueue queue = workflowQueues.get(state);
+            if (queue == null) {
+                continue;
+            }
+            headers.writeByte(state.ordinal());
+            headers.writeVarInt(queue.size());
+            for (Device device : queue.getQueueList()) {
+                byte[] record = encodeRecord(device, dictionary);
+                headers.writeString(device.getIdentifier());
+                headers.writeString(device.getOwner());
+                headers.writeDate(device.getServiceDeadline());
+                headers.writeVarInt(record.length);
+                records.write(record);
+            }
+        }
+
+        byte[] headerBlock = headers.toByteArray(HEADERS_MAGIC);
+        ByteBuffer snapshot = ByteBuffer.allocate(SNAPSHOT_PREAMBLE + headerBlock.length + records.size());
+        snapshot.putInt(SNAPSHOT_MAGIC);
+        snapshot.put(FORMAT_VERSION);
+        snapshot.putInt(headerBlock.length);
+        snapshot.put(headerBlock);
+        snapshot.put(records.toByteArray());
+        return snapshot.array();
+    }
+
+    /**
+     * Registro de un equipo dentro de una instantánea. Un equipo sin
+     * cargar se copia tal cual si su registro es independiente o
+     * referencia el diccionario base de la nueva instantánea; si no, su
+     * detalle se decodifica solo para volver a codificarlo.
+     */
+    private static byte[] encodeRecord(Device device, SnapshotDictionary dictionary) throws IOException {
+        Device source = device;
+        DetailsReference pending = device.getPendingDetails();
+        if (pending != null) {
+            if (SnapshotDictionary.canCopy(pending, dictionary)) {
+                return pending.readRaw();
+            }
+            source = pending.load();
+            source.setCurrentState(device.getCurrentState());
+        }
+        Encoder body = new Encoder(dictionary.codes);
+        writeDevice(body, source);
+        return body.toByteArray(DEVICE_MAGIC);
+    }
+
+    /**
+     * Decodifica por completo una instantánea generada por {@link #encodeSnapshot}
+     */
+    public static Snapshot decodeSnapshot(byte[] data) throws IOException {
+        ByteBuffer preamble = readPreamble(ByteBuffer.wrap(data));
+        int headerLength = preamble.getInt(5);
+        Decoder headers = new Decoder(
+            Arrays.copyOfRange(data, SNAPSHOT_PREAMBLE, SNAPSHOT_PREAMBLE + headerLength), HEADERS_MAGIC);
+        int position = SNAPSHOT_PREAMBLE + headerLength;
+
+        long sequence = headers.readVarLong();
+        String[] dictionary = readDictionary(headers);
+        Map<DeviceState, DeviceQueue> workflowQueues = emptyWorkflows();
+        int queueCount = headers.readVarInt();
+        for (int q = 0; q < queueCount; q++) {
+            DeviceQueue queue = workflowQueues.get(headers.readState());
+            int deviceCount = headers.readVarInt();
+            for (int d = 0; d < deviceCount; d++) {
+                headers.readString();
+                headers.readString();
+                headers.readDate();
+                int length = headers.readVarInt();
+                if (position + length > data.length) {
+                    throw new EOFException("Datos truncados");
+                }
+                queue.addDevice(decodeDevice(Arrays.copyOfRange(data, position, position + length), dictionary));
+                position += length;
+            }
+        }
+        return new Snapshot(workflowQueues, sequence);
+    }
+
+    /**
+     * Lee únicamente el bloque de cabeceras de una instantánea en disco.
+     * Cada dispositivo queda con su identificador, propietario y estado;
+     * el resto se carga desde el canal la primera vez que se consulta.
+     *
+     * @param source Canal abierto sobre la instantánea; debe permanecer abierto
+     * @return Instantánea con dispositivos de carga diferida
+     */
+    public static Snapshot decodeSnapshotHeaders(FileChannel source) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(SNAPSHOT_PREAMBLE);
+        readFully(source, preamble, 0);
+        readPreamble(preamble);
+
+        ByteBuffer headerBlock = ByteBuffer.allocate(preamble.getInt(5));
+        readFully(source, headerBlock, SNAPSHOT_PREAMBLE);
+        Decoder headers = new Decoder(headerBlock.array(), HEADERS_MAGIC);
+        long position = SNAPSHOT_PREAMBLE + headerBlock.capacity();
+
+        long sequence = headers.readVarLong();
+        String[] dictionary = readDictionary(headers);
+        Map<DeviceState, DeviceQueue> workflowQueues = emptyWorkflows();
+        int queueCount = headers.readVarInt();
+        for (int q = 0; q < queueCount; q++) {
+            DeviceState state = headers.readState();
+            DeviceQueue queue = workflowQueues.get(state);
+            int deviceCount = headers.readVarInt();
+            for (int d = 0; d < deviceCount; d++) {
+                String identifier = headers.readString();
+                String owner = headers.readString();
+                LocalDate serviceDeadline = headers.readDate();
+                int length = headers.readVarInt();
+                queue.addDevice(new Device(identifier, owner, state, serviceDeadline,
+                    new DetailsReference(source, position, length, dictionary)));
+                position += length;
+            }
+        }
+        return new Snapshot(workflowQueues, sequence);
+    }
+
+    private static ByteBuffer readPreamble(ByteBuffer preamble) throws IOException {
+        if (preamble.limit() < SNAPSHOT_PREAMBLE || preamble.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new StreamCorruptedException("Formato de datos no reconocido");
+        }
+        if (preamble.get(4) != FORMAT_VERSION) {
+            throw new StreamCorruptedException("Versión de formato no soportada: " + preamble.get(4));
+        }
+        return preamble;
+    }
+
+    private static String[] readDictionary(Decoder headers) throws IOException {
+        String[] dictionary = new String[headers.readCount()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = headers.readString();
+        }
+        return dictionary;
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Datos truncados");
+            }
+        }
+    }
+
+    private static Map<DeviceState, DeviceQueue> emptyWorkflows() {
+        Map<DeviceState, DeviceQueue> workflowQueues = new HashMap<>();
+        for (DeviceState state : DeviceState.values()) {
+            workflowQueues.put(state, new DeviceQueue(state));
+        }
+        return workflowQueues;
+    }
+
+    /**
+     * Codifica un único dispositivo (utilizado por el diario de transiciones)
+     */
+    public static byte[] encodeDevice(Device device) {
+        Encoder body = new Encoder();
+        writeDevice(body, device);
+        return body.toByteArray(DEVICE_MAGIC);
+    }
+
+    public static Device decodeDevice(byte[] data) throws IOException {
+        return decodeDevice(data, null);
+    }
+
+    /**
+     * Codifica la cabecera de un dispositivo (identificador, propietario y
+     * fecha límite de servicio), lo necesario para ubicarlo en su cola sin
+     * cargar el detalle
+     */
+    static byte[] encodeHeader(Device device) {
+        Encoder header = new Encoder();
+        header.writeString(device.getIdentifier());
+        header.writeString(device.getOwner());
+        header.writeDate(device.getServiceDeadline());
+        return header.toByteArray(HEADERS_MAGIC);
+    }
+
+    /**
+     * Crea un dispositivo de carga diferida a partir de una cabecera
+     * generada por {@link #encodeHeader}
+     */
+    static Device decodeHeader(byte[] data, DeviceState state, DetailsReference details) throws IOException {
+        Decoder header = new Decoder(data, HEADERS_MAGIC);
+        String identifier = header.readString();
+        String owner = header.readString();
+        LocalDate serviceDeadline = header.readDate();
+        return new Device(identifier, owner, state, serviceDeadline, details);
+    }
+
+    private static Device decodeDevice(byte[] data, String[] dictionary) throws IOException {
+        return readDevice(new Decoder(data, DEVICE_MAGIC, dictionary));
+    }
+
+    private static void writeDevice(Encoder out, Device device) {
+        out.writeString(device.getIdentifier());
+        out.writeString(device.getIssueDescription());
+        out.writeDate(device.getEntryDate());
+        out.writeString(device.getOwner());
+        out.writeString(device.getOwnerEmail());
+        out.writeString(device.getOwnerPhone());
+        out.writeByte(device.getCurrentState().ordinal());
+        out.writeString(device.getTechnicalAnalysis());
+        out.writeString(device.getRepairWork());
+        out.writeString(device.getTechnicianId());
+
+        List<ActivityRecord> activityLog = device.getActivityLog();
+        out.writeVarInt(activityLog.size());
+        for (ActivityRecord record : activityLog) {
+            out.writeDate(record.getTimestamp());
+            out.writeByte(record.getDeviceState().ordinal());
+            out.writeString(record.getDescription());
+        }
+        out.writeByte(device.getServicePriority().ordinal());
+        out.writeVarLong(device.getVersion());
+    }
+
+    private static Device readDevice(Decoder in) throws IOException {
+        String identifier = in.readString();
+        String issueDescription = in.readString();
+        LocalDate entryDate = in.readDate();
+        String owner = in.readString();
+        String ownerEmail = in.readString();
+        String ownerPhone = in.readString();
+        DeviceState currentState = in.readState();
+        String technicalAnalysis = in.readString();
+        String repairWork = in.readString();
+        String technicianId = in.readString();
+
+        int recordCount = in.readVarInt();
+        List<ActivityRecord> activityLog = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            LocalDate timestamp = in.readDate();
+            DeviceState recordState = in.readState();
+            activityLog.add(new ActivityRecord(timestamp, in.readString(), recordState));
+        }
+
+        Device device = new Device(identifier, issueDescription, entryDate, owner,
+            ownerEmail, ownerPhone, currentState, activityLog);
+        device.setTechnicalAnalysis(technicalAnalysis);
+        device.setRepairWork(repairWork);
+        device.setTechnicianId(technicianId);
+        device.setServicePriority(in.readPriority());
+        device.setVersion(in.readVarLong());
+        return device;
+    }
+
+    /**
+     * Diccionario de una instantánea en construcción. Conserva en el mismo
+     * orden el diccionario de la instantánea de la que provienen los equipos
+     * sin cargar, para copiar sus registros sin decodificarlos, y agrega
+     * los valores que aparecen más de una vez entre los demás equipos.
+     */
+    private static final class SnapshotDictionary {
+        final String[] base;
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> codes = new HashMap<>();
+
+        private SnapshotDictionary(String[] base) {
+            this.base = base;
+            if (base != null) {
+                for (String value : base) {
+                    codes.putIfAbsent(value, values.size());
+                    values.add(value);
+                }
+            }
+        }
+
+        static SnapshotDictionary build(Map<DeviceState, DeviceQueue> workflowQueues) throws IOException {
+            String[] base = null;
+            for (DeviceQueue queue : workflowQueues.values()) {
+                for (Device device : queue.getQueueList()) {
+                    DetailsReference pending = device.getPendingDetails();
+                    if (base == null && pending != null) {
+                        base = pending.getDictionary();
+                    }
+                }
+            }
+
+            SnapshotDictionary dictionary = new SnapshotDictionary(base);
+            Map<String, Integer> occurrences = new LinkedHashMap<>();
+            for (DeviceQueue queue : workflowQueues.values()) {
+                for (Device device : queue.getQueueList()) {
+                    DetailsReference pending = device.getPendingDetails();
+                    if (pending != null && canCopy(pending, dictionary)) {
+                        continue;
+                    }
+                    countValues(pending != null ? pending.load() : device, occurrences);
+                }
+            }
+            for (Map.Entry<String, Integer> entry : occurrences.entrySet()) {
+                if (entry.getValue() > 1 && !dictionary.codes.containsKey(entry.getKey())) {
+                    dictionary.codes.put(entry.getKey(), dictionary.values.size());
+                    dictionary.values.add(entry.getKey());
+                }
+            }
+            return dictionary;
+        }
+
+        /**
+         * @return true si el registro sin cargar sigue siendo válido en la instantánea
+         */
+        static boolean canCopy(DetailsReference pending, SnapshotDictionary dictionary) {
+            String[] referenced = pending.getDictionary();
+            return referenced == null || referenced == dictionary.base;
+        }
+
+        private static void countValues(Device device, Map<String, Integer> occurrences) {
+            String[] fields = {
+                device.getIssueDescription(), device.getOwner(), device.getOwnerEmail(),
+                device.getOwnerPhone(), device.getTechnicalAnalysis(), device.getRepairWork(),
+                device.getTechnicianId()
+            };
+            for (String value : fields) {
+                if (value != null) {
+                    occurrences.merge(value, 1, Integer::sum);
+                }
+            }
+            for (ActivityRecord record : device.getActivityLog()) {
+                if (record.getDescription() != null) {
+                    occurrences.merge(record.getDescription(), 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acumula el cuerpo codificado y la tabla de cadenas; la tabla se
+     * antepone al cuerpo al producir el resultado final. Con un
+     * diccionario de instantánea, los valores que están en él se
+     * referencian por su código en lugar de ir a la tabla propia.
+     */
+    private static final class Encoder {
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> dictionary;
+        private byte[] buffer = new byte[256];
+        private int length;
+
+        Encoder() {
+            this(null);
+        }
+
+        Encoder(Map<String, Integer> dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeDate(LocalDate date) {
+            if (date == null) {
+                writeVarLong(0);
+                return;
+            }
+            long epochDay = date.toEpochDay();
+            // Zigzag desplazado en uno: 0 queda reservado para null
+            writeVarLong(((epochDay << 1) ^ (epochDay >> 63)) + 1);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            if (dictionary != null) {
+                Integer code = dictionary.get(value);
+                if (code != null) {
+                    writeVarInt((code << 1) | 1);
+                    return;
+                }
+            }
+            Integer index = stringIndex.get(value);
+            if (index == null) {
+                index = strings.size();
+                stringIndex.put(value, index);
+                strings.add(value);
+            }
+            writeVarInt((index + 1) << 1);
+        }
+
+        byte[] toByteArray(int magic) {
+            Encoder header = new Encoder();
+            header.writeByte(magic >>> 24);
+            header.writeByte(magic >>> 16);
+            header.writeByte(magic >>> 8);
+            header.writeByte(magic);
+            header.writeByte(FORMAT_VERSION);
+            header.writeVarInt(strings.size());
+            for (String value : strings) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                header.writeVarInt(encoded.length);
+                header.ensureCapacity(encoded.length);
+                System.arraycopy(encoded, 0, header.buffer, header.length, encoded.length);
+                header.length += encoded.length;
+            }
+
+            byte[] result = Arrays.copyOf(header.buffer, header.length + length);
+            System.arraycopy(buffer, 0, result, header.length, length);
+            return result;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private static final DeviceState[] STATES = DeviceState.values();
+        private static final ServicePriority[] PRIORITIES = ServicePriority.values();
+
+        private final byte[] data;
+        private final String[] strings;
+        // Diccionario de la instantánea que contiene el registro, o null
+        private final String[] dictionary;
+        private int position;
+
+        Decoder(byte[] data, int expectedMagic) throws IOException {
+            this(data, expectedMagic, null);
+        }
+
+        Decoder(byte[] data, int expectedMagic, String[] snapshotDictionary) throws IOException {
+            this.data = data;
+            if (data.length < 5 || readInt() != expectedMagic) {
+                throw new StreamCorruptedException("Formato de datos no reconocido");
+            }
+            int version = readByte();
+            if (version != FORMAT_VERSION) {
+                throw new StreamCorruptedException("Versión de formato no soportada: " + version);
+            }
+            this.dictionary = snapshotDictionary;
+
+            int count = readCount();
+            strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int size = readVarInt();
+                checkAvailable(size);
+                strings[i] = new String(data, position, size, StandardCharsets.UTF_8);
+                position += size;
+            }
+        }
+
+        int readByte() throws IOException {
+            checkAvailable(1);
+            return data[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("Valor fuera de rango: " + value);
+            }
+            return (int) value;
+        }
+
+        /** Lee un número de elementos, cada uno de al menos un byte, sin confiar en él antes de reservar memoria. */
+        int readCount() throws IOException {
+            int count = readVarInt();
+            if (count > data.length - position) {
+                throw new StreamCorruptedException("Número de elementos inválido: " + count);
+            }
+            return count;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int current = readByte();
+                value |= (long) (current & 0x7F) << shift;
+                if ((current & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Varint mal formado");
+        }
+
+        LocalDate readDate() throws IOException {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            long zigzag = encoded - 1;
+            return LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+
+        ServicePriority readPriority() throws IOException {
+            int ordinal = readByte();
+            if (ordinal >= PRIORITIES.length) {
+                throw new StreamCorruptedException("Prioridad desconocida: " + ordinal);
+            }
+            return PRIORITIES[ordinal];
+        }
+
+        DeviceState readState() throws IOException {
+            int ordinal = readByte();
+            if (ordinal >= STATES.length) {
+                throw new StreamCorruptedException("Estado desconocido: " + ordinal);
+            }
+            return STATES[ordinal];
+        }
+
+        String readString() throws IOException {
+            int index = readVarInt();
+            if (index == 0) {
+                return null;
+            }
+            if ((index & 1) != 0) {
+                int code = index >>> 1;
+                if (dictionary == null || code >= dictionary.length) {
+                    throw new StreamCorruptedException("Código de diccionario inválido: " + code);
+                }
+                return dictionary[code];
+            }
+            index >>>= 1;
+            if (index > strings.length) {
+                throw new StreamCorruptedException("Referencia de cadena inválida: " + index);
+            }
+            return strings[index - 1];
+        }
+
+        private void checkAvailable(int size) throws IOException {
+            if (size > data.length - position) {
+                throw new EOFException("Datos truncados");
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice de equipos por número de serie y por datos del cliente.
+ *
+ * El índice primario asocia el número de serie normalizado (sin
+ * distinguir mayúsculas) con el equipo y la cola en la que se encuentra.
+ * Los índices secundarios agrupan los equipos por propietario, correo,
+ * teléfono y técnico, y por fecha de ingreso en un mapa ordenado para
+ * consultar rangos. Las colas del flujo mantienen todos los índices al
+ * agregar y quitar equipos, por lo que ninguna consulta recorre las colas.
+ *
+ * Los índices secundarios se construyen en la primera consulta, ya que
+ * necesitan el detalle de cada equipo y con la carga diferida solo se
+ * leen las cabeceras al iniciar.
+ *
+ * Las actualizaciones de distintos equipos no se bloquean entre sí: cada
+ * una se aplica de forma atómica sobre su número de serie y solo la
+ * construcción de los índices secundarios las detiene.
+ */
+public class DeviceIndex {
+    /**
+     * Ubicación de un equipo y claves secundarias con las que se indexó
+     */
+    private static final class Location {
+        final Device device;
+        final DeviceQueue queue;
+        SecondaryKeys keys;
+
+        Location(Device device, DeviceQueue queue) {
+            this.device = device;
+            this.queue = queue;
+        }
+    }
+
+    /**
+     * Valores normalizados de los campos indexados de un equipo
+     */
+    private static final class SecondaryKeys {
+        final String owner;
+        final String email;
+        final String phone;
+        final String technician;
+        final LocalDate entryDate;
+
+        SecondaryKeys(Device device) {
+            this.owner = normalizeName(device.getOwner());
+            this.email = normalizeName(device.getOwnerEmail());
+            this.phone = normalizePhone(device.getOwnerPhone());
+            this.technician = normalizeName(device.getTechnicianId());
+            this.entryDate = device.getEntryDate();
+        }
+    }
+
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private final Map<String, Set<Device>> byOwner = new ConcurrentHashMap<>();
+    private final Map<String, Set<Device>> byEmail = new ConcurrentHashMap<>();
+    private final Map<String, Set<Device>> byPhone = new ConcurrentHashMap<>();
+    private final Map<String, Set<Device>> byTechnician = new ConcurrentHashMap<>();
+    private final NavigableMap<LocalDate, Set<Device>> byEntryDate = new ConcurrentSkipListMap<>();
+    private volatile boolean secondaryBuilt;
+    // Lectura: actualizaciones concurrentes; escritura: construcción de los índices secundarios
+    private final ReadWriteLock buildLock = new ReentrantReadWriteLock();
+
+    /**
+     * Construye el índice con el contenido actual de las colas y lo
+     * asocia a cada una para que se mantenga actualizado
+     *
+     * @param workflowQueues Colas del flujo de trabajo
+     * @return Índice de las colas
+     */
+    public static DeviceIndex build(Map<DeviceState, DeviceQueue> workflowQueues) {
+        DeviceIndex index = new DeviceIndex();
+        for (DeviceQueue queue : workflowQueues.values()) {
+            queue.attachIndex(index);
+        }
+        return index;
+    }
+
+    /**
+     * @return Equipo con ese número de serie, o null si no existe
+     */
+    public Device find(String identifier) {
+        Location location = locations.get(normalize(identifier));
+        return location == null ? null : location.device;
+    }
+
+    /**
+     * @return Cola donde se encuentra el equipo, o null si no existe
+     */
+    public DeviceQueue queueOf(String identifier) {
+        Location location = locations.get(normalize(identifier));
+        return location == null ? null : location.queue;
+    }
+
+    public boolean contains(String identifier) {
+        return locations.containsKey(normalize(identifier));
+    }
+
+    /**
+     * @return Cantidad de equipos indexados
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Equipos de un propietario (sin distinguir mayúsculas ni espacios extra)
+     */
+    public List<Device> findByOwner(String owner) {
+        ensureSecondaryIndexes();
+        return sorted(byOwner.get(normalizeName(owner)));
+    }
+
+    public List<Device> findByEmail(String email) {
+        ensureSecondaryIndexes();
+        return sorted(byEmail.get(normalizeName(email)));
+    }
+
+    /**
+     * Equipos con ese teléfono; solo se comparan los dígitos
+     */
+    public List<Device> findByPhone(String phone) {
+        ensureSecondaryIndexes();
+        return sorted(byPhone.get(normalizePhone(phone)));
+    }
+
+    /**
+     * Equipos reparados por el técnico indicado
+     */
+    public List<Device> findByTechnician(String technicianId) {
+        ensureSecondaryIndexes();
+        return sorted(byTechnician.get(normalizeName(technicianId)));
+    }
+
+    /**
+     * Equipos ingresados entre dos fechas (ambas inclusive), ordenados por
+     * fecha de ingreso
+     */
+    public List<Device> findByEntryDate(LocalDate from, LocalDate to) {
+        ensureSecondaryIndexes();
+        List<Device> devices = new ArrayList<>();
+        if (from.isAfter(to)) {
+            return devices;
+        }
+        for (Set<Device> sameDay : byEntryDate.subMap(from, true, to, true).values()) {
+            devices.addAll(sorted(sameDay));
+        }
+        return devices;
+    }
+
+    void added(Device device, DeviceQueue queue) {
+        Location location = new Location(device, queue);
+        buildLock.readLock().lock();
+        try {
+            locations.compute(normalize(device.getIdentifier()), (key, previous) -> {
+                if (previous != null && previous.keys != null) {
+                    unindexSecondary(previous.device, previous.keys);
+                }
+                if (secondaryBuilt) {
+                    // Las claves se recalculan: el técnico se asigna entre transiciones
+                    location.keys = new SecondaryKeys(device);
+                    indexSecondary(device, location.keys);
+                }
+                return location;
+            });
+        } finally {
+            buildLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Quita el equipo solo si el índice todavía lo ubica en esa cola; si
+     * ya fue agregado a otra, se conserva la ubicación nueva
+     */
+    void removed(Device device, DeviceQueue queue) {
+        buildLock.readLock().lock();
+        try {
+            locations.computeIfPresent(normalize(device.getIdentifier()), (key, location) -> {
+                if (location.queue != queue || location.device != device) {
+                    return location;
+                }
+                if (location.keys != null) {
+                    unindexSecondary(device, location.keys);
+                }
+                return null;
+            });
+        } finally {
+            buildLock.readLock().unlock();
+        }
+    }
+
+    private void ensureSecondaryIndexes() {
+        if (secondaryBuilt) {
+            return;
+        }
+        buildLock.writeLock().lock();
+        try {
+            if (secondaryBuilt) {
+                return;
+            }
+            for (Location location : locations.values()) {
+                location.keys = new SecondaryKeys(location.device);
+                indexSecondary(location.device, location.keys);
+            }
+            secondaryBuilt = true;
+        } finally {
+            buildLock.writeLock().unlock();
+        }
+    }
+
+    private void indexSecondary(Device device, SecondaryKeys keys) {
+        addTo(byOwner, keys.owner, device);
+        addTo(byEmail, keys.email, device);
+        addTo(byPhone, keys.phone, device);
+        addTo(byTechnician, keys.technician, device);
+        if (keys.entryDate != null) {
+            byEntryDate.computeIfAbsent(keys.entryDate, date -> ConcurrentHashMap.newKeySet()).add(device);
+        }
+    }
+
+    private void unindexSecondary(Device device, SecondaryKeys keys) {
+        removeFrom(byOwner, keys.owner, device);
+        removeFrom(byEmail, keys.email, device);
+        removeFrom(byPhone, keys.phone, device);
+        removeFrom(byTechnician, keys.technician, device);
+        if (keys.entryDate != null) {
+            byEntryDate.computeIfPresent(keys.entryDate,
+                (date, devices) -> devices.remove(device) && devices.isEmpty() ? null : devices);
+        }
+    }
+
+    private static void addTo(Map<String, Set<Device>> index, String key, Device device) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(device);
+        }
+    }
+
+    private static void removeFrom(Map<String, Set<Device>> index, String key, Device device) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, devices) -> devices.remove(device) && devices.isEmpty() ? null : devices);
+        }
+    }
+
+    private static List<Device> sorted(Set<Device> devices) {
+        if (devices == null) {
+            return Collections.emptyList();
+        }
+        List<Device> result = new ArrayList<>(devices);
+        result.sort((first, second) -> first.getIdentifier().compareToIgnoreCase(second.getIdentifier()));
+        return result;
+    }
+
+    static String normalize(String identifier) {
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeName(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizePhone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        String digits = phone.replaceAll("\\D", "");
+        return digits.isEmpty() ? null : digits;
+    }
+}
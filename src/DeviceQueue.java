@@ -1,42 +1,424 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.function.Predicate;
 
+/**
+ * Cola FIFO de dispositivos respaldada por un treap persistente.
+ * Cada modificación publica una nueva versión de la estructura, por lo
+ * que {@link #snapshot()} y {@link #getQueueList()} son O(1) y pueden
+ * recorrerse sin bloqueos mientras la cola sigue cambiando.
+ *
+ * Cada equipo conoce su clave en el treap (mapa por identidad), de modo
+ * que quitarlo o reubicarlo desde cualquier posición es O(log n) sin
+ * recorrer la cola.
+ *
+ * En modo prioridad ({@link #enablePriorityOrder()}) la clave combina la
+ * fecha límite del servicio (ingreso más los días de su prioridad) con el
+ * orden de llegada, así que los exprés se adelantan sin dejar esperando
+ * indefinidamente a los de baja prioridad. Cambiar la prioridad de un
+ * equipo en la cola solo reubica su clave.
+ *
+ * Un técnico puede tomar el primer equipo con {@link #claimNext()}: sale
+ * del orden de atención pero sigue perteneciendo a la cola (índice e
+ * instantáneas) hasta que se ubica en otra cola o se devuelve.
+ */
 public class DeviceQueue implements Serializable {
-    private Queue<Device> deviceQueue;
-    private DeviceState workflowState;
+    // Valor calculado de la versión original para seguir leyendo archivos .ser existentes
+    private static final long serialVersionUID = -3147329713377144400L;
+
+    // Forma serializada original: LinkedList de dispositivos y estado
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("deviceQueue", Queue.class),
+        new ObjectStreamField("workflowState", DeviceState.class)
+    };
+
+    // Bits de la clave para el orden de llegada; los superiores llevan la fecha límite en modo prioridad
+    private static final int ARRIVAL_BITS = 40;
+    private static final long ARRIVAL_MASK = (1L << ARRIVAL_BITS) - 1;
+
+    private transient volatile PersistentTreap<Device> devices;
+    private transient long nextKey;
+    private transient boolean priorityOrder;
+    private transient DeviceState workflowState;
+    // Índice de números de serie compartido por las colas del flujo
+    private transient DeviceIndex index;
+    // Clave de cada equipo en el treap; se reconstruye bajo demanda en copias y al deserializar
+    private transient Map<Device, Long> keys;
+    // Equipos tomados por un técnico y la clave que tenían en la cola
+    private transient Map<Device, Long> claimed;
 
     public DeviceQueue(DeviceState workflowState) {
-        this.deviceQueue = new LinkedList<>();
+        this.devices = PersistentTreap.empty();
         this.workflowState = workflowState;
+        this.keys = new IdentityHashMap<>();
     }
 
-    public void addDevice(Device device) {
+    private DeviceQueue(DeviceState workflowState, PersistentTreap<Device> devices, long nextKey,
+            boolean priorityOrder) {
+        this.workflowState = workflowState;
+        this.devices = devices;
+        this.nextKey = nextKey;
+        this.priorityOrder = priorityOrder;
+    }
+
+    public synchronized void addDevice(Device device) {
         device.setCurrentState(workflowState);
-        deviceQueue.add(device);
+        long key = keyFor(device);
+        devices = devices.insert(key, device);
+        keyMap().put(device, key);
+        if (index != null) {
+            index.added(device, this);
+        }
     }
 
-    public Device removeDevice() {
-        return deviceQueue.poll();
+    public synchronized Device removeDevice() {
+        PersistentTreap<Device> current = devices;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Device head = current.first();
+        devices = current.remove(current.firstKey());
+        keyMap().remove(head);
+        if (index != null) {
+            index.removed(head, this);
+        }
+        return head;
+    }
+
+    /**
+     * Toma el primer equipo para atenderlo. Deja de estar en el orden de
+     * atención, pero la cola lo conserva hasta {@link #finishClaim} o
+     * {@link #release}
+     *
+     * @return Equipo tomado, o null si la cola está vacía
+     */
+    synchronized Device claimNext() {
+        PersistentTreap<Device> current = devices;
+        if (current.isEmpty()) {
+            return null;
+        }
+        long key = current.firstKey();
+        Device head = current.first();
+        devices = current.remove(key);
+        keyMap().remove(head);
+        claimedMap().put(head, key);
+        return head;
+    }
+
+    /**
+     * Termina la atención de un equipo tomado, que sale de esta cola
+     *
+     * @return false si el equipo ya no estaba tomado (fue eliminado mientras tanto)
+     */
+    synchronized boolean finishClaim(Device device) {
+        if (claimed == null || claimed.remove(device) == null) {
+            return false;
+        }
+        // Si se volvió a agregar a esta misma cola, conserva su entrada en el índice
+        if (index != null && !keyMap().containsKey(device)) {
+            index.removed(device, this);
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve un equipo tomado a su posición original (al frente si ese
+     * lugar ya fue ocupado)
+     *
+     * @return false si el equipo no estaba tomado
+     */
+    synchronized boolean release(Device device) {
+        Long original = claimed == null ? null : claimed.remove(device);
+        if (original == null) {
+            return false;
+        }
+        long key = freeKey(devices, original);
+        devices = devices.insert(key, device);
+        keyMap().put(device, key);
+        return true;
+    }
+
+    /**
+     * @return true si el equipo espera en el orden de atención de la cola
+     */
+    synchronized boolean isQueued(Device device) {
+        return keyMap().containsKey(device);
+    }
+
+    /**
+     * @return true si el equipo fue tomado desde esta cola y aún no sale de ella
+     */
+    synchronized boolean isClaimed(Device device) {
+        return claimed != null && claimed.containsKey(device);
+    }
+
+    /**
+     * @return Cantidad de equipos tomados que aún no salen de la cola
+     */
+    synchronized int claimedCount() {
+        return claimed == null ? 0 : claimed.size();
     }
 
     public Device viewNext() {
-        return deviceQueue.peek();
+        return devices.first();
+    }
+
+    /**
+     * Quita el equipo indicado desde cualquier posición de la cola
+     *
+     * @return true si el equipo estaba en la cola
+     */
+    public synchronized boolean removeDevice(Device device) {
+        Long key = keyMap().remove(device);
+        if (key != null) {
+            devices = devices.remove(key);
+        } else if (claimed == null || claimed.remove(device) == null) {
+            return false;
+        }
+        if (index != null) {
+            index.removed(device, this);
+        }
+        return true;
+    }
+
+    /**
+     * Ubica el equipo al frente de la cola para que sea el próximo en atenderse
+     *
+     * @return true si el equipo estaba en la cola
+     */
+    public synchronized boolean moveToFront(Device device) {
+        Long key = keyMap().get(device);
+        if (key == null) {
+            return false;
+        }
+        long frontKey = devices.firstKey() - 1;
+        devices = devices.remove(key).insert(frontKey, device);
+        keys.put(device, frontKey);
+        return true;
+    }
+
+    /**
+     * Ubica el equipo al final de la cola (en modo prioridad, al final de
+     * los equipos con su misma fecha límite)
+     *
+     * @return true si el equipo estaba en la cola
+     */
+    public synchronized boolean moveToBack(Device device) {
+        Long key = keyMap().get(device);
+        if (key == null) {
+            return false;
+        }
+        long backKey = keyFor(device);
+        devices = devices.remove(key).insert(backKey, device);
+        keys.put(device, backKey);
+        return true;
+    }
+
+    /**
+     * Ordena la cola por fecha límite de servicio en lugar de orden de
+     * llegada. Las claves actuales se recalculan una sola vez (O(n log n));
+     * a partir de ahí cada operación sigue siendo O(log n).
+     */
+    public synchronized void enablePriorityOrder() {
+        if (priorityOrder) {
+            return;
+        }
+        priorityOrder = true;
+        PersistentTreap<Device> reordered = PersistentTreap.empty();
+        Map<Device, Long> rebuilt = new IdentityHashMap<>();
+        for (Device device : devices) {
+            long key = keyFor(device);
+            reordered = reordered.insert(key, device);
+            rebuilt.put(device, key);
+        }
+        if (claimed != null) {
+            claimed.replaceAll((device, key) -> keyFor(device));
+        }
+        devices = reordered;
+        keys = rebuilt;
+    }
+
+    public boolean isPriorityOrder() {
+        return priorityOrder;
+    }
+
+    /**
+     * Cambia la prioridad de un equipo de la cola; en modo prioridad se
+     * reubica en O(log n) según su nueva fecha límite
+     *
+     * @return false si el equipo no está en la cola ni fue tomado desde ella
+     */
+    public synchronized boolean updatePriority(Device device, ServicePriority priority) {
+        Long key = keyMap().get(device);
+        boolean isClaimed = claimed != null && claimed.containsKey(device);
+        if (key == null && !isClaimed) {
+            return false;
+        }
+        if (device.getServicePriority() == priority) {
+            return true;
+        }
+        device.setServicePriority(priority);
+        if (!priorityOrder) {
+            return true;
+        }
+        long newKey = keyFor(device);
+        if (key != null) {
+            devices = devices.remove(key).insert(newKey, device);
+            keys.put(device, newKey);
+        } else {
+            claimed.put(device, newKey);
+        }
+        return true;
+    }
+
+    /**
+     * Clave para un equipo que llega al final de la cola
+     */
+    private long keyFor(Device device) {
+        long arrival = nextKey++;
+        if (!priorityOrder) {
+            return arrival;
+        }
+        long deadline = device.getServiceDeadline().toEpochDay();
+        return (deadline << ARRIVAL_BITS) | (arrival & ARRIVAL_MASK);
+    }
+
+    /**
+     * Elimina de la cola los dispositivos que cumplen la condición
+     *
+     * @return true si se eliminó al menos uno
+     */
+    public synchronized boolean removeDevicesIf(Predicate<Device> condition) {
+        PersistentTreap<Device> current = devices;
+        List<Device> removed = new ArrayList<>();
+        PersistentTreap<Device> updated = current.removeKeysIf(key -> {
+            Device device = current.get(key);
+            if (condition.test(device)) {
+                removed.add(device);
+                return true;
+            }
+            return false;
+        });
+        devices = updated;
+        for (Device device : removed) {
+            keyMap().remove(device);
+            if (index != null) {
+                index.removed(device, this);
+            }
+        }
+        return updated != current;
+    }
+
+    private Map<Device, Long> keyMap() {
+        if (keys == null) {
+            Map<Device, Long> rebuilt = new IdentityHashMap<>();
+            devices.forEachEntry((key, device) -> rebuilt.put(device, key));
+            keys = rebuilt;
+        }
+        return keys;
+    }
+
+    private Map<Device, Long> claimedMap() {
+        if (claimed == null) {
+            claimed = new IdentityHashMap<>();
+        }
+        return claimed;
+    }
+
+    /**
+     * Clave original si sigue libre; si no, una clave al frente de la cola
+     */
+    private static long freeKey(PersistentTreap<Device> treap, long original) {
+        if (treap.isEmpty() || treap.get(original) == null) {
+            return original;
+        }
+        return treap.firstKey() - 1;
+    }
+
+    /**
+     * Contenido de la cola incluyendo los equipos tomados en su posición
+     */
+    private PersistentTreap<Device> withClaimed() {
+        PersistentTreap<Device> view = devices;
+        if (claimed != null) {
+            for (Map.Entry<Device, Long> entry : claimed.entrySet()) {
+                view = view.insert(freeKey(view, entry.getValue()), entry.getKey());
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Asocia la cola al índice de números de serie e indexa su contenido actual
+     */
+    synchronized void attachIndex(DeviceIndex deviceIndex) {
+        this.index = deviceIndex;
+        for (Device device : withClaimed()) {
+            deviceIndex.added(device, this);
+        }
     }
 
     public boolean isEmpty() {
-        return deviceQueue.isEmpty();
+        return devices.isEmpty();
     }
 
     public int size() {
-        return deviceQueue.size();
+        return devices.size();
     }
 
     public DeviceState getWorkflowState() {
         return workflowState;
     }
 
-    public Queue<Device> getQueueList() {
-        return deviceQueue;
+    /**
+     * Vista inmutable del contenido actual de la cola, en orden de atención
+     */
+    public List<Device> getQueueList() {
+        return devices.asList();
+    }
+
+    /**
+     * Copia inmutable de la cola en O(1): comparte la estructura actual y
+     * no se ve afectada por modificaciones posteriores. Los equipos tomados
+     * se incluyen en su posición (O(log n) por cada uno), ya que el
+     * diario todavía los ubica en esta cola.
+     */
+    public DeviceQueue snapshot() {
+        synchronized (this) {
+            return new DeviceQueue(workflowState, withClaimed(), nextKey, priorityOrder);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        PersistentTreap<Device> content;
+        synchronized (this) {
+            content = withClaimed();
+        }
+        fields.put("deviceQueue", new LinkedList<>(content.asList()));
+        fields.put("workflowState", workflowState);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.workflowState = (DeviceState) fields.get("workflowState", null);
+        this.devices = PersistentTreap.empty();
+        Queue<Device> legacyQueue = (Queue<Device>) fields.get("deviceQueue", null);
+        if (legacyQueue != null) {
+            for (Device device : legacyQueue) {
+                devices = devices.insert(nextKey++, device);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,221 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Exportación del historial en flujo, con memoria constante.
+ *
+ * - CRUDO: copia los segmentos del registro tal como están en disco con
+ *   {@link FileChannel#transferTo}, sin pasar por la aplicación.
+ * - TEXTO: formato legible del historial, igual al que se muestra en pantalla.
+ * - CSV y JSONL: un registro estructurado por evento.
+ *
+ * Los filtros de fecha y estado son opcionales; con filtros, los
+ * segmentos fuera del rango de fechas no se abren. El log del formato
+ * anterior no tiene estructura, por lo que solo se incluye en las
+ * exportaciones de texto y en bruto sin filtros.
+ */
+public class HistoryExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Formato de exportación
+     */
+    public enum Format {
+        TEXT("texto"),
+        RAW("crudo"),
+        CSV("csv"),
+        JSONL("jsonl");
+
+        private final String label;
+
+        Format(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return Formato con ese nombre (en español o en inglés), o null
+         */
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.label.equalsIgnoreCase(name) || format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ActivityEventLog eventLog;
+    private final Path legacyLog;
+    private final Path legacyArchive;
+
+    /**
+     * @param eventLog Registro de eventos de actividad
+     * @param legacyLog Log del formato anterior sin comprimir
+     * @param legacyArchive Log del formato anterior ya archivado con GZIP
+     */
+    public HistoryExporter(ActivityEventLog eventLog, Path legacyLog, Path legacyArchive) {
+        this.eventLog = eventLog;
+        this.legacyLog = legacyLog;
+        this.legacyArchive = legacyArchive;
+    }
+
+    /**
+     * Exporta el historial al archivo indicado
+     *
+     * @param target Archivo de destino (se reemplaza si existe)
+     * @param format Formato de exportación
+     * @param from Fecha inicial (inclusive), o null sin límite
+     * @param to Fecha final (inclusive), o null sin límite
+     * @param state Estado del evento, o null para todos
+     * @return Bytes escritos
+     */
+    public long export(Path target, Format format, LocalDate from, LocalDate to, DeviceState state)
+            throws IOException {
+        boolean filtered = from != null || to != null || state != null;
+        try (FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format == Format.RAW && !filtered) {
+                transferLegacy(output);
+                eventLog.transferTo(output);
+                return output.size();
+            }
+
+            // El texto usa la codificación del log anterior, que se escribió con FileWriter
+            Charset charset = format == Format.TEXT ? Charset.defaultCharset() : StandardCharsets.UTF_8;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(output), charset),
+                BUFFER_SIZE);
+            if (format == Format.TEXT && !filtered) {
+                writer.flush();
+                transferLegacy(output);
+            }
+            if (format == Format.CSV) {
+                writer.write("identifier,index,date,state,description\n");
+            }
+            try {
+                eventLog.forEachEvent(from, to, event -> {
+                    if (state != null && !state.name().equals(event.getState())) {
+                        return;
+                    }
+                    try {
+                        writeEvent(writer, format, event);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            return output.size();
+        }
+    }
+
+    private static void writeEvent(Writer writer, Format format, ActivityEventLog.Event event) throws IOException {
+        switch (format) {
+            case RAW:
+                writer.write(event.toLine());
+                break;
+            case CSV:
+                writer.write(csv(event.getIdentifier()));
+                writer.write(',');
+                writer.write(Integer.toString(event.getIndex()));
+                writer.write(',');
+                writer.write(csv(event.getDate()));
+                writer.write(',');
+                writer.write(csv(event.getState()));
+                writer.write(',');
+                writer.write(csv(event.getDescription()));
+                writer.write('\n');
+                break;
+            case JSONL:
+                writer.write("{\"identifier\":");
+                writer.write(json(event.getIdentifier()));
+                writer.write(",\"index\":");
+                writer.write(Integer.toString(event.getIndex()));
+                writer.write(",\"date\":");
+                writer.write(json(event.getDate()));
+                writer.write(",\"state\":");
+                writer.write(json(event.getState()));
+                writer.write(",\"description\":");
+                writer.write(json(event.getDescription()));
+                writer.write("}\n");
+                break;
+            default:
+                writer.write(event.toString());
+                writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Copia el log del formato anterior: el archivo sin comprimir con
+     * transferTo y el archivado descomprimiéndolo en flujo
+     */
+    private void transferLegacy(FileChannel output) throws IOException {
+        try (FileChannel legacy = FileChannel.open(legacyLog, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = legacy.size();
+            while (position < size) {
+                position += legacy.transferTo(position, size - position, output);
+            }
+            return;
+        } catch (NoSuchFileException e) {
+            // Ya fue archivado
+        }
+        if (Files.exists(legacyArchive)) {
+            try (InputStream input = new GZIPInputStream(Files.newInputStream(legacyArchive), BUFFER_SIZE)) {
+                input.transferTo(Channels.newOutputStream(output));
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static String json(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
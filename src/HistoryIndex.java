@@ -0,0 +1,141 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Índice de desplazamientos del registro de actividad.
+ *
+ * Por cada evento del registro guarda una entrada de tamaño fijo con su
+ * posición y longitud en el archivo, el día de época de su fecha y el
+ * número de la entrada anterior del mismo equipo. Así una página se
+ * obtiene leyendo directamente sus entradas, el historial de un equipo
+ * se recorre como una lista enlazada y las consultas por fecha recorren
+ * solo este archivo compacto, sin cargar el registro en memoria.
+ *
+ * Entrada: [long desplazamiento][int longitud][int día de época][long anterior]
+ */
+public class HistoryIndex implements Closeable {
+    static final int ENTRY_SIZE = 24;
+    static final long NO_ENTRY = -1;
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final FileChannel channel;
+
+    /**
+     * Entrada del índice
+     */
+    public static final class Entry {
+        final long offset;
+        final int length;
+        final int epochDay;
+        final long previous;
+
+        Entry(long offset, int length, int epochDay, long previous) {
+            this.offset = offset;
+            this.length = length;
+            this.epochDay = epochDay;
+            this.previous = previous;
+        }
+
+        boolean sameAs(Entry other) {
+            return other != null && offset == other.offset && length == other.length
+                && epochDay == other.epochDay && previous == other.previous;
+        }
+    }
+
+    public HistoryIndex(Path indexPath) throws IOException {
+        this.channel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Una entrada incompleta de una escritura interrumpida se descarta
+        long complete = channel.size() / ENTRY_SIZE;
+        if (complete * ENTRY_SIZE != channel.size()) {
+            channel.truncate(complete * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * @return Cantidad de entradas del índice
+     */
+    public long size() throws IOException {
+        return channel.size() / ENTRY_SIZE;
+    }
+
+    /**
+     * Lee una entrada, o null si no existe
+     */
+    public Entry read(long entryNumber) throws IOException {
+        if (entryNumber < 0 || entryNumber >= size()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        readFully(buffer, entryNumber * ENTRY_SIZE);
+        buffer.flip();
+        return decode(buffer);
+    }
+
+    /**
+     * Lee hasta {@code count} entradas consecutivas a partir de la indicada
+     */
+    public void readRange(long firstEntry, int count, List<Entry> target) throws IOException {
+        long available = Math.max(0, Math.min(count, size() - firstEntry));
+        if (available == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) available * ENTRY_SIZE);
+        readFully(buffer, firstEntry * ENTRY_SIZE);
+        buffer.flip();
+        while (buffer.remaining() >= ENTRY_SIZE) {
+            target.add(decode(buffer));
+        }
+    }
+
+    /**
+     * Agrega entradas al final del índice con una sola escritura
+     */
+    public void append(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(entries.size() * ENTRY_SIZE);
+        for (Entry entry : entries) {
+            buffer.putLong(entry.offset).putInt(entry.length).putInt(entry.epochDay).putLong(entry.previous);
+        }
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Conserva solo las primeras {@code entryCount} entradas
+     */
+    public void truncate(long entryCount) throws IOException {
+        channel.truncate(entryCount * ENTRY_SIZE);
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Índice del historial truncado");
+            }
+        }
+    }
+
+    private static Entry decode(ByteBuffer buffer) {
+        return new Entry(buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lector de JSON: objetos (como Map), arreglos (como List), cadenas,
+ * números (como Double), booleanos y null.
+ * Los errores de formato se informan con IllegalArgumentException.
+ * El valor leído debe ocupar todo el texto y la anidación está limitada,
+ * así un cuerpo malicioso no puede agotar la pila.
+ */
+final class JsonReader {
+    private static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int position;
+    private int depth;
+
+    JsonReader(String text) {
+        this.text = text;
+    }
+
+    Map<String, Object> readObject() {
+        Map<String, Object> object = parseObject();
+        expectEnd();
+        return object;
+    }
+
+    List<Object> readArray() {
+        List<Object> array = parseArray();
+        expectEnd();
+        return array;
+    }
+
+    private Map<String, Object> parseObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        expect('{');
+        enter();
+        if (peek() == '}') {
+            position++;
+            depth--;
+            return object;
+        }
+        while (true) {
+            String key = readString();
+            expect(':');
+            object.put(key, readValue());
+            char next = next();
+            if (next == '}') {
+                depth--;
+                return object;
+            }
+            if (next != ',') {
+                throw invalid();
+            }
+        }
+    }
+
+    private List<Object> parseArray() {
+        List<Object> array = new ArrayList<>();
+        expect('[');
+        enter();
+        if (peek() == ']') {
+            position++;
+            depth--;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            char next = next();
+            if (next == ']') {
+                depth--;
+                return array;
+            }
+            if (next != ',') {
+                throw invalid();
+            }
+        }
+    }
+
+    private Object readValue() {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{') {
+            return parseObject();
+        }
+        if (c == '[') {
+            return parseArray();
+        }
+        if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw invalid();
+        }
+        try {
+            return Double.parseDouble(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw invalid();
+        }
+    }
+
+    private String readString() {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (position + 4 > text.length()) {
+                        throw invalid();
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw invalid();
+                    }
+                    position += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+        throw invalid();
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("JSON con más de " + MAX_DEPTH + " niveles de anidación");
+        }
+    }
+
+    private void expectEnd() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        if (position < text.length()) {
+            throw invalid();
+        }
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw invalid();
+        }
+    }
+
+    private char next() {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private char peek() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        if (position >= text.length()) {
+            throw invalid();
+        }
+        return text.charAt(position);
+    }
+
+    private IllegalArgumentException invalid() {
+        return new IllegalArgumentException("JSON inválido cerca de la posición " + position);
+    }
+}
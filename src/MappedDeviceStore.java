@@ -0,0 +1,485 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Almacén de dispositivos fuera del heap basado en archivos mapeados
+ * en memoria (FileChannel.map). Los datos quedan en la caché de páginas
+ * del sistema operativo, por lo que reabrir el almacén no requiere leer
+ * ni reescribir el estado completo.
+ *
+ * - slots.idx: cabecera fija y un arreglo de ranuras de tamaño fijo,
+ *   una por dispositivo (estado, orden en la cola, ubicación del registro)
+ * - records_N.dat: región de longitud variable con los registros
+ *   codificados por {@link DeviceCodec}; N es la generación actual
+ *
+ * Cada actualización agrega el registro nuevo al final de la región de
+ * datos y apunta la ranura hacia él; el espacio obsoleto se recupera al
+ * compactar. El manejador de un dispositivo es el índice de su ranura.
+ *
+ * Orden de escritura: las ranuras modificadas se guardan aparte y se
+ * copian al índice mapeado solo después de forzar la región de datos, así
+ * una ranura en disco nunca apunta a un registro que aún no es durable.
+ * Cada ranura tiene una ubicación por paridad de generación; la
+ * compactación escribe las de la generación nueva y después cambia la
+ * generación de la cabecera con una sola escritura.
+ *
+ * Al reabrir, las colas se arman solo con la cabecera de cada registro;
+ * el detalle se decodifica desde la ranura la primera vez que se consulta.
+ */
+public class MappedDeviceStore implements Closeable {
+    private static final int INDEX_MAGIC = 0x574D4958; // "WMIX"
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 32;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final long INITIAL_DATA_SIZE = 1L << 20;
+
+    // Desplazamientos dentro de la cabecera (el fin de los datos, por paridad de generación)
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_SLOT_CAPACITY = 8;
+    private static final int H_GENERATION = 12;
+    private static final int H_DATA_END_EVEN = 16;
+    private static final int H_NEXT_SEQUENCE = 24;
+    private static final int H_DATA_END_ODD = 32;
+
+    // Desplazamientos dentro de cada ranura (la ubicación, por paridad de generación)
+    private static final int S_FLAGS = 0;
+    private static final int S_STATE = 1;
+    private static final int S_LENGTH = 4;
+    private static final int S_OFFSET_EVEN = 8;
+    private static final int S_OFFSET_ODD = 12;
+    private static final int S_SEQUENCE = 16;
+    private static final int S_HASH = 24;
+
+    private static final byte SLOT_FREE = 0;
+    private static final byte SLOT_LIVE = 1;
+
+    private final Path directory;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private FileChannel dataChannel;
+    private MappedByteBuffer data;
+
+    private final Map<String, Integer> slotsByIdentifier = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    // Ranuras escritas desde el último forzado, pendientes de copiar al índice
+    private final Map<Integer, ByteBuffer> pendingSlots = new HashMap<>();
+    private long liveBytes;
+
+    private MappedDeviceStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.indexChannel = FileChannel.open(directory.resolve("slots.idx"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        boolean created = indexChannel.size() == 0;
+        long indexSize = created ? HEADER_SIZE + (long) INITIAL_SLOTS * SLOT_SIZE : indexChannel.size();
+        this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+
+        if (created) {
+            index.putInt(H_MAGIC, INDEX_MAGIC);
+            index.putInt(H_VERSION, INDEX_VERSION);
+            index.putInt(H_SLOT_CAPACITY, INITIAL_SLOTS);
+            index.putInt(H_GENERATION, 0);
+            index.putLong(H_DATA_END_EVEN, 0);
+            index.putLong(H_DATA_END_ODD, 0);
+            index.putLong(H_NEXT_SEQUENCE, 0);
+        } else if (index.getInt(H_MAGIC) != INDEX_MAGIC || index.getInt(H_VERSION) != INDEX_VERSION) {
+            indexChannel.close();
+            throw new StreamCorruptedException("Índice del almacén no reconocido");
+        }
+
+        int generation = index.getInt(H_GENERATION);
+        openDataRegion(generation, index.getLong(dataEndField(generation)));
+        deleteStaleGenerations(generation);
+        scanSlots();
+    }
+
+    /**
+     * Abre (o crea) el almacén ubicado en el directorio indicado
+     */
+    public static MappedDeviceStore open(Path directory) throws IOException {
+        return new MappedDeviceStore(directory);
+    }
+
+    /**
+     * Escribe la versión actual del dispositivo y lo ubica al final de la
+     * cola correspondiente a su estado. La ranura llega al índice en el
+     * próximo {@link #force}.
+     *
+     * @return Manejador (ranura) del registro
+     */
+    public int put(Device device) {
+        // Se codifica fuera del bloqueo: un equipo sin cargar lee su detalle
+        // de este mismo almacén mientras mantiene su propio bloqueo
+        byte[] record = encodeRecord(device);
+        String key = normalize(device.getIdentifier());
+        synchronized (this) {
+            return putRecord(key, device.getCurrentState(), record);
+        }
+    }
+
+    private int putRecord(String key, DeviceState state, byte[] record) {
+        Integer slot = slotsByIdentifier.get(key);
+        if (slot == null) {
+            slot = allocateSlot();
+            slotsByIdentifier.put(key, slot);
+        } else {
+            liveBytes -= slotView(slot).getInt(S_LENGTH);
+        }
+
+        int generation = index.getInt(H_GENERATION);
+        long offset = index.getLong(dataEndField(generation));
+        ensureDataCapacity(offset + record.length);
+        data.put((int) offset, record);
+        // Adelantar el fin de los datos es seguro: lo que queda sin ranura es espacio libre
+        index.putLong(dataEndField(generation), offset + record.length);
+        liveBytes += record.length;
+
+        long sequence = index.getLong(H_NEXT_SEQUENCE);
+        index.putLong(H_NEXT_SEQUENCE, sequence + 1);
+
+        ByteBuffer image = ByteBuffer.allocate(SLOT_SIZE);
+        image.put(S_FLAGS, SLOT_LIVE);
+        image.put(S_STATE, (byte) state.ordinal());
+        image.putInt(S_LENGTH, record.length);
+        image.putInt(offsetField(generation), (int) offset);
+        image.putLong(S_SEQUENCE, sequence);
+        image.putInt(S_HASH, key.hashCode());
+        pendingSlots.put(slot, image);
+        return slot;
+    }
+
+    /**
+     * Libera la ranura del dispositivo indicado
+     */
+    public synchronized void remove(String identifier) {
+        Integer slot = slotsByIdentifier.remove(normalize(identifier));
+        if (slot == null) {
+            return;
+        }
+        liveBytes -= slotView(slot).getInt(S_LENGTH);
+        pendingSlots.remove(slot);
+        // Liberar antes de forzar los datos es seguro: la ranura no apunta a nada
+        index.put(slotPosition(slot) + S_FLAGS, SLOT_FREE);
+        freeSlots.push(slot);
+    }
+
+    /**
+     * Decodifica el registro apuntado por un manejador
+     */
+    public Device read(int handle) throws IOException {
+        return DeviceCodec.decodeDevice(readDetails(handle, null));
+    }
+
+    /**
+     * Lee el registro codificado por {@link DeviceCodec} al que apunta la
+     * ranura en este momento (la compactación puede moverlo)
+     *
+     * @param key Identificador normalizado esperado, o null para no
+     *        verificarlo; evita leer el registro de otro equipo si la
+     *        ranura se liberó y volvió a asignarse
+     */
+    private synchronized byte[] readDetails(int handle, String key) throws IOException {
+        ByteBuffer slot = slotView(handle);
+        if (slot.get(S_FLAGS) != SLOT_LIVE) {
+            throw new IOException("Manejador sin registro: " + handle);
+        }
+        int offset = recordOffset(slot);
+        int length = slot.getInt(S_LENGTH);
+        if (key != null && !key.equals(recordKey(offset))) {
+            throw new IOException("El manejador " + handle + " ya no pertenece al equipo " + key);
+        }
+        int headerStart = offset + 2 + (data.getShort(offset) & 0xFFFF);
+        int detailsStart = headerStart + 4 + data.getInt(headerStart);
+        byte[] encoded = new byte[length - (detailsStart - offset)];
+        data.get(detailsStart, encoded);
+        return encoded;
+    }
+
+    /**
+     * Reconstruye las colas de trabajo recorriendo únicamente las ranuras
+     * de tamaño fijo para ordenar los manejadores por estado y llegada.
+     * Cada equipo se crea a partir de la cabecera de su registro y carga el
+     * detalle desde su ranura al consultarlo; una vez cargado, el detalle
+     * permanece en el heap mientras el equipo siga en las colas.
+     */
+    public synchronized Map<DeviceState, DeviceQueue> loadWorkflows() throws IOException {
+        List<Integer> handles = new ArrayList<>(slotsByIdentifier.values());
+        handles.sort(Comparator
+            .comparingInt((Integer slot) -> slotView(slot).get(S_STATE))
+            .thenComparingLong(slot -> slotView(slot).getLong(S_SEQUENCE)));
+
+        Map<DeviceState, DeviceQueue> workflowQueues = new HashMap<>();
+        for (DeviceState state : DeviceState.values()) {
+            workflowQueues.put(state, new DeviceQueue(state));
+        }
+        DeviceState[] states = DeviceState.values();
+        for (int handle : handles) {
+            DeviceState state = states[slotView(handle).get(S_STATE)];
+            workflowQueues.get(state).addDevice(readHeader(handle, state));
+        }
+        return workflowQueues;
+    }
+
+    /**
+     * Crea un equipo de carga diferida con la cabecera del registro
+     */
+    private Device readHeader(int handle, DeviceState state) throws IOException {
+        int offset = recordOffset(slotView(handle));
+        String key = recordKey(offset);
+        int headerStart = offset + 2 + (data.getShort(offset) & 0xFFFF);
+        byte[] header = new byte[data.getInt(headerStart)];
+        data.get(headerStart + 4, header);
+        return DeviceCodec.decodeHeader(header, state,
+            new DeviceCodec.DetailsReference(() -> readDetails(handle, key)));
+    }
+
+    public synchronized int size() {
+        return slotsByIdentifier.size();
+    }
+
+    /**
+     * Fuerza los cambios a disco y compacta la región de datos cuando más
+     * de la mitad de su contenido es obsoleto
+     */
+    public synchronized void sync() throws IOException {
+        force();
+        long dataEnd = index.getLong(dataEndField(index.getInt(H_GENERATION)));
+        if (dataEnd > INITIAL_DATA_SIZE && liveBytes < dataEnd / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Fuerza a disco la región de datos y después las ranuras que apuntan
+     * a ella, sin compactar
+     */
+    public synchronized void force() throws IOException {
+        data.force();
+        for (Map.Entry<Integer, ByteBuffer> pending : pendingSlots.entrySet()) {
+            index.put(slotPosition(pending.getKey()), pending.getValue(), 0, SLOT_SIZE);
+        }
+        pendingSlots.clear();
+        index.force();
+    }
+
+    /**
+     * Copia los registros vigentes a una nueva generación del archivo de
+     * datos. Las ubicaciones nuevas se escriben en el campo de la otra
+     * paridad y la generación de la cabecera cambia solo después de que la
+     * copia y esas ubicaciones están en disco. Requiere {@link #force} previo.
+     */
+    private void compact() throws IOException {
+        int generation = index.getInt(H_GENERATION) + 1;
+        Path compactedPath = dataPath(generation);
+        long newEnd = 0;
+        long[] newOffsets = new long[slotCapacity()];
+
+        try (FileChannel output = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int slot : slotsByIdentifier.values()) {
+                ByteBuffer view = slotView(slot);
+                byte[] record = new byte[view.getInt(S_LENGTH)];
+                data.get(recordOffset(view), record);
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    output.write(buffer, newEnd + buffer.position());
+                }
+                newOffsets[slot] = newEnd;
+                newEnd += record.length;
+            }
+            output.force(true);
+        }
+
+        // Se mapea antes de publicar la generación: si falla, el índice sigue apuntando a la anterior
+        FileChannel previousChannel = dataChannel;
+        MappedByteBuffer previousData = data;
+        try {
+            openDataRegion(generation, newEnd);
+        } catch (IOException e) {
+            dataChannel = previousChannel;
+            data = previousData;
+            throw e;
+        }
+
+        for (int slot : slotsByIdentifier.values()) {
+            index.putInt(slotPosition(slot) + offsetField(generation), (int) newOffsets[slot]);
+        }
+        index.putLong(dataEndField(generation), newEnd);
+        index.force();
+        index.putInt(H_GENERATION, generation);
+        index.force();
+
+        previousChannel.close();
+        try {
+            Files.deleteIfExists(dataPath(generation - 1));
+        } catch (IOException e) {
+            // Algunos sistemas no permiten borrar un archivo aún mapeado; se borra al reabrir
+            System.err.println("⚠️ No se pudo eliminar la generación anterior del almacén: " + e.getMessage());
+        }
+    }
+
+    private void openDataRegion(int generation, long dataEnd) throws IOException {
+        dataChannel = FileChannel.open(dataPath(generation), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(INITIAL_DATA_SIZE, Math.max(dataEnd, dataChannel.size()));
+        data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Elimina archivos de datos de otras generaciones: restos de una
+     * compactación interrumpida o que no se pudieron borrar al terminarla
+     */
+    private void deleteStaleGenerations(int generation) {
+        String current = dataPath(generation).getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "records_*.dat")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().equals(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudieron eliminar generaciones anteriores del almacén: " + e.getMessage());
+        }
+    }
+
+    private void scanSlots() {
+        int capacity = slotCapacity();
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            ByteBuffer view = slotView(slot);
+            if (view.get(S_FLAGS) != SLOT_LIVE) {
+                freeSlots.push(slot);
+                continue;
+            }
+            slotsByIdentifier.put(recordKey(recordOffset(view)), slot);
+            liveBytes += view.getInt(S_LENGTH);
+        }
+    }
+
+    /**
+     * @return Ranura con los cambios aún no forzados, o su contenido en el
+     *         índice; los desplazamientos de los campos son relativos a ella
+     */
+    private ByteBuffer slotView(int slot) {
+        ByteBuffer pending = pendingSlots.get(slot);
+        if (pending != null) {
+            return pending;
+        }
+        int position = slotPosition(slot);
+        return index.slice(position, SLOT_SIZE);
+    }
+
+    private int recordOffset(ByteBuffer slot) {
+        return slot.getInt(offsetField(index.getInt(H_GENERATION)));
+    }
+
+    /**
+     * @return Identificador normalizado guardado al inicio del registro
+     */
+    private String recordKey(int offset) {
+        byte[] identifier = new byte[data.getShort(offset) & 0xFFFF];
+        data.get(offset + 2, identifier);
+        return new String(identifier, StandardCharsets.UTF_8);
+    }
+
+    private int allocateSlot() {
+        if (freeSlots.isEmpty()) {
+            growIndex();
+        }
+        return freeSlots.pop();
+    }
+
+    private void growIndex() {
+        int capacity = slotCapacity();
+        int newCapacity = capacity * 2;
+        try {
+            index.force();
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo ampliar el índice del almacén", e);
+        }
+        index.putInt(H_SLOT_CAPACITY, newCapacity);
+        for (int slot = newCapacity - 1; slot >= capacity; slot--) {
+            freeSlots.push(slot);
+        }
+    }
+
+    private void ensureDataCapacity(long required) {
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("La región de datos excede el tamaño mapeable");
+        }
+        if (required <= data.capacity()) {
+            return;
+        }
+        long newSize = Math.min(Integer.MAX_VALUE, Math.max((long) data.capacity() * 2, required));
+        try {
+            data.force();
+            data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo ampliar la región de datos", e);
+        }
+    }
+
+    /**
+     * Registro: [short longitud][identificador normalizado UTF-8]
+     * [int longitud][cabecera][DeviceCodec]
+     */
+    private static byte[] encodeRecord(Device device) {
+        byte[] identifier = normalize(device.getIdentifier()).getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = DeviceCodec.encodeDevice(device);
+        byte[] header = DeviceCodec.encodeHeader(device);
+        ByteBuffer record = ByteBuffer.allocate(2 + identifier.length + 4 + header.length + encoded.length);
+        record.putShort((short) identifier.length);
+        record.put(identifier);
+        record.putInt(header.length);
+        record.put(header);
+        record.put(encoded);
+        return record.array();
+    }
+
+    private static String normalize(String identifier) {
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+
+    private static int offsetField(int generation) {
+        return (generation & 1) == 0 ? S_OFFSET_EVEN : S_OFFSET_ODD;
+    }
+
+    private static int dataEndField(int generation) {
+        return (generation & 1) == 0 ? H_DATA_END_EVEN : H_DATA_END_ODD;
+    }
+
+    private int slotCapacity() {
+        return index.getInt(H_SLOT_CAPACITY);
+    }
+
+    private static int slotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private Path dataPath(int generation) {
+        return directory.resolve("records_" + generation + ".dat");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        dataChannel.close();
+        indexChannel.close();
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Medición de la memoria que ocupan las cadenas de los equipos
+ * (java MemoryFootprint [equipos]).
+ *
+ * Codifica equipos simulados, sin leer ni escribir los datos del
+ * sistema, en una instantánea sin diccionario y en una con él; después carga cada una como al iniciar, la primera sin el
+ * {@link StringDictionary} y la segunda con él, y compara el tamaño en
+ * disco, las instancias de cadenas alcanzables desde los equipos y el
+ * heap ocupado. Los bytes de cada cadena se estiman para una JVM de 64
+ * bits con referencias comprimidas y cadenas compactas.
+ */
+public final class MemoryFootprint {
+    private static final int STRING_OBJECT_BYTES = 24;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    // Nodo de ConcurrentHashMap más su lugar en la tabla
+    private static final int DICTIONARY_ENTRY_BYTES = 40;
+    private static final int DEFAULT_DEVICES = 20_000;
+
+    private MemoryFootprint() {
+    }
+
+    /**
+     * Cadenas alcanzables desde un conjunto de colas
+     */
+    private static final class StringCensus {
+        long references;
+        int distinctValues;
+        int instances;
+        long bytes;
+
+        static StringCensus of(Map<DeviceState, DeviceQueue> workflowQueues) {
+            StringCensus census = new StringCensus();
+            Set<String> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<String> values = new HashSet<>();
+            for (DeviceQueue queue : workflowQueues.values()) {
+                for (Device device : queue.getQueueList()) {
+                    List<String> fields = new ArrayList<>(Arrays.asList(
+                        device.getIdentifier(), device.getIssueDescription(), device.getOwner(),
+                        device.getOwnerEmail(), device.getOwnerPhone(), device.getTechnicalAnalysis(),
+                        device.getRepairWork(), device.getTechnicianId()));
+                    for (ActivityRecord record : device.getActivityLog()) {
+                        fields.add(record.getDescription());
+                    }
+                    for (String value : fields) {
+                        if (value == null) {
+                            continue;
+                        }
+                        census.references++;
+                        values.add(value);
+                        if (seen.add(value)) {
+                            census.instances++;
+                            census.bytes += estimateBytes(value);
+                        }
+                    }
+                }
+            }
+            census.distinctValues = values.size();
+            return census;
+        }
+
+        void print(String label) {
+            System.out.printf("   %s %,10d instancias para %,d valores distintos: %,12d bytes%n",
+                label, instances, distinctValues, bytes);
+        }
+    }
+
+    /**
+     * Punto de entrada de la herramienta, independiente de la aplicación
+     */
+    public static void main(String[] args) throws IOException {
+        int deviceCount;
+        try {
+            deviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: java MemoryFootprint [equipos]");
+            System.exit(2);
+            return;
+        }
+        run(deviceCount);
+    }
+
+    /**
+     * @param deviceCount Equipos simulados (0 usa el valor por defecto)
+     */
+    public static void run(int deviceCount) throws IOException {
+        int devices = deviceCount > 0 ? deviceCount : DEFAULT_DEVICES;
+        System.out.println("🧪 Huella de memoria de " + devices + " equipos simulados");
+        Map<DeviceState, DeviceQueue> workflowQueues = simulate(devices);
+
+        byte[] plain = DeviceCodec.encodeSnapshot(workflowQueues, 0, false);
+        byte[] encoded = DeviceCodec.encodeSnapshot(workflowQueues, 0, true);
+        workflowQueues = null;
+
+        StringDictionary original = StringDictionary.getShared();
+        try {
+            StringDictionary.replaceShared(new StringDictionary(false, 0));
+            long heapBefore = usedHeap();
+            Map<DeviceState, DeviceQueue> withoutDictionary = DeviceCodec.decodeSnapshot(plain).getWorkflowQueues();
+            long heapWithout = usedHeap() - heapBefore;
+            StringCensus without = StringCensus.of(withoutDictionary);
+            withoutDictionary = null;
+
+            StringDictionary dictionary = new StringDictionary(true, StringDictionary.DEFAULT_LIMIT);
+            StringDictionary.replaceShared(dictionary);
+            heapBefore = usedHeap();
+            Map<DeviceState, DeviceQueue> withDictionary = DeviceCodec.decodeSnapshot(encoded).getWorkflowQueues();
+            long heapWith = usedHeap() - heapBefore;
+            StringCensus with = StringCensus.of(withDictionary);
+
+            System.out.printf("   Referencias a cadenas: %,d%n", without.references);
+            without.print("Sin diccionario:");
+            with.print("Con diccionario:");
+            long overhead = (long) dictionary.size() * DICTIONARY_ENTRY_BYTES;
+            System.out.printf("   Diccionario en memoria: %,d valores (~%,d bytes), %,d consultas, %,d copias reemplazadas%n",
+                dictionary.size(), overhead, dictionary.getLookups(), dictionary.getReused());
+            System.out.printf("   Ahorro estimado en cadenas: %,d bytes (%.1f%%)%n",
+                without.bytes - with.bytes - overhead, percent(without.bytes - with.bytes - overhead, without.bytes));
+            System.out.printf("   Heap tras la carga: %,d KB sin diccionario, %,d KB con diccionario%n",
+                heapWithout / 1024, heapWith / 1024);
+            System.out.printf("   Instantánea en disco: %,d bytes sin diccionario, %,d bytes con diccionario (%.1f%% menos)%n",
+                plain.length, encoded.length, percent(plain.length - encoded.length, plain.length));
+        } finally {
+            StringDictionary.replaceShared(original);
+        }
+    }
+
+    /**
+     * Equipos repartidos entre las etapas del flujo, con clientes,
+     * técnicos y análisis que se repiten como en la operación real
+     */
+    private static Map<DeviceState, DeviceQueue> simulate(int deviceCount) {
+        Map<DeviceState, DeviceQueue> queues = new EnumMap<>(DeviceState.class);
+        for (DeviceState state : DeviceState.values()) {
+            queues.put(state, new DeviceQueue(state));
+        }
+        WorkflowEngine engine = new WorkflowEngine(queues, DeviceIndex.build(queues), false);
+        List<String> issues = Arrays.asList("Pantalla rota", "No enciende", "Batería no carga",
+            "Teclado sin respuesta", "Ventilador ruidoso");
+        List<String> analyses = Arrays.asList("Pantalla dañada", "Fuente de poder defectuosa",
+            "Batería agotada", "Teclado derramado", "Ventilador obstruido");
+        Random random = new Random(42);
+        int customers = Math.max(1, deviceCount / 3);
+        for (int i = 0; i < deviceCount; i++) {
+            int customer = random.nextInt(customers);
+            engine.intake(new Device("HM-" + i, issues.get(random.nextInt(issues.size())), LocalDate.now(),
+                "Cliente " + customer, "cliente" + customer + "@correo.com", String.valueOf(80_000_000 + customer)));
+        }
+        for (int i = 0; i < deviceCount * 8 / 10; i++) {
+            engine.examine(analyses.get(random.nextInt(analyses.size())), random.nextInt(10) != 0);
+        }
+        for (int i = 0; i < deviceCount * 6 / 10; i++) {
+            engine.repair("Reemplazo de componente", "TEC-" + (1 + random.nextInt(8)));
+        }
+        for (int i = 0; i < deviceCount * 4 / 10; i++) {
+            engine.qualityCheck(random.nextInt(10) != 0);
+        }
+        return queues;
+    }
+
+    /**
+     * Bytes de una cadena: el objeto más su arreglo (latin-1 o UTF-16)
+     */
+    static long estimateBytes(String value) {
+        boolean latin1 = value.chars().allMatch(c -> c <= 0xFF);
+        long array = ARRAY_HEADER_BYTES + (long) value.length() * (latin1 ? 1 : 2);
+        return STRING_OBJECT_BYTES + ((array + 7) & ~7L);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+}
@@ -0,0 +1,75 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hash consistente que asigna cada número de serie a una
+ * sucursal (partición).
+ *
+ * Cada sucursal ocupa varias posiciones virtuales del anillo y un equipo
+ * pertenece a la primera posición en el sentido del anillo a partir del
+ * hash de su número de serie normalizado. Al agregar una sucursal solo
+ * cambian de dueño las claves que caen en sus nuevas posiciones, cerca de
+ * 1/N del total, en lugar de casi todas como con un módulo simple.
+ */
+public final class PartitionRing {
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes;
+
+    /**
+     * @param nodes Nombres de las sucursales, sin repetir
+     * @param virtualNodes Posiciones por sucursal (más posiciones reparten mejor las claves)
+     */
+    public PartitionRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Se requiere al menos una sucursal");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // En una colisión (muy improbable) gana la sucursal de nombre menor, sin depender del orden
+                ring.merge(hash(node + "#" + i), node,
+                    (existing, added) -> existing.compareTo(added) <= 0 ? existing : added);
+            }
+        }
+    }
+
+    public PartitionRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @return Sucursal dueña del número de serie
+     */
+    public String ownerOf(String identifier) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(DeviceIndex.normalize(identifier)));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * FNV-1a de 64 bits con una mezcla final, para que nombres y números
+     * de serie parecidos queden dispersos en el anillo
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
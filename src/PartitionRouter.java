@@ -0,0 +1,524 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Enrutador entre sucursales (--enrutador puerto nombre=host:puerto,...).
+ *
+ * Cada sucursal ejecuta su propia API (--servidor) sobre sus colas. El
+ * enrutador expone la misma API y reparte los números de serie entre las
+ * sucursales con un {@link PartitionRing}:
+ * - Las rutas de un equipo (detalle, historial, prioridad) y los ingresos
+ *   van a la sucursal dueña del número de serie. Si allí no existe, se
+ *   busca en las demás: los equipos ingresados antes de particionar, o
+ *   antes de agregar una sucursal, siguen donde se registraron.
+ * - El resumen de colas y las búsquedas (por propietario, correo, etc. y
+ *   en el historial) se piden a todas las sucursales en paralelo y se
+ *   combinan, indicando la sucursal de cada resultado.
+ * - Las etapas del flujo (/api/evaluacion, ...) atienden el siguiente
+ *   equipo de la sucursal indicada con ?sucursal=, o de la que tenga más
+ *   equipos esperando en esa etapa.
+ */
+public class PartitionRouter {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final int ROUTER_THREADS = 64;
+    private static final String BRANCH_HEADER = "X-Sucursal";
+    private static final String UNAVAILABLE_HEADER = "X-Sucursales-Sin-Respuesta";
+
+    /**
+     * Error con el código HTTP que se devuelve al cliente
+     */
+    private static final class RouteException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RouteException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Respuesta de una sucursal
+     */
+    private static final class NodeResponse {
+        final String node;
+        final int status;
+        final String body;
+
+        NodeResponse(String node, int status, String body) {
+            this.node = node;
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean isOk() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private final Map<String, URI> nodes;
+    private final PartitionRing ring;
+    private final HttpClient client;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+
+    /**
+     * @param nodes URL base de la API de cada sucursal (http://host:puerto/api/), por nombre
+     * @param port Puerto de escucha (0 elige uno libre)
+     */
+    public PartitionRouter(Map<String, URI> nodes, int port) throws IOException {
+        this.nodes = new LinkedHashMap<>(nodes);
+        this.ring = new PartitionRing(new ArrayList<>(nodes.keySet()));
+        this.client = HttpClient.newBuilder()
+            .executor(ApiServer.newDaemonPool(Runtime.getRuntime().availableProcessors() * 2, "enrutador-io-"))
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        ExecutorService virtual = ApiServer.newVirtualThreadExecutor();
+        this.requestExecutor = virtual != null ? virtual : ApiServer.newDaemonPool(ROUTER_THREADS, "enrutador-");
+        server.setExecutor(requestExecutor);
+        server.createContext("/api/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        requestExecutor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Interpreta la lista de sucursales: nombre=host:puerto separados por comas
+     */
+    static Map<String, URI> parseNodes(String specification) {
+        Map<String, URI> parsed = new LinkedHashMap<>();
+        for (String item : specification.split(",")) {
+            String[] parts = item.trim().split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                throw new IllegalArgumentException("Sucursal inválida (use nombre=host:puerto): " + item);
+            }
+            if (parsed.put(parts[0].trim(), URI.create("http://" + parts[1].trim() + "/api/")) != null) {
+                throw new IllegalArgumentException("Sucursal repetida: " + parts[0].trim());
+            }
+        }
+        return parsed;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        NodeResponse response;
+        try {
+            response = route(exchange);
+        } catch (RouteException e) {
+            response = new NodeResponse(null, e.status, ApiServer.error(e.getMessage()));
+        } catch (RuntimeException e) {
+            response = new NodeResponse(null, 500, ApiServer.error("Error interno: " + e.getMessage()));
+        }
+        if (response.node != null) {
+            exchange.getResponseHeaders().set(BRANCH_HEADER, response.node);
+        }
+        ApiServer.send(exchange, response.status, response.status == 204 ? null : response.body);
+    }
+
+    private NodeResponse route(HttpExchange exchange) throws RouteException, IOException {
+        String method = exchange.getRequestMethod();
+        URI uri = exchange.getRequestURI();
+        String[] path = uri.getRawPath().split("/");
+        List<String> segments = new ArrayList<>();
+        for (String segment : path) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+            }
+        }
+        // Ruta relativa a /api/, con la consulta original
+        String relative = uri.getRawPath().replaceFirst("^/api/", "")
+            + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        Map<String, String> query = ApiServer.parseQuery(uri.getRawQuery());
+        byte[] body = ApiServer.readLimitedBody(exchange);
+        if (body == null) {
+            throw new RouteException(413, "El cuerpo de la solicitud supera " + ApiServer.MAX_BODY_BYTES + " bytes");
+        }
+
+        // segments[0] es "api"
+        String resource = segments.size() > 1 ? segments.get(1) : "";
+        switch (resource) {
+            case "colas":
+                requireMethod(method, "GET");
+                return mergeQueues(exchange, scatter(relative), query);
+            case "equipos":
+                if (segments.size() == 2) {
+                    if ("POST".equals(method)) {
+                        return intake(relative, body);
+                    }
+                    requireMethod(method, "GET");
+                    return concatenate(exchange, scatter(relative));
+                }
+                return forwardDevice(segments.get(2), method, relative, body);
+            case "evaluacion":
+                return forwardStage(DeviceState.RECEIVED, method, relative, body, query);
+            case "reparacion":
+                return forwardStage(DeviceState.IN_REPAIR, method, relative, body, query);
+            case "calidad":
+                return forwardStage(DeviceState.QUALITY_CHECK, method, relative, body, query);
+            case "entrega":
+                return forwardStage(DeviceState.READY_DELIVERY, method, relative, body, query);
+            case "historial":
+                requireMethod(method, "GET");
+                return concatenate(exchange, scatter(relative));
+            case "particiones":
+                requireMethod(method, "GET");
+                return partitions(query);
+            default:
+                throw new RouteException(404, "Ruta no encontrada");
+        }
+    }
+
+    /**
+     * Ingreso en la sucursal dueña, rechazando números de serie que ya
+     * existen en otra sucursal
+     */
+    private NodeResponse intake(String relative, byte[] body) throws RouteException {
+        String identifier;
+        try {
+            Object value = new JsonReader(new String(body, StandardCharsets.UTF_8)).readObject().get("identifier");
+            if (!(value instanceof String) || ((String) value).isBlank()) {
+                throw new RouteException(400, "El campo identifier es obligatorio");
+            }
+            identifier = ((String) value).trim();
+        } catch (IllegalArgumentException e) {
+            throw new RouteException(400, e.getMessage());
+        }
+        String owner = ring.ownerOf(identifier);
+        String elsewhere = locate(identifier, owner);
+        if (elsewhere != null) {
+            throw new RouteException(409, "Ya existe un equipo con ese número de serie en la sucursal " + elsewhere);
+        }
+        return send(owner, "POST", relative, body);
+    }
+
+    /**
+     * Rutas de un equipo: a la sucursal dueña o, si no está allí, a la que lo tenga
+     */
+    private NodeResponse forwardDevice(String identifier, String method, String relative, byte[] body)
+            throws RouteException {
+        String owner = ring.ownerOf(identifier);
+        NodeResponse response = send(owner, method, relative, body);
+        if (response.status != 404) {
+            return response;
+        }
+        String holder = locate(identifier, owner);
+        return holder == null ? response : send(holder, method, relative, body);
+    }
+
+    private NodeResponse forwardStage(DeviceState stage, String method, String relative, byte[] body,
+            Map<String, String> query) throws RouteException {
+        requireMethod(method, "POST");
+        String node = query.get("sucursal");
+        if (node == null) {
+            node = busiest(stage);
+        } else if (!nodes.containsKey(node)) {
+            throw new RouteException(404, "Sucursal desconocida: " + node);
+        }
+        return send(node, method, relative, body);
+    }
+
+    /**
+     * @return Sucursal con más equipos esperando en la etapa
+     */
+    private String busiest(DeviceState stage) throws RouteException {
+        String busiest = null;
+        int largest = -1;
+        for (NodeResponse response : scatter("colas?limite=0")) {
+            if (!response.isOk()) {
+                continue;
+            }
+            Object queue = parseObject(response).get(stage.name());
+            int size = queue instanceof Map ? sizeOf(((Map<?, ?>) queue).get("size")) : 0;
+            if (size > largest) {
+                largest = size;
+                busiest = response.node;
+            }
+        }
+        if (busiest == null) {
+            throw new RouteException(502, "Ninguna sucursal responde");
+        }
+        return busiest;
+    }
+
+    /**
+     * Busca el equipo en las sucursales distintas de la dueña
+     *
+     * @return Sucursal que lo tiene, o null
+     */
+    private String locate(String identifier, String owner) {
+        String relative = "equipos/" + encodePathSegment(identifier);
+        List<CompletableFuture<NodeResponse>> lookups = new ArrayList<>();
+        for (String node : nodes.keySet()) {
+            if (!node.equals(owner)) {
+                lookups.add(sendAsync(node, "GET", relative, new byte[0]));
+            }
+        }
+        for (CompletableFuture<NodeResponse> lookup : lookups) {
+            NodeResponse response = lookup.join();
+            if (response.status == 200) {
+                return response.node;
+            }
+        }
+        return null;
+    }
+
+    private NodeResponse partitions(Map<String, String> query) {
+        StringBuilder json = new StringBuilder("{\"virtualNodes\":").append(PartitionRing.DEFAULT_VIRTUAL_NODES)
+            .append(",\"nodes\":[");
+        boolean first = true;
+        for (Map.Entry<String, URI> node : nodes.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":").append(ApiServer.string(node.getKey()))
+                .append(",\"url\":").append(ApiServer.string(node.getValue().toString())).append('}');
+        }
+        json.append(']');
+        if (query.containsKey("serie")) {
+            json.append(",\"identifier\":").append(ApiServer.string(query.get("serie")))
+                .append(",\"owner\":").append(ApiServer.string(ring.ownerOf(query.get("serie"))));
+        }
+        return new NodeResponse(null, 200, json.append('}').toString());
+    }
+
+    /**
+     * Suma el tamaño de cada cola y combina los primeros equipos de cada
+     * sucursal hasta el límite pedido
+     */
+    private NodeResponse mergeQueues(HttpExchange exchange, List<NodeResponse> responses,
+            Map<String, String> query) throws RouteException {
+        int limit;
+        try {
+            limit = query.containsKey("limite") ? Integer.parseInt(query.get("limite")) : ApiServer.DEFAULT_QUEUE_LIMIT;
+        } catch (NumberFormatException e) {
+            throw new RouteException(400, "Número inválido: " + query.get("limite"));
+        }
+        List<NodeResponse> available = available(exchange, responses);
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (DeviceState state : DeviceState.values()) {
+            int size = 0;
+            List<Object> devices = new ArrayList<>();
+            for (NodeResponse response : available) {
+                Object queue = parseObject(response).get(state.name());
+                if (!(queue instanceof Map)) {
+                    continue;
+                }
+                size += sizeOf(((Map<?, ?>) queue).get("size"));
+                Object listed = ((Map<?, ?>) queue).get("devices");
+                if (listed instanceof List) {
+                    for (Object device : (List<?>) listed) {
+                        if (devices.size() < limit) {
+                            devices.add(withBranch(device, response.node));
+                        }
+                    }
+                }
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("size", size);
+            summary.put("devices", devices);
+            merged.put(state.name(), summary);
+        }
+        return new NodeResponse(null, 200, toJson(merged));
+    }
+
+    /**
+     * Une los arreglos devueltos por cada sucursal, indicando la sucursal de cada elemento
+     */
+    private NodeResponse concatenate(HttpExchange exchange, List<NodeResponse> responses) throws RouteException {
+        List<NodeResponse> available = available(exchange, responses);
+        for (NodeResponse response : available) {
+            if (!response.body.trim().startsWith("[")) {
+                // Error de validación: es el mismo en todas las sucursales
+                return response;
+            }
+        }
+        List<Object> merged = new ArrayList<>();
+        for (NodeResponse response : available) {
+            for (Object element : new JsonReader(response.body).readArray()) {
+                merged.add(withBranch(element, response.node));
+            }
+        }
+        return new NodeResponse(null, 200, toJson(merged));
+    }
+
+    /**
+     * Respuestas de las sucursales que contestaron; las que no, se informan en un encabezado
+     */
+    private static List<NodeResponse> available(HttpExchange exchange, List<NodeResponse> responses)
+            throws RouteException {
+        List<NodeResponse> available = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (NodeResponse response : responses) {
+            if (response.status == 502) {
+                missing.add(response.node);
+            } else {
+                available.add(response);
+            }
+        }
+        if (available.isEmpty()) {
+            throw new RouteException(502, "Ninguna sucursal responde");
+        }
+        if (!missing.isEmpty()) {
+            exchange.getResponseHeaders().set(UNAVAILABLE_HEADER, String.join(",", missing));
+        }
+        return available;
+    }
+
+    private static Object withBranch(Object element, String node) {
+        if (!(element instanceof Map)) {
+            return element;
+        }
+        Map<String, Object> annotated = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) element).entrySet()) {
+            annotated.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        annotated.put("branch", node);
+        return annotated;
+    }
+
+    private static Map<String, Object> parseObject(NodeResponse response) {
+        try {
+            return new JsonReader(response.body).readObject();
+        } catch (IllegalArgumentException e) {
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private static int sizeOf(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private List<NodeResponse> scatter(String relative) {
+        List<CompletableFuture<NodeResponse>> requests = new ArrayList<>();
+        for (String node : nodes.keySet()) {
+            requests.add(sendAsync(node, "GET", relative, new byte[0]));
+        }
+        List<NodeResponse> responses = new ArrayList<>();
+        for (CompletableFuture<NodeResponse> request : requests) {
+            responses.add(request.join());
+        }
+        return responses;
+    }
+
+    private NodeResponse send(String node, String method, String relative, byte[] body) {
+        return sendAsync(node, method, relative, body).join();
+    }
+
+    /**
+     * Reenvía la solicitud a una sucursal; si no responde, el resultado tiene estado 502
+     */
+    private CompletableFuture<NodeResponse> sendAsync(String node, String method, String relative, byte[] body) {
+        HttpRequest request = HttpRequest.newBuilder(nodes.get(node).resolve(relative))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/json; charset=utf-8")
+            .method(method, body.length == 0 ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+            .thenApply(response -> new NodeResponse(node, response.statusCode(), response.body()))
+            .exceptionally(error -> new NodeResponse(node, 502,
+                ApiServer.error("La sucursal " + node + " no responde")));
+    }
+
+    private static String encodePathSegment(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static void requireMethod(String method, String expected) throws RouteException {
+        if (!expected.equals(method)) {
+            throw new RouteException(405, "Método no permitido: " + method);
+        }
+    }
+
+    /**
+     * Serializa los valores producidos por {@link JsonReader}
+     */
+    private static String toJson(Object value) {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, value);
+        return json.toString();
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof String) {
+            json.append(ApiServer.string((String) value));
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            json.append(number == Math.rint(number) && Math.abs(number) < 1e15
+                ? Long.toString((long) number) : Double.toString(number));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Map) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append(ApiServer.string(String.valueOf(entry.getKey()))).append(':');
+                appendJson(json, entry.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof List) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendJson(json, element);
+            }
+            json.append(']');
+        } else {
+            json.append(ApiServer.string(value.toString()));
+        }
+    }
+
+    /**
+     * Inicia el enrutador sobre las sucursales indicadas
+     *
+     * @param port Puerto de escucha
+     * @param specification Sucursales como nombre=host:puerto separadas por comas
+     */
+    public static void serve(int port, String specification) throws IOException {
+        PartitionRouter router = new PartitionRouter(parseNodes(specification), port);
+        Runtime.getRuntime().addShutdownHook(new Thread(router::stop, "cierre-enrutador"));
+        router.start();
+        System.out.println("🧭 Enrutador en http://localhost:" + router.getPort() + "/api/ para "
+            + router.nodes.size() + " sucursales: " + String.join(", ", router.nodes.keySet()));
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulación del reparto entre sucursales (java PartitionSimulation [sucursales] [equipos]).
+ *
+ * Distribuye números de serie entre las sucursales de un
+ * {@link PartitionRing}, agrega una más y muestra qué fracción de las
+ * claves cambia de dueño, comparada con un reparto por módulo. No toca
+ * los datos del sistema.
+ */
+public final class PartitionSimulation {
+    private static final int DEFAULT_NODES = 3;
+    private static final int DEFAULT_KEYS = 100_000;
+
+    private PartitionSimulation() {
+    }
+
+    /**
+     * Punto de entrada de la herramienta, independiente de la aplicación
+     */
+    public static void main(String[] args) {
+        int nodeCount;
+        int keyCount;
+        try {
+            nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NODES;
+            keyCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_KEYS;
+        } catch (NumberFormatException e) {
+            nodeCount = 0;
+            keyCount = 0;
+        }
+        if (nodeCount < 1 || keyCount < 1) {
+            System.err.println("Uso: java PartitionSimulation [sucursales] [equipos]");
+            System.exit(2);
+            return;
+        }
+        run(nodeCount, keyCount);
+    }
+
+    /**
+     * @param nodeCount Sucursales iniciales
+     * @param keyCount Números de serie simulados
+     */
+    public static void run(int nodeCount, int keyCount) {
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i <= nodeCount; i++) {
+            names.add("sucursal-" + i);
+        }
+        PartitionRing before = new PartitionRing(names);
+        // Las posiciones dependen solo del nombre: las sucursales existentes conservan las suyas
+        List<String> extended = new ArrayList<>(names);
+        extended.add("sucursal-" + (nodeCount + 1));
+        PartitionRing after = new PartitionRing(extended);
+
+        Map<String, Integer> load = new HashMap<>();
+        int moved = 0;
+        int movedByModulo = 0;
+        for (int i = 0; i < keyCount; i++) {
+            String identifier = "SN-" + i;
+            String owner = before.ownerOf(identifier);
+            load.merge(owner, 1, Integer::sum);
+            if (!owner.equals(after.ownerOf(identifier))) {
+                moved++;
+            }
+            long keyHash = PartitionRing.hash(DeviceIndex.normalize(identifier));
+            if (Long.remainderUnsigned(keyHash, nodeCount) != Long.remainderUnsigned(keyHash, nodeCount + 1)) {
+                movedByModulo++;
+            }
+        }
+
+        System.out.println("🧪 Reparto de " + keyCount + " números de serie entre " + nodeCount + " sucursales ("
+            + PartitionRing.DEFAULT_VIRTUAL_NODES + " posiciones virtuales cada una)");
+        double ideal = (double) keyCount / nodeCount;
+        for (String name : names) {
+            int count = load.getOrDefault(name, 0);
+            System.out.printf("   %-12s %,8d equipos (%+.1f%% del reparto ideal)%n", name, count,
+                (count - ideal) * 100 / ideal);
+        }
+        System.out.printf("   Al agregar una sucursal cambian de dueño: %.1f%% (ideal %.1f%%); con módulo: %.1f%%%n",
+            moved * 100.0 / keyCount, 100.0 / (nodeCount + 1), movedByModulo * 100.0 / keyCount);
+    }
+}
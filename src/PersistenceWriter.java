@@ -0,0 +1,222 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo dedicado de persistencia con confirmación agrupada (group commit).
+ *
+ * Las entradas del diario se encolan sin bloquear al hilo que las produce.
+ * El hilo escritor toma todas las solicitudes acumuladas, las escribe con
+ * una sola operación y llama a fsync según la cadencia configurada. Cada
+ * entrada recibe un CompletableFuture que se completa cuando su contenido
+ * es durable en disco.
+ */
+public class PersistenceWriter implements Closeable {
+    /**
+     * Operación de mantenimiento sobre los archivos del diario que debe
+     * ejecutarse en orden respecto de las entradas (rotación, reinicio)
+     */
+    @FunctionalInterface
+    interface JournalTask {
+        void run() throws IOException;
+    }
+
+    private static final class Request {
+        final ByteBuffer entry;
+        final JournalTask task;
+        final CompletableFuture<Long> completion = new CompletableFuture<>();
+
+        Request(ByteBuffer entry, JournalTask task) {
+            this.entry = entry;
+            this.task = task;
+        }
+    }
+
+    private final TransitionJournal journal;
+    private final long fsyncIntervalNanos;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Estado propio del hilo escritor
+    private final List<Request> unsynced = new ArrayList<>();
+    private long lastWrittenSequence;
+    private long lastSyncNanos = System.nanoTime();
+
+    /**
+     * @param journal Diario sobre el que se escriben las entradas
+     * @param fsyncIntervalMillis Cadencia máxima entre llamadas a fsync
+     *        (0 = fsync después de cada lote)
+     */
+    public PersistenceWriter(TransitionJournal journal, long fsyncIntervalMillis) {
+        this.journal = journal;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.lastWrittenSequence = journal.getLastSequence();
+        this.writerThread = new Thread(this::runLoop, "escritor-persistencia");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Encola una entrada del diario
+     *
+     * @return Futuro que se completa con la secuencia cuando la entrada es durable
+     */
+    public CompletableFuture<Long> submit(ByteBuffer entry) {
+        return enqueue(new Request(entry, null));
+    }
+
+    /**
+     * Encola una operación de mantenimiento; se ejecuta después de que
+     * todas las entradas anteriores fueron escritas y forzadas a disco
+     */
+    public CompletableFuture<Long> submitTask(JournalTask task) {
+        return enqueue(new Request(null, task));
+    }
+
+    /**
+     * Solicita una confirmación durable inmediata de todo lo encolado
+     *
+     * @return Futuro que se completa cuando todas las entradas previas están en disco
+     */
+    public CompletableFuture<Long> flush() {
+        return enqueue(new Request(null, null));
+    }
+
+    // Sincronizado con close() para que ninguna solicitud entre después de la última vuelta del hilo
+    private synchronized CompletableFuture<Long> enqueue(Request request) {
+        if (!running) {
+            request.completion.completeExceptionally(
+                new IOException("El escritor de persistencia está detenido"));
+            return request.completion;
+        }
+        requests.add(request);
+        return request.completion;
+    }
+
+    private void runLoop() {
+        List<Request> batch = new ArrayList<>();
+        while (running || !requests.isEmpty()) {
+            try {
+                Request first = unsynced.isEmpty()
+                    ? requests.poll(1, TimeUnit.SECONDS)
+                    : requests.poll(Math.max(0, lastSyncNanos + fsyncIntervalNanos - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    requests.drainTo(batch);
+                    processBatch(batch);
+                    batch.clear();
+                }
+                if (!unsynced.isEmpty() && System.nanoTime() - lastSyncNanos >= fsyncIntervalNanos) {
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }
+        sync();
+
+        // Tras una interrupción pueden quedar solicitudes sin procesar
+        List<Request> leftover = new ArrayList<>();
+        requests.drainTo(leftover);
+        for (Request request : leftover) {
+            request.completion.completeExceptionally(
+                new IOException("El escritor de persistencia está detenido"));
+        }
+    }
+
+    /**
+     * Agrupa las entradas consecutivas del lote en una sola escritura;
+     * las solicitudes durables fuerzan fsync antes de completarse
+     */
+    private void processBatch(List<Request> batch) {
+        List<Request> pending = new ArrayList<>();
+        for (Request request : batch) {
+            if (request.entry != null) {
+                pending.add(request);
+                continue;
+            }
+
+            writePending(pending);
+            sync();
+            try {
+                if (request.task != null) {
+                    request.task.run();
+                }
+                request.completion.complete(lastWrittenSequence);
+            } catch (IOException e) {
+                request.completion.completeExceptionally(e);
+            }
+        }
+        writePending(pending);
+    }
+
+    /**
+     * Escribe las entradas pendientes en una sola operación. Si la escritura
+     * falla solo se rechazan esas entradas; las de lotes anteriores ya
+     * escritas siguen esperando su fsync.
+     */
+    private void writePending(List<Request> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] entries = new ByteBuffer[pending.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = pending.get(i).entry;
+        }
+        try {
+            journal.write(entries);
+            lastWrittenSequence = TransitionJournal.sequenceOf(entries[entries.length - 1]);
+            unsynced.addAll(pending);
+        } catch (IOException e) {
+            for (Request request : pending) {
+                request.completion.completeExceptionally(e);
+            }
+        }
+        pending.clear();
+    }
+
+    private void sync() {
+        lastSyncNanos = System.nanoTime();
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        try {
+            journal.force();
+            for (Request request : unsynced) {
+                request.completion.complete(TransitionJournal.sequenceOf(request.entry));
+            }
+        } catch (IOException e) {
+            for (Request request : unsynced) {
+                request.completion.completeExceptionally(e);
+            }
+        }
+        unsynced.clear();
+    }
+
+    /**
+     * Escribe y fuerza todo lo pendiente y detiene el hilo escritor
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            // Solicitud vacía para despertar al hilo si está esperando
+            requests.add(new Request(null, null));
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.LongPredicate;
+
+/**
+ * Árbol treap persistente (inmutable) ordenado por una clave long.
+ *
+ * Cada modificación devuelve una nueva versión que comparte con la
+ * anterior todos los nodos no afectados, por lo que conservar una
+ * versión (instantánea) cuesta O(1) y las operaciones de inserción,
+ * eliminación y consulta del mínimo son O(log n) esperado.
+ *
+ * @param <V> Tipo de los valores almacenados
+ */
+public final class PersistentTreap<V> implements Iterable<V> {
+    private static final PersistentTreap<?> EMPTY = new PersistentTreap<>(null);
+
+    private static final class Node<V> {
+        final long key;
+        final int priority;
+        final V value;
+        final Node<V> left;
+        final Node<V> right;
+        final int size;
+
+        Node(long key, int priority, V value, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.priority = priority;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+
+        Node<V> withChildren(Node<V> newLeft, Node<V> newRight) {
+            return new Node<>(key, priority, value, newLeft, newRight);
+        }
+    }
+
+    /**
+     * Recibe cada par clave-valor en orden de clave
+     */
+    @FunctionalInterface
+    public interface EntryVisitor<V> {
+        void visit(long key, V value);
+    }
+
+    private final Node<V> root;
+
+    private PersistentTreap(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentTreap<V> empty() {
+        return (PersistentTreap<V>) EMPTY;
+    }
+
+    public int size() {
+        return sizeOf(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Devuelve una versión que incluye la clave con el valor indicado
+     * (reemplaza el valor si la clave ya existía)
+     */
+    public PersistentTreap<V> insert(long key, V value) {
+        return new PersistentTreap<>(insert(root, key, priorityOf(key), value));
+    }
+
+    /**
+     * Devuelve una versión sin la clave indicada
+     */
+    public PersistentTreap<V> remove(long key) {
+        Node<V> updated = remove(root, key);
+        return updated == root ? this : new PersistentTreap<>(updated);
+    }
+
+    /**
+     * Devuelve una versión sin las claves que cumplen la condición
+     */
+    public PersistentTreap<V> removeKeysIf(LongPredicate condition) {
+        PersistentTreap<V> result = this;
+        for (Iterator<Node<V>> nodes = nodeIterator(); nodes.hasNext(); ) {
+            long key = nodes.next().key;
+            if (condition.test(key)) {
+                result = result.remove(key);
+            }
+        }
+        return result;
+    }
+
+    public V get(long key) {
+        Node<V> current = root;
+        while (current != null) {
+            if (key < current.key) {
+                current = current.left;
+            } else if (key > current.key) {
+                current = current.right;
+            } else {
+                return current.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Valor con la menor clave, o null si está vacío
+     */
+    public V first() {
+        Node<V> node = firstNode();
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Menor clave almacenada
+     *
+     * @throws NoSuchElementException si está vacío
+     */
+    public long firstKey() {
+        Node<V> node = firstNode();
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        return node.key;
+    }
+
+    /**
+     * Clave del valor indicado (comparado por identidad), o null si no está.
+     * Recorre el árbol completo: O(n).
+     */
+    public Long keyOf(V value) {
+        for (Iterator<Node<V>> nodes = nodeIterator(); nodes.hasNext(); ) {
+            Node<V> node = nodes.next();
+            if (node.value == value) {
+                return node.key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Recorre todos los pares clave-valor en orden de clave: O(n)
+     */
+    public void forEachEntry(EntryVisitor<V> visitor) {
+        for (Iterator<Node<V>> nodes = nodeIterator(); nodes.hasNext(); ) {
+            Node<V> node = nodes.next();
+            visitor.visit(node.key, node.value);
+        }
+    }
+
+    /**
+     * Vista inmutable de esta versión como lista en orden de clave;
+     * get(i) es O(log n) y la iteración es O(n)
+     */
+    public List<V> asList() {
+        return new AbstractList<V>() {
+            @Override
+            public V get(int index) {
+                if (index < 0 || index >= sizeOf(root)) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                Node<V> current = root;
+                while (true) {
+                    int leftSize = sizeOf(current.left);
+                    if (index < leftSize) {
+                        current = current.left;
+                    } else if (index == leftSize) {
+                        return current.value;
+                    } else {
+                        index -= leftSize + 1;
+                        current = current.right;
+                    }
+                }
+            }
+
+            @Override
+            public int size() {
+                return sizeOf(root);
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return PersistentTreap.this.iterator();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        Iterator<Node<V>> nodes = nodeIterator();
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return nodes.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return nodes.next().value;
+            }
+        };
+    }
+
+    private Node<V> firstNode() {
+        Node<V> current = root;
+        if (current == null) {
+            return null;
+        }
+        while (current.left != null) {
+            current = current.left;
+        }
+        return current;
+    }
+
+    private Iterator<Node<V>> nodeIterator() {
+        Deque<Node<V>> stack = new ArrayDeque<>();
+        for (Node<V> current = root; current != null; current = current.left) {
+            stack.push(current);
+        }
+        return new Iterator<Node<V>>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Node<V> next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<V> node = stack.pop();
+                for (Node<V> current = node.right; current != null; current = current.left) {
+                    stack.push(current);
+                }
+                return node;
+            }
+        };
+    }
+
+    private static <V> Node<V> insert(Node<V> node, long key, int priority, V value) {
+        if (node == null) {
+            return new Node<>(key, priority, value, null, null);
+        }
+        if (key == node.key) {
+            return new Node<>(key, node.priority, value, node.left, node.right);
+        }
+        if (key < node.key) {
+            Node<V> left = insert(node.left, key, priority, value);
+            if (left.priority > node.priority) {
+                // Rotación a la derecha
+                return left.withChildren(left.left, node.withChildren(left.right, node.right));
+            }
+            return node.withChildren(left, node.right);
+        }
+        Node<V> right = insert(node.right, key, priority, value);
+        if (right.priority > node.priority) {
+            // Rotación a la izquierda
+            return right.withChildren(node.withChildren(node.left, right.left), right.right);
+        }
+        return node.withChildren(node.left, right);
+    }
+
+    private static <V> Node<V> remove(Node<V> node, long key) {
+        if (node == null) {
+            return null;
+        }
+        if (key < node.key) {
+            Node<V> left = remove(node.left, key);
+            return left == node.left ? node : node.withChildren(left, node.right);
+        }
+        if (key > node.key) {
+            Node<V> right = remove(node.right, key);
+            return right == node.right ? node : node.withChildren(node.left, right);
+        }
+        return merge(node.left, node.right);
+    }
+
+    private static <V> Node<V> merge(Node<V> left, Node<V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Prioridad pseudoaleatoria derivada de la clave (determinista)
+     */
+    private static int priorityOf(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        mixed ^= mixed >>> 32;
+        mixed *= 0xD6E8FEB86659FD93L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
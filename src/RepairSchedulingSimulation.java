@@ -0,0 +1,174 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulación de reparaciones (java RepairSchedulingSimulation [equipos]).
+ *
+ * Compara el tiempo de espera en reparación atendiendo la cola en orden
+ * de llegada contra {@link TechnicianScheduler}. Los equipos llegan en
+ * ráfaga con análisis de distintas especialidades; un técnico tarda el
+ * triple en una reparación fuera de su especialidad. Usa colas en
+ * memoria, sin diario, y no toca los datos del sistema.
+ */
+public final class RepairSchedulingSimulation {
+    private static final int DEFAULT_DEVICES = 600;
+    private static final Map<String, Set<String>> SKILLS = new LinkedHashMap<>();
+    static {
+        SKILLS.put("TEC-1", Set.of("pantalla"));
+        SKILLS.put("TEC-2", Set.of("pantalla", "batería"));
+        SKILLS.put("TEC-3", Set.of("teclado", "batería"));
+        SKILLS.put("TEC-4", Set.of("teclado", "pantalla"));
+    }
+    // Análisis de los equipos, con la frecuencia en que aparecen
+    private static final List<String> ANALYSES = Arrays.asList(
+        "Pantalla rota", "Pantalla rota", "Pantalla sin imagen", "Pantalla rota",
+        "Batería no carga", "Batería inflada", "Teclado sin respuesta", "Teclado derramado",
+        "Ventilador ruidoso", "Actualización de firmware");
+    private static final long MATCHED_REPAIR_NANOS = 1_000_000;
+    private static final long UNMATCHED_REPAIR_NANOS = 3_000_000;
+
+    private final int deviceCount;
+    private final Map<DeviceState, DeviceQueue> queues = new EnumMap<>(DeviceState.class);
+    private final WorkflowEngine engine;
+    private final Map<Device, Long> arrivals = new ConcurrentHashMap<>();
+    private final long[] waits;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger repaired = new AtomicInteger();
+
+    /**
+     * Resultado de una corrida
+     */
+    private static final class Outcome {
+        double averageWaitMillis;
+        double p95WaitMillis;
+        double seconds;
+        long steals;
+
+        void print(String label) {
+            System.out.printf("   %s: espera promedio %7.1f ms, p95 %7.1f ms, total %.2f s%s%n", label,
+                averageWaitMillis, p95WaitMillis, seconds, steals > 0 ? ", " + steals + " robos" : "");
+        }
+    }
+
+    private RepairSchedulingSimulation(int deviceCount) {
+        this.deviceCount = deviceCount;
+        this.waits = new long[deviceCount];
+        for (DeviceState state : DeviceState.values()) {
+            queues.put(state, new DeviceQueue(state));
+        }
+        this.engine = new WorkflowEngine(queues, DeviceIndex.build(queues), false);
+    }
+
+    /**
+     * Punto de entrada de la herramienta, independiente de la aplicación
+     */
+    public static void main(String[] args) {
+        int deviceCount;
+        try {
+            deviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: java RepairSchedulingSimulation [equipos]");
+            System.exit(2);
+            return;
+        }
+        if (!run(deviceCount)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param deviceCount Equipos a reparar (0 para el valor por defecto)
+     * @return true si el planificador redujo la espera promedio
+     */
+    public static boolean run(int deviceCount) {
+        int devices = deviceCount > 0 ? deviceCount : DEFAULT_DEVICES;
+        System.out.println("🧪 Simulación de reparaciones: " + devices + " equipos, "
+            + SKILLS.size() + " técnicos");
+        Outcome fifo = new RepairSchedulingSimulation(devices).execute(false);
+        Outcome scheduled = new RepairSchedulingSimulation(devices).execute(true);
+        fifo.print("Orden de llegada");
+        scheduled.print("Planificador   ");
+        double improvement = 1 - scheduled.averageWaitMillis / fifo.averageWaitMillis;
+        System.out.printf("   Espera promedio %s un %.0f%%%n",
+            improvement > 0 ? "reducida" : "aumentada", Math.abs(improvement) * 100);
+        return improvement > 0;
+    }
+
+    private Outcome execute(boolean useScheduler) {
+        Random random = new Random(42);
+        long arrival = System.nanoTime();
+        for (int i = 0; i < deviceCount; i++) {
+            Device device = new Device("SIM-" + i, "Simulación", LocalDate.now(),
+                "Cliente " + i, "cliente" + i + "@correo.com", "88888888");
+            device.setTechnicalAnalysis(ANALYSES.get(random.nextInt(ANALYSES.size())));
+            queues.get(DeviceState.IN_REPAIR).addDevice(device);
+            arrivals.put(device, arrival);
+        }
+
+        TechnicianScheduler scheduler = useScheduler ? new TechnicianScheduler(engine, SKILLS) : null;
+        List<Thread> workers = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> technician : SKILLS.entrySet()) {
+            workers.add(new Thread(() -> work(technician.getKey(), technician.getValue(), scheduler),
+                "tecnico-" + technician.getKey()));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Outcome outcome = new Outcome();
+        outcome.seconds = (System.nanoTime() - arrival) / 1e9;
+        long[] sorted = waits.clone();
+        Arrays.sort(sorted);
+        outcome.averageWaitMillis = Arrays.stream(sorted).average().orElse(0) / 1e6;
+        outcome.p95WaitMillis = sorted[Math.max(0, (int) Math.ceil(sorted.length * 0.95) - 1)] / 1e6;
+        outcome.steals = scheduler == null ? 0 : scheduler.getSteals();
+        return outcome;
+    }
+
+    private void work(String technicianId, Set<String> skills, TechnicianScheduler scheduler) {
+        Set<String> normalizedSkills = new LinkedHashSet<>();
+        for (String skill : skills) {
+            normalizedSkills.add(TechnicianScheduler.normalize(skill));
+        }
+        while (repaired.get() < deviceCount) {
+            Device device = scheduler == null
+                ? engine.claimNext(DeviceState.IN_REPAIR)
+                : scheduler.nextRepair(technicianId);
+            if (device == null) {
+                // Nada que atender por ahora: otro técnico tiene los equipos restantes
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            waits[started.getAndIncrement()] = System.nanoTime() - arrivals.get(device);
+            String analysis = TechnicianScheduler.normalize(device.getTechnicalAnalysis());
+            // Las reparaciones sin especialidad toman lo mismo para cualquier técnico
+            boolean matched = normalizedSkills.stream().anyMatch(analysis::contains)
+                || SKILLS.values().stream().flatMap(Set::stream)
+                    .noneMatch(skill -> analysis.contains(TechnicianScheduler.normalize(skill)));
+            LockSupport.parkNanos(matched ? MATCHED_REPAIR_NANOS : UNMATCHED_REPAIR_NANOS);
+            if (scheduler == null) {
+                engine.finishRepair(device, "Reparación simulada", technicianId);
+            } else {
+                scheduler.finishRepair(technicianId, device, "Reparación simulada");
+            }
+            repaired.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nodo seguidor de solo lectura (--seguidor host:puerto [puerto API]).
+ *
+ * Mantiene en memoria sus propias colas con lo que envía el
+ * {@link ReplicationPrimary}: una instantánea cuando hace falta y después
+ * cada entrada del diario, aplicada en su lugar sobre el equipo afectado.
+ * La actividad de los equipos se escribe en el historial del directorio
+ * del seguidor, así las consultas de equipos y de historial se atienden
+ * sin cargar al principal. Si la conexión se pierde, se reintenta y se
+ * continúa desde la última secuencia aplicada.
+ *
+ * El retraso se mide de dos formas: entradas durables del principal aún
+ * no aplicadas (según sus latidos) y tiempo entre el registro de una
+ * entrada en el principal y su aplicación aquí, que supone relojes
+ * sincronizados entre ambos nodos.
+ */
+public class ReplicationFollower implements Closeable {
+    private static final long RECONNECT_MILLIS = 2000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // Sin latidos durante este tiempo se considera perdida la conexión
+    private static final int READ_TIMEOUT_MILLIS = (int) ReplicationPrimary.HEARTBEAT_MILLIS * 5;
+
+    private final String host;
+    private final int port;
+    private final Map<DeviceState, DeviceQueue> workflows = new EnumMap<>(DeviceState.class);
+    private final DeviceIndex index;
+    private final WorkflowEngine replica;
+    private final Thread receiver;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    private volatile long lastDelayMillis;
+    private volatile long maxDelayMillis;
+
+    public ReplicationFollower(String host, int port) {
+        this.host = host;
+        this.port = port;
+        for (DeviceState state : DeviceState.values()) {
+            DeviceQueue queue = new DeviceQueue(state);
+            if (DataManager.isPriorityOrder()) {
+                queue.enablePriorityOrder();
+            }
+            workflows.put(state, queue);
+        }
+        this.index = DeviceIndex.build(workflows);
+        this.replica = new WorkflowEngine(workflows, index, false);
+        this.receiver = new Thread(this::receiveLoop, "replicacion-seguidor");
+        receiver.setDaemon(true);
+    }
+
+    public void start() {
+        receiver.start();
+    }
+
+    public Map<DeviceState, DeviceQueue> getWorkflows() {
+        return workflows;
+    }
+
+    public DeviceIndex getIndex() {
+        return index;
+    }
+
+    public String getPrimaryAddress() {
+        return host + ":" + port;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    /**
+     * @return Entradas durables del principal que aún no se aplicaron
+     */
+    public long getLagEntries() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    /**
+     * @return Milisegundos entre el registro y la aplicación de la última entrada
+     */
+    public long getLastDelayMillis() {
+        return lastDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        receiver.interrupt();
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void receiveLoop() {
+        while (running) {
+            try {
+                receive();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Conexión con el principal " + getPrimaryAddress() + " perdida: "
+                        + (e instanceof EOFException ? "el principal cerró la conexión" : e.getMessage()));
+                }
+            }
+            connected = false;
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receive() throws IOException {
+        try (Socket connection = new Socket()) {
+            socket = connection;
+            connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            output.writeInt(ReplicationPrimary.PROTOCOL_MAGIC);
+            output.writeLong(appliedSequence);
+            output.flush();
+            connected = true;
+            System.out.println("🔁 Conectado al principal " + getPrimaryAddress() + " desde la secuencia "
+                + appliedSequence);
+
+            while (running) {
+                byte type = input.readByte();
+                switch (type) {
+                    case ReplicationPrimary.SNAPSHOT:
+                        applySnapshot(DeviceCodec.decodeSnapshot(readBlock(input)));
+                        break;
+                    case ReplicationPrimary.ENTRY:
+                        long recordedMillis = input.readLong();
+                        applyEntry(readBlock(input), recordedMillis);
+                        break;
+                    case ReplicationPrimary.HEARTBEAT:
+                        primarySequence = Math.max(primarySequence, input.readLong());
+                        input.readLong();
+                        DataManager.flushActivityLog();
+                        break;
+                    default:
+                        throw new IOException("Mensaje de replicación desconocido: " + type);
+                }
+            }
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Longitud de mensaje inválida: " + length);
+        }
+        byte[] block = new byte[length];
+        input.readFully(block);
+        return block;
+    }
+
+    private void applySnapshot(DeviceCodec.Snapshot snapshot) {
+        replica.applySnapshot(snapshot.getWorkflowQueues());
+        int devices = 0;
+        for (DeviceQueue queue : workflows.values()) {
+            for (Device device : queue.getQueueList()) {
+                // Solo se escriben los registros que el historial local aún no tiene
+                DataManager.logDeviceActivity(device);
+                devices++;
+            }
+        }
+        DataManager.flushActivityLog();
+        appliedSequence = snapshot.getSequence();
+        primarySequence = Math.max(primarySequence, appliedSequence);
+        System.out.println("📥 Instantánea aplicada: " + devices + " equipos hasta la secuencia "
+            + appliedSequence);
+    }
+
+    private void applyEntry(byte[] entry, long recordedMillis) throws IOException {
+        boolean valid = TransitionJournal.decodeEntry(entry, (sequence, operation, fromState, toState, payload) -> {
+            if (sequence <= appliedSequence) {
+                return;
+            }
+            if (operation == TransitionJournal.Operation.REMOVAL) {
+                Device removed = DeviceCodec.decodeDevice(payload);
+                // La imagen final trae los últimos registros, como el de la entrega
+                DataManager.logDeviceActivity(removed);
+                replica.applyRemoval(removed.getIdentifier());
+                DataManager.restartDeviceActivity(removed.getIdentifier());
+            } else {
+                DataManager.logDeviceActivity(
+                    replica.applyChange(DeviceCodec.decodeDevice(payload), toState, false));
+            }
+            appliedSequence = sequence;
+        });
+        if (!valid) {
+            throw new IOException("Entrada de replicación corrupta");
+        }
+        long delay = Math.max(0, System.currentTimeMillis() - recordedMillis);
+        lastDelayMillis = delay;
+        maxDelayMillis = Math.max(maxDelayMillis, delay);
+        primarySequence = Math.max(primarySequence, appliedSequence);
+    }
+
+    /**
+     * Inicia un seguidor del principal indicado y su API de solo lectura
+     *
+     * @param primaryAddress Dirección del principal como host:puerto
+     * @param apiPort Puerto de la API del seguidor
+     */
+    public static void serve(String primaryAddress, int apiPort) throws IOException {
+        int separator = primaryAddress.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Indique el principal como host:puerto");
+        }
+        ReplicationFollower follower = new ReplicationFollower(primaryAddress.substring(0, separator),
+            Integer.parseInt(primaryAddress.substring(separator + 1)));
+        ApiServer apiServer = new ApiServer(follower.workflows, follower.index, follower.replica, apiPort, follower);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            apiServer.stop();
+            try {
+                follower.close();
+            } catch (IOException e) {
+                System.err.println("⚠️ Error al cerrar la replicación: " + e.getMessage());
+            }
+            DataManager.flushActivityLog();
+        }, "cierre-seguidor"));
+        follower.start();
+        apiServer.start();
+        System.out.println("🌐 API de solo lectura en http://localhost:" + apiServer.getPort()
+            + "/api/ (seguidor de " + primaryAddress + ")");
+    }
+}
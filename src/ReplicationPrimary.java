@@ -0,0 +1,286 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Nodo principal de la replicación por envío del diario
+ * (-Dwarranty.replicationPort=puerto).
+ *
+ * Cada entrada que DataManager agrega al diario se conserva en un búfer
+ * circular con las más recientes y se envía por TCP a los seguidores
+ * conectados en cuanto es durable en el disco del principal. Al
+ * conectarse, el seguidor indica la última secuencia que aplicó: si las
+ * siguientes siguen en el búfer recibe solo esas; si no (seguidor nuevo o
+ * muy atrasado), recibe primero una instantánea de las colas y después
+ * las entradas posteriores a ella.
+ *
+ * Protocolo:
+ * - Seguidor: [int magic][long última secuencia aplicada]
+ * - Principal, mensajes [byte tipo][contenido]:
+ *   S instantánea: [int longitud][instantánea de DeviceCodec]
+ *   E entrada:     [long hora de registro en ms][int longitud][entrada del diario]
+ *   H latido:      [long última secuencia durable][long hora actual en ms]
+ */
+public class ReplicationPrimary implements Closeable {
+    static final int PROTOCOL_MAGIC = 0x574D5250; // "WMRP"
+    static final byte SNAPSHOT = 'S';
+    static final byte ENTRY = 'E';
+    static final byte HEARTBEAT = 'H';
+    static final long HEARTBEAT_MILLIS = 1000;
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Captura una instantánea de las colas junto con la última secuencia
+     * del diario incluida en ella
+     */
+    @FunctionalInterface
+    interface SnapshotSource {
+        DeviceCodec.Snapshot capture();
+    }
+
+    /**
+     * Entrada del diario retenida para los seguidores
+     */
+    private static final class Shipped {
+        final long sequence;
+        final long recordedMillis;
+        final byte[] entry;
+
+        Shipped(long sequence, long recordedMillis, byte[] entry) {
+            this.sequence = sequence;
+            this.recordedMillis = recordedMillis;
+            this.entry = entry;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final SnapshotSource snapshotSource;
+    private final Shipped[] ring;
+    private final List<FollowerSession> sessions = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    // Protegidos por el monitor de esta instancia
+    private long lastSequence;
+    private long durableSequence;
+
+    /**
+     * @param port Puerto en el que se aceptan seguidores
+     * @param backlogEntries Entradas recientes que se retienen para los seguidores que se reconectan
+     * @param initialSequence Última secuencia ya persistida al iniciar
+     * @param snapshotSource Origen de las instantáneas para los seguidores atrasados
+     */
+    public ReplicationPrimary(int port, int backlogEntries, long initialSequence, SnapshotSource snapshotSource)
+            throws IOException {
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        this.snapshotSource = snapshotSource;
+        this.ring = new Shipped[Math.max(1, backlogEntries)];
+        this.lastSequence = initialSequence;
+        this.durableSequence = initialSequence;
+        Thread acceptor = new Thread(this::acceptLoop, "replicacion-principal");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Retiene una entrada recién codificada; DataManager la entrega en el
+     * orden de su secuencia
+     */
+    synchronized void publish(ByteBuffer entry) {
+        long sequence = TransitionJournal.sequenceOf(entry);
+        byte[] copy = Arrays.copyOfRange(entry.array(), entry.arrayOffset(), entry.arrayOffset() + entry.limit());
+        ring[slotOf(sequence)] = new Shipped(sequence, System.currentTimeMillis(), copy);
+        lastSequence = sequence;
+    }
+
+    /**
+     * Las entradas hasta esta secuencia ya están en disco y pueden enviarse
+     */
+    synchronized void markDurable(long sequence) {
+        if (sequence > durableSequence) {
+            durableSequence = sequence;
+            notifyAll();
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized long getDurableSequence() {
+        return durableSequence;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return Última secuencia enviada a cada seguidor conectado, por dirección
+     */
+    public Map<String, Long> getFollowerSequences() {
+        Map<String, Long> sequences = new LinkedHashMap<>();
+        for (FollowerSession session : sessions) {
+            sequences.put(session.address, session.sentSequence);
+        }
+        return sequences;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        serverSocket.close();
+        for (FollowerSession session : sessions) {
+            session.socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                FollowerSession session = new FollowerSession(socket);
+                Thread sender = new Thread(session, "replicacion-" + session.address);
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Error al aceptar un seguidor: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Espera entradas durables a partir de la secuencia indicada, como
+     * máximo el intervalo de latido
+     *
+     * @return Entradas disponibles (vacío si no hubo nuevas), o null si
+     *         la primera ya salió del búfer
+     */
+    private synchronized List<Shipped> awaitEntries(long next) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+        while (running && durableSequence < next) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return List.of();
+            }
+            wait(remaining);
+        }
+        List<Shipped> batch = new ArrayList<>();
+        for (long sequence = next; sequence <= durableSequence && batch.size() < MAX_BATCH; sequence++) {
+            Shipped shipped = ring[slotOf(sequence)];
+            if (shipped == null || shipped.sequence != sequence) {
+                return null;
+            }
+            batch.add(shipped);
+        }
+        return batch;
+    }
+
+    private synchronized void awaitDurable(long sequence) throws InterruptedException {
+        while (running && durableSequence < sequence) {
+            wait(HEARTBEAT_MILLIS);
+        }
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+
+    /**
+     * Envío del diario a un seguidor conectado
+     */
+    private final class FollowerSession implements Runnable {
+        final Socket socket;
+        final String address;
+        volatile long sentSequence;
+
+        FollowerSession(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public void run() {
+            sessions.add(this);
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (input.readInt() != PROTOCOL_MAGIC) {
+                    System.err.println("⚠️ Conexión de replicación rechazada desde " + address + ": protocolo desconocido");
+                    return;
+                }
+                long applied = input.readLong();
+                System.out.println("🔁 Seguidor conectado desde " + address + " (secuencia " + applied + ")");
+
+                // Un seguidor adelantado tiene una historia distinta (por ejemplo, tras restaurar un respaldo)
+                long next = applied > getLastSequence() ? sendSnapshot(output) : applied + 1;
+                while (running) {
+                    List<Shipped> batch = awaitEntries(next);
+                    if (batch == null) {
+                        next = sendSnapshot(output);
+                        continue;
+                    }
+                    for (Shipped shipped : batch) {
+                        output.writeByte(ENTRY);
+                        output.writeLong(shipped.recordedMillis);
+                        output.writeInt(shipped.entry.length);
+                        output.write(shipped.entry);
+                        next = shipped.sequence + 1;
+                    }
+                    sentSequence = next - 1;
+                    output.writeByte(HEARTBEAT);
+                    output.writeLong(getDurableSequence());
+                    output.writeLong(System.currentTimeMillis());
+                    output.flush();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("🔌 Seguidor " + address + " desconectado: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                sessions.remove(this);
+            }
+        }
+
+        /**
+         * Envía una instantánea durable de las colas
+         *
+         * @return Siguiente secuencia a enviar
+         */
+        private long sendSnapshot(DataOutputStream output) throws IOException, InterruptedException {
+            DeviceCodec.Snapshot snapshot = snapshotSource.capture();
+            awaitDurable(snapshot.getSequence());
+            byte[] data = DeviceCodec.encodeSnapshot(snapshot.getWorkflowQueues(), snapshot.getSequence());
+            output.writeByte(SNAPSHOT);
+            output.writeInt(data.length);
+            output.write(data);
+            output.flush();
+            sentSequence = snapshot.getSequence();
+            System.out.println("📤 Instantánea enviada a " + address + " (secuencia " + snapshot.getSequence()
+                + ", " + data.length / 1024 + " KB)");
+            return snapshot.getSequence() + 1;
+        }
+    }
+}
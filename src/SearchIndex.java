@@ -0,0 +1,901 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Índice invertido en disco para buscar texto en el historial de servicio.
+ *
+ * Cada texto indexado (falla reportada, diagnóstico, trabajo de
+ * reparación, técnico o descripción de una actividad) es un fragmento que
+ * se anexa a fragments.log; su posición se guarda en un
+ * {@link HistoryIndex}. Los términos se pasan a minúsculas y sin tildes
+ * (la ñ se conserva), de modo que "reparacion" encuentra "reparación".
+ *
+ * Las apariciones de cada término (fragmento y posiciones) se acumulan en
+ * memoria y se vuelcan a segmentos inmutables ordenados por término;
+ * cuando hay demasiados segmentos se fusionan en uno. El manifiesto indica
+ * los segmentos vigentes y cuántos fragmentos cubren; al abrir solo se
+ * vuelven a tokenizar los fragmentos posteriores.
+ */
+public class SearchIndex implements Closeable {
+    private static final String MANIFEST_FILE = "search.manifest";
+    private static final String MANIFEST_HEADER = "WMSEARCH 1";
+    private static final String FRAGMENT_FILE = "fragments.log";
+    private static final String FRAGMENT_INDEX_FILE = "fragments.idx";
+    private static final String MARKS_FILE = "marks.checkpoint";
+    private static final String SEGMENT_PREFIX = "terms_";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_MAGIC = 0x574D4654; // "WMFT"
+    private static final int MARKS_MAGIC = 0x574D534D; // "WMSM"
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int SEGMENT_FRAGMENTS = 2048;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    private static final Pattern QUERY_PART = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    /**
+     * Campo de origen de un fragmento
+     */
+    public enum Field {
+        ISSUE("Falla reportada"),
+        ANALYSIS("Diagnóstico"),
+        REPAIR("Reparación"),
+        TECHNICIAN("Técnico"),
+        ACTIVITY("Actividad");
+
+        private final String label;
+
+        Field(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Fragmento encontrado por una búsqueda
+     */
+    public static final class Hit {
+        private final String identifier;
+        private final Field field;
+        private final int recordIndex;
+        private final String date;
+        private final String text;
+
+        Hit(String identifier, Field field, int recordIndex, String date, String text) {
+            this.identifier = identifier;
+            this.field = field;
+            this.recordIndex = recordIndex;
+            this.date = date;
+            this.text = text;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getDate() {
+            return date;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return "🔎 🏷️ " + identifier + " ↳ 📅 " + date + " - [" + field.getLabel() + "] " + text;
+        }
+    }
+
+    /**
+     * Qué parte de cada equipo ya fue indexada
+     */
+    private static final class DeviceMarks {
+        // Cantidad de registros de actividad indexados
+        int activities;
+        // Hash del último texto indexado de cada campo (FALLA..TÉCNICO), 0 = ninguno
+        final int[] fieldHashes = new int[Field.ACTIVITY.ordinal()];
+    }
+
+    /**
+     * Lista de apariciones de un término en construcción:
+     * [delta de fragmento][cantidad de posiciones][deltas de posición...]
+     */
+    private static final class PostingWriter {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long lastFragment = -1;
+        int fragments;
+
+        void add(long fragment, int[] positions) {
+            writeVarLong(bytes, fragment - lastFragment);
+            writeVarLong(bytes, positions.length);
+            int previous = 0;
+            for (int position : positions) {
+                writeVarLong(bytes, position - previous);
+                previous = position;
+            }
+            lastFragment = fragment;
+            fragments++;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PostingVisitor {
+        void visit(long fragment, int[] positions);
+    }
+
+    /**
+     * Segmento inmutable: [int magia][int términos][long inicio de listas],
+     * diccionario ordenado (término, fragmentos, desplazamiento, longitud)
+     * y a continuación las listas de apariciones
+     */
+    private static final class Segment implements Closeable {
+        final String fileName;
+        final FileChannel channel;
+        final String[] terms;
+        final int[] fragmentCounts;
+        final long[] offsets;
+        final int[] lengths;
+
+        private Segment(String fileName, FileChannel channel, int termCount) {
+            this.fileName = fileName;
+            this.channel = channel;
+            this.terms = new String[termCount];
+            this.fragmentCounts = new int[termCount];
+            this.offsets = new long[termCount];
+            this.lengths = new int[termCount];
+        }
+
+        static Segment open(Path directory, String fileName) throws IOException {
+            FileChannel channel = FileChannel.open(directory.resolve(fileName), StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != SEGMENT_MAGIC) {
+                    throw new StreamCorruptedException("Segmento de búsqueda no reconocido: " + fileName);
+                }
+                Segment segment = new Segment(fileName, channel, header.getInt());
+                long postingsStart = header.getLong();
+                ByteBuffer dictionary = ByteBuffer.allocate((int) (postingsStart - SEGMENT_HEADER_SIZE));
+                readFully(channel, dictionary, SEGMENT_HEADER_SIZE);
+                try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(dictionary.array()))) {
+                    for (int i = 0; i < segment.terms.length; i++) {
+                        segment.terms[i] = input.readUTF();
+                        segment.fragmentCounts[i] = input.readInt();
+                        segment.offsets[i] = postingsStart + input.readLong();
+                        segment.lengths[i] = input.readInt();
+                    }
+                }
+                return segment;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int find(String term) {
+            return Arrays.binarySearch(terms, term);
+        }
+
+        ByteBuffer postings(int termIndex) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(lengths[termIndex]);
+            readFully(channel, buffer, offsets[termIndex]);
+            buffer.flip();
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final Path directory;
+    private final HistoryIndex fragmentIndex;
+    private final FileChannel fragmentChannel;
+    private final ScheduledExecutorService flusher;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, DeviceMarks> marks = new HashMap<>();
+
+    // Apariciones de los fragmentos aún no incluidos en un segmento
+    private TreeMap<String, PostingWriter> buffer = new TreeMap<>();
+    private int bufferedFragments;
+    // Fragmentos aún no escritos en fragments.log (desplazamientos relativos)
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private List<HistoryIndex.Entry> pendingEntries = new ArrayList<>();
+
+    private long nextFragment;
+    // Cantidad de fragmentos incluidos en los segmentos del manifiesto
+    private long covered;
+    private long generation;
+    // Las marcas guardadas no corresponden al manifiesto y deben reescribirse
+    private boolean marksStale;
+
+    /**
+     * Abre (o crea) el índice en el directorio indicado
+     *
+     * @param directory Directorio del índice
+     * @param flushIntervalMillis Intervalo máximo entre escrituras en lote
+     */
+    public SearchIndex(Path directory, long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        readManifest();
+        this.fragmentIndex = new HistoryIndex(directory.resolve(FRAGMENT_INDEX_FILE));
+        this.fragmentChannel = FileChannel.open(directory.resolve(FRAGMENT_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Se descartan las entradas sin línea completa y las líneas sin entrada en el índice
+        long fragments = fragmentIndex.size();
+        HistoryIndex.Entry last;
+        while ((last = fragmentIndex.read(fragments - 1)) != null
+                && last.offset + last.length > fragmentChannel.size()) {
+            fragments--;
+        }
+        fragmentIndex.truncate(fragments);
+        long end = last == null ? 0 : last.offset + last.length;
+        fragmentChannel.truncate(end);
+        fragmentChannel.position(end);
+        nextFragment = fragments;
+
+        if (covered > fragments) {
+            // Los segmentos describen fragmentos que ya no existen: se reconstruyen
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            covered = 0;
+            writeManifest();
+            sweepUnreferenced();
+        }
+        marksStale = !readMarks();
+        replayFragments(marksStale ? 0 : covered, fragments);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread worker = new Thread(task, "indice-busqueda");
+            worker.setDaemon(true);
+            return worker;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true si todavía no se indexó ningún fragmento
+     */
+    public synchronized boolean isEmpty() {
+        return nextFragment == 0;
+    }
+
+    /**
+     * Indexa los campos de texto del equipo que cambiaron y los registros
+     * de actividad que aún no fueron indexados
+     *
+     * @return Cantidad de fragmentos nuevos
+     */
+    public int index(Device device) {
+        int added = 0;
+        boolean flushNow;
+        synchronized (this) {
+            String identifier = device.getIdentifier();
+            DeviceMarks previous = marks.get(normalize(identifier));
+            if (previous != null && device.getActivityLog().size() < previous.activities) {
+                // Número de serie registrado de nuevo: sus campos y registros se indexan desde cero
+                marks.remove(normalize(identifier));
+            }
+            String[] values = {device.getIssueDescription(), device.getTechnicalAnalysis(),
+                device.getRepairWork(), device.getTechnicianId()};
+            Field[] fields = Field.values();
+            for (int f = 0; f < values.length; f++) {
+                DeviceMarks current = marks.get(normalize(identifier));
+                String value = values[f];
+                if (value == null || value.isBlank()
+                        || (current != null && current.fieldHashes[f] == value.hashCode())) {
+                    continue;
+                }
+                LocalDate date = fields[f] == Field.ISSUE && device.getEntryDate() != null
+                    ? device.getEntryDate() : LocalDate.now();
+                addFragment(identifier, fields[f], -1, date.toString(), value);
+                added++;
+            }
+
+            List<ActivityRecord> records = device.getActivityLog();
+            DeviceMarks current = marks.get(normalize(identifier));
+            for (int i = current == null ? 0 : current.activities; i < records.size(); i++) {
+                ActivityRecord record = records.get(i);
+                addFragment(identifier, Field.ACTIVITY, i, String.valueOf(record.getTimestamp()),
+                    record.getDescription() == null ? "" : record.getDescription());
+                added++;
+            }
+            flushNow = pending.size() >= FLUSH_THRESHOLD || bufferedFragments >= SEGMENT_FRAGMENTS;
+        }
+        if (flushNow) {
+            flushQuietly();
+        }
+        return added;
+    }
+
+    /**
+     * Indexa un evento del registro de actividad (para construir el índice
+     * a partir del historial existente). Cada evento aparece una sola vez
+     * en el historial; un índice menor que el ya indexado corresponde a un
+     * número de serie registrado de nuevo, no a un evento repetido.
+     */
+    synchronized void indexEvent(ActivityEventLog.Event event) {
+        addFragment(event.getIdentifier(), Field.ACTIVITY, event.getIndex(), event.getDate(),
+            event.getDescription());
+    }
+
+    /**
+     * El equipo salió del flujo: si su número de serie vuelve a ingresar,
+     * sus campos y registros se indexan de nuevo desde el primero
+     */
+    public synchronized void restartDevice(String identifier) {
+        marks.remove(normalize(identifier));
+    }
+
+    /**
+     * Busca fragmentos que contengan todos los términos y frases de la
+     * consulta. Las frases se escriben entre comillas y deben aparecer
+     * consecutivas en el mismo fragmento.
+     *
+     * @param query Consulta, p. ej. {@code bateria "no enciende"}
+     * @param limit Cantidad máxima de resultados
+     * @return Fragmentos coincidentes, del más reciente al más antiguo
+     */
+    public synchronized List<Hit> search(String query, int limit) throws IOException {
+        List<List<String>> phrases = parseQuery(query);
+        if (phrases.isEmpty()) {
+            return Collections.emptyList();
+        }
+        writePendingFragments();
+
+        NavigableSet<Long> matches = null;
+        for (List<String> phrase : phrases) {
+            NavigableSet<Long> phraseMatches = matchPhrase(phrase);
+            if (matches == null) {
+                matches = phraseMatches;
+            } else {
+                matches.retainAll(phraseMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        for (Iterator<Long> fragments = matches.descendingIterator(); fragments.hasNext() && hits.size() < limit;) {
+            Hit hit = readFragment(fragments.next());
+            if (hit != null) {
+                hits.add(hit);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Escribe los fragmentos pendientes y, si hay suficientes acumulados,
+     * vuelca sus apariciones a un segmento nuevo
+     */
+    public synchronized void flush() throws IOException {
+        writePendingFragments();
+        if (bufferedFragments >= SEGMENT_FRAGMENTS) {
+            writeBufferedSegment();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("❌ Error al actualizar el índice de búsqueda: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe lo pendiente (incluido un último segmento) y cierra el índice
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        synchronized (this) {
+            if (!fragmentChannel.isOpen()) {
+                return;
+            }
+            writePendingFragments();
+            writeBufferedSegment();
+            fragmentChannel.force(false);
+            fragmentChannel.close();
+            fragmentIndex.force();
+            fragmentIndex.close();
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void addFragment(String identifier, Field field, int recordIndex, String date, String text) {
+        long fragment = nextFragment++;
+        String line = ActivityEventLog.escape(identifier) + '\t' + field.name() + '\t' + recordIndex
+            + '\t' + date + '\t' + ActivityEventLog.escape(text) + '\n';
+        byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+        pendingEntries.add(new HistoryIndex.Entry(pending.size(), encoded.length, epochDayOf(date),
+            HistoryIndex.NO_ENTRY));
+        pending.writeBytes(encoded);
+        addPostings(fragment, text);
+        updateMarks(identifier, field, recordIndex, text);
+    }
+
+    private void addPostings(long fragment, String text) {
+        List<String> tokens = tokenize(text);
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            positions.computeIfAbsent(tokens.get(i), term -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> term : positions.entrySet()) {
+            int[] termPositions = term.getValue().stream().mapToInt(Integer::intValue).toArray();
+            buffer.computeIfAbsent(term.getKey(), t -> new PostingWriter()).add(fragment, termPositions);
+        }
+        bufferedFragments++;
+    }
+
+    private void updateMarks(String identifier, Field field, int recordIndex, String text) {
+        DeviceMarks deviceMarks = marks.computeIfAbsent(normalize(identifier), key -> new DeviceMarks());
+        if (field == Field.ACTIVITY) {
+            // Los registros de cada equipo llegan en orden; un reingreso vuelve a empezar desde 0
+            deviceMarks.activities = recordIndex + 1;
+        } else {
+            deviceMarks.fieldHashes[field.ordinal()] = text.hashCode();
+        }
+    }
+
+    private void writePendingFragments() throws IOException {
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+        long batchStart = fragmentChannel.position();
+        ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+        while (bytes.hasRemaining()) {
+            fragmentChannel.write(bytes);
+        }
+        List<HistoryIndex.Entry> located = new ArrayList<>(pendingEntries.size());
+        for (HistoryIndex.Entry entry : pendingEntries) {
+            located.add(new HistoryIndex.Entry(batchStart + entry.offset, entry.length, entry.epochDay,
+                entry.previous));
+        }
+        fragmentIndex.append(located);
+        pending = new ByteArrayOutputStream();
+        pendingEntries = new ArrayList<>();
+    }
+
+    /**
+     * Vuelca las apariciones acumuladas a un segmento, fusiona si hay
+     * demasiados y confirma el nuevo estado en el manifiesto
+     */
+    private void writeBufferedSegment() throws IOException {
+        if (bufferedFragments == 0 && !marksStale) {
+            return;
+        }
+        if (bufferedFragments > 0) {
+            segments.add(writeSegment(buffer));
+        }
+        if (segments.size() > MAX_SEGMENTS) {
+            mergeSegments();
+        }
+        covered = nextFragment;
+        writeMarks();
+        writeManifest();
+        sweepUnreferenced();
+        buffer = new TreeMap<>();
+        bufferedFragments = 0;
+        marksStale = false;
+    }
+
+    /**
+     * Fusiona todos los segmentos en uno; como cada segmento cubre
+     * fragmentos posteriores al anterior, las listas se concatenan en orden
+     */
+    private void mergeSegments() throws IOException {
+        TreeMap<String, PostingWriter> merged = new TreeMap<>();
+        for (Segment segment : segments) {
+            for (int i = 0; i < segment.terms.length; i++) {
+                PostingWriter writer = merged.computeIfAbsent(segment.terms[i], t -> new PostingWriter());
+                decode(segment.postings(i), segment.fragmentCounts[i], writer::add);
+            }
+        }
+        Segment combined = writeSegment(merged);
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+        segments.add(combined);
+    }
+
+    private Segment writeSegment(SortedMap<String, PostingWriter> postings) throws IOException {
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        long offset = 0;
+        try (DataOutputStream output = new DataOutputStream(dictionary)) {
+            for (Map.Entry<String, PostingWriter> term : postings.entrySet()) {
+                output.writeUTF(term.getKey());
+                output.writeInt(term.getValue().fragments);
+                output.writeLong(offset);
+                output.writeInt(term.getValue().bytes.size());
+                offset += term.getValue().bytes.size();
+            }
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream(
+            SEGMENT_HEADER_SIZE + dictionary.size() + (int) offset);
+        try (DataOutputStream output = new DataOutputStream(content)) {
+            output.writeInt(SEGMENT_MAGIC);
+            output.writeInt(postings.size());
+            output.writeLong(SEGMENT_HEADER_SIZE + dictionary.size());
+            dictionary.writeTo(output);
+            for (PostingWriter writer : postings.values()) {
+                writer.bytes.writeTo(output);
+            }
+        }
+        String fileName = SEGMENT_PREFIX + (++generation) + SEGMENT_SUFFIX;
+        writeDurably(directory.resolve(fileName), content.toByteArray());
+        return Segment.open(directory, fileName);
+    }
+
+    /**
+     * Fragmentos donde los términos de la frase aparecen consecutivos
+     */
+    private NavigableSet<Long> matchPhrase(List<String> tokens) throws IOException {
+        // Por fragmento, posiciones donde podría comenzar la frase
+        Map<Long, int[]> starts = postings(tokens.get(0));
+        for (int k = 1; k < tokens.size() && !starts.isEmpty(); k++) {
+            Map<Long, int[]> following = postings(tokens.get(k));
+            Map<Long, int[]> narrowed = new HashMap<>();
+            int shift = k;
+            for (Map.Entry<Long, int[]> candidate : starts.entrySet()) {
+                int[] next = following.get(candidate.getKey());
+                if (next == null) {
+                    continue;
+                }
+                int[] kept = Arrays.stream(candidate.getValue())
+                    .filter(position -> Arrays.binarySearch(next, position + shift) >= 0)
+                    .toArray();
+                if (kept.length > 0) {
+                    narrowed.put(candidate.getKey(), kept);
+                }
+            }
+            starts = narrowed;
+        }
+        return new TreeSet<>(starts.keySet());
+    }
+
+    /**
+     * Apariciones de un término en todos los segmentos y en memoria
+     */
+    private Map<Long, int[]> postings(String term) throws IOException {
+        Map<Long, int[]> found = new HashMap<>();
+        for (Segment segment : segments) {
+            int termIndex = segment.find(term);
+            if (termIndex >= 0) {
+                decode(segment.postings(termIndex), segment.fragmentCounts[termIndex], found::put);
+            }
+        }
+        PostingWriter buffered = buffer.get(term);
+        if (buffered != null) {
+            decode(ByteBuffer.wrap(buffered.bytes.toByteArray()), buffered.fragments, found::put);
+        }
+        return found;
+    }
+
+    private static void decode(ByteBuffer data, int fragments, PostingVisitor visitor) {
+        long fragment = -1;
+        for (int i = 0; i < fragments; i++) {
+            fragment += readVarLong(data);
+            int[] positions = new int[(int) readVarLong(data)];
+            int position = 0;
+            for (int j = 0; j < positions.length; j++) {
+                position += (int) readVarLong(data);
+                positions[j] = position;
+            }
+            visitor.visit(fragment, positions);
+        }
+    }
+
+    private Hit readFragment(long fragment) throws IOException {
+        HistoryIndex.Entry entry = fragmentIndex.read(fragment);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer line = ByteBuffer.allocate(entry.length);
+        readFully(fragmentChannel, line, entry.offset);
+        return parseFragment(new String(line.array(), 0, entry.length - 1, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Recorre los fragmentos desde {@code from}: actualiza las marcas de
+     * cada equipo y vuelve a tokenizar los que no están en ningún segmento
+     */
+    private void replayFragments(long from, long end) throws IOException {
+        HistoryIndex.Entry first = fragmentIndex.read(from);
+        if (first == null) {
+            return;
+        }
+        try (InputStream stream = Files.newInputStream(directory.resolve(FRAGMENT_FILE))) {
+            stream.skipNBytes(first.offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            for (long fragment = from; fragment < end; fragment++) {
+                String line = reader.readLine();
+                Hit hit = line == null ? null : parseFragment(line);
+                if (hit == null) {
+                    throw new StreamCorruptedException("Fragmento de búsqueda ilegible: " + fragment);
+                }
+                updateMarks(hit.identifier, hit.field, hit.recordIndex, hit.text);
+                if (fragment >= covered) {
+                    addPostings(fragment, hit.text);
+                }
+            }
+        }
+    }
+
+    private static Hit parseFragment(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new Hit(ActivityEventLog.unescape(fields[0]), Field.valueOf(fields[1]),
+                Integer.parseInt(fields[2]), fields[3], ActivityEventLog.unescape(fields[4]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Separa la consulta en frases (entre comillas) y términos sueltos;
+     * cada término suelto es una frase de una palabra
+     */
+    private static List<List<String>> parseQuery(String query) {
+        List<List<String>> phrases = new ArrayList<>();
+        Matcher matcher = QUERY_PART.matcher(query);
+        while (matcher.find()) {
+            List<String> tokens = tokenize(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+            if (!tokens.isEmpty()) {
+                phrases.add(tokens);
+            }
+        }
+        return phrases;
+    }
+
+    /**
+     * Divide el texto en términos normalizados: minúsculas, sin tildes ni
+     * diéresis y conservando la ñ
+     */
+    static List<String> tokenize(String text) {
+        String composed = Normalizer.normalize(text, Normalizer.Form.NFC);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= composed.length(); i++) {
+            char c = i < composed.length() ? Character.toLowerCase(composed.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TERM_LENGTH) {
+                    token.append(fold(c));
+                }
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static char fold(char c) {
+        switch (c) {
+            case 'á': case 'à': case 'ä': case 'â':
+                return 'a';
+            case 'é': case 'è': case 'ë': case 'ê':
+                return 'e';
+            case 'í': case 'ì': case 'ï': case 'î':
+                return 'i';
+            case 'ó': case 'ò': case 'ö': case 'ô':
+                return 'o';
+            case 'ú': case 'ù': case 'ü': case 'û':
+                return 'u';
+            default:
+                return c;
+        }
+    }
+
+    private void readManifest() throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestPath)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !MANIFEST_HEADER.equals(lines.get(0))) {
+            throw new StreamCorruptedException("Manifiesto de búsqueda no reconocido");
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.split(" ");
+            switch (parts[0]) {
+                case "covered":
+                    covered = Long.parseLong(parts[1]);
+                    break;
+                case "generation":
+                    generation = Long.parseLong(parts[1]);
+                    break;
+                case "segment":
+                    segments.add(Segment.open(directory, parts[1]));
+                    break;
+                default:
+                    throw new StreamCorruptedException("Línea de manifiesto inválida: " + line);
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+        manifest.append("covered ").append(covered).append('\n');
+        manifest.append("generation ").append(generation).append('\n');
+        for (Segment segment : segments) {
+            manifest.append("segment ").append(segment.fileName).append('\n');
+        }
+        writeDurably(directory.resolve(MANIFEST_FILE), manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeMarks() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MARKS_MAGIC);
+            output.writeLong(covered);
+            output.writeInt(marks.size());
+            for (Map.Entry<String, DeviceMarks> deviceMarks : marks.entrySet()) {
+                output.writeUTF(deviceMarks.getKey());
+                output.writeInt(deviceMarks.getValue().activities);
+                for (int hash : deviceMarks.getValue().fieldHashes) {
+                    output.writeInt(hash);
+                }
+            }
+        }
+        writeDurably(directory.resolve(MARKS_FILE), bytes.toByteArray());
+    }
+
+    /**
+     * @return true si las marcas guardadas corresponden a los segmentos del manifiesto
+     */
+    private boolean readMarks() throws IOException {
+        Path marksPath = directory.resolve(MARKS_FILE);
+        if (!Files.exists(marksPath)) {
+            return covered == 0;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(marksPath)))) {
+            if (input.readInt() != MARKS_MAGIC || input.readLong() != covered) {
+                return false;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                DeviceMarks deviceMarks = new DeviceMarks();
+                String key = input.readUTF();
+                deviceMarks.activities = input.readInt();
+                for (int f = 0; f < deviceMarks.fieldHashes.length; f++) {
+                    deviceMarks.fieldHashes[f] = input.readInt();
+                }
+                marks.put(key, deviceMarks);
+            }
+            return true;
+        } catch (EOFException e) {
+            marks.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Elimina los segmentos (y temporales) que el manifiesto ya no referencia
+     */
+    private void sweepUnreferenced() {
+        Set<String> referenced = new HashSet<>();
+        for (Segment segment : segments) {
+            referenced.add(segment.fileName);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> {
+                    String name = path.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && !referenced.contains(name)
+                        && (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + ".tmp"));
+                }).collect(Collectors.toList())) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Se reintentará en el próximo volcado
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudieron limpiar segmentos de búsqueda antiguos: " + e.getMessage());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Índice de búsqueda truncado");
+            }
+        }
+    }
+
+    /**
+     * Escribe en un archivo temporal, fuerza a disco y lo reemplaza de forma atómica
+     */
+    private static void writeDurably(Path target, byte[] content) throws IOException {
+        Path temporaryPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temporaryPath.toFile())) {
+            fileStream.write(content);
+            fileStream.getFD().sync();
+        }
+        Files.move(temporaryPath, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = input.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int epochDayOf(String date) {
+        try {
+            return (int) LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return HistoryIndex.NO_DATE;
+        }
+    }
+
+    private static String normalize(String identifier) {
+        return identifier.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Instantánea del sistema dividida en un segmento por estado del flujo.
+ *
+ * Cada cola se codifica en su propio archivo con el formato de
+ * {@link DeviceCodec}; un manifiesto de texto indica qué archivo
+ * corresponde a cada estado y la secuencia del diario incluida.
+ *
+ * - Al guardar solo se reescriben los segmentos modificados, en paralelo,
+ *   con un nombre de generación nuevo; los demás se siguen referenciando.
+ * - El manifiesto se reemplaza de forma atómica al final, de modo que una
+ *   interrupción deja vigente la instantánea anterior completa.
+ * - Al cargar, los segmentos se decodifican en paralelo (fork-join).
+ * - Los canales de la carga diferida se cierran en cuanto ningún equipo
+ *   sin cargar los referencia, o al cerrar el almacén. Un segmento
+ *   reemplazado se elimina recién en el primer guardado posterior al
+ *   cierre de su canal.
+ */
+public class SegmentedSnapshotStore implements Closeable {
+    private static final String MANIFEST_FILE = "segments.manifest";
+    private static final String MANIFEST_HEADER = "WMSEGMENTS 1";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final Map<DeviceState, String> segmentFiles = new EnumMap<>(DeviceState.class);
+    // Canales de la carga diferida y el segmento que leen
+    private final Map<FileChannel, Path> openChannels = new HashMap<>();
+    private long generation;
+    private long sequence;
+
+    public SegmentedSnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        readManifest();
+    }
+
+    /**
+     * @return true si existe una instantánea segmentada confirmada
+     */
+    public synchronized boolean exists() {
+        return !segmentFiles.isEmpty();
+    }
+
+    /**
+     * Carga todos los segmentos en paralelo. En modo diferido los canales
+     * de cada segmento quedan abiertos para cargar el detalle bajo demanda.
+     *
+     * @param lazy true para leer solo las cabeceras de cada equipo
+     * @return Instantánea con todas las colas
+     */
+    public synchronized DeviceCodec.Snapshot load(boolean lazy) throws IOException {
+        Map<DeviceState, DeviceQueue> workflowQueues = new ConcurrentHashMap<>();
+        try {
+            segmentFiles.entrySet().parallelStream().forEach(segment -> {
+                try {
+                    DeviceState state = segment.getKey();
+                    workflowQueues.put(state, readSegment(directory.resolve(segment.getValue()), lazy)
+                        .getWorkflowQueues().get(state));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<DeviceState, DeviceQueue> loaded = new HashMap<>();
+        for (DeviceState state : DeviceState.values()) {
+            loaded.put(state, workflowQueues.getOrDefault(state, new DeviceQueue(state)));
+        }
+        sweepUnreferenced();
+        return new DeviceCodec.Snapshot(loaded, sequence);
+    }
+
+    /**
+     * Reescribe los segmentos indicados (en paralelo) y confirma la nueva
+     * instantánea. Los estados sin segmento previo se escriben siempre.
+     *
+     * @param workflowQueues Instantánea inmutable de las colas
+     * @param dirtyStates Estados modificados desde el último guardado
+     * @param sequence Última secuencia del diario incluida en las colas
+     * @return Cantidad de segmentos reescritos
+     */
+    public synchronized int save(Map<DeviceState, DeviceQueue> workflowQueues,
+            Collection<DeviceState> dirtyStates, long sequence) throws IOException {
+        long nextGeneration = generation + 1;
+        List<DeviceState> toWrite = new ArrayList<>();
+        for (DeviceState state : DeviceState.values()) {
+            if (dirtyStates.contains(state) || !segmentFiles.containsKey(state)) {
+                toWrite.add(state);
+            }
+        }
+
+        Map<DeviceState, String> written = new ConcurrentHashMap<>();
+        try {
+            toWrite.parallelStream().forEach(state -> {
+                String fileName = state.name() + "_" + nextGeneration + SEGMENT_SUFFIX;
+                try {
+                    Map<DeviceState, DeviceQueue> single = new EnumMap<>(DeviceState.class);
+                    single.put(state, workflowQueues.get(state));
+                    writeDurably(directory.resolve(fileName), DeviceCodec.encodeSnapshot(single, sequence));
+                    written.put(state, fileName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<DeviceState, String> updated = new EnumMap<>(segmentFiles);
+        updated.putAll(written);
+        writeManifest(updated, nextGeneration, sequence);
+
+        segmentFiles.clear();
+        segmentFiles.putAll(updated);
+        generation = nextGeneration;
+        releaseUnusedChannels(workflowQueues);
+        sweepUnreferenced();
+        return toWrite.size();
+    }
+
+    /**
+     * Cierra los canales de carga diferida. Los equipos que todavía no
+     * cargaron su detalle desde este almacén dejan de poder hacerlo.
+     */
+    @Override
+    public void close() throws IOException {
+        List<FileChannel> channels;
+        synchronized (openChannels) {
+            channels = new ArrayList<>(openChannels.keySet());
+            openChannels.clear();
+        }
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Cierra los canales que ya no referencia ningún equipo sin cargar de
+     * la instantánea recién guardada; así los segmentos reemplazados dejan
+     * de estar abiertos y se pueden eliminar. La instantánea incluye los
+     * equipos tomados, de modo que cubre todos los equipos del flujo.
+     */
+    private void releaseUnusedChannels(Map<DeviceState, DeviceQueue> workflowQueues) {
+        synchronized (openChannels) {
+            if (openChannels.isEmpty()) {
+                return;
+            }
+        }
+        Set<FileChannel> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DeviceQueue queue : workflowQueues.values()) {
+            for (Device device : queue.getQueueList()) {
+                DeviceCodec.DetailsReference pending = device.getPendingDetails();
+                if (pending != null) {
+                    referenced.add(pending.getSource());
+                }
+            }
+        }
+        synchronized (openChannels) {
+            for (Iterator<FileChannel> channels = openChannels.keySet().iterator(); channels.hasNext();) {
+                FileChannel channel = channels.next();
+                if (!referenced.contains(channel)) {
+                    channels.remove();
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        // El canal era de solo lectura: no hay datos que perder
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Archivos que componen la instantánea vigente (para respaldos); vacío
+     * si aún no hay una instantánea confirmada
+     */
+    public synchronized List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        if (segmentFiles.isEmpty()) {
+            return files;
+        }
+        files.add(directory.resolve(MANIFEST_FILE));
+        for (String fileName : segmentFiles.values()) {
+            files.add(directory.resolve(fileName));
+        }
+        return files;
+    }
+
+    /**
+     * Abre los archivos de la instantánea vigente para respaldarlos sin
+     * bloquear los guardados: uno posterior puede reemplazarlos, pero los
+     * canales abiertos conservan su contenido
+     *
+     * @return Archivos abiertos (el llamador los cierra); vacío si aún no hay instantánea
+     */
+    public synchronized List<BackupManager.PinnedFile> pinFiles() throws IOException {
+        List<BackupManager.PinnedFile> pinned = new ArrayList<>();
+        try {
+            for (Path file : files()) {
+                pinned.add(BackupManager.PinnedFile.open(file));
+            }
+        } catch (IOException e) {
+            BackupManager.closeAll(pinned);
+            throw e;
+        }
+        return pinned;
+    }
+
+    private DeviceCodec.Snapshot readSegment(Path segmentPath, boolean lazy) throws IOException {
+        if (lazy) {
+            FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ);
+            DeviceCodec.Snapshot snapshot;
+            try {
+                snapshot = DeviceCodec.decodeSnapshotHeaders(channel);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            synchronized (openChannels) {
+                openChannels.put(channel, segmentPath);
+            }
+            return snapshot;
+        }
+        return DeviceCodec.decodeSnapshot(Files.readAllBytes(segmentPath));
+    }
+
+    private void readManifest() throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestPath)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !MANIFEST_HEADER.equals(lines.get(0))) {
+            throw new StreamCorruptedException("Manifiesto de segmentos no reconocido");
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.split(" ");
+            switch (parts[0]) {
+                case "generation":
+                    generation = Long.parseLong(parts[1]);
+                    break;
+                case "sequence":
+                    sequence = Long.parseLong(parts[1]);
+                    break;
+                case "segment":
+                    segmentFiles.put(DeviceState.valueOf(parts[1]), parts[2]);
+                    break;
+                default:
+                    throw new StreamCorruptedException("Línea de manifiesto inválida: " + line);
+            }
+        }
+    }
+
+    private void writeManifest(Map<DeviceState, String> segments, long newGeneration,
+            long newSequence) throws IOException {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER).append('\n');
+        manifest.append("generation ").append(newGeneration).append('\n');
+        manifest.append("sequence ").append(newSequence).append('\n');
+        for (Map.Entry<DeviceState, String> segment : segments.entrySet()) {
+            manifest.append("segment ").append(segment.getKey().name())
+                .append(' ').append(segment.getValue()).append('\n');
+        }
+        writeDurably(directory.resolve(MANIFEST_FILE), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        sequence = newSequence;
+    }
+
+    /**
+     * Elimina los segmentos (y temporales) que el manifiesto ya no
+     * referencia. Los que siguen abiertos para carga diferida se conservan
+     * (algunos sistemas no permiten borrar un archivo abierto) y se
+     * eliminan en un guardado posterior, cuando su canal ya se cerró.
+     */
+    private void sweepUnreferenced() {
+        Set<String> referenced = new HashSet<>(segmentFiles.values());
+        synchronized (openChannels) {
+            for (Path open : openChannels.values()) {
+                referenced.add(open.getFileName().toString());
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> isSegmentFile(path)
+                    && !referenced.contains(path.getFileName().toString())).collect(Collectors.toList())) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // Se reintentará en el próximo guardado
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudieron limpiar segmentos antiguos: " + e.getMessage());
+        }
+    }
+
+    private static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + ".tmp");
+    }
+
+    /**
+     * Escribe en un archivo temporal, fuerza a disco y lo reemplaza de forma atómica
+     */
+    private static void writeDurably(Path target, byte[] content) throws IOException {
+        Path temporaryPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temporaryPath.toFile())) {
+            fileStream.write(content);
+            fileStream.getFD().sync();
+        }
+        Files.move(temporaryPath, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+}
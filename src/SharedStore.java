@@ -0,0 +1,605 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Almacenamiento compartido por varios procesos locales sobre los mismos
+ * archivos (-Dwarranty.storage=shared).
+ *
+ * Todos los procesos usan la misma instantánea segmentada y el mismo
+ * diario de transiciones, que además sirve como fuente de cambios. La
+ * coordinación se hace con bloqueos por rango de bytes sobre un archivo
+ * de bloqueo, que el sistema operativo libera si un proceso termina:
+ *
+ * - Byte 0: el diario. Se toma exclusivo para escribir: el proceso primero
+ *   aplica las entradas de los demás, luego modifica sus colas, agrega sus
+ *   entradas con la numeración común y las fuerza a disco al terminar.
+ *   Se toma compartido para leer cambios sin escribir.
+ * - Bytes 8 a 15: generación del diario, que avanza con cada compactación.
+ *   El diario compactado se conserva una generación con el nombre
+ *   "diario.N" para que los procesos atrasados terminen de leerlo.
+ * - Desde {@link #RECORD_LOCK_BASE}, una posición por cada valor de hash
+ *   del número de serie con varios titulares. El proceso cuyo técnico
+ *   atiende un equipo bloquea el primer byte de un titular libre y escribe
+ *   allí el número de serie, así dos estaciones no toman el mismo equipo
+ *   y los equipos que comparten hash no se bloquean entre sí. El byte 1
+ *   del primer titular serializa la búsqueda de titulares de la posición.
+ *
+ * Un hilo revisa periódicamente el tamaño del diario y la generación; si
+ * cambiaron, aplica solo las entradas nuevas sobre los equipos afectados,
+ * actualizándolos en su lugar. Cada entrada lleva la versión del equipo,
+ * lo que permite descartar cambios ya aplicados y rechazar modificaciones
+ * basadas en datos desactualizados.
+ */
+public class SharedStore implements Closeable {
+    /**
+     * Escribe la instantánea de las colas que incluye hasta la secuencia indicada
+     */
+    @FunctionalInterface
+    interface SnapshotWriter {
+        void write(long sequence) throws IOException;
+    }
+
+    /**
+     * Titular de un equipo tomado por este proceso
+     */
+    private static final class RecordLock {
+        final long holder;
+        final FileLock lock;
+
+        RecordLock(long holder, FileLock lock) {
+            this.holder = holder;
+            this.lock = lock;
+        }
+    }
+
+    private static final long JOURNAL_LOCK_POSITION = 0;
+    private static final long GENERATION_POSITION = 8;
+    private static final long RECORD_LOCK_BASE = 1L << 20;
+    private static final int RECORD_LOCK_SLOTS = 1 << 14;
+    private static final int HOLDERS_PER_SLOT = 4;
+    // Titular: [byte de bloqueo][byte reservado][short longitud][número de serie UTF-8]
+    private static final int HOLDER_SIZE = 128;
+    private static final int HOLDER_IDENTIFIER = 4;
+
+    private final Path journalPath;
+    private final Path segmentDirectory;
+    private final FileChannel lockChannel;
+    private final long pollIntervalMillis;
+    // Serializa dentro del proceso las escrituras y la aplicación de cambios ajenos
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Equipos tomados por este proceso, por identificador normalizado
+    private final Map<String, RecordLock> recordLocks = new HashMap<>();
+    private Map<DeviceState, DeviceQueue> workflows;
+    // Aplica sobre las colas locales los cambios de los demás procesos
+    private WorkflowEngine replica;
+    private TransitionJournal journal;
+    private Thread poller;
+    private volatile boolean running;
+
+    // Estado protegido por writeLock
+    private long generation;
+    private long feedPosition;
+    private FileChannel writeChannel;
+    private CompletableFuture<Void> sectionCommit;
+    private int entriesSinceCompaction;
+
+    /**
+     * @param lockPath Archivo de bloqueo compartido
+     * @param journalPath Diario de transiciones común
+     * @param segmentDirectory Directorio de la instantánea segmentada
+     * @param pollIntervalMillis Intervalo de revisión de cambios de otros procesos
+     */
+    public SharedStore(Path lockPath, Path journalPath, Path segmentDirectory, long pollIntervalMillis)
+            throws IOException {
+        this.journalPath = journalPath;
+        this.segmentDirectory = segmentDirectory;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Carga las colas con el diario bloqueado, de modo que ningún proceso
+     * escriba ni compacte a mitad de la carga
+     *
+     * @param loader Carga la instantánea y reaplica el diario
+     */
+    public Map<DeviceState, DeviceQueue> load(Supplier<Map<DeviceState, DeviceQueue>> loader) {
+        writeLock.lock();
+        try {
+            FileLock lock = lockChannel.lock(JOURNAL_LOCK_POSITION, 1, false);
+            try {
+                Map<DeviceState, DeviceQueue> loaded = loader.get();
+                generation = readGeneration();
+                feedPosition = 0;
+                if (Files.exists(journalPath)) {
+                    try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE)) {
+                        // El cargador ya aplicó las entradas; aquí solo se ubica el final válido
+                        feedPosition = TransitionJournal.readEntries(channel, 0,
+                            (sequence, operation, fromState, toState, payload) -> { });
+                        if (channel.size() > feedPosition) {
+                            channel.truncate(feedPosition);
+                        }
+                    }
+                }
+                return loaded;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo bloquear el almacenamiento compartido", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Asocia las colas cargadas y comienza a seguir los cambios de los
+     * demás procesos
+     */
+    public void start(Map<DeviceState, DeviceQueue> workflowQueues, DeviceIndex deviceIndex,
+            TransitionJournal transitionJournal) {
+        this.workflows = workflowQueues;
+        this.replica = new WorkflowEngine(workflowQueues, deviceIndex, false);
+        this.journal = transitionJournal;
+        this.running = true;
+        this.poller = new Thread(this::pollLoop, "cambios-compartidos");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Ejecuta una modificación con el diario bloqueado para los demás
+     * procesos, después de aplicar sus cambios pendientes. Las entradas
+     * agregadas durante la acción se fuerzan a disco juntas al terminar.
+     * No debe llamarse con colas bloqueadas.
+     */
+    public <T> T write(Supplier<T> action) {
+        if (writeLock.isHeldByCurrentThread()) {
+            return action.get();
+        }
+        writeLock.lock();
+        try {
+            FileLock lock = lockChannel.lock(JOURNAL_LOCK_POSITION, 1, false);
+            try {
+                catchUp(true);
+                sectionCommit = new CompletableFuture<>();
+                try {
+                    return action.get();
+                } finally {
+                    commitSection();
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error en el almacenamiento compartido: " + e.getMessage(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Agrega una entrada al diario común; solo dentro de {@link #write}
+     *
+     * @return Futuro que se completa con la secuencia al forzar la sección a disco
+     */
+    CompletableFuture<Long> append(ByteBuffer entry) {
+        if (!writeLock.isHeldByCurrentThread() || sectionCommit == null) {
+            throw new IllegalStateException("Escritura en el diario compartido fuera de una sección bloqueada");
+        }
+        long sequence = TransitionJournal.sequenceOf(entry);
+        try {
+            FileChannel channel = openWriteChannel();
+            long position = feedPosition;
+            while (entry.hasRemaining()) {
+                position += channel.write(entry, position);
+            }
+            feedPosition = position;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        entriesSinceCompaction++;
+        return sectionCommit.thenApply(ignored -> sequence);
+    }
+
+    /**
+     * @return true si este proceso agregó suficientes entradas para compactar
+     */
+    boolean needsCompaction(int threshold) {
+        writeLock.lock();
+        try {
+            return entriesSinceCompaction >= threshold;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Escribe una instantánea con todo lo aplicado hasta ahora y pasa a
+     * una nueva generación del diario. El diario anterior se conserva una
+     * generación para los procesos que aún no terminan de leerlo.
+     */
+    void compact(SnapshotWriter snapshotWriter) throws IOException {
+        try {
+            write(() -> {
+                try {
+                    commitSection();
+                    snapshotWriter.write(journal.getLastSequence());
+                    closeWriteChannel();
+                    if (Files.exists(journalPath)) {
+                        Files.move(journalPath, rotatedPath(generation), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    Files.deleteIfExists(rotatedPath(generation - 1));
+                    generation++;
+                    writeGeneration(generation);
+                    feedPosition = 0;
+                    entriesSinceCompaction = 0;
+                    // Si la compactación ocurre dentro de otra sección, esta puede seguir agregando entradas
+                    sectionCommit = new CompletableFuture<>();
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Aplica de inmediato los cambios pendientes de otros procesos
+     */
+    public void refresh() {
+        refresh(true);
+    }
+
+    /**
+     * Toma el bloqueo de un equipo para atenderlo en este proceso. Con la
+     * posición de su hash bloqueada, revisa los titulares vivos: si alguno
+     * tiene el mismo número de serie el equipo está tomado; si no, ocupa
+     * un titular libre. Solo si los cuatro titulares atienden otros equipos
+     * con el mismo hash se informa el equipo como ocupado sin estarlo; la
+     * búsqueda de la cola continúa con el siguiente.
+     *
+     * @return false si otro proceso (u otro técnico de este) lo está atendiendo
+     */
+    boolean tryLockRecord(Device device) {
+        String identifier = DeviceIndex.normalize(device.getIdentifier());
+        byte[] serial = identifier.getBytes(StandardCharsets.UTF_8);
+        long slotBase = RECORD_LOCK_BASE + (long) slotOf(identifier) * HOLDERS_PER_SLOT * HOLDER_SIZE;
+        synchronized (recordLocks) {
+            if (recordLocks.containsKey(identifier)) {
+                return false;
+            }
+            FileLock taken = null;
+            try (FileLock slotLock = lockChannel.lock(slotBase + 1, 1, false)) {
+                for (int i = 0; i < HOLDERS_PER_SLOT; i++) {
+                    long holder = slotBase + (long) i * HOLDER_SIZE;
+                    if (isHeldLocally(holder)) {
+                        continue;
+                    }
+                    FileLock probe = lockChannel.tryLock(holder, 1, false);
+                    if (probe == null) {
+                        if (holderMatches(holder, serial)) {
+                            release(taken);
+                            return false;
+                        }
+                    } else if (taken == null) {
+                        taken = probe;
+                    } else {
+                        probe.release();
+                    }
+                }
+                if (taken == null) {
+                    return false;
+                }
+                writeHolder(taken.position(), serial);
+                recordLocks.put(identifier, new RecordLock(taken.position(), taken));
+                return true;
+            } catch (IOException e) {
+                release(taken);
+                throw new UncheckedIOException("No se pudo bloquear el equipo " + device.getIdentifier(), e);
+            }
+        }
+    }
+
+    /**
+     * @return true si este proceso tiene tomado el equipo
+     */
+    boolean holdsRecord(Device device) {
+        String identifier = DeviceIndex.normalize(device.getIdentifier());
+        synchronized (recordLocks) {
+            return recordLocks.containsKey(identifier);
+        }
+    }
+
+    void unlockRecord(Device device) {
+        String identifier = DeviceIndex.normalize(device.getIdentifier());
+        synchronized (recordLocks) {
+            RecordLock held = recordLocks.remove(identifier);
+            if (held == null) {
+                return;
+            }
+            // El número de serie queda escrito, pero un titular sin bloqueo no cuenta
+            release(held.lock);
+        }
+    }
+
+    private boolean isHeldLocally(long holder) {
+        for (RecordLock held : recordLocks.values()) {
+            if (held.holder == holder) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compara el número de serie escrito en un titular; los que exceden el
+     * espacio del titular se comparan por longitud y prefijo
+     */
+    private boolean holderMatches(long holder, byte[] serial) throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate(HOLDER_SIZE - 2);
+        while (stored.hasRemaining()) {
+            if (lockChannel.read(stored, holder + 2 + stored.position()) < 0) {
+                break;
+            }
+        }
+        if (stored.position() < 2 || (stored.getShort(0) & 0xFFFF) != serial.length) {
+            return false;
+        }
+        int compared = Math.min(serial.length, HOLDER_SIZE - HOLDER_IDENTIFIER);
+        for (int i = 0; i < compared; i++) {
+            if (stored.get(2 + i) != serial[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeHolder(long holder, byte[] serial) throws IOException {
+        int stored = Math.min(serial.length, HOLDER_SIZE - HOLDER_IDENTIFIER);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + stored);
+        buffer.putShort((short) serial.length).put(serial, 0, stored).flip();
+        while (buffer.hasRemaining()) {
+            lockChannel.write(buffer, holder + 2 + buffer.position());
+        }
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo liberar el bloqueo del equipo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ejecuta una modificación sobre un equipo que no está tomado por este
+     * proceso, bloqueándolo mientras dura
+     *
+     * @throws ConcurrentModificationException si otra estación lo está atendiendo
+     */
+    <T> T withRecord(Device device, Supplier<T> action) {
+        if (holdsRecord(device)) {
+            return action.get();
+        }
+        if (!tryLockRecord(device)) {
+            throw new ConcurrentModificationException("El equipo " + device.getIdentifier()
+                + " está siendo atendido en otra estación");
+        }
+        try {
+            return action.get();
+        } finally {
+            unlockRecord(device);
+        }
+    }
+
+    private void refresh(boolean wait) {
+        if (workflows == null) {
+            return;
+        }
+        if (wait) {
+            writeLock.lock();
+        } else if (!writeLock.tryLock()) {
+            // Una escritura local en curso ya está aplicando los cambios
+            return;
+        }
+        try {
+            if (!hasChanges()) {
+                return;
+            }
+            FileLock lock = lockChannel.lock(JOURNAL_LOCK_POSITION, 1, true);
+            try {
+                catchUp(false);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Error al leer cambios de otras estaciones: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            refresh(false);
+        }
+    }
+
+    /**
+     * Revisión sin bloqueos: tamaño del diario y generación
+     */
+    private boolean hasChanges() throws IOException {
+        long size = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+        return size != feedPosition || readGeneration() != generation;
+    }
+
+    /**
+     * Aplica las entradas escritas por otros procesos desde la última
+     * lectura. Con el bloqueo exclusivo, además descarta el final de una
+     * entrada que un proceso interrumpido dejó a medio escribir.
+     */
+    private void catchUp(boolean exclusive) throws IOException {
+        if (workflows == null) {
+            return;
+        }
+        long currentGeneration = readGeneration();
+        if (currentGeneration != generation) {
+            Path previous = rotatedPath(generation);
+            if (currentGeneration == generation + 1 && Files.exists(previous)) {
+                // Otro proceso compactó: se termina de leer el diario anterior
+                readFeed(previous, feedPosition);
+            } else {
+                resynchronize();
+            }
+            generation = currentGeneration;
+            feedPosition = 0;
+        }
+        feedPosition = readFeed(journalPath, feedPosition);
+
+        if (exclusive && Files.exists(journalPath) && Files.size(journalPath) > feedPosition) {
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                channel.truncate(feedPosition);
+            }
+        }
+    }
+
+    private long readFeed(Path path, long position) throws IOException {
+        if (!Files.exists(path)) {
+            return position;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return TransitionJournal.readEntries(channel, position, this::apply);
+        }
+    }
+
+    private void apply(long sequence, TransitionJournal.Operation operation, DeviceState fromState,
+            DeviceState toState, byte[] payload) throws IOException {
+        if (sequence <= journal.getLastSequence()) {
+            return;
+        }
+        journal.observeSequence(sequence);
+        if (operation == TransitionJournal.Operation.REMOVAL) {
+            replica.applyRemoval(DeviceCodec.decodeDevice(payload).getIdentifier());
+            return;
+        }
+        replica.applyChange(DeviceCodec.decodeDevice(payload), toState, false);
+    }
+
+    /**
+     * Este proceso quedó más de una generación atrás: se recarga la
+     * instantánea vigente y se reconcilian los equipos con ella
+     */
+    private void resynchronize() throws IOException {
+        System.out.println("🔄 Sincronizando con la instantánea compartida...");
+        DeviceCodec.Snapshot snapshot;
+        try (SegmentedSnapshotStore store = new SegmentedSnapshotStore(segmentDirectory)) {
+            snapshot = store.load(false);
+        }
+        replica.applySnapshot(snapshot.getWorkflowQueues());
+        journal.observeSequence(snapshot.getSequence());
+    }
+
+    /**
+     * Fuerza a disco las entradas de la sección y completa sus futuros
+     */
+    private void commitSection() {
+        CompletableFuture<Void> commit = sectionCommit;
+        if (commit == null || commit.isDone()) {
+            return;
+        }
+        try {
+            if (writeChannel != null) {
+                writeChannel.force(false);
+            }
+            commit.complete(null);
+        } catch (IOException e) {
+            commit.completeExceptionally(e);
+        } finally {
+            sectionCommit = null;
+        }
+    }
+
+    private FileChannel openWriteChannel() throws IOException {
+        if (writeChannel == null || !writeChannel.isOpen()) {
+            writeChannel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        return writeChannel;
+    }
+
+    private void closeWriteChannel() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.close();
+            writeChannel = null;
+        }
+    }
+
+    private Path rotatedPath(long journalGeneration) {
+        return journalPath.resolveSibling(journalPath.getFileName() + "." + journalGeneration);
+    }
+
+    private long readGeneration() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (lockChannel.read(buffer, GENERATION_POSITION + buffer.position()) < 0) {
+                return 0;
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    private void writeGeneration(long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).putLong(0, value);
+        while (buffer.hasRemaining()) {
+            lockChannel.write(buffer, GENERATION_POSITION + buffer.position());
+        }
+        lockChannel.force(false);
+    }
+
+    private static int slotOf(String normalizedIdentifier) {
+        return normalizedIdentifier.hashCode() & (RECORD_LOCK_SLOTS - 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+        }
+        writeLock.lock();
+        try {
+            closeWriteChannel();
+            lockChannel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Diccionario en memoria de los valores que se repiten entre equipos:
+ * frases fijas del registro de actividades, propietarios, correos,
+ * teléfonos, técnicos y análisis frecuentes.
+ *
+ * Cada valor distinto se conserva una sola vez y los equipos referencian
+ * esa misma instancia, en lugar de una copia por registro decodificado.
+ * Un valor entra al diccionario la segunda vez que se ve: la primera solo
+ * se recuerda su hash en una tabla fija, así las cadenas únicas (como
+ * "Equipo recibido en el sistema: ..." con el problema de cada equipo)
+ * no ocupan entradas. Al llegar al límite (-Dwarranty.dictionaryLimit)
+ * se dejan de agregar valores; -Dwarranty.stringDictionary=false lo
+ * desactiva por completo.
+ */
+public final class StringDictionary {
+    static final int DEFAULT_LIMIT = Integer.getInteger("warranty.dictionaryLimit", 200_000);
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("warranty.stringDictionary"));
+    private static final int ADMISSION_SLOTS = 1 << 16;
+
+    private static volatile StringDictionary shared = new StringDictionary(ENABLED, DEFAULT_LIMIT);
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+    // Hash de valores vistos una sola vez; una carrera entre hilos solo retrasa una admisión
+    private final int[] seenOnce = new int[ADMISSION_SLOTS];
+    private final boolean enabled;
+    private final int limit;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    StringDictionary(boolean enabled, int limit) {
+        this.enabled = enabled;
+        this.limit = limit;
+    }
+
+    /**
+     * @return Instancia compartida del valor (o el mismo valor si aún no se repitió)
+     */
+    static String intern(String value) {
+        return shared.canonical(value);
+    }
+
+    static StringDictionary getShared() {
+        return shared;
+    }
+
+    /**
+     * Reemplaza el diccionario compartido; lo usa la medición de memoria
+     * para comparar la carga con y sin diccionario
+     */
+    static void replaceShared(StringDictionary dictionary) {
+        shared = dictionary;
+    }
+
+    String canonical(String value) {
+        if (!enabled || value == null) {
+            return value;
+        }
+        lookups.increment();
+        String existing = values.get(value);
+        if (existing != null) {
+            if (existing != value) {
+                reused.increment();
+            }
+            return existing;
+        }
+
+        int hash = value.hashCode();
+        int fingerprint = hash | 1;
+        int slot = (hash ^ (hash >>> 16)) & (ADMISSION_SLOTS - 1);
+        if (seenOnce[slot] != fingerprint) {
+            seenOnce[slot] = fingerprint;
+            return value;
+        }
+        if (values.size() >= limit) {
+            return value;
+        }
+        existing = values.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Valores distintos conservados
+     */
+    public int size() {
+        return values.size();
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return Consultas que devolvieron la instancia compartida en lugar de una copia
+     */
+    public long getReused() {
+        return reused.sum();
+    }
+}
@@ -0,0 +1,365 @@
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asignación de reparaciones a técnicos con robo de trabajo.
+ *
+ * Cada técnico tiene una cola doble de reparaciones asignadas. Los equipos
+ * de la cola de reparación se toman ({@link WorkflowEngine#claimNext}) y
+ * se asignan al técnico con menos carga entre los que tienen alguna
+ * especialidad mencionada en el análisis técnico; si el análisis no
+ * menciona ninguna especialidad, cualquier técnico puede atenderlo. Solo
+ * se asigna por adelantado una ventana limitada de equipos por técnico,
+ * el resto espera en la cola de reparación.
+ *
+ * El técnico atiende primero el inicio de su propia cola. Si está vacía,
+ * roba del final de la cola del técnico más cargado un equipo para el que
+ * tenga la especialidad requerida.
+ *
+ * Las asignaciones viven solo en memoria: los equipos asignados siguen
+ * tomados en la cola de reparación, de modo que se guardan en los
+ * respaldos y, tras un reinicio, vuelven a estar pendientes.
+ *
+ * Los técnicos se configuran con -Dwarranty.technicians, por ejemplo
+ * "ana:pantalla,bateria;luis:teclado;carla" (carla sin especialidades).
+ */
+public class TechnicianScheduler {
+    // Reparaciones asignadas por adelantado a cada técnico
+    private static final int ASSIGNMENT_WINDOW = Integer.getInteger("warranty.assignmentWindow", 4);
+
+    /**
+     * Equipo asignado y especialidades que requiere su análisis
+     */
+    private static final class Assignment {
+        final Device device;
+        final Set<String> requiredSkills;
+
+        Assignment(Device device, Set<String> requiredSkills) {
+            this.device = device;
+            this.requiredSkills = requiredSkills;
+        }
+    }
+
+    /**
+     * Técnico, sus especialidades y su carga; la cola y el contador de
+     * trabajos en curso se protegen con el monitor del técnico
+     */
+    private static final class Technician {
+        final String id;
+        final Set<String> skills;
+        final Deque<Assignment> assigned = new ArrayDeque<>();
+        int inProgress;
+        long completed;
+
+        Technician(String id, Set<String> skills) {
+            this.id = id;
+            this.skills = skills;
+        }
+
+        synchronized int load() {
+            return assigned.size() + inProgress;
+        }
+
+        synchronized int pending() {
+            return assigned.size();
+        }
+
+        synchronized void assign(Assignment assignment) {
+            assigned.addLast(assignment);
+        }
+
+        synchronized Assignment takeOwn() {
+            Assignment assignment = assigned.pollFirst();
+            if (assignment != null) {
+                inProgress++;
+            }
+            return assignment;
+        }
+
+        /**
+         * Quita del final de la cola el primer equipo que el otro técnico puede atender
+         */
+        synchronized Assignment stealFor(Technician thief) {
+            Iterator<Assignment> candidates = assigned.descendingIterator();
+            while (candidates.hasNext()) {
+                Assignment assignment = candidates.next();
+                if (thief.canRepair(assignment)) {
+                    candidates.remove();
+                    return assignment;
+                }
+            }
+            return null;
+        }
+
+        synchronized void started() {
+            inProgress++;
+        }
+
+        synchronized void finished(boolean repaired) {
+            inProgress--;
+            if (repaired) {
+                completed++;
+            }
+        }
+
+        boolean canRepair(Assignment assignment) {
+            if (assignment.requiredSkills.isEmpty()) {
+                return true;
+            }
+            for (String skill : assignment.requiredSkills) {
+                if (skills.contains(skill)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final WorkflowEngine engine;
+    private final Map<String, Technician> technicians = new LinkedHashMap<>();
+    private final Set<String> allSkills = new LinkedHashSet<>();
+    private final Object dispatchLock = new Object();
+    private final AtomicInteger assignedCount = new AtomicInteger();
+    private final AtomicLong steals = new AtomicLong();
+
+    /**
+     * @param engine Motor del flujo de trabajo
+     * @param skillsByTechnician Especialidades de cada técnico, por identificación
+     */
+    public TechnicianScheduler(WorkflowEngine engine, Map<String, Set<String>> skillsByTechnician) {
+        if (skillsByTechnician.isEmpty()) {
+            throw new IllegalArgumentException("Debe configurar al menos un técnico");
+        }
+        this.engine = engine;
+        for (Map.Entry<String, Set<String>> entry : skillsByTechnician.entrySet()) {
+            Set<String> skills = new LinkedHashSet<>();
+            for (String skill : entry.getValue()) {
+                skills.add(normalize(skill));
+            }
+            technicians.put(normalize(entry.getKey()), new Technician(entry.getKey(), skills));
+            allSkills.addAll(skills);
+        }
+    }
+
+    /**
+     * Crea el planificador con los técnicos de -Dwarranty.technicians
+     *
+     * @return Planificador, o null si no hay técnicos configurados
+     */
+    public static TechnicianScheduler fromConfiguration(WorkflowEngine engine) {
+        String configuration = System.getProperty("warranty.technicians", "");
+        if (configuration.isBlank()) {
+            return null;
+        }
+        return new TechnicianScheduler(engine, parseTechnicians(configuration));
+    }
+
+    /**
+     * Interpreta "tecnico:especialidad,especialidad;tecnico..."
+     */
+    static Map<String, Set<String>> parseTechnicians(String configuration) {
+        Map<String, Set<String>> skillsByTechnician = new LinkedHashMap<>();
+        for (String entry : configuration.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split(":", 2);
+            Set<String> skills = new LinkedHashSet<>();
+            if (parts.length > 1) {
+                for (String skill : parts[1].split(",")) {
+                    if (!skill.isBlank()) {
+                        skills.add(skill.trim());
+                    }
+                }
+            }
+            skillsByTechnician.put(parts[0].trim(), skills);
+        }
+        return skillsByTechnician;
+    }
+
+    /**
+     * @return Identificación registrada del técnico, o null si no está configurado
+     */
+    public String technicianId(String technicianId) {
+        Technician technician = technicians.get(normalize(technicianId));
+        return technician == null ? null : technician.id;
+    }
+
+    /**
+     * Entrega al técnico la siguiente reparación: primero de su propia
+     * cola y, si está vacía, robando a otro técnico. Debe terminarse con
+     * {@link #finishRepair} o devolverse con {@link #release}.
+     *
+     * @return Equipo a reparar, o null si no hay equipos que pueda atender
+     */
+    public Device nextRepair(String technicianId) {
+        Technician technician = require(technicianId);
+        while (true) {
+            dispatch();
+            Assignment assignment = technician.takeOwn();
+            if (assignment == null) {
+                assignment = steal(technician);
+            }
+            if (assignment == null) {
+                return null;
+            }
+            assignedCount.decrementAndGet();
+            if (engine.isClaimed(assignment.device, DeviceState.IN_REPAIR)) {
+                return assignment.device;
+            }
+            // El equipo se eliminó mientras esperaba asignado
+            technician.finished(false);
+        }
+    }
+
+    /**
+     * Registra la reparación a nombre del técnico que la atendió
+     */
+    public void finishRepair(String technicianId, Device device, String repairWork) {
+        Technician technician = require(technicianId);
+        try {
+            engine.finishRepair(device, repairWork, technician.id);
+        } finally {
+            technician.finished(true);
+        }
+    }
+
+    /**
+     * Devuelve a la cola de reparación un equipo que el técnico no terminó;
+     * se volverá a asignar en la siguiente solicitud
+     */
+    public void release(String technicianId, Device device) {
+        Technician technician = require(technicianId);
+        try {
+            engine.release(device, DeviceState.IN_REPAIR);
+        } finally {
+            technician.finished(false);
+        }
+    }
+
+    /**
+     * @return Carga actual de cada técnico (asignadas más en curso)
+     */
+    public Map<String, Integer> workload() {
+        Map<String, Integer> workload = new LinkedHashMap<>();
+        for (Technician technician : technicians.values()) {
+            workload.put(technician.id, technician.load());
+        }
+        return workload;
+    }
+
+    /**
+     * @return Reparaciones asignadas al técnico que aún no inicia
+     */
+    public int pendingFor(String technicianId) {
+        return require(technicianId).pending();
+    }
+
+    public long getSteals() {
+        return steals.get();
+    }
+
+    /**
+     * Toma equipos de la cola de reparación hasta llenar la ventana de
+     * asignación y los reparte por especialidad y carga
+     */
+    private void dispatch() {
+        int capacity = technicians.size() * ASSIGNMENT_WINDOW;
+        if (assignedCount.get() >= capacity) {
+            return;
+        }
+        synchronized (dispatchLock) {
+            while (assignedCount.get() < capacity) {
+                Device device = engine.claimNext(DeviceState.IN_REPAIR);
+                if (device == null) {
+                    return;
+                }
+                Assignment assignment = new Assignment(device, requiredSkills(device));
+                leastLoaded(assignment).assign(assignment);
+                assignedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private Technician leastLoaded(Assignment assignment) {
+        Technician best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Technician technician : technicians.values()) {
+            if (!technician.canRepair(assignment)) {
+                continue;
+            }
+            int load = technician.load();
+            if (load < bestLoad) {
+                best = technician;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Roba del técnico más cargado; si no tiene nada que el ladrón pueda
+     * atender, prueba con el siguiente
+     */
+    private Assignment steal(Technician thief) {
+        List<Technician> victims = new ArrayList<>(technicians.values());
+        victims.remove(thief);
+        victims.sort((first, second) -> Integer.compare(second.pending(), first.pending()));
+        for (Technician victim : victims) {
+            Assignment assignment = victim.stealFor(thief);
+            if (assignment != null) {
+                thief.started();
+                steals.incrementAndGet();
+                return assignment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Especialidades configuradas que menciona el análisis técnico; vacío
+     * si el equipo puede atenderlo cualquier técnico
+     */
+    private Set<String> requiredSkills(Device device) {
+        String analysis = device.getTechnicalAnalysis();
+        if (analysis == null || allSkills.isEmpty()) {
+            return Collections.emptySet();
+        }
+        String normalized = normalize(analysis);
+        Set<String> required = new LinkedHashSet<>();
+        for (String skill : allSkills) {
+            if (normalized.contains(skill)) {
+                required.add(skill);
+            }
+        }
+        return required;
+    }
+
+    private Technician require(String technicianId) {
+        Technician technician = technicians.get(normalize(technicianId));
+        if (technician == null) {
+            throw new IllegalArgumentException("Técnico no registrado: " + technicianId);
+        }
+        return technician;
+    }
+
+    /**
+     * Minúsculas y sin tildes, para comparar especialidades con el análisis
+     */
+    static String normalize(String value) {
+        String decomposed = Normalizer.normalize(value.trim(), Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+    }
+}
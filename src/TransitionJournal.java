@@ -0,0 +1,415 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de transiciones de solo anexado (write-ahead journal).
+ * Cada operación sobre un dispositivo se registra como una entrada
+ * independiente, de modo que el costo de persistir una transición
+ * depende del tamaño del dispositivo y no del total del sistema.
+ *
+ * Formato de cada entrada:
+ * [int longitud][long secuencia][byte operación][byte estado origen]
+ * [byte estado destino][contenido][int CRC32]
+ *
+ * El contenido es la imagen del dispositivo codificada con
+ * {@link DeviceCodec}, también en las eliminaciones (su imagen final).
+ */
+public class TransitionJournal implements Closeable {
+    /**
+     * Tipos de operación registrados en el diario
+     */
+    enum Operation {
+        INTAKE,
+        TRANSITION,
+        UPDATE,
+        REMOVAL
+    }
+
+    /**
+     * Recibe las entradas leídas por {@link #readEntries}
+     */
+    @FunctionalInterface
+    interface EntryHandler {
+        /**
+         * @param fromState Estado de origen, o null
+         * @param toState Estado de destino, o null
+         * @param payload Dispositivo codificado con {@link DeviceCodec#encodeDevice}
+         */
+        void accept(long sequence, Operation operation, DeviceState fromState, DeviceState toState,
+            byte[] payload) throws IOException;
+    }
+
+    private static final byte NO_STATE = -1;
+
+    private final Path journalPath;
+    private final Path rotatedPath;
+    private FileChannel channel;
+    private long lastSequence;
+    // Bytes válidos del diario actual; lo que sigue se descarta al volver a abrirlo para escribir
+    private long validLength = -1;
+    // Error al forzar entradas anteriores de un canal descartado; lo recibe el próximo force()
+    private IOException abandonedForceError;
+
+    public TransitionJournal(Path journalPath, long lastSequence) {
+        this.journalPath = journalPath;
+        this.rotatedPath = journalPath.resolveSibling(journalPath.getFileName() + ".old");
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Codifica una entrada y le asigna el siguiente número de secuencia.
+     * Se invoca en el hilo que produce la transición, de modo que la
+     * imagen del dispositivo es consistente; la escritura la realiza
+     * posteriormente {@link PersistenceWriter} en el orden de secuencia.
+     *
+     * @param operation Tipo de operación
+     * @param device Dispositivo afectado
+     * @param fromState Estado de origen (null para ingresos)
+     * @param toState Estado de destino (null para eliminaciones)
+     * @return Entrada lista para escribir
+     */
+    public synchronized ByteBuffer encode(Operation operation, Device device,
+            DeviceState fromState, DeviceState toState) {
+        byte[] payload = encodeDevice(device);
+
+        long sequence = lastSequence + 1;
+        ByteBuffer entry = ByteBuffer.allocate(4 + 8 + 3 + payload.length + 4);
+        entry.putInt(8 + 3 + payload.length);
+        entry.putLong(sequence);
+        entry.put((byte) operation.ordinal());
+        entry.put(fromState == null ? NO_STATE : (byte) fromState.ordinal());
+        entry.put(toState == null ? NO_STATE : (byte) toState.ordinal());
+        entry.put(payload);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(entry.array(), 4, entry.position() - 4);
+        entry.putInt((int) checksum.getValue());
+        entry.flip();
+
+        lastSequence = sequence;
+        return entry;
+    }
+
+    /**
+     * Número de secuencia de una entrada generada por {@link #encode}
+     */
+    static long sequenceOf(ByteBuffer entry) {
+        return entry.getLong(4);
+    }
+
+    /**
+     * Escribe un lote de entradas con una sola operación de escritura agrupada
+     */
+    public synchronized void write(ByteBuffer[] entries) throws IOException {
+        FileChannel output = openChannel();
+        long start = output.size();
+        long remaining = 0;
+        for (ByteBuffer entry : entries) {
+            remaining += entry.remaining();
+        }
+        try {
+            while (remaining > 0) {
+                remaining -= output.write(entries);
+            }
+        } catch (IOException e) {
+            // Un lote a medias impediría recuperar las entradas que se escriban después
+            try {
+                output.truncate(start);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+                validLength = start;
+                channel = null;
+                // Las entradas de lotes anteriores siguen esperando su fsync
+                try {
+                    output.force(false);
+                } catch (IOException forceError) {
+                    abandonedForceError = forceError;
+                }
+                try {
+                    output.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fuerza a disco las entradas escritas hasta el momento
+     */
+    public synchronized void force() throws IOException {
+        if (abandonedForceError != null) {
+            IOException error = abandonedForceError;
+            abandonedForceError = null;
+            throw error;
+        }
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Cierra el diario actual y lo renombra para que pueda ser compactado
+     * en segundo plano mientras nuevas entradas continúan en un archivo limpio
+     *
+     * @return false si aún existe un diario rotado pendiente de compactar
+     */
+    public synchronized boolean rotate() throws IOException {
+        if (Files.exists(rotatedPath)) {
+            return false;
+        }
+        closeChannel();
+        if (Files.exists(journalPath)) {
+            Files.move(journalPath, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Elimina el diario rotado una vez que su contenido quedó incluido en una instantánea
+     */
+    public synchronized void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    /**
+     * Descarta todas las entradas (el estado completo ya fue persistido)
+     */
+    public synchronized void reset() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(rotatedPath);
+        Files.deleteIfExists(journalPath);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Avanza la secuencia hasta una entrada escrita por otro proceso, para
+     * que la siguiente entrada propia continúe la numeración común
+     */
+    synchronized void observeSequence(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    /**
+     * Lee las entradas completas y válidas desde una posición del archivo;
+     * se detiene en una entrada incompleta (aún en escritura) o corrupta
+     *
+     * @return Posición siguiente a la última entrada entregada
+     */
+    static long readEntries(FileChannel source, long position, EntryHandler handler) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        long size = source.size();
+        while (position + 4 <= size) {
+            lengthBuffer.clear();
+            readFully(source, lengthBuffer, position);
+            int length = lengthBuffer.getInt(0);
+            if (length < 11 || position + 4 + length + 4 > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + 4);
+            readFully(source, body, position + 4);
+            if (!dispatch(body, length, handler)) {
+                System.err.println("⚠️ Entrada corrupta en el diario, se detiene la lectura.");
+                break;
+            }
+            position += 4 + length + 4;
+        }
+        return position;
+    }
+
+    /**
+     * Entrega una entrada completa recibida fuera del archivo (por ejemplo,
+     * enviada por otro nodo), con el mismo formato que genera {@link #encode}
+     *
+     * @return false si la entrada está incompleta o corrupta
+     */
+    static boolean decodeEntry(byte[] entry, EntryHandler handler) throws IOException {
+        if (entry.length < 4) {
+            return false;
+        }
+        int length = ByteBuffer.wrap(entry).getInt(0);
+        if (length < 11 || entry.length != 4 + length + 4) {
+            return false;
+        }
+        return dispatch(ByteBuffer.wrap(entry, 4, length + 4).slice(), length, handler);
+    }
+
+    /**
+     * Verifica el CRC del cuerpo de una entrada y la entrega al receptor
+     */
+    private static boolean dispatch(ByteBuffer body, int length, EntryHandler handler) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(body.array(), body.arrayOffset(), length);
+        if ((int) checksum.getValue() != body.getInt(length)) {
+            return false;
+        }
+        long sequence = body.getLong(0);
+        Operation operation = Operation.values()[body.get(8)];
+        byte[] payload = new byte[length - 11];
+        System.arraycopy(body.array(), body.arrayOffset() + 11, payload, 0, payload.length);
+        handler.accept(sequence, operation, stateOf(body.get(9)), stateOf(body.get(10)), payload);
+        return true;
+    }
+
+    private static DeviceState stateOf(byte ordinal) {
+        return ordinal == NO_STATE ? null : DeviceState.values()[ordinal];
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Diario truncado");
+            }
+        }
+    }
+
+    /**
+     * Reaplica sobre las colas las entradas posteriores a la instantánea,
+     * primero las del diario rotado y luego las del diario actual
+     *
+     * @param workflowQueues Colas restauradas desde la instantánea
+     * @param snapshotSequence Última secuencia incluida en la instantánea
+     * @return Última secuencia aplicada
+     */
+    public synchronized long replay(Map<DeviceState, DeviceQueue> workflowQueues,
+            long snapshotSequence) {
+        // Ubica cada equipo por número de serie sin recorrer las colas en cada entrada
+        DeviceIndex index = DeviceIndex.build(workflowQueues);
+        long sequence = replayFile(rotatedPath, workflowQueues, index, snapshotSequence);
+        sequence = replayFile(journalPath, workflowQueues, index, sequence);
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    private long replayFile(Path path, Map<DeviceState, DeviceQueue> workflowQueues, DeviceIndex index,
+            long afterSequence) {
+        if (!Files.exists(path)) {
+            return afterSequence;
+        }
+
+        long sequence = afterSequence;
+        int applied = 0;
+        long valid = 0;
+        try (DataInputStream inputStream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            long remaining = Files.size(path);
+            while (true) {
+                int length;
+                try {
+                    length = inputStream.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // Una longitud dañada o de una escritura interrumpida no se usa para reservar memoria
+                if (length < 11 || length > remaining - 8) {
+                    System.err.println("⚠️ Entrada incompleta o corrupta al final del diario, se descarta.");
+                    break;
+                }
+                remaining -= 4 + length + 4;
+                byte[] body = new byte[length];
+                int checksumValue;
+                try {
+                    inputStream.readFully(body);
+                    checksumValue = inputStream.readInt();
+                } catch (EOFException e) {
+                    System.err.println("⚠️ Entrada incompleta al final del diario, se descarta.");
+                    break;
+                }
+
+                CRC32 checksum = new CRC32();
+                checksum.update(body);
+                if ((int) checksum.getValue() != checksumValue) {
+                    System.err.println("⚠️ Entrada corrupta en el diario, se detiene la recuperación.");
+                    break;
+                }
+                valid += 4 + length + 4;
+
+                ByteBuffer entry = ByteBuffer.wrap(body);
+                long entrySequence = entry.getLong();
+                if (entrySequence <= sequence) {
+                    continue;
+                }
+
+                Operation operation = Operation.values()[entry.get()];
+                entry.get(); // Estado de origen: informativo
+                byte toState = entry.get();
+                byte[] payload = new byte[entry.remaining()];
+                entry.get(payload);
+
+                applyEntry(workflowQueues, index, operation, toState, payload);
+                sequence = entrySequence;
+                applied++;
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Error al reaplicar el diario de transiciones: " + e.getMessage());
+            // Las entradas que no se pudieron aplicar se conservan en el archivo
+            valid = -1;
+        }
+
+        if (applied > 0) {
+            System.out.println("📒 " + applied + " transiciones recuperadas desde el diario.");
+        }
+        if (path.equals(journalPath) && valid >= 0) {
+            validLength = valid;
+        }
+        return sequence;
+    }
+
+    /**
+     * Reemplaza la versión anterior del equipo (si la hay) por la de la
+     * entrada; el índice mantiene ubicado cada número de serie en O(1)
+     */
+    private void applyEntry(Map<DeviceState, DeviceQueue> workflowQueues, DeviceIndex index,
+            Operation operation, byte toState, byte[] payload) throws IOException {
+        Device device = DeviceCodec.decodeDevice(payload);
+        Device previous = index.find(device.getIdentifier());
+        if (previous != null) {
+            index.queueOf(device.getIdentifier()).removeDevice(previous);
+        }
+
+        if (operation != Operation.REMOVAL && toState != NO_STATE) {
+            workflowQueues.get(DeviceState.values()[toState]).addDevice(device);
+        }
+    }
+
+    private static byte[] encodeDevice(Device device) {
+        return DeviceCodec.encodeDevice(device);
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (validLength >= 0 && channel.size() > validLength) {
+                // Restos de una escritura interrumpida: las entradas nuevas no deben quedar detrás
+                System.err.println("⚠️ Se descartan " + (channel.size() - validLength)
+                    + " bytes no recuperables al final del diario.");
+                channel.truncate(validLength);
+            }
+            validLength = -1;
+        }
+        return channel;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeChannel();
+    }
+}
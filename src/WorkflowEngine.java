@@ -0,0 +1,629 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Motor del flujo de trabajo para varios técnicos a la vez.
+ *
+ * Cada cola del flujo se protege con su propio monitor, de modo que los
+ * técnicos que trabajan en etapas distintas no se bloquean entre sí. Un
+ * técnico toma el primer equipo de una cola ({@link #claimNext}); el
+ * equipo sigue perteneciendo a esa cola mientras lo atiende, fuera de
+ * cualquier bloqueo. Al terminar, el equipo se agrega a la cola de destino
+ * y sale de la de origen con ambas colas bloqueadas (siempre en el orden
+ * de los estados, para evitar interbloqueos), por lo que un equipo nunca
+ * queda fuera de las colas ni aparece en dos a la vez.
+ *
+ * En modo durable, la entrada del diario se agrega con las colas
+ * bloqueadas, así el orden del diario coincide con el de los movimientos
+ * de cada equipo. Los cambios que registra el técnico al terminar
+ * (análisis, reparación, actividades) se aplican con las mismas colas
+ * bloqueadas, de modo que nunca se guarda un equipo modificado en la
+ * cola de origen.
+ *
+ * Con almacenamiento compartido, cada modificación ocurre dentro de una
+ * sección de escritura de {@link SharedStore} y un equipo tomado queda
+ * bloqueado para las demás estaciones hasta terminarse o devolverse.
+ */
+public class WorkflowEngine {
+    private static final Comparator<DeviceQueue> LOCK_ORDER =
+        Comparator.comparingInt(queue -> queue.getWorkflowState().ordinal());
+
+    private final Map<DeviceState, DeviceQueue> workflows;
+    private final DeviceIndex index;
+    private final boolean durable;
+    private final SharedStore shared;
+
+    /**
+     * @param workflows Colas del flujo de trabajo
+     * @param index Índice asociado a las colas (para rechazar números de serie repetidos)
+     * @param durable true para registrar actividad y transiciones en disco
+     */
+    public WorkflowEngine(Map<DeviceState, DeviceQueue> workflows, DeviceIndex index, boolean durable) {
+        this.workflows = workflows;
+        this.index = index;
+        this.durable = durable;
+        this.shared = durable ? DataManager.getSharedStore() : null;
+    }
+
+    /**
+     * Ingresa un equipo a la cola de recepción
+     *
+     * @return false si ya existe un equipo con ese número de serie
+     */
+    public boolean intake(Device device) {
+        return mutate(() -> {
+            DeviceQueue received = workflows.get(DeviceState.RECEIVED);
+            synchronized (received) {
+                if (index.contains(device.getIdentifier())) {
+                    return false;
+                }
+                received.addDevice(device);
+                device.recordActivity("Equipo ingresado al sistema");
+                journal(TransitionJournal.Operation.INTAKE, device, null, DeviceState.RECEIVED);
+            }
+            if (durable) {
+                DataManager.logDeviceActivity(device);
+                DataManager.compactIfNeeded(workflows);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Ingresa un lote de equipos a la cola de recepción en una sola
+     * operación: las entradas del diario se encolan juntas y se escriben
+     * en el mismo lote de persistencia
+     *
+     * @param devices Equipos a ingresar, en orden
+     * @param rejected Recibe los equipos cuyo número de serie ya existe
+     * @return Futuro que se completa cuando todo el lote es durable, o
+     *         null si no se ingresó ningún equipo
+     */
+    public CompletableFuture<Long> intakeBatch(List<Device> devices, List<Device> rejected) {
+        return mutate(() -> intakeAll(devices, rejected));
+    }
+
+    private CompletableFuture<Long> intakeAll(List<Device> devices, List<Device> rejected) {
+        DeviceQueue received = workflows.get(DeviceState.RECEIVED);
+        List<Device> accepted = new ArrayList<>(devices.size());
+        CompletableFuture<Long> durability = null;
+        synchronized (received) {
+            for (Device device : devices) {
+                if (index.contains(device.getIdentifier())) {
+                    rejected.add(device);
+                    continue;
+                }
+                received.addDevice(device);
+                device.recordActivity("Equipo ingresado al sistema");
+                // El escritor persiste las entradas en orden: la última cubre todo el lote
+                durability = journal(TransitionJournal.Operation.INTAKE, device, null, DeviceState.RECEIVED);
+                accepted.add(device);
+            }
+        }
+        if (durable) {
+            for (Device device : accepted) {
+                DataManager.logDeviceActivity(device);
+            }
+            DataManager.compactIfNeeded(workflows);
+        }
+        return durability;
+    }
+
+    /**
+     * Toma el siguiente equipo de la cola para atenderlo. Debe terminarse
+     * con {@link #complete} o devolverse con {@link #release}.
+     *
+     * @return Equipo tomado, o null si la cola está vacía
+     */
+    public Device claimNext(DeviceState state) {
+        DeviceQueue queue = workflows.get(state);
+        if (shared == null) {
+            return queue.claimNext();
+        }
+        shared.refresh();
+        // Los equipos que atiende otra estación vuelven a su posición al terminar la búsqueda
+        List<Device> busy = new ArrayList<>();
+        try {
+            Device device;
+            while ((device = queue.claimNext()) != null) {
+                if (!shared.tryLockRecord(device)) {
+                    busy.add(device);
+                    continue;
+                }
+                // Otra estación pudo moverlo justo antes del bloqueo
+                shared.refresh();
+                if (isClaimed(device, state)) {
+                    return device;
+                }
+                shared.unlockRecord(device);
+            }
+            return null;
+        } finally {
+            for (Device device : busy) {
+                queue.release(device);
+            }
+        }
+    }
+
+    /**
+     * Devuelve a su posición un equipo tomado que no se terminó de atender
+     *
+     * @return false si el equipo ya no estaba tomado desde esa cola
+     */
+    public boolean release(Device device, DeviceState from) {
+        boolean released = workflows.get(from).release(device);
+        if (shared != null) {
+            shared.unlockRecord(device);
+        }
+        return released;
+    }
+
+    /**
+     * @return true si el equipo sigue tomado desde esa cola (no se terminó,
+     *         devolvió ni eliminó)
+     */
+    public boolean isClaimed(Device device, DeviceState state) {
+        DeviceQueue queue = workflows.get(state);
+        synchronized (queue) {
+            return queue.isClaimed(device);
+        }
+    }
+
+    /**
+     * Termina la atención de un equipo tomado y lo ubica en la cola de
+     * destino de forma atómica
+     *
+     * @param device Equipo tomado con {@link #claimNext}
+     * @param from Estado desde el que se tomó
+     * @param to Estado de destino, o null si el equipo sale del sistema
+     * @return Futuro que se completa cuando la transición es durable, o
+     *         null si el equipo fue eliminado mientras se atendía
+     */
+    public CompletableFuture<Long> complete(Device device, DeviceState from, DeviceState to) {
+        return complete(device, from, to, null);
+    }
+
+    /**
+     * @param changes Cambios del equipo (análisis, actividades...) que se
+     *        aplican junto con el movimiento, con las colas bloqueadas; una
+     *        instantánea nunca ve el equipo modificado en la cola de origen
+     *        y no se aplican si el equipo se eliminó mientras se atendía
+     */
+    private CompletableFuture<Long> complete(Device device, DeviceState from, DeviceState to,
+            Runnable changes) {
+        try {
+            return shared == null ? finish(device, from, to, changes)
+                : shared.write(() -> finish(device, from, to, changes));
+        } catch (RuntimeException e) {
+            // Sin esto el equipo quedaría tomado hasta reiniciar; si ya se movió, no hay nada que devolver
+            workflows.get(from).release(device);
+            throw e;
+        } finally {
+            if (shared != null) {
+                shared.unlockRecord(device);
+            }
+        }
+    }
+
+    private CompletableFuture<Long> finish(Device device, DeviceState from, DeviceState to, Runnable changes) {
+        DeviceQueue source = workflows.get(from);
+        CompletableFuture<Long> durability;
+        if (to == null) {
+            synchronized (source) {
+                if (source.isClaimed(device)) {
+                    applyChanges(changes);
+                    source.finishClaim(device);
+                    // Antes del diario: la baja reinicia el registro de actividad del número de serie
+                    logActivity(device);
+                    durability = journal(TransitionJournal.Operation.REMOVAL, device, from, null);
+                } else {
+                    durability = null;
+                }
+            }
+        } else {
+            DeviceQueue target = workflows.get(to);
+            durability = withLocked(source, target, () -> {
+                if (!source.isClaimed(device)) {
+                    return null;
+                }
+                applyChanges(changes);
+                // Primero se agrega al destino: el índice nunca deja de ubicar el equipo
+                target.addDevice(device);
+                source.finishClaim(device);
+                // Con las colas bloqueadas nadie más puede tomar el equipo y agregar actividad
+                logActivity(device);
+                return journal(from == to ? TransitionJournal.Operation.UPDATE
+                    : TransitionJournal.Operation.TRANSITION, device, from, to);
+            });
+        }
+        if (durable) {
+            DataManager.compactIfNeeded(workflows);
+        }
+        return durability;
+    }
+
+    private static void applyChanges(Runnable changes) {
+        if (changes != null) {
+            changes.run();
+        }
+    }
+
+    /**
+     * Mueve de forma atómica un equipo en espera entre dos colas
+     *
+     * @return false si el equipo no estaba esperando en la cola de origen
+     */
+    public boolean move(Device device, DeviceState from, DeviceState to) {
+        return mutate(() -> withRecord(device, () -> transfer(device, from, to)));
+    }
+
+    private boolean transfer(Device device, DeviceState from, DeviceState to) {
+        DeviceQueue source = workflows.get(from);
+        DeviceQueue target = workflows.get(to);
+        boolean moved = withLocked(source, target, () -> {
+            if (!source.isQueued(device)) {
+                return false;
+            }
+            if (source == target) {
+                source.moveToBack(device);
+            } else {
+                target.addDevice(device);
+                source.removeDevice(device);
+            }
+            journal(from == to ? TransitionJournal.Operation.UPDATE
+                : TransitionJournal.Operation.TRANSITION, device, from, to);
+            return true;
+        });
+        if (moved && durable) {
+            DataManager.compactIfNeeded(workflows);
+        }
+        return moved;
+    }
+
+    /**
+     * Cambia la prioridad de un equipo en cualquier cola del flujo; en
+     * modo prioridad se reubica sin reconstruir la cola
+     *
+     * @return false si el equipo ya no está en el flujo
+     */
+    public boolean changePriority(Device device, ServicePriority priority) {
+        return changePriority(device, priority, -1);
+    }
+
+    /**
+     * Cambia la prioridad solo si el equipo no se modificó desde que el
+     * operador lo consultó
+     *
+     * @param expectedVersion Versión consultada, o -1 para no verificarla
+     * @return false si el equipo ya no está en el flujo
+     * @throws ConcurrentModificationException si el equipo cambió desde la
+     *         consulta o lo está atendiendo otra estación
+     */
+    public boolean changePriority(Device device, ServicePriority priority, long expectedVersion) {
+        return mutate(() -> withRecord(device, () -> {
+            checkVersion(device, expectedVersion);
+            return updatePriority(device, priority);
+        }));
+    }
+
+    private boolean updatePriority(Device device, ServicePriority priority) {
+        while (index.find(device.getIdentifier()) == device) {
+            DeviceQueue queue = index.queueOf(device.getIdentifier());
+            if (queue == null) {
+                break;
+            }
+            boolean updated;
+            synchronized (queue) {
+                boolean changed = device.getServicePriority() != priority;
+                updated = queue.updatePriority(device, priority);
+                if (updated && changed) {
+                    DeviceState state = queue.getWorkflowState();
+                    journal(TransitionJournal.Operation.UPDATE, device, state, state);
+                }
+            }
+            if (updated) {
+                if (durable) {
+                    DataManager.compactIfNeeded(workflows);
+                }
+                return true;
+            }
+            // El equipo cambió de cola entre la consulta y el bloqueo
+        }
+        return false;
+    }
+
+    /**
+     * Elimina el registro de un equipo en cualquier cola del flujo
+     *
+     * @param expectedVersion Versión consultada por el operador, o -1 para no verificarla
+     * @return Futuro que se completa cuando la eliminación es durable, o
+     *         null si el equipo ya no estaba en el flujo
+     * @throws ConcurrentModificationException si el equipo cambió desde la
+     *         consulta o lo está atendiendo otra estación
+     */
+    public CompletableFuture<Long> remove(Device device, long expectedVersion) {
+        CompletableFuture<Long> durability = mutate(() -> withRecord(device, () -> {
+            checkVersion(device, expectedVersion);
+            while (index.find(device.getIdentifier()) == device) {
+                DeviceQueue queue = index.queueOf(device.getIdentifier());
+                if (queue == null) {
+                    break;
+                }
+                synchronized (queue) {
+                    if (queue.removeDevice(device)) {
+                        return journal(TransitionJournal.Operation.REMOVAL, device, queue.getWorkflowState(), null);
+                    }
+                }
+            }
+            return null;
+        }));
+        if (durability != null && durable) {
+            DataManager.compactIfNeeded(workflows);
+        }
+        return durability;
+    }
+
+    /**
+     * Registra la evaluación técnica de un equipo tomado de recepción y lo
+     * envía a reparación o directamente a entrega
+     */
+    public CompletableFuture<Long> finishExamination(Device device, String technicalAnalysis,
+            boolean requiresRepair) {
+        DeviceState to = requiresRepair ? DeviceState.IN_REPAIR : DeviceState.READY_DELIVERY;
+        return complete(device, DeviceState.RECEIVED, to, () -> {
+            device.setTechnicalAnalysis(technicalAnalysis);
+            device.recordActivity("Evaluación técnica realizada: " + technicalAnalysis);
+            if (requiresRepair) {
+                device.recordActivity("Enviado a reparación", DeviceState.IN_REPAIR);
+            } else {
+                device.recordActivity("No requiere reparación. Listo para entrega", DeviceState.READY_DELIVERY);
+            }
+        });
+    }
+
+    /**
+     * Registra la reparación de un equipo tomado y lo envía a control de calidad
+     */
+    public CompletableFuture<Long> finishRepair(Device device, String repairWork, String technicianId) {
+        return complete(device, DeviceState.IN_REPAIR, DeviceState.QUALITY_CHECK, () -> {
+            device.setRepairWork(repairWork);
+            device.setTechnicianId(technicianId);
+            device.recordActivity("Reparación completada por " + technicianId + ": " + repairWork);
+        });
+    }
+
+    /**
+     * Registra el resultado del control de calidad: aprobado pasa a
+     * entrega y rechazado regresa a reparación
+     */
+    public CompletableFuture<Long> finishQualityCheck(Device device, boolean approved) {
+        if (approved) {
+            return complete(device, DeviceState.QUALITY_CHECK, DeviceState.READY_DELIVERY,
+                () -> device.recordActivity("Aprobado en control de calidad. Listo para entrega",
+                    DeviceState.READY_DELIVERY));
+        }
+        return complete(device, DeviceState.QUALITY_CHECK, DeviceState.IN_REPAIR,
+            () -> device.recordActivity("Rechazado en control de calidad. Regresado a reparación",
+                DeviceState.IN_REPAIR));
+    }
+
+    /**
+     * Entrega el equipo al cliente; si la entrega se cancela, vuelve al
+     * final de la cola de entrega
+     */
+    public CompletableFuture<Long> finishDelivery(Device device, boolean confirmed) {
+        if (confirmed) {
+            return complete(device, DeviceState.READY_DELIVERY, null,
+                () -> device.recordActivity("Equipo entregado al cliente"));
+        }
+        return complete(device, DeviceState.READY_DELIVERY, DeviceState.READY_DELIVERY);
+    }
+
+    /**
+     * Evalúa el siguiente equipo de recepción
+     *
+     * @return Equipo evaluado, o null si no había equipos pendientes
+     */
+    public Device examine(String technicalAnalysis, boolean requiresRepair) {
+        Device device = claimNext(DeviceState.RECEIVED);
+        if (device != null) {
+            finishExamination(device, technicalAnalysis, requiresRepair);
+        }
+        return device;
+    }
+
+    /**
+     * Repara el siguiente equipo de la cola de reparación
+     *
+     * @return Equipo reparado, o null si no había equipos en reparación
+     */
+    public Device repair(String repairWork, String technicianId) {
+        Device device = claimNext(DeviceState.IN_REPAIR);
+        if (device != null) {
+            finishRepair(device, repairWork, technicianId);
+        }
+        return device;
+    }
+
+    /**
+     * Verifica el siguiente equipo en control de calidad
+     *
+     * @return Equipo verificado, o null si no había equipos en control
+     */
+    public Device qualityCheck(boolean approved) {
+        Device device = claimNext(DeviceState.QUALITY_CHECK);
+        if (device != null) {
+            finishQualityCheck(device, approved);
+        }
+        return device;
+    }
+
+    /**
+     * Entrega el siguiente equipo listo
+     *
+     * @return Equipo entregado, o null si no había equipos listos
+     */
+    public Device deliver() {
+        Device device = claimNext(DeviceState.READY_DELIVERY);
+        if (device != null) {
+            finishDelivery(device, true);
+        }
+        return device;
+    }
+
+    /**
+     * Aplica un equipo modificado en otro proceso: actualiza en su lugar la
+     * copia local y la ubica en la cola indicada. Se ignora si la copia
+     * local ya tiene esa versión o una posterior, salvo que se fuerce.
+     *
+     * @return Equipo local que quedó en la cola
+     */
+    Device applyChange(Device newer, DeviceState state, boolean force) {
+        DeviceQueue target = workflows.get(state);
+        Device local = index.find(newer.getIdentifier());
+        DeviceQueue current = local == null ? null : index.queueOf(newer.getIdentifier());
+        if (local == null || current == null) {
+            synchronized (target) {
+                target.addDevice(newer);
+            }
+            return newer;
+        }
+        if (local.getVersion() >= newer.getVersion() && !force) {
+            return local;
+        }
+        withLocked(current, target, () -> {
+            if (current != target) {
+                local.refreshFrom(newer);
+                target.addDevice(local);
+                current.removeDevice(local);
+            } else if (local.getServicePriority() != newer.getServicePriority()) {
+                current.updatePriority(local, newer.getServicePriority());
+                local.refreshFrom(newer);
+            } else {
+                // Actualización dentro de la misma cola: el equipo pasó al final
+                local.refreshFrom(newer);
+                current.moveToBack(local);
+            }
+            return null;
+        });
+        return local;
+    }
+
+    /**
+     * Retira de las colas locales un equipo eliminado en otro proceso
+     */
+    void applyRemoval(String identifier) {
+        Device local = index.find(identifier);
+        DeviceQueue current = index.queueOf(identifier);
+        if (local != null && current != null) {
+            synchronized (current) {
+                current.removeDevice(local);
+            }
+        }
+    }
+
+    /**
+     * Reconcilia las colas locales con una instantánea de otro proceso: los
+     * equipos de la instantánea reemplazan a las copias locales y los que
+     * no aparecen en ella se retiran
+     */
+    void applySnapshot(Map<DeviceState, DeviceQueue> snapshotQueues) {
+        Set<String> present = new HashSet<>();
+        for (DeviceState state : DeviceState.values()) {
+            DeviceQueue queue = snapshotQueues.get(state);
+            if (queue == null) {
+                continue;
+            }
+            for (Device device : queue.getQueueList()) {
+                present.add(DeviceIndex.normalize(device.getIdentifier()));
+                applyChange(device, state, true);
+            }
+        }
+        for (DeviceQueue queue : workflows.values()) {
+            synchronized (queue) {
+                queue.removeDevicesIf(device -> !present.contains(DeviceIndex.normalize(device.getIdentifier())));
+            }
+        }
+    }
+
+    private static void checkVersion(Device device, long expectedVersion) {
+        if (expectedVersion >= 0 && device.getVersion() != expectedVersion) {
+            throw new ConcurrentModificationException(
+                "El equipo fue modificado en otra estación; consulte sus datos nuevamente");
+        }
+    }
+
+    /**
+     * Ejecuta una modificación de las colas; en modo compartido, dentro de
+     * una sección de escritura del diario común
+     */
+    private <T> T mutate(Supplier<T> action) {
+        return shared == null ? action.get() : shared.write(action);
+    }
+
+    /**
+     * Ejecuta la acción con el equipo bloqueado para las demás estaciones
+     */
+    private <T> T withRecord(Device device, Supplier<T> action) {
+        return shared == null ? action.get() : shared.withRecord(device, action);
+    }
+
+    private CompletableFuture<Long> journal(TransitionJournal.Operation operation, Device device,
+            DeviceState fromState, DeviceState toState) {
+        if (!durable) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return DataManager.appendOperation(operation, device, fromState, toState);
+    }
+
+    private void logActivity(Device device) {
+        if (durable) {
+            DataManager.logDeviceActivity(device);
+        }
+    }
+
+    /**
+     * Ejecuta la acción con las dos colas bloqueadas, en el orden de sus estados
+     */
+    static <T> T withLocked(DeviceQueue first, DeviceQueue second, Supplier<T> action) {
+        if (first == second) {
+            synchronized (first) {
+                return action.get();
+            }
+        }
+        DeviceQueue outer = LOCK_ORDER.compare(first, second) < 0 ? first : second;
+        DeviceQueue inner = outer == first ? second : first;
+        synchronized (outer) {
+            synchronized (inner) {
+                return action.get();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta la acción con todas las colas bloqueadas, en el orden de sus
+     * estados; sirve para tomar instantáneas consistentes entre colas
+     */
+    static <T> T withAllLocked(Collection<DeviceQueue> queues, Supplier<T> action) {
+        List<DeviceQueue> ordered = new ArrayList<>(queues);
+        ordered.sort(LOCK_ORDER);
+        return lockInOrder(ordered, 0, action);
+    }
+
+    private static <T> T lockInOrder(List<DeviceQueue> queues, int position, Supplier<T> action) {
+        if (position == queues.size()) {
+            return action.get();
+        }
+        synchronized (queues.get(position)) {
+            return lockInOrder(queues, position + 1, action);
+        }
+    }
+}